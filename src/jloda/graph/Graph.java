@@ -18,6 +18,7 @@
  */
 package jloda.graph;
 
+import jloda.graph.algorithms.ConnectedComponents;
 import jloda.phylo.PhyloGraph;
 import jloda.util.Basic;
 import jloda.util.INamed;
@@ -1667,25 +1668,14 @@ public class Graph extends GraphBase implements INamed {
         return new EdgeDoubleArray(this);
     }
 
+    /**
+     * computes the connected components, numbered 0,1,2... in order of first appearance in the node list
+     *
+     * @param components will contain the component number of each node
+     * @return number of components
+     */
     public int computeConnectedComponents(NodeIntArray components) {
-        components.clear();
-        var count=0;
-        for(var v:nodes()) {
-            if(components.get(v)==null) {
-                final Stack<Node> stack=new Stack<>();
-                stack.push(v);
-                while(stack.size()>0) {
-                    v=stack.pop();
-                    components.put(v,count);
-                    for(var u:v.adjacentNodes()) {
-                        if(components.get(u)==null)
-                            stack.add(u);
-                    }
-                }
-                count++;
-            }
-        }
-        return count;
+        return ConnectedComponents.compute(this, components);
     }
 
     /**
@@ -1749,25 +1739,7 @@ public class Graph extends GraphBase implements INamed {
      * @return the list of all sub graphs
      */
     public ArrayList<Graph> extractAllConnectedComponents(NodeArray<Node> src2tar) {
-        var component = newNodeIntArray();
-
-        var count = computeConnectedComponents(component);
-        var subGraphs = new ArrayList<Graph>(count);
-        var nodes = new ArrayList<Set<Node>>(count);
-
-            for (int i = 0; i < count; i++) {
-                var subGraph=new Graph();
-                subGraph.setName(String.valueOf(i+1));
-                subGraphs.add(subGraph);
-                nodes.add(new HashSet<>());
-            }
-            for(var v:nodes()) {
-                nodes.get(component.get(v)).add(v);
-            }
-            for(int c=0;c<count;c++){
-                src2tar.putAll(extract(nodes.get(c), null, subGraphs.get(c)));
-            }
-        return subGraphs;
+        return ConnectedComponents.extractAll(this, src2tar);
     }
 
     public boolean isSimple () {
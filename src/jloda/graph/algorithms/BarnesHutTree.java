@@ -0,0 +1,220 @@
+/*
+ * BarnesHutTree.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.graph.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * quad tree on flat arrays for Barnes-Hut approximation of repulsive forces.
+ * Each cell keeps the number of points below it and the sum of their coordinates, so that far-away cells
+ * can be treated as a single point of the corresponding mass.
+ * The tree is built on a single thread, after which any number of threads may query it.
+ * Daniel Huson, 10.2026
+ */
+public class BarnesHutTree {
+    private static final int NONE = -1;
+    private static final int MULTIPLE = -2;
+    private static final int MAX_DEPTH = 48;
+
+    private double[] cellMinX = new double[0];
+    private double[] cellMinY = new double[0];
+    private double[] cellSize = new double[0];
+    private double[] sumX = new double[0];
+    private double[] sumY = new double[0];
+    private int[] count = new int[0];
+    private int[] body = new int[0];
+    private int[] child = new int[0];
+    private int numberOfCells;
+
+    /**
+     * (re-)builds the tree for the given points. Arrays are reused between calls
+     *
+     * @param x x-coordinates
+     * @param y y-coordinates
+     * @param n number of points to use
+     */
+    public void build(float[] x, float[] y, int n) {
+        numberOfCells = 0;
+        if (n == 0)
+            return;
+
+        var minX = Double.MAX_VALUE;
+        var minY = Double.MAX_VALUE;
+        var maxX = -Double.MAX_VALUE;
+        var maxY = -Double.MAX_VALUE;
+        for (var v = 0; v < n; v++) {
+            minX = Math.min(minX, x[v]);
+            maxX = Math.max(maxX, x[v]);
+            minY = Math.min(minY, y[v]);
+            maxY = Math.max(maxY, y[v]);
+        }
+        var size = Math.max(Math.max(maxX - minX, maxY - minY), 1e-6) * 1.0001;
+        newCell(minX, minY, size);
+
+        for (var v = 0; v < n; v++) {
+            insert(v, x[v], y[v], x, y);
+        }
+    }
+
+    /**
+     * adds the repulsive force exerted on a point by all other points to the given force vector.
+     * A cell of width s at distance d is approximated by its center of mass if s/d is less than theta and the cell
+     * does not contain the point.
+     * A single point at distance d contributes a force of magnitude k2/d
+     *
+     * @param v      index of the point
+     * @param x      x-coordinate of the point
+     * @param y      y-coordinate of the point
+     * @param k2     squared optimal distance
+     * @param theta  opening angle, 0 gives the exact computation
+     * @param stack  work stack of at least {@link #getStackSize()} entries
+     * @param forceX x-components of forces, modified at index v
+     * @param forceY y-components of forces, modified at index v
+     */
+    public void addRepulsion(int v, float x, float y, float k2, float theta, int[] stack, float[] forceX, float[] forceY) {
+        if (numberOfCells == 0)
+            return;
+        var theta2 = (double) theta * theta;
+        var fx = 0.0;
+        var fy = 0.0;
+        var top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            var c = stack[--top];
+            var m = count[c];
+            if (m == 0 || body[c] == v)
+                continue;
+            var cx = sumX[c];
+            var cy = sumY[c];
+            if (body[c] == MULTIPLE && contains(c, x, y)) { // remove the point itself from a leaf of coincident points
+                m--;
+                cx -= x;
+                cy -= y;
+                if (m == 0)
+                    continue;
+            }
+            var dx = x - cx / m;
+            var dy = y - cy / m;
+            var d2 = dx * dx + dy * dy;
+            // a cell that contains the point itself is always opened, so that the point does not repel itself:
+            if (body[c] != NONE || (cellSize[c] * cellSize[c] < theta2 * d2 && !contains(c, x, y))) {
+                if (d2 > 0) {
+                    var f = k2 * m / d2; // (k2 * m / d) * (1 / d) to obtain unit direction
+                    fx += dx * f;
+                    fy += dy * f;
+                }
+            } else {
+                for (var q = 4 * c; q < 4 * c + 4; q++) {
+                    if (child[q] != NONE)
+                        stack[top++] = child[q];
+                }
+            }
+        }
+        forceX[v] += (float) fx;
+        forceY[v] += (float) fy;
+    }
+
+    /**
+     * size of work stack required by {@link #addRepulsion}
+     */
+    public static int getStackSize() {
+        return 3 * MAX_DEPTH + 5;
+    }
+
+    public int getNumberOfCells() {
+        return numberOfCells;
+    }
+
+    private void insert(int v, float x, float y, float[] xs, float[] ys) {
+        var c = 0;
+        var depth = 0;
+        while (true) {
+            if (count[c] == 0 || body[c] != NONE) { // leaf
+                if (count[c] == 0) {
+                    body[c] = v;
+                    addMass(c, x, y);
+                    return;
+                }
+                if (depth >= MAX_DEPTH || body[c] == MULTIPLE) {
+                    body[c] = MULTIPLE;
+                    addMass(c, x, y);
+                    return;
+                }
+                // split leaf, moving its point down one level:
+                var b = body[c];
+                body[c] = NONE;
+                var bc = getOrCreateChild(c, xs[b], ys[b]);
+                body[bc] = b;
+                addMass(bc, xs[b], ys[b]);
+            }
+            addMass(c, x, y);
+            c = getOrCreateChild(c, x, y);
+            depth++;
+        }
+    }
+
+    private int getOrCreateChild(int c, double x, double y) {
+        var half = 0.5 * cellSize[c];
+        var qx = (x >= cellMinX[c] + half ? 1 : 0);
+        var qy = (y >= cellMinY[c] + half ? 1 : 0);
+        var q = 4 * c + qx + 2 * qy;
+        if (child[q] == NONE) {
+            var minX = cellMinX[c] + qx * half;
+            var minY = cellMinY[c] + qy * half;
+            var created = newCell(minX, minY, half); // may reallocate arrays
+            child[q] = created;
+        }
+        return child[q];
+    }
+
+    private boolean contains(int c, double x, double y) {
+        return x >= cellMinX[c] && x <= cellMinX[c] + cellSize[c] && y >= cellMinY[c] && y <= cellMinY[c] + cellSize[c];
+    }
+
+    private void addMass(int c, double x, double y) {
+        count[c]++;
+        sumX[c] += x;
+        sumY[c] += y;
+    }
+
+    private int newCell(double minX, double minY, double size) {
+        if (numberOfCells == count.length) {
+            var capacity = Math.max(64, 2 * count.length);
+            cellMinX = Arrays.copyOf(cellMinX, capacity);
+            cellMinY = Arrays.copyOf(cellMinY, capacity);
+            cellSize = Arrays.copyOf(cellSize, capacity);
+            sumX = Arrays.copyOf(sumX, capacity);
+            sumY = Arrays.copyOf(sumY, capacity);
+            count = Arrays.copyOf(count, capacity);
+            body = Arrays.copyOf(body, capacity);
+            child = Arrays.copyOf(child, 4 * capacity);
+        }
+        var c = numberOfCells++;
+        cellMinX[c] = minX;
+        cellMinY[c] = minY;
+        cellSize[c] = size;
+        sumX[c] = 0;
+        sumY[c] = 0;
+        count[c] = 0;
+        body[c] = NONE;
+        Arrays.fill(child, 4 * c, 4 * c + 4, NONE);
+        return c;
+    }
+}
@@ -19,32 +19,31 @@
 
 package jloda.graph.algorithms;
 
-import jloda.graph.Graph;
-import jloda.graph.Node;
+import jloda.graph.*;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
 
 /**
  * connected components
  * Daniel Huson, 3.2021
  */
 public class ConnectedComponents {
+    /**
+     * below this number of nodes or edges, loops are run sequentially
+     */
+    private static final int PARALLEL_THRESHOLD = 10000;
+
     /**
      * gets the number of connected components of the graph
      *
      * @return connected components
      */
     public static int count(Graph graph) {
-        var result = 0;
-        var used = graph.newNodeSet();
-
-        for (var v : graph.nodes()) {
-            if (!used.contains(v)) {
-                collect(v, used);
-                result++;
-            }
-        }
-        return result;
+        return new Labeling(graph).count;
     }
 
     /**
@@ -52,11 +51,198 @@ public class ConnectedComponents {
      *
 	 */
     public static void collect(Node v, Set<Node> used) {
+        var stack = new ArrayDeque<Node>();
         used.add(v);
-        for (var e : v.adjacentEdges()) {
-            var w = e.getOpposite(v);
-            if (!used.contains(w))
-                collect(w, used);
+        stack.push(v);
+        while (!stack.isEmpty()) {
+            v = stack.pop();
+            for (var e : v.adjacentEdges()) {
+                var w = e.getOpposite(v);
+                if (used.add(w))
+                    stack.push(w);
+            }
+        }
+    }
+
+    /**
+     * computes the connected components using a concurrent union-find on the common fork-join pool.
+     * Components are numbered 0,1,2,... in the order in which their first node appears in the node list of the graph
+     *
+     * @param graph      the graph
+     * @param components will contain the component number for each node
+     * @return number of components
+     */
+    public static int compute(Graph graph, NodeIntArray components) {
+        components.clear();
+        var labeling = new Labeling(graph);
+        for (var i = 0; i < labeling.nodes.length; i++) {
+            components.set(labeling.nodes[i], labeling.label[i]);
+        }
+        return labeling.count;
+    }
+
+    /**
+     * extracts all connected components as new graphs. Components are determined using a concurrent union-find
+     * and the subgraphs are then constructed in parallel
+     *
+     * @param graph   the graph
+     * @param src2tar will contain the mapping of source nodes to nodes in the component graphs, if non-null
+     * @return list of component graphs, named 1,2,3...
+     */
+    public static ArrayList<Graph> extractAll(Graph graph, NodeArray<Node> src2tar) {
+        var labeling = new Labeling(graph);
+        var nodes = labeling.nodes;
+        var label = labeling.label;
+        var count = labeling.count;
+
+        // bucket node indices by component:
+        var nodeStart = new int[count + 1];
+        for (var c : label)
+            nodeStart[c + 1]++;
+        for (var c = 0; c < count; c++)
+            nodeStart[c + 1] += nodeStart[c];
+        var nodeOrder = new int[nodes.length];
+        {
+            var next = nodeStart.clone();
+            for (var i = 0; i < nodes.length; i++)
+                nodeOrder[next[label[i]]++] = i;
+        }
+
+        // bucket edges by component of source node:
+        var edges = labeling.edges;
+        var edgeStart = new int[count + 1];
+        for (var e = 0; e < edges.length; e++)
+            edgeStart[label[labeling.source[e]] + 1]++;
+        for (var c = 0; c < count; c++)
+            edgeStart[c + 1] += edgeStart[c];
+        var edgeOrder = new int[edgeStart[count]];
+        {
+            var next = edgeStart.clone();
+            for (var e = 0; e < edges.length; e++)
+                edgeOrder[next[label[labeling.source[e]]]++] = e;
+        }
+
+        var subGraphs = new Graph[count];
+        var tarNodes = new Node[nodes.length];
+
+        var range = IntStream.range(0, count);
+        if (nodes.length + edges.length >= PARALLEL_THRESHOLD)
+            range = range.parallel();
+        // each task only writes to its own graph and to the entries of tarNodes for its own nodes:
+        range.forEach(c -> {
+            var subGraph = new Graph();
+            subGraph.setName(String.valueOf(c + 1));
+            for (var k = nodeStart[c]; k < nodeStart[c + 1]; k++) {
+                var i = nodeOrder[k];
+                var srcNode = nodes[i];
+                var tarNode = subGraph.newNode();
+                tarNode.setLabel(srcNode.getLabel());
+                tarNode.setInfo(srcNode.getInfo());
+                tarNode.setData(srcNode.getData());
+                tarNodes[i] = tarNode;
+            }
+            for (var k = edgeStart[c]; k < edgeStart[c + 1]; k++) {
+                var e = edgeOrder[k];
+                var srcEdge = edges[e];
+                var tarEdge = subGraph.newEdge(tarNodes[labeling.source[e]], tarNodes[labeling.target[e]]);
+                tarEdge.setInfo(srcEdge.getInfo());
+                tarEdge.setLabel(srcEdge.getLabel());
+                tarEdge.setData(srcEdge.getData());
+            }
+            subGraphs[c] = subGraph;
+        });
+
+        if (src2tar != null) {
+            for (var i = 0; i < nodes.length; i++)
+                src2tar.put(nodes[i], tarNodes[i]);
+        }
+
+        var result = new ArrayList<Graph>(count);
+        for (var subGraph : subGraphs)
+            result.add(subGraph);
+        return result;
+    }
+
+    /**
+     * labeling of the nodes of a graph by connected component, computed by a lock-free union-find over edge arrays
+     */
+    private static class Labeling {
+        private final Node[] nodes;
+        private final Edge[] edges;
+        private final int[] source;
+        private final int[] target;
+        private final int[] label;
+        private final int count;
+
+        Labeling(Graph graph) {
+            nodes = graph.getNodesAsList().toArray(new Node[0]);
+            var id2index = new int[graph.getMaxNodeId() + 1];
+            for (var i = 0; i < nodes.length; i++)
+                id2index[nodes[i].getId()] = i;
+
+            edges = graph.getEdgesAsList().toArray(new Edge[0]);
+            source = new int[edges.length];
+            target = new int[edges.length];
+            for (var e = 0; e < edges.length; e++) {
+                source[e] = id2index[edges[e].getSource().getId()];
+                target[e] = id2index[edges[e].getTarget().getId()];
+            }
+
+            var parent = new AtomicIntegerArray(nodes.length);
+            for (var i = 0; i < nodes.length; i++)
+                parent.set(i, i);
+
+            var edgeRange = IntStream.range(0, edges.length);
+            if (edges.length >= PARALLEL_THRESHOLD)
+                edgeRange = edgeRange.parallel();
+            edgeRange.forEach(e -> union(parent, source[e], target[e]));
+
+            label = new int[nodes.length];
+            var nodeRange = IntStream.range(0, nodes.length);
+            if (nodes.length >= PARALLEL_THRESHOLD)
+                nodeRange = nodeRange.parallel();
+            nodeRange.forEach(i -> label[i] = find(parent, i));
+
+            // roots are the smallest index in each component, so a single pass numbers components by first appearance:
+            var c = 0;
+            for (var i = 0; i < nodes.length; i++) {
+                label[i] = (label[i] == i ? c++ : label[label[i]]);
+            }
+            count = c;
+        }
+
+        /**
+         * find with path halving. Parents always have smaller indices than their children
+         */
+        private static int find(AtomicIntegerArray parent, int x) {
+            while (true) {
+                var p = parent.get(x);
+                if (p == x)
+                    return x;
+                var gp = parent.get(p);
+                if (gp != p)
+                    parent.compareAndSet(x, p, gp);
+                x = gp;
+            }
+        }
+
+        /**
+         * lock-free union, always links the root with the larger index below the root with the smaller one
+         */
+        private static void union(AtomicIntegerArray parent, int a, int b) {
+            while (true) {
+                a = find(parent, a);
+                b = find(parent, b);
+                if (a == b)
+                    return;
+                if (a < b) {
+                    var tmp = a;
+                    a = b;
+                    b = tmp;
+                }
+                if (parent.compareAndSet(a, a, b))
+                    return;
+            }
         }
     }
 }
@@ -53,10 +53,15 @@ public class FruchtermanReingoldLayout {
     private static final float SPEED_DIVISOR = 800;
     private static final float AREA_MULTIPLICATOR = 10000;
 
+    public enum Repulsion {Exact, BarnesHut}
+
     //Properties
     private float area;
     private double gravity;
     private double speed;
+    private Repulsion repulsion = Repulsion.Exact;
+    private float theta = 0.8f;
+    private double convergenceThreshold = 0;
 
     // data
     private final Graph graph;
@@ -67,6 +72,8 @@ public class FruchtermanReingoldLayout {
 
     private final BitSet fixed;
 
+    private final BarnesHutTree barnesHutTree = new BarnesHutTree();
+
     /**
      * constructor. Do not change graph after calling the constructor
      */
@@ -91,16 +98,16 @@ public class FruchtermanReingoldLayout {
      */
     public FruchtermanReingoldLayout(Graph graph, NodeSet fixedNodes, NodeArray<APoint2D<?>> node2start) {
         this.graph = graph;
-        nodes = new Node[graph.getMaxNodeId()];
+        nodes = new Node[graph.getNumberOfNodes()];
         {
             int i = 0;
             for (var v : graph.nodes()) {
                 nodes[i++] = v;
             }
         }
-        edges = new int[2][graph.getMaxEdgeId()];
-        coordinates = new float[2][graph.getMaxNodeId()];
-        forceDelta = new float[2][graph.getMaxNodeId()];
+        edges = new int[2][graph.getNumberOfEdges()];
+        coordinates = new float[2][nodes.length];
+        forceDelta = new float[2][nodes.length];
         fixed = new BitSet();
 
         initialize(fixedNodes, node2start);
@@ -189,45 +196,42 @@ public class FruchtermanReingoldLayout {
     }
 
     /**
-     * apply the algorithm
+     * apply the algorithm. Stops early if a convergence threshold is set and the mean displacement of nodes drops below it
      *
 	 */
     public void apply(int numberOfIterations, NodeArray<APoint2D<?>> result, ProgressListener progress, int numberOfThreads) throws CanceledException {
         progress.setMaximum(numberOfIterations);
         progress.setProgress(0);
 
-        final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
+        final int threads = Math.max(1, Math.min(numberOfThreads, nodes.length));
+        final ExecutorService service = Executors.newFixedThreadPool(threads);
+
+        // each thread accumulates forces in its own arrays, these are summed up when the forces are applied
+        final float[][][] threadForceDelta = new float[threads][2][nodes.length];
+        final int[][] threadStack = new int[threads][BarnesHutTree.getStackSize()];
+        final double[] threadDisplacement = new double[threads];
 
         try {
             for (int i = 0; i < numberOfIterations; i++) {
                 speed = 100 * (1 - (double) i / numberOfIterations); // linear cooling
-                iterate(service, numberOfThreads, progress);
+                iterate(service, threads, threadForceDelta, threadStack, threadDisplacement, progress);
                 progress.incrementProgress();
-            }
 
-            {
-                final int threads = Math.min(numberOfThreads, nodes.length);
-                final CountDownLatch countDownLatch = new CountDownLatch(threads);
-
-                for (int t = 0; t < threads; t++) {
-                    final int thread = t;
-                    service.submit(() -> {
-                        try {
-                            for (int v = thread; v < nodes.length; v += threads) {
-                                result.put(nodes[v], new APoint2D<>(coordinates[0][v], coordinates[1][v]));
-                            }
-                        } finally {
-                            countDownLatch.countDown();
-                        }
-                    });
-                }
-                try {
-                    countDownLatch.await();
-                } catch (InterruptedException e) {
-                    Basic.caught(e);
+                if (convergenceThreshold > 0 && nodes.length > 0) {
+                    var displacement = 0.0;
+                    for (var d : threadDisplacement)
+                        displacement += d;
+                    if (displacement / nodes.length < convergenceThreshold)
+                        break;
                 }
-                progress.checkForCancel();
             }
+
+            runInParallel(service, threads, thread -> {
+                for (int v = thread; v < nodes.length; v += threads) {
+                    result.put(nodes[v], new APoint2D<>(coordinates[0][v], coordinates[1][v]));
+                }
+            });
+            progress.checkForCancel();
         } finally {
             service.shutdownNow();
         }
@@ -236,147 +240,128 @@ public class FruchtermanReingoldLayout {
     /**
      * run one iteration of the algorithm
      */
-    private void iterate(ExecutorService service, int numberOfThreads, ProgressListener progress) throws CanceledException {
+    private void iterate(ExecutorService service, int threads, float[][][] threadForceDelta, int[][] threadStack, double[] threadDisplacement, ProgressListener progress) throws CanceledException {
 
         float maxDisplace = (float) (Math.sqrt(AREA_MULTIPLICATOR * area) / 10f);
         float k = (float) Math.sqrt((AREA_MULTIPLICATOR * area) / (1f + nodes.length));
 
-        Arrays.fill(forceDelta[0], 0);
-        Arrays.fill(forceDelta[1], 0);
-
-        // repulsion
-        {
-            final int threads = Math.min(numberOfThreads, nodes.length);
-            final CountDownLatch countDownLatch = new CountDownLatch(threads);
-
-            for (int t = 0; t < threads; t++) {
-                final int thread = t;
-                service.submit(() -> {
-                    try {
-                        for (int v1 = thread; v1 < nodes.length; v1 += numberOfThreads) {
-                            for (int v2 = 0; v2 < nodes.length; v2++) {
-                                if (v1 != v2) {
-                                    float xDist = coordinates[0][v1] - coordinates[0][v2];
-                                    float yDist = coordinates[1][v1] - coordinates[1][v2];
-                                    float dist = (float) Math.sqrt(xDist * xDist + yDist * yDist);
-                                    if (dist > 0) {
-                                        float repulsiveF = k * k / dist;
-                                        forceDelta[0][v1] += xDist / dist * repulsiveF;
-                                        forceDelta[1][v1] += yDist / dist * repulsiveF;
-                                    }
-                                }
-                            }
-                            progress.checkForCancel();
-                        }
-                    } catch (CanceledException ignored) {
-                    } finally {
-                        countDownLatch.countDown();
-                    }
-                });
-            }
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                Basic.caught(e);
-            }
-            progress.checkForCancel();
-        }
-        // attraction
-        {
-            final int threads = Math.min(numberOfThreads, edges[0].length);
-            final CountDownLatch countDownLatch = new CountDownLatch(threads);
-
-            for (int t = 0; t < threads; t++) {
-                final int thread = t;
-                service.submit(() -> {
-                    try {
-                        for (int e = thread; e < edges[0].length; e += threads) {
-                            int v1 = edges[0][e];
-                            int v2 = edges[1][e];
+        if (repulsion == Repulsion.BarnesHut)
+            barnesHutTree.build(coordinates[0], coordinates[1], nodes.length);
+
+        // compute forces
+        runInParallel(service, threads, thread -> {
+            final float[] forceX = threadForceDelta[thread][0];
+            final float[] forceY = threadForceDelta[thread][1];
+            Arrays.fill(forceX, 0);
+            Arrays.fill(forceY, 0);
+
+            // repulsion
+            if (repulsion == Repulsion.BarnesHut) {
+                final int[] stack = threadStack[thread];
+                for (int v = thread; v < nodes.length; v += threads) {
+                    barnesHutTree.addRepulsion(v, coordinates[0][v], coordinates[1][v], k * k, theta, stack, forceX, forceY);
+                    if ((v / threads) % 1000 == 0)
+                        progress.checkForCancel();
+                }
+            } else {
+                for (int v1 = thread; v1 < nodes.length; v1 += threads) {
+                    for (int v2 = 0; v2 < nodes.length; v2++) {
+                        if (v1 != v2) {
                             float xDist = coordinates[0][v1] - coordinates[0][v2];
                             float yDist = coordinates[1][v1] - coordinates[1][v2];
                             float dist = (float) Math.sqrt(xDist * xDist + yDist * yDist);
                             if (dist > 0) {
-                                float attractiveF = dist * dist / k;
-                                forceDelta[0][v1] -= xDist / dist * attractiveF;
-                                forceDelta[1][v1] -= yDist / dist * attractiveF;
-                                forceDelta[0][v2] += xDist / dist * attractiveF;
-                                forceDelta[1][v2] += yDist / dist * attractiveF;
+                                float repulsiveF = k * k / dist;
+                                forceX[v1] += xDist / dist * repulsiveF;
+                                forceY[v1] += yDist / dist * repulsiveF;
                             }
                         }
-                    } finally {
-                        countDownLatch.countDown();
                     }
-                });
-            }
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                Basic.caught(e);
+                    progress.checkForCancel();
+                }
             }
-            progress.checkForCancel();
-        }
 
-        // gravity
-        if (gravity>0) {
-            final int threads = Math.min(numberOfThreads, nodes.length);
-            final CountDownLatch countDownLatch = new CountDownLatch(threads);
-
-            for (int t = 0; t < threads; t++) {
-                final int thread = t;
-                service.submit(() -> {
-                    try {
-                        for (int v = thread; v < nodes.length; v += threads) {
-                            float distSquared = (float) Math.sqrt(coordinates[0][v] * coordinates[0][v] + coordinates[1][v] * coordinates[1][v]);
-                            float gravityF = 0.01f * k * (float) gravity * distSquared;
-                            forceDelta[0][v] -= gravityF * coordinates[0][v] / distSquared;
-                            forceDelta[1][v] -= gravityF * coordinates[1][v] / distSquared;
-                        }
-                    } finally {
-                        countDownLatch.countDown();
-                    }
-                });
-            }
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                Basic.caught(e);
+            // attraction
+            for (int e = thread; e < edges[0].length; e += threads) {
+                int v1 = edges[0][e];
+                int v2 = edges[1][e];
+                float xDist = coordinates[0][v1] - coordinates[0][v2];
+                float yDist = coordinates[1][v1] - coordinates[1][v2];
+                float dist = (float) Math.sqrt(xDist * xDist + yDist * yDist);
+                if (dist > 0) {
+                    float attractiveF = dist * dist / k;
+                    forceX[v1] -= xDist / dist * attractiveF;
+                    forceY[v1] -= yDist / dist * attractiveF;
+                    forceX[v2] += xDist / dist * attractiveF;
+                    forceY[v2] += yDist / dist * attractiveF;
+                }
             }
-            progress.checkForCancel();
-        }
-
 
-        // apply the forces:
-        {
-            final int threads = Math.min(numberOfThreads, nodes.length);
-            final CountDownLatch countDownLatch = new CountDownLatch(threads);
-
-            for (int t = 0; t < threads; t++) {
-                final int thread = t;
-                service.submit(() -> {
-                    try {
-                        for (int v = thread; v < nodes.length; v += threads) {
-                            double xDist = forceDelta[0][v]* speed / SPEED_DIVISOR;
-                            double yDist = forceDelta[1][v]* speed / SPEED_DIVISOR;
-                            float dist = (float) Math.sqrt(xDist * xDist + yDist * yDist);
-                            if (dist > 0 && !fixed.get(v)) {
-                                float limitedDist = Math.min(maxDisplace * ((float) speed / SPEED_DIVISOR), dist);
-                                coordinates[0][v] += xDist / dist * limitedDist;
-                                coordinates[1][v] += yDist / dist * limitedDist;
-                            }
-                        }
-                    } finally {
-                        countDownLatch.countDown();
-                    }
-                });
+            // gravity
+            if (gravity > 0) {
+                for (int v = thread; v < nodes.length; v += threads) {
+                    float distSquared = (float) Math.sqrt(coordinates[0][v] * coordinates[0][v] + coordinates[1][v] * coordinates[1][v]);
+                    float gravityF = 0.01f * k * (float) gravity * distSquared;
+                    forceX[v] -= gravityF * coordinates[0][v] / distSquared;
+                    forceY[v] -= gravityF * coordinates[1][v] / distSquared;
+                }
             }
-            try {
-                countDownLatch.await();
-            } catch (InterruptedException e) {
-                Basic.caught(e);
+        });
+        progress.checkForCancel();
+
+        // sum up the forces and apply them:
+        runInParallel(service, threads, thread -> {
+            var displacement = 0.0;
+            for (int v = thread; v < nodes.length; v += threads) {
+                float fx = 0;
+                float fy = 0;
+                for (var t = 0; t < threads; t++) {
+                    fx += threadForceDelta[t][0][v];
+                    fy += threadForceDelta[t][1][v];
+                }
+                forceDelta[0][v] = fx;
+                forceDelta[1][v] = fy;
+
+                double xDist = fx * speed / SPEED_DIVISOR;
+                double yDist = fy * speed / SPEED_DIVISOR;
+                float dist = (float) Math.sqrt(xDist * xDist + yDist * yDist);
+                if (dist > 0 && !fixed.get(v)) {
+                    float limitedDist = Math.min(maxDisplace * ((float) speed / SPEED_DIVISOR), dist);
+                    coordinates[0][v] += xDist / dist * limitedDist;
+                    coordinates[1][v] += yDist / dist * limitedDist;
+                    displacement += limitedDist;
+                }
             }
-            progress.checkForCancel();
+            threadDisplacement[thread] = displacement;
+        });
+        progress.checkForCancel();
+    }
+
+    /**
+     * runs the given task once for each thread number 0..threads-1 and waits for all to finish
+     */
+    private static void runInParallel(ExecutorService service, int threads, ThreadTask task) {
+        final CountDownLatch countDownLatch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            service.submit(() -> {
+                try {
+                    task.run(thread);
+                } catch (CanceledException ignored) {
+                } finally {
+                    countDownLatch.countDown();
+                }
+            });
         }
+        try {
+            countDownLatch.await();
+        } catch (InterruptedException e) {
+            Basic.caught(e);
+        }
+    }
+
+    private interface ThreadTask {
+        void run(int thread) throws CanceledException;
     }
 
     public float getArea() {
@@ -402,4 +387,40 @@ public class FruchtermanReingoldLayout {
     public void setSpeed(double speed) {
         this.speed = speed;
     }
+
+    public Repulsion getRepulsion() {
+        return repulsion;
+    }
+
+    /**
+     * set the method used to compute repulsive forces. Exact takes quadratic time per iteration,
+     * BarnesHut uses a quad tree and takes O(n log n) time per iteration
+     */
+    public void setRepulsion(Repulsion repulsion) {
+        this.repulsion = repulsion;
+    }
+
+    public float getTheta() {
+        return theta;
+    }
+
+    /**
+     * set the Barnes-Hut opening angle. A cell is treated as a single body if its width divided by its distance is
+     * less than theta. Smaller values are more accurate, 0 is exact
+     */
+    public void setTheta(float theta) {
+        this.theta = theta;
+    }
+
+    public double getConvergenceThreshold() {
+        return convergenceThreshold;
+    }
+
+    /**
+     * set the threshold for the mean displacement of nodes in an iteration below which the layout is considered converged.
+     * A value of 0 (the default) disables early stopping
+     */
+    public void setConvergenceThreshold(double convergenceThreshold) {
+        this.convergenceThreshold = convergenceThreshold;
+    }
 }
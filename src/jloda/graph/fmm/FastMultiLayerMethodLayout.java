@@ -25,13 +25,14 @@ import jloda.util.IteratorUtils;
 import jloda.util.Single;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 
 /**
- * implementation of the fast multilayer method (note: without multipole algorithm)
+ * implementation of the fast multilayer method
  * Original C++ author: Stefan Hachul, original license: GPL
  * Reimplemented in Java by Daniel Huson, 3.2021
  */
@@ -109,12 +110,14 @@ public class FastMultiLayerMethodLayout {
     private static void callDivideAndConquerStep(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes) {
         int maxLevel = 30;
 
+        var random = new Random(options.getRandSeed());
+
         if (options.isUseSimpleAlgorithmForChainsAndCycles()) {
             var minDegree = graph.nodeStream().mapToInt(Node::getDegree).min().orElse(0);
             var maxDegree = graph.nodeStream().mapToInt(Node::getDegree).max().orElse(0);
-            if (minDegree == 1 && maxDegree == 2 && placeChain(options, graph, nodeAttributes, edgeAttributes))
+            if (minDegree == 1 && maxDegree == 2 && placeChain(options, graph, nodeAttributes, edgeAttributes, random))
                 return;
-            else if (minDegree == 2 && maxDegree == 2 && placeCycle(options, graph, nodeAttributes, edgeAttributes)) {
+            else if (minDegree == 2 && maxDegree == 2 && placeCycle(options, graph, nodeAttributes, edgeAttributes, random)) {
                 return;
             }
         }
@@ -131,12 +134,12 @@ public class FastMultiLayerMethodLayout {
         var box = new LayoutBox();
         for (int level = topLevel; level >= 0; level--) {
             if (level == topLevel) {
-                createInitialPlacement(options, multiLevelGraph[level], multiLevelNodeAttributes[level], multiLevelEdgeAttributes[level], box);
+                createInitialPlacement(options, multiLevelGraph[level], multiLevelNodeAttributes[level], multiLevelEdgeAttributes[level], box, random);
             } else {
-                MultiLevel.findInitialPlacementForLevel(level, options, multiLevelGraph, multiLevelNodeAttributes, multiLevelEdgeAttributes);
+                MultiLevel.findInitialPlacementForLevel(level, options, multiLevelGraph, multiLevelNodeAttributes, multiLevelEdgeAttributes, random);
                 box.update(multiLevelGraph[level], multiLevelNodeAttributes[level]);
             }
-            callForceCalculationStep(options, box, multiLevelGraph[level], multiLevelNodeAttributes[level], multiLevelEdgeAttributes[level], level, topLevel);
+            callForceCalculationStep(options, box, multiLevelGraph[level], multiLevelNodeAttributes[level], multiLevelEdgeAttributes[level], level, topLevel, random);
 
             if (options.getNumberOfChainSmoothingRounds() > 0)
                 smooth(options, multiLevelGraph[level], multiLevelNodeAttributes[level]);
@@ -145,14 +148,13 @@ public class FastMultiLayerMethodLayout {
         }
     }
 
-    private static boolean placeChain(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes) {
+    private static boolean placeChain(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, Random random) {
         var v = graph.nodeStream().filter(a -> a.getDegree() == 1).findAny().orElse(null);
         if (v == null)
             return false;
 
         var x = 0.0;
         var inEdge = (Edge) null;
-        var random = new Random();
 
         do {
             nodeAttributes.get(v).setPosition(x, 0.1 * options.getUnitEdgeLength() * random.nextDouble());
@@ -174,11 +176,10 @@ public class FastMultiLayerMethodLayout {
         return true;
     }
 
-    private static boolean placeCycle(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes) {
+    private static boolean placeCycle(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, Random random) {
         var total = graph.edgeStream().mapToDouble(e -> edgeAttributes.get(e).getLength()).sum();
         var v = graph.getFirstNode();
         var inEdge = (Edge) null;
-        var random = new Random();
         var part = 0.0;
         var radius = total / (2 * Math.PI);
         var x = Math.cos(0) * radius;
@@ -207,7 +208,7 @@ public class FastMultiLayerMethodLayout {
         return true;
     }
 
-    private static void callForceCalculationStep(FastMultiLayerMethodOptions options, LayoutBox layoutBox, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, int level, int maxLevel) {
+    private static void callForceCalculationStep(FastMultiLayerMethodOptions options, LayoutBox layoutBox, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, int level, int maxLevel, Random random) {
         final int ITERBOUND = 10000; //guarantees termination if stopCriterion() == Threshold
 
         if (graph.getNumberOfNodes() > 1) {
@@ -215,10 +216,8 @@ public class FastMultiLayerMethodLayout {
             var maxMultiIterations = getMaxMultiIterations(options, level, maxLevel, graph.getNumberOfNodes());
             var activeForceVectorLength = options.getThreshold() + 1.0;
 
-            NodeArray<DPoint> forces_rep = graph.newNodeArray();
-            NodeArray<DPoint> forces_attr = graph.newNodeArray();
-            NodeArray<DPoint> forces = graph.newNodeArray();
-            NodeArray<DPoint> lastNodeMovement = graph.newNodeArray(); //stores the force vectors F of the last iterations (needed to avoid oscillations)
+            // positions and forces are kept in arrays during the iterations, last node movement is needed to avoid oscillations
+            var arrays = new LevelArrays(graph, nodeAttributes, edgeAttributes, random);
 
             var averageIdealEdgeLength = computeAverageIdealEdgeLength(graph, edgeAttributes);//needed for easy scaling of the forces
 
@@ -226,28 +225,29 @@ public class FastMultiLayerMethodLayout {
             while (((options.getStopCriterion() == FastMultiLayerMethodOptions.StopCriterion.FixedIterations) && (iter <= maxMultiIterations))
                     || ((options.getStopCriterion() == FastMultiLayerMethodOptions.StopCriterion.Threshold) && (activeForceVectorLength >= options.getThreshold()) && iter <= ITERBOUND)
                     || ((options.getStopCriterion() == FastMultiLayerMethodOptions.StopCriterion.FixedIterationsOrThreshold) && (iter <= maxMultiIterations) && (activeForceVectorLength >= options.getThreshold()))) {
-                calculateForces(options, graph, layoutBox, averageIdealEdgeLength, coolFactor, nodeAttributes, edgeAttributes, forces, forces_attr, forces_rep, lastNodeMovement, iter, options.getFineTuningIterations());
+                calculateForces(options, layoutBox, averageIdealEdgeLength, coolFactor, arrays, iter, options.getFineTuningIterations());
                 if (options.getStopCriterion() != FastMultiLayerMethodOptions.StopCriterion.FixedIterations)
-                    activeForceVectorLength = getAverageLength(forces);
+                    activeForceVectorLength = getAverageLength(arrays.getForceX(), arrays.getForceY(), arrays.getNumberOfNodes());
                 iter++;
             }
+            arrays.storePositions(nodeAttributes);
 
             if (level == 0) {
                 fixTwistedSplits(graph, nodeAttributes);
-                callPostprocessingStep(options, graph, layoutBox, averageIdealEdgeLength, nodeAttributes, edgeAttributes, forces, forces_attr, forces_rep, lastNodeMovement);
+                arrays.loadPositions(nodeAttributes);
+                callPostprocessingStep(options, layoutBox, averageIdealEdgeLength, arrays);
+                arrays.storePositions(nodeAttributes);
             }
         }
     }
 
-    private static double getAverageLength(NodeArray<DPoint> points) {
+    private static double getAverageLength(double[] x, double[] y, int n) {
         var sum = 0.0;
-        var count = 0;
-        for (var point : points) {
-            sum += point.norm();
-            count++;
+        for (var i = 0; i < n; i++) {
+            sum += Math.sqrt(x[i] * x[i] + y[i] * y[i]);
         }
-        if (count > 0)
-            return sum / count;
+        if (n > 0)
+            return sum / n;
         else
             return 0;
     }
@@ -363,71 +363,79 @@ public class FastMultiLayerMethodLayout {
         }
     }
 
-    private static void callPostprocessingStep(FastMultiLayerMethodOptions options, Graph graph, LayoutBox layoutBox, double averageIdealEdgeLength, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, NodeArray<DPoint> F, NodeArray<DPoint> F_attr, NodeArray<DPoint> F_rep, NodeArray<DPoint> lastNodeMovement) {
+    private static void callPostprocessingStep(FastMultiLayerMethodOptions options, LayoutBox layoutBox, double averageIdealEdgeLength, LevelArrays arrays) {
         {
             var coolFactor = new Single<>(0f);
             for (int i = 1; i <= 10; i++)
-                calculateForces(options, graph, layoutBox, averageIdealEdgeLength, coolFactor, nodeAttributes, edgeAttributes, F, F_attr, F_rep, lastNodeMovement, i, 1);
+                calculateForces(options, layoutBox, averageIdealEdgeLength, coolFactor, arrays, i, 1);
         }
         if (options.isResizeDrawing()) {
-            adaptDrawingToIdealAverageEdgeLength(options, graph, nodeAttributes, edgeAttributes);
-            layoutBox.update(graph, nodeAttributes);
+            adaptDrawingToIdealAverageEdgeLength(options, arrays);
+            layoutBox.update(arrays.getX(), arrays.getY(), arrays.getNumberOfNodes());
         }
 
         {
             var coolFactor = new Single<>(0f);
             for (int i = 1; i <= options.getFineTuningIterations(); i++)
-                calculateForces(options, graph, layoutBox, averageIdealEdgeLength, coolFactor, nodeAttributes, edgeAttributes, F, F_attr, F_rep, lastNodeMovement, i, 2);
+                calculateForces(options, layoutBox, averageIdealEdgeLength, coolFactor, arrays, i, 2);
         }
 
         if (options.isResizeDrawing())
-            adaptDrawingToIdealAverageEdgeLength(options, graph, nodeAttributes, edgeAttributes);
+            adaptDrawingToIdealAverageEdgeLength(options, arrays);
 
     }
 
-    private static void adaptDrawingToIdealAverageEdgeLength(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes) {
+    private static void adaptDrawingToIdealAverageEdgeLength(FastMultiLayerMethodOptions options, LevelArrays arrays) {
+        var x = arrays.getX();
+        var y = arrays.getY();
+        var source = arrays.getSource();
+        var target = arrays.getTarget();
+        var edgeLength = arrays.getEdgeLength();
+
         var sumIdealEdgeLength = 0.0;
         var sumRealEdgeLength = 0.0;
 
-        for (var e : graph.edges()) {
-            sumIdealEdgeLength += edgeAttributes.get(e).getLength();
-            sumRealEdgeLength += nodeAttributes.get(e.getTarget()).getPosition().distance(nodeAttributes.get(e.getSource()).getPosition());
+        for (var e = 0; e < arrays.getNumberOfEdges(); e++) {
+            sumIdealEdgeLength += edgeLength[e];
+            var dx = x[target[e]] - x[source[e]];
+            var dy = y[target[e]] - y[source[e]];
+            sumRealEdgeLength += Math.sqrt(dx * dx + dy * dy);
         }
 
-        var scalingFactor = (sumRealEdgeLength == 0 ? 1.0 : sumIdealEdgeLength / sumRealEdgeLength);
+        var scalingFactor = options.getResizingScalar() * (sumRealEdgeLength == 0 ? 1.0 : sumIdealEdgeLength / sumRealEdgeLength);
 
-        for (var v : graph.nodes()) {
-            var va = nodeAttributes.get(v);
-            va.setPosition(options.getResizingScalar() * scalingFactor * va.getX(), options.getResizingScalar() * scalingFactor * va.getY());
+        for (var v = 0; v < arrays.getNumberOfNodes(); v++) {
+            x[v] *= scalingFactor;
+            y[v] *= scalingFactor;
         }
     }
 
-    private static void calculateForces(FastMultiLayerMethodOptions options, Graph graph, LayoutBox layoutBox, double averageIdealEdgeLength,
-                                        Single<Float> coolFactor, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes,
-                                        NodeArray<DPoint> forces, NodeArray<DPoint> forces_attr, NodeArray<DPoint> forces_rep,
-                                        NodeArray<DPoint> lastNodeMovement, int iter, int fineTuningStep) {
+    private static void calculateForces(FastMultiLayerMethodOptions options, LayoutBox layoutBox, double averageIdealEdgeLength,
+                                        Single<Float> coolFactor, LevelArrays arrays, int iter, int fineTuningStep) {
 
         if (options.getAllowedPositions() != FastMultiLayerMethodOptions.AllowedPositions.All)
-            makePositionsInteger(graph, layoutBox, averageIdealEdgeLength, nodeAttributes);
-
-        calculateAttractiveForces(options, graph, nodeAttributes, edgeAttributes, forces_attr);
-        calculateRepulsiveForces(options, graph, layoutBox, nodeAttributes, edgeAttributes, forces_rep);
-        addAttractiveRepulsiveForces(options, graph, layoutBox, averageIdealEdgeLength, coolFactor, forces_attr, forces_rep, forces, iter, fineTuningStep);
-        preventOscillations(graph, forces, lastNodeMovement, iter);
-        moveNodes(graph, nodeAttributes, forces);
-        layoutBox.update(graph, nodeAttributes);
+            makePositionsInteger(layoutBox, averageIdealEdgeLength, arrays);
+
+        calculateAttractiveForces(options, arrays);
+        calculateRepulsiveForces(options, layoutBox, arrays);
+        addAttractiveRepulsiveForces(options, layoutBox, averageIdealEdgeLength, coolFactor, arrays, iter, fineTuningStep);
+        preventOscillations(arrays, iter);
+        moveNodes(arrays);
+        layoutBox.update(arrays.getX(), arrays.getY(), arrays.getNumberOfNodes());
     }
 
-    private static void makePositionsInteger(Graph graph, LayoutBox layoutBox, double averageIdealEdgeLength, NodeArray<NodeAttributes> nodeAttributes) {
-        var maxIntegerPosition = 100 * averageIdealEdgeLength * graph.getNumberOfNodes() * graph.getNumberOfNodes();
+    private static void makePositionsInteger(LayoutBox layoutBox, double averageIdealEdgeLength, LevelArrays arrays) {
+        var n = arrays.getNumberOfNodes();
+        var x = arrays.getX();
+        var y = arrays.getY();
+        var maxIntegerPosition = 100 * averageIdealEdgeLength * n * n;
 
         //restrict positions to lie in [-max_integer_position,max_integer_position]
         //X [-max_integer_position,max_integer_position]
-        for (var v : graph.nodes()) {
-            var va = nodeAttributes.get(v);
-            if ((va.getX() > maxIntegerPosition) || (va.getY() > maxIntegerPosition) || (va.getX() < maxIntegerPosition * (-1.0)) || (va.getY() < maxIntegerPosition * (-1.0))) {
+        for (var v = 0; v < n; v++) {
+            if ((x[v] > maxIntegerPosition) || (y[v] > maxIntegerPosition) || (x[v] < maxIntegerPosition * (-1.0)) || (y[v] < maxIntegerPosition * (-1.0))) {
 
-                var oldPoint = new DPoint(va.getX(), va.getY());
+                var oldPoint = new DPoint(x[v], y[v]);
                 var lt = new DPoint(maxIntegerPosition * (-1.0), maxIntegerPosition);
                 var rt = new DPoint(maxIntegerPosition, maxIntegerPosition);
                 var lb = new DPoint(maxIntegerPosition * (-1.0), maxIntegerPosition * (-1.0));
@@ -440,23 +448,18 @@ public class FastMultiLayerMethodLayout {
                 var bottom_bound = new DLine(lb, rb);
 
                 var cross_point = new DPointMutable();
-                if (s.intersection(left_bound, cross_point)) {
-                    va.setPosition(cross_point);
-                } else if (s.intersection(right_bound, cross_point)) {
-                    va.setPosition(cross_point);
-                } else if (s.intersection(top_bound, cross_point)) {
-                    va.setPosition(cross_point);
-                } else if (s.intersection(bottom_bound, cross_point)) {
-                    va.setPosition(cross_point);
+                if (s.intersection(left_bound, cross_point) || s.intersection(right_bound, cross_point)
+                    || s.intersection(top_bound, cross_point) || s.intersection(bottom_bound, cross_point)) {
+                    x[v] = cross_point.getX();
+                    y[v] = cross_point.getY();
                 } else System.err.println("Error FMMMLayout:: makePositionsInteger()");
             }
         }
 
         //make positions integer
-        for (var v : graph.nodes()) {
-            var va = nodeAttributes.get(v);
-            var new_x = Math.floor(va.getX());
-            var new_y = Math.floor(va.getY());
+        for (var v = 0; v < n; v++) {
+            var new_x = Math.floor(x[v]);
+            var new_y = Math.floor(y[v]);
             if (new_x < layoutBox.getLeft()) {
                 layoutBox.setLength(layoutBox.getLength() + 2);
                 layoutBox.setLeft(layoutBox.getLeft() - 2);
@@ -465,52 +468,56 @@ public class FastMultiLayerMethodLayout {
                 layoutBox.setLength(layoutBox.getLength() + 2);
                 layoutBox.setDown(layoutBox.getLeft() - 2);
             }
-            va.setPosition(new_x, new_y);
+            x[v] = new_x;
+            y[v] = new_y;
         }
     }
 
-    private static void calculateAttractiveForces(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, NodeArray<DPoint> force) {
+    private static void calculateAttractiveForces(FastMultiLayerMethodOptions options, LevelArrays arrays) {
+        var x = arrays.getX();
+        var y = arrays.getY();
+        var source = arrays.getSource();
+        var target = arrays.getTarget();
+        var edgeLength = arrays.getEdgeLength();
+        var forceX = arrays.getAttractiveX();
+        var forceY = arrays.getAttractiveY();
+
         //initialisation
-        for (var v : graph.nodes())
-            force.put(v, DPoint.ORIGIN);
+        Arrays.fill(forceX, 0);
+        Arrays.fill(forceY, 0);
 
         //calculation
-        for (var e : graph.edges()) {
-            var u = e.getSource();
-            var v = e.getTarget();
-            var vector_v_minus_u = nodeAttributes.get(v).getPosition().subtract(nodeAttributes.get(u).getPosition());
-            var norm_v_minus_u = vector_v_minus_u.norm();
-            DPoint fu;
-            if (vector_v_minus_u.equals(DPoint.ORIGIN))
-                fu = DPoint.ORIGIN;
-            else // if(!N.f_near_machine_precision(norm_v_minus_u,f_u))
-            {
-                var scalar = attractionScalar(options, norm_v_minus_u, edgeAttributes.get(e).getLength()) / norm_v_minus_u;
-                fu = new DPoint(scalar * vector_v_minus_u.getX(), scalar * vector_v_minus_u.getY());
+        for (var e = 0; e < arrays.getNumberOfEdges(); e++) {
+            var u = source[e];
+            var v = target[e];
+            var dx = x[v] - x[u];
+            var dy = y[v] - y[u];
+            if (dx != 0 || dy != 0) {
+                var norm_v_minus_u = Math.sqrt(dx * dx + dy * dy);
+                var scalar = attractionScalar(options, norm_v_minus_u, edgeLength[e]) / norm_v_minus_u;
+                forceX[v] -= scalar * dx;
+                forceY[v] -= scalar * dy;
+                forceX[u] += scalar * dx;
+                forceY[u] += scalar * dy;
             }
-            force.put(v, force.get(v).subtract(fu));
-            force.put(u, force.get(u).add(fu));
         }
     }
 
-    private static void calculateRepulsiveForces(FastMultiLayerMethodOptions options, Graph graph, LayoutBox layoutBox, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, NodeArray<DPoint> force) {
+    private static void calculateRepulsiveForces(FastMultiLayerMethodOptions options, LayoutBox layoutBox, LevelArrays arrays) {
         switch (options.getRepulsiveForcesCalculation()) {
             case Exact -> {
-                FruchtermanReingold.calculateExactRepulsiveForces(graph, nodeAttributes, force);
+                FruchtermanReingold.calculateExactRepulsiveForces(arrays);
             }
             case GridApproximation -> {
-                FruchtermanReingold.calculateApproxRepulsiveForces(options, graph, layoutBox, nodeAttributes, force);
+                FruchtermanReingold.calculateApproxRepulsiveForces(options, layoutBox, arrays);
+            }
+            case MultipoleMethod -> {
+                MultipoleMethod.calculateRepulsiveForces(options, arrays);
             }
-
-            /*
-            default:
-                MultipoleMethod.calculate_repulsive_forces(options,graph,box, nodeAttributes, force);
-                break;
-             */
         }
     }
 
-    private static void addAttractiveRepulsiveForces(FastMultiLayerMethodOptions options, Graph graph, LayoutBox layoutBox, double averageIdealEdgeLength, Single<Float> coolFactor, NodeArray<DPoint> force_attr, NodeArray<DPoint> force_rep, NodeArray<DPoint> force, int iter, int fineTuningStep) {
+    private static void addAttractiveRepulsiveForces(FastMultiLayerMethodOptions options, LayoutBox layoutBox, double averageIdealEdgeLength, Single<Float> coolFactor, LevelArrays arrays, int iter, int fineTuningStep) {
         //set cool_factor
         if (!options.isCoolTemperature())
             coolFactor.set(1.0f);
@@ -543,31 +550,38 @@ public class FastMultiLayerMethodLayout {
         } else //adjustPostRepStrengthDynamically())
         {
             act_spring_strength = options.getPostSpringStrength();
-            act_rep_force_strength = getPostRepForceStrength(graph.getNumberOfNodes());
+            act_rep_force_strength = getPostRepForceStrength(arrays.getNumberOfNodes());
         }
 
-        for (var v : graph.nodes()) {
-            var force_attr_v = force_attr.get(v);
-            var force_rep_v = force_rep.get(v);
-
-            var force_v = new DPointMutable();
-
-            force_v.setX(act_spring_strength * force_attr_v.getX() + act_rep_force_strength * force_rep_v.getX());
-            force_v.setY(act_spring_strength * force_attr_v.getY() + act_rep_force_strength * force_rep_v.getY());
-            force_v.setX(averageIdealEdgeLength * averageIdealEdgeLength * force_v.getX());
-            force_v.setY(averageIdealEdgeLength * averageIdealEdgeLength * force_v.getY());
-
-            var norm_f = force_v.norm();
-            if (force_v.equals(DPoint.ORIGIN)) {
-                // nothing
-            } else if (NumericalStability.nearMachinePrecision(norm_f, force_v)) {
-                layoutBox.restrictToBox(force_v);
-            } else {
-                var scalar = Math.min(norm_f * coolFactor.get() * options.getForceScalingFactor(), layoutBox.computeMaxRadius(iter)) / norm_f;
-                force_v.setX(scalar * force_v.getX());
-                force_v.setY(scalar * force_v.getY());
+        var attractiveX = arrays.getAttractiveX();
+        var attractiveY = arrays.getAttractiveY();
+        var repulsiveX = arrays.getRepulsiveX();
+        var repulsiveY = arrays.getRepulsiveY();
+        var forceX = arrays.getForceX();
+        var forceY = arrays.getForceY();
+        var scale = averageIdealEdgeLength * averageIdealEdgeLength;
+        var cool = coolFactor.get() * options.getForceScalingFactor();
+        var maxRadius = layoutBox.computeMaxRadius(iter);
+        var scratch = new DPointMutable(); // only used when a force is close to machine precision
+
+        for (var v = 0; v < arrays.getNumberOfNodes(); v++) {
+            var fx = scale * (act_spring_strength * attractiveX[v] + act_rep_force_strength * repulsiveX[v]);
+            var fy = scale * (act_spring_strength * attractiveY[v] + act_rep_force_strength * repulsiveY[v]);
+
+            if (fx != 0 || fy != 0) {
+                var norm_f = Math.sqrt(fx * fx + fy * fy);
+                if (NumericalStability.nearMachinePrecision(norm_f, scratch, arrays.getRandom())) {
+                    layoutBox.restrictToBox(scratch);
+                    fx = scratch.getX();
+                    fy = scratch.getY();
+                } else {
+                    var scalar = Math.min(norm_f * cool, maxRadius) / norm_f;
+                    fx *= scalar;
+                    fy *= scalar;
+                }
             }
-            force.put(v, force_v.asDPoint());
+            forceX[v] = fx;
+            forceY[v] = fy;
         }
     }
 
@@ -575,7 +589,7 @@ public class FastMultiLayerMethodLayout {
         return Math.min(0.2, 400.0 / (double) n);
     }
 
-    private static void preventOscillations(Graph graph, NodeArray<DPoint> force, NodeArray<DPoint> lastNodeMovement, int iter) {
+    private static void preventOscillations(LevelArrays arrays, int iter) {
         final double pi_times_1_over_6 = 0.52359878;
         final double pi_times_2_over_6 = 2 * pi_times_1_over_6;
         final double pi_times_3_over_6 = 3 * pi_times_1_over_6;
@@ -587,52 +601,65 @@ public class FastMultiLayerMethodLayout {
         final double pi_times_10_over_6 = 10 * pi_times_1_over_6;
         final double pi_times_11_over_6 = 11 * pi_times_1_over_6;
 
+        var n = arrays.getNumberOfNodes();
+        var forceX = arrays.getForceX();
+        var forceY = arrays.getForceY();
+        var lastX = arrays.getLastMovementX();
+        var lastY = arrays.getLastMovementY();
+
         if (iter == 1) { // initialize last node movement
-            for (var v : graph.nodes()) {
-                lastNodeMovement.put(v, force.get(v));
-            }
+            System.arraycopy(forceX, 0, lastX, 0, n);
+            System.arraycopy(forceY, 0, lastY, 0, n);
         } else if (iter > 1) {
-            for (var v : graph.nodes()) {
-                var force_new = force.get(v);
-                var norm_new = force_new.norm();
-                var force_old = lastNodeMovement.get(v);
-                var norm_old = force_old.norm();
+            for (var v = 0; v < n; v++) {
+                var norm_new = Math.sqrt(forceX[v] * forceX[v] + forceY[v] * forceY[v]);
+                var norm_old = Math.sqrt(lastX[v] * lastX[v] + lastY[v] * lastY[v]);
                 if ((norm_new > 0) && (norm_old > 0)) {//if2
                     var quot_old_new = norm_old / norm_new;
 
                     //prevent oscillations
-                    var fi = DPoint.angle(DPoint.ORIGIN, force_old, force_new);
+                    var fi = DPoint.angle(lastX[v], lastY[v], forceX[v], forceY[v]);
+                    var factor = 0.0;
                     if (((fi <= pi_times_1_over_6) || (fi >= pi_times_11_over_6)) && ((norm_new > (norm_old * 2.0)))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 2.0));
+                        factor = quot_old_new * 2.0;
                     } else if ((fi >= pi_times_1_over_6) && (fi <= pi_times_2_over_6) && (norm_new > (norm_old * 1.5))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 1.5));
+                        factor = quot_old_new * 1.5;
                     } else if ((fi >= pi_times_2_over_6) && (fi <= pi_times_3_over_6) && (norm_new > (norm_old))) {
-                        force.put(v, force_new.scaleBy(quot_old_new));
+                        factor = quot_old_new;
                     } else if ((fi >= pi_times_3_over_6) && (fi <= pi_times_4_over_6) && (norm_new > (norm_old * 0.66666666))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 0.66666666));
+                        factor = quot_old_new * 0.66666666;
                     } else if ((fi >= pi_times_4_over_6) && (fi <= pi_times_5_over_6) && (norm_new > (norm_old * 0.5))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 0.5));
+                        factor = quot_old_new * 0.5;
                     } else if ((fi >= pi_times_5_over_6) && (fi <= pi_times_7_over_6) && (norm_new > (norm_old * 0.33333333))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 0.33333333));
+                        factor = quot_old_new * 0.33333333;
                     } else if ((fi >= pi_times_7_over_6) && (fi <= pi_times_8_over_6) && (norm_new > (norm_old * 0.5))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 0.5));
+                        factor = quot_old_new * 0.5;
                     } else if ((fi >= pi_times_8_over_6) && (fi <= pi_times_9_over_6) && (norm_new > (norm_old * 0.66666666))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 0.66666666));
+                        factor = quot_old_new * 0.66666666;
                     } else if ((fi >= pi_times_9_over_6) && (fi <= pi_times_10_over_6) && (norm_new > (norm_old))) {
-                        force.put(v, force_new.scaleBy(quot_old_new));
+                        factor = quot_old_new;
                     } else if ((fi >= pi_times_10_over_6) && (fi <= pi_times_11_over_6) && (norm_new > (norm_old * 1.5))) {
-                        force.put(v, force_new.scaleBy(quot_old_new * 1.5));
+                        factor = quot_old_new * 1.5;
+                    }
+                    if (factor != 0.0) {
+                        forceX[v] *= factor;
+                        forceY[v] *= factor;
                     }
                 }
-                lastNodeMovement.put(v, force.get(v));
+                lastX[v] = forceX[v];
+                lastY[v] = forceY[v];
             }
         }
     }
 
-    private static void moveNodes(Graph graph, NodeArray<NodeAttributes> nodeAttributes, NodeArray<DPoint> forces) {
-        for (var v : graph.nodes()) {
-            var na = nodeAttributes.get(v);
-            na.setPosition(na.getPosition().add(forces.get(v)));
+    private static void moveNodes(LevelArrays arrays) {
+        var x = arrays.getX();
+        var y = arrays.getY();
+        var forceX = arrays.getForceX();
+        var forceY = arrays.getForceY();
+        for (var v = 0; v < arrays.getNumberOfNodes(); v++) {
+            x[v] += forceX[v];
+            y[v] += forceY[v];
         }
     }
 
@@ -701,7 +728,7 @@ public class FastMultiLayerMethodLayout {
         return s;
     }
 
-    private static void createInitialPlacement(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, LayoutBox layoutBox) {
+    private static void createInitialPlacement(FastMultiLayerMethodOptions options, Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, LayoutBox layoutBox, Random random) {
         if (options.getInitialPlacementForces() == FastMultiLayerMethodOptions.InitialPlacementForces.KeepPositions) {
             layoutBox.init(graph, nodeAttributes);
         } else if (options.getInitialPlacementForces() == FastMultiLayerMethodOptions.InitialPlacementForces.UniformGrid) {
@@ -731,7 +758,6 @@ public class FastMultiLayerMethodLayout {
             }
         } else { // random
             layoutBox.init(graph, nodeAttributes);
-            var random = new Random();
             if (options.getInitialPlacementForces() == FastMultiLayerMethodOptions.InitialPlacementForces.RandomTime)//(RANDOM based on actual CPU-time)
                 random.setSeed(System.currentTimeMillis());
             for (var v : graph.nodes()) {
@@ -70,7 +70,7 @@ public class FastMultiLayerMethodOptions {
     private int springStrength;
     private int repForcesStrength;
 
-    public enum RepulsiveForcesCalculation {Exact, GridApproximation /* , MultipoleMethod*/}
+    public enum RepulsiveForcesCalculation {Exact, GridApproximation, MultipoleMethod}
 
     private RepulsiveForcesCalculation repulsiveForcesCalculation;
 
@@ -100,6 +100,8 @@ public class FastMultiLayerMethodOptions {
 
     //setting options for different repulsive force calculation methods
     private int frGridQuotient;
+    private int nmParticlesInLeaves;
+    private int nmPrecision;
 
     // options added by DHH
     private boolean useSimpleAlgorithmForChainsAndCycles;
@@ -109,6 +111,49 @@ public class FastMultiLayerMethodOptions {
         initialize();
     }
 
+    /**
+     * copy constructor
+     *
+     * @param that the options to copy
+     */
+    public FastMultiLayerMethodOptions(FastMultiLayerMethodOptions that) {
+        unitEdgeLength = that.unitEdgeLength;
+        randSeed = that.randSeed;
+        edgeLengthMeasurement = that.edgeLengthMeasurement;
+        allowedPositions = that.allowedPositions;
+        stepsForRotatingComponents = that.stepsForRotatingComponents;
+        minGraphSize = that.minGraphSize;
+        galaxyChoice = that.galaxyChoice;
+        numberRandomTries = that.numberRandomTries;
+        maxIterChange = that.maxIterChange;
+        maxIterFactor = that.maxIterFactor;
+        initialPlacementMult = that.initialPlacementMult;
+        mSingleLevel = that.mSingleLevel;
+        forceModel = that.forceModel;
+        springStrength = that.springStrength;
+        repForcesStrength = that.repForcesStrength;
+        repulsiveForcesCalculation = that.repulsiveForcesCalculation;
+        stopCriterion = that.stopCriterion;
+        threshold = that.threshold;
+        fixedIterations = that.fixedIterations;
+        forceScalingFactor = that.forceScalingFactor;
+        coolTemperature = that.coolTemperature;
+        coolValue = that.coolValue;
+        initialPlacementForces = that.initialPlacementForces;
+        resizeDrawing = that.resizeDrawing;
+        resizingScalar = that.resizingScalar;
+        fineTuningIterations = that.fineTuningIterations;
+        fineTuneScalar = that.fineTuneScalar;
+        adjustPostRepStrengthDynamically = that.adjustPostRepStrengthDynamically;
+        postSpringStrength = that.postSpringStrength;
+        postStrengthOfRepForces = that.postStrengthOfRepForces;
+        frGridQuotient = that.frGridQuotient;
+        nmParticlesInLeaves = that.nmParticlesInLeaves;
+        nmPrecision = that.nmPrecision;
+        useSimpleAlgorithmForChainsAndCycles = that.useSimpleAlgorithmForChainsAndCycles;
+        numberOfChainSmoothingRounds = that.numberOfChainSmoothingRounds;
+    }
+
     public void initialize() {
         setUnitEdgeLength(100);
 
@@ -151,6 +196,8 @@ public class FastMultiLayerMethodOptions {
 
         //setting options for different repulsive force calculation methods
         setFrGridQuotient(2);
+        setNmParticlesInLeaves(25);
+        setNmPrecision(4);
 
         setUseSimpleAlgorithmForChainsAndCycles(true);
     }
@@ -404,6 +451,28 @@ public class FastMultiLayerMethodOptions {
         this.frGridQuotient = frGridQuotient;
     }
 
+    public int getNmParticlesInLeaves() {
+        return nmParticlesInLeaves;
+    }
+
+    /**
+     * maximum number of nodes in a leaf of the quad tree used by the multipole method
+     */
+    public void setNmParticlesInLeaves(int nmParticlesInLeaves) {
+        this.nmParticlesInLeaves = nmParticlesInLeaves;
+    }
+
+    public int getNmPrecision() {
+        return nmPrecision;
+    }
+
+    /**
+     * number of terms in the multipole and local expansions used by the multipole method
+     */
+    public void setNmPrecision(int nmPrecision) {
+        this.nmPrecision = nmPrecision;
+    }
+
     public boolean isUseSimpleAlgorithmForChainsAndCycles() {
         return useSimpleAlgorithmForChainsAndCycles;
     }
@@ -27,6 +27,8 @@ import jloda.graph.fmm.geometry.DRect;
 import jloda.util.Single;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
@@ -64,36 +66,56 @@ public class MultiComponents {
         } else {
             NodeArray<Node> src2tar = graph.newNodeArray();
             var components = graph.extractAllConnectedComponents(src2tar);
-            var service = Executors.newFixedThreadPool(ProgramExecutorService.getNumberOfCoresToUse());
+
+            var owner2index = new IdentityHashMap<Graph, Integer>();
+            var tar2src = new ArrayList<NodeArray<Node>>(components.size());
+            for (var i = 0; i < components.size(); i++) {
+                owner2index.put(components.get(i), i);
+                tar2src.add(components.get(i).newNodeArray());
+            }
+            for (var v : graph.nodes()) {
+                var w = src2tar.get(v);
+                tar2src.get(owner2index.get(w.getOwner())).put(w, v);
+            }
+
+            // lay out the largest components first, so that small ones fill in at the end:
+            var order = new ArrayList<Integer>();
+            for (var i = 0; i < components.size(); i++)
+                order.add(i);
+            order.sort((a, b) -> Integer.compare(components.get(b).getNumberOfNodes(), components.get(a).getNumberOfNodes()));
+
+            var componentOptions = (options != null ? options : new FastMultiLayerMethodOptions());
+            var service = Executors.newWorkStealingPool(ProgramExecutorService.getNumberOfCoresToUse());
             var exception = new Single<Exception>();
-            var list = new ArrayList<Component>();
-            for (var component : components) {
-                service.submit(() -> {
-                    if (exception.isNull()) {
-                        NodeArray<Node> tar2src = component.newNodeArray();
-                        for (var v : src2tar.keys()) {
-                            var w = src2tar.get(v);
-                            if (w.getOwner() == component) {
-                                tar2src.put(w, v);
-                            }
-                        }
-                        NodeArray<FastMultiLayerMethodLayout.Point> coords = component.newNodeArray();
-                        FastMultiLayerMethodLayout.Rectangle rect;
-                        try {
-                            rect = FastMultiLayerMethodLayout.apply(options, component, e -> 1, coords::put);
-                            synchronized (list) {
-                                list.add(new Component(component, rect, tar2src, coords));
+            var results = new Component[components.size()];
+            for (var i : order) {
+                var component = components.get(i);
+                if (component.getNumberOfNodes() <= 3) {
+                    NodeArray<FastMultiLayerMethodLayout.Point> coords = component.newNodeArray();
+                    var rect = applySmallComponent(componentOptions, component, coords::put);
+                    results[i] = new Component(component, rect, tar2src.get(i), coords);
+                } else {
+                    service.submit(() -> {
+                        if (exception.isNull()) {
+                            // each component gets its own options and a seed that only depends on its index:
+                            var taskOptions = new FastMultiLayerMethodOptions(componentOptions);
+                            taskOptions.setRandSeed(computeComponentSeed(componentOptions.getRandSeed(), i));
+                            NodeArray<FastMultiLayerMethodLayout.Point> coords = component.newNodeArray();
+                            try {
+                                var rect = FastMultiLayerMethodLayout.apply(taskOptions, component, e -> 1, coords::put);
+                                results[i] = new Component(component, rect, tar2src.get(i), coords);
+                            } catch (Exception e) {
+                                exception.setIfCurrentValueIsNull(e);
                             }
-                        } catch (Exception e) {
-                            exception.setIfCurrentValueIsNull(e);
                         }
-                    }
-                });
+                    });
+                }
             }
             service.shutdown();
             service.awaitTermination(1000, TimeUnit.DAYS);
             if (exception.isNotNull())
                 throw exception.get();
+            var list = new ArrayList<>(Arrays.asList(results));
             list.sort((a, b) -> Double.compare(b.getArea(), a.getArea())); // sort by decreasing area
 
             var scale = -1d;
@@ -117,6 +139,47 @@ public class MultiComponents {
         }
     }
 
+    /**
+     * lays out a connected component of at most three nodes directly, without the multilevel machinery
+     */
+    private static FastMultiLayerMethodLayout.Rectangle applySmallComponent(FastMultiLayerMethodOptions options, Graph graph, BiConsumer<Node, FastMultiLayerMethodLayout.Point> result) {
+        var length = options.getUnitEdgeLength();
+        if (graph.getNumberOfNodes() == 1) {
+            result.accept(graph.getFirstNode(), new DPoint(0, 0));
+            return new DRect(0, 0, 1, 1);
+        } else if (graph.getNumberOfNodes() == 2) {
+            result.accept(graph.getFirstNode(), new DPoint(0, 0));
+            result.accept(graph.getLastNode(), new DPoint(length, 0));
+            return new DRect(0, 0, length, 1);
+        } else if (graph.getNumberOfEdges() == 3) { // triangle
+            var height = 0.5 * Math.sqrt(3) * length;
+            var v = graph.getFirstNode();
+            result.accept(v, new DPoint(0, 0));
+            result.accept(v.getNext(), new DPoint(length, 0));
+            result.accept(graph.getLastNode(), new DPoint(0.5 * length, height));
+            return new DRect(0, 0, length, height);
+        } else { // path
+            var middle = graph.nodeStream().filter(v -> v.getDegree() == 2).findAny().orElseThrow();
+            result.accept(middle, new DPoint(length, 0));
+            var x = 0.0;
+            for (var v : middle.adjacentNodes()) {
+                result.accept(v, new DPoint(x, 0));
+                x += 2 * length;
+            }
+            return new DRect(0, 0, 2 * length, 1);
+        }
+    }
+
+    /**
+     * computes a seed for the layout of a component that only depends on the given seed and the index of the component
+     */
+    private static int computeComponentSeed(int seed, int index) {
+        var z = seed * 0x9E3779B97F4A7C15L + index;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (z ^ (z >>> 31));
+    }
+
     private static class Component {
         private final Graph graph;
         private final FastMultiLayerMethodLayout.Rectangle rectangle;
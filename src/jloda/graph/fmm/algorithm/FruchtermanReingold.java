@@ -18,20 +18,16 @@
  */
 package jloda.graph.fmm.algorithm;
 
-import jloda.graph.Graph;
-import jloda.graph.Node;
-import jloda.graph.NodeArray;
 import jloda.graph.fmm.FastMultiLayerMethodOptions;
 import jloda.graph.fmm.geometry.DPoint;
 import jloda.graph.fmm.geometry.DPointMutable;
 import jloda.graph.fmm.geometry.LayoutBox;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
- * implementation of the fast multilayer method (note: without multipole algorithm)
+ * implementation of the fast multilayer method
  * Original C++ author: Stefan Hachul, original license: GPL
  * Reimplemented in Java by Daniel Huson, 3.2021
  */
@@ -40,78 +36,89 @@ public class FruchtermanReingold {
      * calculate exact repulsive forces using Fruchterman-Reingold
      *
 	 */
-    public static void calculateExactRepulsiveForces(Graph graph, NodeArray<NodeAttributes> nodeAttributes, NodeArray<DPoint> force) {
-        for (var v : graph.nodes()) {
-            force.put(v, DPoint.ORIGIN);
-        }
-
-        for (var u : graph.nodes()) {
-            var pos_u = nodeAttributes.get(u).getPosition();
-            for (var v : graph.nodes(u)) {
-                var pos_v = nodeAttributes.get(v).getPosition();
-                if (pos_u.equals(pos_v)) {//if2  (Exception handling if two nodes have the same position)
-                    pos_u = NumericalStability.chooseDistinctRandomPointInRadiusEpsilon(pos_u);
-                }
-                var vector_v_minus_u = pos_v.subtract(pos_u);
-                var norm_v_minus_u = vector_v_minus_u.norm();
-                var f_rep_u_on_v = new DPointMutable();
+    public static void calculateExactRepulsiveForces(LevelArrays arrays) {
+        var n = arrays.getNumberOfNodes();
+        var x = arrays.getX();
+        var y = arrays.getY();
+        var forceX = arrays.getRepulsiveX();
+        var forceY = arrays.getRepulsiveY();
+        Arrays.fill(forceX, 0);
+        Arrays.fill(forceY, 0);
 
-                if (!NumericalStability.repulsionNearMachinePrecision(norm_v_minus_u, f_rep_u_on_v)) {
-                    var scalar = repulsionScalar(norm_v_minus_u) / norm_v_minus_u;
-                    f_rep_u_on_v.setPosition(vector_v_minus_u.scaleBy(scalar));
+        var f_rep_u_on_v = new DPointMutable();
+        for (var u = 0; u < n; u++) {
+            var ux = x[u];
+            var uy = y[u];
+            for (var v = u + 1; v < n; v++) {
+                if (ux == x[v] && uy == y[v]) {//if2  (Exception handling if two nodes have the same position)
+                    var pos_u = NumericalStability.chooseDistinctRandomPointInRadiusEpsilon(new DPoint(ux, uy), arrays.getRandom());
+                    ux = pos_u.getX();
+                    uy = pos_u.getY();
                 }
-                force.put(v, force.get(v).add(f_rep_u_on_v));
-                force.put(u, force.get(u).subtract(f_rep_u_on_v));
+                addRepulsion(u, ux, uy, v, x[v], y[v], forceX, forceY, f_rep_u_on_v, arrays.getRandom());
             }
         }
     }
 
-    public static void calculateApproxRepulsiveForces(FastMultiLayerMethodOptions options, Graph graph, LayoutBox layoutBox, NodeArray<NodeAttributes> nodeAttributes, NodeArray<DPoint> force) {
-        for (var v : graph.nodes()) {
-            force.put(v, DPoint.ORIGIN);
-        }
-
-        var size = (int) (Math.sqrt(graph.getNumberOfNodes()) / options.getFrGridQuotient());
+    /**
+     * calculate approximate repulsive forces using Fruchterman-Reingold, only considering pairs of nodes in the same or neighboring grid cells
+     *
+	 */
+    public static void calculateApproxRepulsiveForces(FastMultiLayerMethodOptions options, LayoutBox layoutBox, LevelArrays arrays) {
+        var n = arrays.getNumberOfNodes();
+        var size = (int) (Math.sqrt(n) / options.getFrGridQuotient());
 
         if (size <= 1) {
-            calculateExactRepulsiveForces(graph, nodeAttributes, force);
+            calculateExactRepulsiveForces(arrays);
             return;
         }
 
-        final var grid = new Array2D<List<Node>>(size, size);
-        final var gridBoxLength = layoutBox.getLength() / (double) (size);
+        var x = arrays.getX();
+        var y = arrays.getY();
+        var forceX = arrays.getRepulsiveX();
+        var forceY = arrays.getRepulsiveY();
+        Arrays.fill(forceX, 0);
+        Arrays.fill(forceY, 0);
 
-        for (var v : graph.nodes()) {
-            var va = nodeAttributes.get(v);
-            var x = va.getX() - layoutBox.getLeft();
-            var y = va.getY() - layoutBox.getDown();
-            var x_index = (int) (x / gridBoxLength);
-            var y_index = (int) (y / gridBoxLength);
-            grid.computeIfAbsent(x_index, y_index, (r, c) -> new ArrayList<>()).add(v);
+        // sort nodes by grid cell, keeping the order of nodes within each cell
+        final var gridBoxLength = layoutBox.getLength() / (double) (size);
+        var cellStart = arrays.getGridStart(size * size + 1);
+        var order = arrays.getGridOrder();
+        Arrays.fill(cellStart, 0, size * size + 1, 0);
+        for (var v = 0; v < n; v++) {
+            cellStart[gridCell(x[v], y[v], layoutBox, gridBoxLength, size) + 1]++;
+        }
+        for (var c = 0; c < size * size; c++)
+            cellStart[c + 1] += cellStart[c];
+        for (var v = 0; v < n; v++) {
+            order[cellStart[gridCell(x[v], y[v], layoutBox, gridBoxLength, size)]++] = v;
         }
+        for (var c = size * size; c > 0; c--)
+            cellStart[c] = cellStart[c - 1];
+        cellStart[0] = 0;
 
         //force calculation
-
+        var f_rep_u_on_v = new DPointMutable();
         for (int row_u = 0; row_u < size; row_u++) {
             for (int col_u = 0; col_u < size; col_u++) {
-                for (var u : grid.getOrDefault(row_u, col_u, Collections.emptyList())) {
-                    var pos_u = nodeAttributes.get(u).getPosition();
+                var cell_u = row_u * size + col_u;
+                for (var k = cellStart[cell_u]; k < cellStart[cell_u + 1]; k++) {
+                    var u = order[k];
+                    var ux = x[u];
+                    var uy = y[u];
                     for (var row_v = row_u; row_v <= row_u + 1 && row_v < size; row_v++) {
                         for (var col_v = col_u; col_v <= col_u + 1 && col_v < size; col_v++) {
-                            for (var v : grid.getOrDefault(row_v, col_v, Collections.emptyList())) {
-                                var pos_v = nodeAttributes.get(v).getPosition();
-                                if (pos_u.equals(pos_v)) {
-                                    pos_u = NumericalStability.chooseDistinctRandomPointInRadiusEpsilon(pos_u);
-                                }
-                                var vector_v_minus_u = pos_v.subtract(pos_u);
-                                var norm_v_minus_u = vector_v_minus_u.norm();
-                                var f_rep_u_on_v = new DPointMutable();
-                                if (!NumericalStability.repulsionNearMachinePrecision(norm_v_minus_u, f_rep_u_on_v)) {
-                                    var scalar = repulsionScalar(norm_v_minus_u) / norm_v_minus_u;
-                                    f_rep_u_on_v.setPosition(vector_v_minus_u.scaleBy(scalar));
+                            var cell_v = row_v * size + col_v;
+                            for (var l = cellStart[cell_v]; l < cellStart[cell_v + 1]; l++) {
+                                var v = order[l];
+                                if (v == u)
+                                    continue;
+                                if (ux == x[v] && uy == y[v]) {
+                                    var pos_u = NumericalStability.chooseDistinctRandomPointInRadiusEpsilon(new DPoint(ux, uy), arrays.getRandom());
+                                    ux = pos_u.getX();
+                                    uy = pos_u.getY();
                                 }
-                                force.put(v, force.get(v).add(f_rep_u_on_v));
-                                force.put(u, force.get(u).subtract(f_rep_u_on_v));
+                                addRepulsion(u, ux, uy, v, x[v], y[v], forceX, forceY, f_rep_u_on_v, arrays.getRandom());
                             }
                         }
                     }
@@ -120,6 +127,38 @@ public class FruchtermanReingold {
         }
     }
 
+    private static int gridCell(double x, double y, LayoutBox layoutBox, double gridBoxLength, int size) {
+        var x_index = Math.min(size - 1, Math.max(0, (int) ((x - layoutBox.getLeft()) / gridBoxLength)));
+        var y_index = Math.min(size - 1, Math.max(0, (int) ((y - layoutBox.getDown()) / gridBoxLength)));
+        return x_index * size + y_index;
+    }
+
+    /**
+     * adds the repulsive force of u on v to v and subtracts it from u
+     *
+     * @param scratch used only when the distance is close to machine precision
+     */
+    private static void addRepulsion(int u, double ux, double uy, int v, double vx, double vy, double[] forceX, double[] forceY, DPointMutable scratch, Random random) {
+        var dx = vx - ux;
+        var dy = vy - uy;
+        var norm_v_minus_u = Math.sqrt(dx * dx + dy * dy);
+        double fx;
+        double fy;
+        scratch.setPosition(0, 0);
+        if (!NumericalStability.repulsionNearMachinePrecision(norm_v_minus_u, scratch, random)) {
+            var scalar = repulsionScalar(norm_v_minus_u) / norm_v_minus_u;
+            fx = scalar * dx;
+            fy = scalar * dy;
+        } else {
+            fx = scratch.getX();
+            fy = scratch.getY();
+        }
+        forceX[v] += fx;
+        forceY[v] += fy;
+        forceX[u] -= fx;
+        forceY[u] -= fy;
+    }
+
     private static double repulsionScalar(double d) {
         if (d > 0) {
             return 1 / d;
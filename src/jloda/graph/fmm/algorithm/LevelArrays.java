@@ -0,0 +1,192 @@
+/*
+ * LevelArrays.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.graph.fmm.algorithm;
+
+import jloda.graph.EdgeArray;
+import jloda.graph.Graph;
+import jloda.graph.Node;
+import jloda.graph.NodeArray;
+
+import java.util.Random;
+
+/**
+ * structure-of-arrays representation of one level of the multilevel hierarchy, used by the force calculation step.
+ * Nodes are indexed 0..n-1 and edges 0..m-1. Positions are copied from and to the node attributes only at the beginning
+ * and end of the force calculation for a level, all iterations in between work on these arrays
+ * Daniel Huson, 10.2026
+ */
+public class LevelArrays {
+	private final Node[] nodes;
+	private final Random random;
+	private final double[] x;
+	private final double[] y;
+
+	private final int[] source;
+	private final int[] target;
+	private final double[] edgeLength;
+
+	private final double[] forceX;
+	private final double[] forceY;
+	private final double[] attractiveX;
+	private final double[] attractiveY;
+	private final double[] repulsiveX;
+	private final double[] repulsiveY;
+	private final double[] lastMovementX;
+	private final double[] lastMovementY;
+
+	// work space for grid approximation:
+	private final int[] gridOrder;
+	private int[] gridStart = new int[0];
+
+	public LevelArrays(Graph graph, NodeArray<NodeAttributes> nodeAttributes, EdgeArray<EdgeAttributes> edgeAttributes, Random random) {
+		this.random = random;
+		nodes = graph.getNodesAsList().toArray(new Node[0]);
+		var n = nodes.length;
+		var id2index = new int[graph.getMaxNodeId() + 1];
+		for (var i = 0; i < n; i++)
+			id2index[nodes[i].getId()] = i;
+
+		x = new double[n];
+		y = new double[n];
+		loadPositions(nodeAttributes);
+
+		var m = graph.getNumberOfEdges();
+		source = new int[m];
+		target = new int[m];
+		edgeLength = new double[m];
+		var e = 0;
+		for (var f : graph.edges()) {
+			source[e] = id2index[f.getSource().getId()];
+			target[e] = id2index[f.getTarget().getId()];
+			edgeLength[e] = edgeAttributes.get(f).getLength();
+			e++;
+		}
+
+		forceX = new double[n];
+		forceY = new double[n];
+		attractiveX = new double[n];
+		attractiveY = new double[n];
+		repulsiveX = new double[n];
+		repulsiveY = new double[n];
+		lastMovementX = new double[n];
+		lastMovementY = new double[n];
+		gridOrder = new int[n];
+	}
+
+	/**
+	 * copies the positions of all nodes from the node attributes into the arrays
+	 */
+	public void loadPositions(NodeArray<NodeAttributes> nodeAttributes) {
+		for (var i = 0; i < nodes.length; i++) {
+			var na = nodeAttributes.get(nodes[i]);
+			x[i] = na.getX();
+			y[i] = na.getY();
+		}
+	}
+
+	/**
+	 * copies the positions of all nodes from the arrays into the node attributes
+	 */
+	public void storePositions(NodeArray<NodeAttributes> nodeAttributes) {
+		for (var i = 0; i < nodes.length; i++) {
+			nodeAttributes.get(nodes[i]).setPosition(x[i], y[i]);
+		}
+	}
+
+	public int getNumberOfNodes() {
+		return nodes.length;
+	}
+
+	public int getNumberOfEdges() {
+		return source.length;
+	}
+
+	public double[] getX() {
+		return x;
+	}
+
+	public double[] getY() {
+		return y;
+	}
+
+	public int[] getSource() {
+		return source;
+	}
+
+	public int[] getTarget() {
+		return target;
+	}
+
+	public double[] getEdgeLength() {
+		return edgeLength;
+	}
+
+	public double[] getForceX() {
+		return forceX;
+	}
+
+	public double[] getForceY() {
+		return forceY;
+	}
+
+	public double[] getAttractiveX() {
+		return attractiveX;
+	}
+
+	public double[] getAttractiveY() {
+		return attractiveY;
+	}
+
+	public double[] getRepulsiveX() {
+		return repulsiveX;
+	}
+
+	public double[] getRepulsiveY() {
+		return repulsiveY;
+	}
+
+	public double[] getLastMovementX() {
+		return lastMovementX;
+	}
+
+	public double[] getLastMovementY() {
+		return lastMovementY;
+	}
+
+	/**
+	 * random number generator of the layout, used to separate nodes that have the same position
+	 */
+	public Random getRandom() {
+		return random;
+	}
+
+	int[] getGridOrder() {
+		return gridOrder;
+	}
+
+	/**
+	 * gets an array of at least the given size for the start positions of grid cells, reused between iterations
+	 */
+	int[] getGridStart(int size) {
+		if (gridStart.length < size)
+			gridStart = new int[size];
+		return gridStart;
+	}
+}
@@ -35,7 +35,6 @@ import java.util.Random;
  * Reimplemented in Java by Daniel Huson, 3.2021
  */
 public class MultiLevel {
-	private static final Random random = new Random();
 
 	/**
 	 * creates the multi-level representation
@@ -333,11 +332,11 @@ public class MultiLevel {
 		}
 	}
 
-	public static void findInitialPlacementForLevel(int level, FastMultiLayerMethodOptions options, Graph[] multiLevelGraph, NodeArray<NodeAttributes>[] multiLevelNodeAttributes, EdgeArray<EdgeAttributes>[] multiLevelEdgeAttributes) {
+	public static void findInitialPlacementForLevel(int level, FastMultiLayerMethodOptions options, Graph[] multiLevelGraph, NodeArray<NodeAttributes>[] multiLevelNodeAttributes, EdgeArray<EdgeAttributes>[] multiLevelEdgeAttributes, Random random) {
 		setInitialPositionsOfSunNodes(level, multiLevelGraph, multiLevelNodeAttributes);
 		var pmNodes = new ArrayList<Node>();
-		setInitialPositionsOfPlanetAndModeNodes(level, options, multiLevelGraph, multiLevelNodeAttributes, multiLevelEdgeAttributes, pmNodes);
-		setInitialPositionsOfPMNodes(level, options, multiLevelNodeAttributes, multiLevelEdgeAttributes, pmNodes);
+		setInitialPositionsOfPlanetAndModeNodes(level, options, multiLevelGraph, multiLevelNodeAttributes, multiLevelEdgeAttributes, pmNodes, random);
+		setInitialPositionsOfPMNodes(level, options, multiLevelNodeAttributes, multiLevelEdgeAttributes, pmNodes, random);
 	}
 
 	private static void setInitialPositionsOfSunNodes(int level, Graph[] multiLevelGraph, NodeArray<NodeAttributes>[] multiLevelNodeAttributes) {
@@ -350,7 +349,7 @@ public class MultiLevel {
 		}
 	}
 
-	private static void setInitialPositionsOfPlanetAndModeNodes(int level, FastMultiLayerMethodOptions options, Graph[] multiLevelGraph, NodeArray<NodeAttributes>[] multiLevelNodeAttributes, EdgeArray<EdgeAttributes>[] multiLevelEdgeAttributes, ArrayList<Node> pmNodes) {
+	private static void setInitialPositionsOfPlanetAndModeNodes(int level, FastMultiLayerMethodOptions options, Graph[] multiLevelGraph, NodeArray<NodeAttributes>[] multiLevelNodeAttributes, EdgeArray<EdgeAttributes>[] multiLevelEdgeAttributes, ArrayList<Node> pmNodes, Random random) {
 		final var list = new ArrayList<DPoint>();
 
 		createAllPlacementSectors(multiLevelGraph, multiLevelNodeAttributes, multiLevelEdgeAttributes, level);
@@ -371,14 +370,14 @@ public class MultiLevel {
 
 						if (va.getDedicatedSunNode() == aa.getDedicatedSunNode() && aa.getType() != NodeAttributes.Type.Sun && aa.isPlaced()) {
 							var newPosition = calculatePosition(dedicatedSunPosition, aa.getPosition(),
-									va.getDedicatedSunDistance(), multiLevelEdgeAttributes[level].get(e).getLength());
+									va.getDedicatedSunDistance(), multiLevelEdgeAttributes[level].get(e).getLength(), random);
 							list.add(newPosition);
 						}
 					}
 				}
 				if (va.getLambdas().size() == 0) {
 					if (list.size() == 0) {
-						var newPosition = createRandomPosition(dedicatedSunPosition, va.getDedicatedSunDistance(), va.getAngle1(), va.getAngle2());
+						var newPosition = createRandomPosition(dedicatedSunPosition, va.getDedicatedSunDistance(), va.getAngle1(), va.getAngle2(), random);
 						list.add(newPosition);
 					}
 				} else {
@@ -387,7 +386,7 @@ public class MultiLevel {
 					for (var adjSun : va.getNeighborSunNodes()) {
 						var lambda = va.getLambdas().get(lambdaPos);
 						var adjSunPosition = multiLevelNodeAttributes[level].get(adjSun).getPosition();
-						var newPosition = getWaggledInbetweenPosition(dedicatedSunPosition, adjSunPosition, lambda);
+						var newPosition = getWaggledInbetweenPosition(dedicatedSunPosition, adjSunPosition, lambda, random);
 						list.add(newPosition);
 						lambdaPos = (lambdaPos + 1 < va.getLambdas().size() ? lambdaPos + 1 : 0);
 					}
@@ -481,32 +480,32 @@ public class MultiLevel {
 		}
 	}
 
-	private static DPoint calculatePosition(DPoint s, DPoint t, double dist_s, double dist_t) {
+	private static DPoint calculatePosition(DPoint s, DPoint t, double dist_s, double dist_t, Random random) {
 		var dist_st = s.distance(t);
 		var lambda = (dist_s + (dist_st - dist_s - dist_t) / 2) / dist_st;
 
 		if (Double.isNaN(lambda))
 			System.err.println("NaN");
-		return getWaggledInbetweenPosition(s, t, lambda);
+		return getWaggledInbetweenPosition(s, t, lambda, random);
 	}
 
-	private static DPoint getWaggledInbetweenPosition(DPoint s, DPoint t, double lambda) {
+	private static DPoint getWaggledInbetweenPosition(DPoint s, DPoint t, double lambda, Random random) {
 		final var WAGGLEFACTOR = 0.05;
 		var inbetweenPoint = new DPoint(s.getX() + lambda * (t.getX() - s.getX()), s.getY() + lambda * (t.getY() - s.getY()));
 		var dist_st = Math.sqrt((s.getX() - t.getX()) * (s.getX() - t.getX()) + (s.getY() - t.getY()) * (s.getY() - t.getY()));
 		var radius = WAGGLEFACTOR * dist_st;
 		var rand_radius = radius * random.nextDouble();
-		return createRandomPosition(inbetweenPoint, rand_radius, 0, 2 * Math.PI);
+		return createRandomPosition(inbetweenPoint, rand_radius, 0, 2 * Math.PI, random);
 	}
 
-	private static DPoint createRandomPosition(DPoint center, double radius, double angle1, double angle2) {
+	private static DPoint createRandomPosition(DPoint center, double radius, double angle1, double angle2, Random random) {
 		var rnd_angle = angle1 + (angle2 - angle1) * random.nextDouble();
 		var dx = Math.cos(rnd_angle) * radius;
 		var dy = Math.sin(rnd_angle) * radius;
 		return new DPoint(center.getX() + dx, center.getY() + dy);
 	}
 
-	private static void setInitialPositionsOfPMNodes(int level, FastMultiLayerMethodOptions options, NodeArray<NodeAttributes>[] multiLevelNodeAttributes, EdgeArray<EdgeAttributes>[] multiLevelEdgeAttributes, ArrayList<Node> pmNodes) {
+	private static void setInitialPositionsOfPMNodes(int level, FastMultiLayerMethodOptions options, NodeArray<NodeAttributes>[] multiLevelNodeAttributes, EdgeArray<EdgeAttributes>[] multiLevelEdgeAttributes, ArrayList<Node> pmNodes, Random random) {
 		var list = new ArrayList<DPoint>();
 
 		for (var v : pmNodes) {
@@ -524,7 +523,7 @@ public class MultiLevel {
 					var ea = multiLevelEdgeAttributes[level].get(e);
 
 					if (!ea.isMoonEdge() && va.getDedicatedSunNode() == aa.getDedicatedSunNode() && aa.getType() != NodeAttributes.Type.Sun && aa.isPlaced()) {
-						var newPosition = calculatePosition(sunPos, aa.getPosition(), sunDist, ea.getLength());
+						var newPosition = calculatePosition(sunPos, aa.getPosition(), sunDist, ea.getLength(), random);
 						list.add(newPosition);
 					}
 				}
@@ -534,7 +533,7 @@ public class MultiLevel {
 				var moonPos = ma.getPosition();
 				var moonDist = ma.getDedicatedSunDistance();
 				var lambda = sunDist / moonDist;
-				var newPosition = getWaggledInbetweenPosition(sunPos, moonPos, lambda);
+				var newPosition = getWaggledInbetweenPosition(sunPos, moonPos, lambda, random);
 				list.add(newPosition);
 			}
 
@@ -543,7 +542,7 @@ public class MultiLevel {
 				for (var adjSun : va.getNeighborSunNodes()) {
 					var lambda = va.getLambdas().get(i);
 					var adjSunPos = multiLevelNodeAttributes[level].get(adjSun).getPosition();
-					var newPosition = getWaggledInbetweenPosition(sunPos, adjSunPos, lambda);
+					var newPosition = getWaggledInbetweenPosition(sunPos, adjSunPos, lambda, random);
 					list.add(newPosition);
 					if (i + 1 < va.getLambdas().size() - 1)
 						i++;
@@ -0,0 +1,558 @@
+/*
+ * MultipoleMethod.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.graph.fmm.algorithm;
+
+import jloda.graph.fmm.FastMultiLayerMethodOptions;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * calculation of repulsive forces using the fast multipole method, as in the original FM^3 design.
+ * <p/>
+ * The repulsive force on v is the sum over all u of (p_v-p_u)/|p_v-p_u|^2. In complex notation this is the conjugate of
+ * the derivative of the potential sum_u log(z-z_u), which is approximated using multipole and local expansions
+ * (Greengard and Rokhlin, 1987) on an adaptive quad tree. Pairs of well-separated cells interact via their expansions,
+ * all other pairs of leaves interact directly.
+ * <p/>
+ * All computations are performed on primitive coordinate arrays and the passes over the tree are run in parallel on the
+ * common fork-join pool. Each parallel task only writes to the expansions or forces of its own cells, so no synchronization is needed.
+ * <p/>
+ * Original C++ author: Stefan Hachul, original license: GPL
+ * Reimplemented in Java by Daniel Huson, 10.2026
+ */
+public class MultipoleMethod {
+    private static final int MAX_DEPTH = 40;
+    private static final int PARALLEL_THRESHOLD = 2000;
+    /**
+     * two cells are well-separated if the sum of their radii is at most this fraction of the distance between their centers
+     */
+    private static final double SEPARATION = 0.5;
+
+    /**
+     * calculate approximate repulsive forces using the fast multipole method
+     */
+    public static void calculateRepulsiveForces(FastMultiLayerMethodOptions options, LevelArrays arrays) {
+        calculateRepulsiveForces(options.getNmPrecision(), options.getNmParticlesInLeaves(), arrays.getX(), arrays.getY(), arrays.getNumberOfNodes(),
+                arrays.getRepulsiveX(), arrays.getRepulsiveY());
+    }
+
+    /**
+     * calculate approximate repulsive forces using the fast multipole method
+     *
+     * @param precision         number of terms used in the multipole and local expansions
+     * @param particlesInLeaves maximum number of points in a leaf of the quad tree
+     * @param x                 x-coordinates
+     * @param y                 y-coordinates
+     * @param n                 number of points
+     * @param fx                the x-components of the repulsive forces are written here
+     * @param fy                the y-components of the repulsive forces are written here
+     */
+    public static void calculateRepulsiveForces(int precision, int particlesInLeaves, double[] x, double[] y, int n, double[] fx, double[] fy) {
+        Arrays.fill(fx, 0, n, 0);
+        Arrays.fill(fy, 0, n, 0);
+        if (n < 2)
+            return;
+        var tree = new Tree(x, y, n, Math.max(1, precision), Math.max(1, particlesInLeaves));
+        tree.computeMultipoleExpansions();
+        tree.computeInteractionLists();
+        tree.computeLocalExpansions();
+        tree.evaluate(fx, fy);
+    }
+
+    /**
+     * adaptive quad tree on flat arrays, with multipole and local expansions for each cell
+     */
+    private static class Tree {
+        private final double[] x;
+        private final double[] y;
+        private final int p;
+        private final int leafSize;
+        private final double[][] binomial;
+
+        private final int[] perm; // points sorted so that each cell covers a contiguous range
+        private int numberOfCells;
+        private double[] centerX = new double[0];
+        private double[] centerY = new double[0];
+        private double[] radius = new double[0];
+        private int[] start = new int[0];
+        private int[] end = new int[0];
+        private int[] depth = new int[0];
+        private int[] parent = new int[0];
+        private int[] child = new int[0];
+        private boolean[] leaf = new boolean[0];
+
+        private int[][] cellsByDepth;
+        private int[] leaves;
+
+        // complex coefficients, p+1 per cell:
+        private double[] multipoleRe;
+        private double[] multipoleIm;
+        private double[] localRe;
+        private double[] localIm;
+
+        // interaction lists in compressed form:
+        private int[] m2lStart;
+        private int[] m2lList;
+        private int[] p2pStart;
+        private int[] p2pList;
+
+        Tree(double[] x, double[] y, int n, int p, int leafSize) {
+            this.x = x;
+            this.y = y;
+            this.p = p;
+            this.leafSize = leafSize;
+
+            binomial = new double[2 * p + 1][2 * p + 1];
+            for (var i = 0; i <= 2 * p; i++) {
+                binomial[i][0] = 1;
+                for (var j = 1; j <= i; j++)
+                    binomial[i][j] = binomial[i - 1][j - 1] + (j < i ? binomial[i - 1][j] : 0);
+            }
+
+            perm = new int[n];
+            for (var i = 0; i < n; i++)
+                perm[i] = i;
+
+            var minX = Double.MAX_VALUE;
+            var minY = Double.MAX_VALUE;
+            var maxX = -Double.MAX_VALUE;
+            var maxY = -Double.MAX_VALUE;
+            for (var i = 0; i < n; i++) {
+                minX = Math.min(minX, x[i]);
+                maxX = Math.max(maxX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            var half = 0.5 * Math.max(Math.max(maxX - minX, maxY - minY), 1e-6) * 1.0001;
+            var root = newCell(0.5 * (minX + maxX), 0.5 * (minY + maxY), half, 0, n, 0, -1);
+            build(root, half, new int[n], new int[4]);
+
+            var maxDepth = 0;
+            for (var c = 0; c < numberOfCells; c++)
+                maxDepth = Math.max(maxDepth, depth[c]);
+            var counts = new int[maxDepth + 1];
+            var numberOfLeaves = 0;
+            for (var c = 0; c < numberOfCells; c++) {
+                counts[depth[c]]++;
+                if (leaf[c])
+                    numberOfLeaves++;
+            }
+            cellsByDepth = new int[maxDepth + 1][];
+            for (var d = 0; d <= maxDepth; d++)
+                cellsByDepth[d] = new int[counts[d]];
+            leaves = new int[numberOfLeaves];
+            Arrays.fill(counts, 0);
+            numberOfLeaves = 0;
+            for (var c = 0; c < numberOfCells; c++) {
+                cellsByDepth[depth[c]][counts[depth[c]]++] = c;
+                if (leaf[c])
+                    leaves[numberOfLeaves++] = c;
+            }
+
+            multipoleRe = new double[numberOfCells * (p + 1)];
+            multipoleIm = new double[numberOfCells * (p + 1)];
+            localRe = new double[numberOfCells * (p + 1)];
+            localIm = new double[numberOfCells * (p + 1)];
+        }
+
+        /**
+         * recursively splits a cell into its non-empty quadrants
+         */
+        private void build(int c, double half, int[] buffer, int[] quadrantCount) {
+            var from = start[c];
+            var to = end[c];
+            if (to - from <= leafSize || depth[c] >= MAX_DEPTH) {
+                leaf[c] = true;
+                return;
+            }
+            var cx = centerX[c];
+            var cy = centerY[c];
+            Arrays.fill(quadrantCount, 0);
+            for (var k = from; k < to; k++)
+                quadrantCount[quadrant(perm[k], cx, cy)]++;
+            var offset = new int[4];
+            offset[0] = from;
+            for (var q = 1; q < 4; q++)
+                offset[q] = offset[q - 1] + quadrantCount[q - 1];
+            var next = offset.clone();
+            for (var k = from; k < to; k++)
+                buffer[next[quadrant(perm[k], cx, cy)]++] = perm[k];
+            System.arraycopy(buffer, from, perm, from, to - from);
+
+            var childHalf = 0.5 * half;
+            for (var q = 0; q < 4; q++) {
+                if (quadrantCount[q] > 0) {
+                    var childX = cx + ((q & 1) == 0 ? -childHalf : childHalf);
+                    var childY = cy + ((q & 2) == 0 ? -childHalf : childHalf);
+                    var ch = newCell(childX, childY, childHalf, offset[q], offset[q] + quadrantCount[q], depth[c] + 1, c);
+                    child[4 * c + q] = ch;
+                }
+            }
+            for (var q = 0; q < 4; q++) {
+                var ch = child[4 * c + q];
+                if (ch != -1)
+                    build(ch, childHalf, buffer, quadrantCount);
+            }
+        }
+
+        private int quadrant(int i, double cx, double cy) {
+            return (x[i] >= cx ? 1 : 0) + (y[i] >= cy ? 2 : 0);
+        }
+
+        private int newCell(double cx, double cy, double half, int from, int to, int d, int par) {
+            if (numberOfCells == start.length) {
+                var capacity = Math.max(64, 2 * start.length);
+                centerX = Arrays.copyOf(centerX, capacity);
+                centerY = Arrays.copyOf(centerY, capacity);
+                radius = Arrays.copyOf(radius, capacity);
+                start = Arrays.copyOf(start, capacity);
+                end = Arrays.copyOf(end, capacity);
+                depth = Arrays.copyOf(depth, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                leaf = Arrays.copyOf(leaf, capacity);
+                child = Arrays.copyOf(child, 4 * capacity);
+            }
+            var c = numberOfCells++;
+            centerX[c] = cx;
+            centerY[c] = cy;
+            radius[c] = Math.sqrt(2) * half;
+            start[c] = from;
+            end[c] = to;
+            depth[c] = d;
+            parent[c] = par;
+            leaf[c] = false;
+            Arrays.fill(child, 4 * c, 4 * c + 4, -1);
+            return c;
+        }
+
+        /**
+         * upward pass: multipole expansions of leaves from their points, of inner cells by shifting those of their children
+         */
+        void computeMultipoleExpansions() {
+            for (var d = cellsByDepth.length - 1; d >= 0; d--) {
+                var cells = cellsByDepth[d];
+                range(cells.length, end[0]).forEach(i -> {
+                    var c = cells[i];
+                    if (leaf[c])
+                        particlesToMultipole(c);
+                    else {
+                        for (var q = 4 * c; q < 4 * c + 4; q++) {
+                            if (child[q] != -1)
+                                shiftMultipole(child[q], c);
+                        }
+                    }
+                });
+            }
+        }
+
+        private void particlesToMultipole(int c) {
+            var base = c * (p + 1);
+            multipoleRe[base] += end[c] - start[c];
+            for (var k = start[c]; k < end[c]; k++) {
+                var i = perm[k];
+                var dx = x[i] - centerX[c];
+                var dy = y[i] - centerY[c];
+                var powRe = 1.0;
+                var powIm = 0.0;
+                for (var l = 1; l <= p; l++) {
+                    var re = powRe * dx - powIm * dy;
+                    var im = powRe * dy + powIm * dx;
+                    powRe = re;
+                    powIm = im;
+                    multipoleRe[base + l] -= powRe / l;
+                    multipoleIm[base + l] -= powIm / l;
+                }
+            }
+        }
+
+        /**
+         * adds the multipole expansion of cell a, shifted to the center of cell b, to the expansion of b
+         */
+        private void shiftMultipole(int a, int b) {
+            var from = a * (p + 1);
+            var to = b * (p + 1);
+            var z0Re = centerX[a] - centerX[b];
+            var z0Im = centerY[a] - centerY[b];
+            var powRe = new double[p + 1];
+            var powIm = new double[p + 1];
+            powers(z0Re, z0Im, powRe, powIm);
+
+            var a0 = multipoleRe[from];
+            multipoleRe[to] += a0;
+            for (var l = 1; l <= p; l++) {
+                var re = -a0 * powRe[l] / l;
+                var im = -a0 * powIm[l] / l;
+                for (var k = 1; k <= l; k++) {
+                    var cRe = multipoleRe[from + k];
+                    var cIm = multipoleIm[from + k];
+                    var bin = binomial[l - 1][k - 1];
+                    re += bin * (cRe * powRe[l - k] - cIm * powIm[l - k]);
+                    im += bin * (cRe * powIm[l - k] + cIm * powRe[l - k]);
+                }
+                multipoleRe[to + l] += re;
+                multipoleIm[to + l] += im;
+            }
+        }
+
+        /**
+         * determines all pairs of well-separated cells and all pairs of leaves that must interact directly
+         */
+        void computeInteractionLists() {
+            var m2l = new PairList();
+            var p2p = new PairList();
+            collectSelf(0, m2l, p2p);
+
+            m2lStart = new int[numberOfCells + 1];
+            m2lList = m2l.toSymmetricLists(numberOfCells, m2lStart, false);
+            p2pStart = new int[numberOfCells + 1];
+            p2pList = p2p.toSymmetricLists(numberOfCells, p2pStart, true);
+        }
+
+        private void collectSelf(int c, PairList m2l, PairList p2p) {
+            if (leaf[c]) {
+                p2p.add(c, c);
+            } else {
+                for (var q = 0; q < 4; q++) {
+                    var a = child[4 * c + q];
+                    if (a != -1) {
+                        collectSelf(a, m2l, p2p);
+                        for (var r = q + 1; r < 4; r++) {
+                            var b = child[4 * c + r];
+                            if (b != -1)
+                                collectPair(a, b, m2l, p2p);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void collectPair(int a, int b, PairList m2l, PairList p2p) {
+            var dx = centerX[a] - centerX[b];
+            var dy = centerY[a] - centerY[b];
+            var sumRadii = radius[a] + radius[b];
+            if (sumRadii * sumRadii <= SEPARATION * SEPARATION * (dx * dx + dy * dy)) {
+                m2l.add(a, b);
+            } else if (leaf[a] && leaf[b]) {
+                p2p.add(a, b);
+            } else {
+                if (leaf[a] || (!leaf[b] && radius[b] > radius[a])) { // split b
+                    var tmp = a;
+                    a = b;
+                    b = tmp;
+                }
+                for (var q = 4 * a; q < 4 * a + 4; q++) {
+                    if (child[q] != -1)
+                        collectPair(child[q], b, m2l, p2p);
+                }
+            }
+        }
+
+        /**
+         * converts the multipole expansions of all well-separated cells into local expansions, then passes
+         * local expansions down the tree
+         */
+        void computeLocalExpansions() {
+            range(numberOfCells, end[0]).forEach(a -> {
+                var powRe = new double[2 * p + 2];
+                var powIm = new double[2 * p + 2];
+                for (var k = m2lStart[a]; k < m2lStart[a + 1]; k++)
+                    multipoleToLocal(m2lList[k], a, powRe, powIm);
+            });
+
+            for (var d = 1; d < cellsByDepth.length; d++) {
+                var cells = cellsByDepth[d];
+                range(cells.length, end[0]).forEach(i -> shiftLocal(parent[cells[i]], cells[i]));
+            }
+        }
+
+        /**
+         * adds the local expansion about the center of a of the multipole expansion of b
+         */
+        private void multipoleToLocal(int b, int a, double[] invRe, double[] invIm) {
+            var from = b * (p + 1);
+            var to = a * (p + 1);
+            var z0Re = centerX[b] - centerX[a];
+            var z0Im = centerY[b] - centerY[a];
+            // powers of 1/z0:
+            var norm = z0Re * z0Re + z0Im * z0Im;
+            powers(z0Re / norm, -z0Im / norm, invRe, invIm);
+
+            // sum_k (-1)^k a_k / z0^k, for each l weighted by binomial(l+k-1,k-1)
+            var a0 = multipoleRe[from];
+            for (var l = 1; l <= p; l++) {
+                var sumRe = 0.0;
+                var sumIm = 0.0;
+                for (var k = 1; k <= p; k++) {
+                    var cRe = multipoleRe[from + k];
+                    var cIm = multipoleIm[from + k];
+                    var w = ((k & 1) == 0 ? 1 : -1) * binomial[l + k - 1][k - 1];
+                    sumRe += w * (cRe * invRe[k] - cIm * invIm[k]);
+                    sumIm += w * (cRe * invIm[k] + cIm * invRe[k]);
+                }
+                sumRe -= a0 / l;
+                // multiply by 1/z0^l
+                localRe[to + l] += sumRe * invRe[l] - sumIm * invIm[l];
+                localIm[to + l] += sumRe * invIm[l] + sumIm * invRe[l];
+            }
+        }
+
+        /**
+         * adds the local expansion of cell a, shifted to the center of its child b, to the expansion of b
+         */
+        private void shiftLocal(int a, int b) {
+            var from = a * (p + 1);
+            var to = b * (p + 1);
+            var dRe = centerX[b] - centerX[a];
+            var dIm = centerY[b] - centerY[a];
+            var powRe = new double[p + 1];
+            var powIm = new double[p + 1];
+            powers(dRe, dIm, powRe, powIm);
+            for (var l = 1; l <= p; l++) {
+                var re = 0.0;
+                var im = 0.0;
+                for (var k = l; k <= p; k++) {
+                    var cRe = localRe[from + k];
+                    var cIm = localIm[from + k];
+                    var bin = binomial[k][l];
+                    re += bin * (cRe * powRe[k - l] - cIm * powIm[k - l]);
+                    im += bin * (cRe * powIm[k - l] + cIm * powRe[k - l]);
+                }
+                localRe[to + l] += re;
+                localIm[to + l] += im;
+            }
+        }
+
+        /**
+         * evaluates the local expansions of all leaves at their points and adds the direct interactions with nearby leaves
+         */
+        void evaluate(double[] fx, double[] fy) {
+            range(leaves.length, end[0]).forEach(i -> {
+                var a = leaves[i];
+                var base = a * (p + 1);
+                for (var k = start[a]; k < end[a]; k++) {
+                    var v = perm[k];
+                    // derivative of local expansion, evaluated by Horner's scheme
+                    var dx = x[v] - centerX[a];
+                    var dy = y[v] - centerY[a];
+                    var re = p * localRe[base + p];
+                    var im = p * localIm[base + p];
+                    for (var l = p - 1; l >= 1; l--) {
+                        var tRe = re * dx - im * dy + l * localRe[base + l];
+                        var tIm = re * dy + im * dx + l * localIm[base + l];
+                        re = tRe;
+                        im = tIm;
+                    }
+                    var forceX = re;
+                    var forceY = -im;
+
+                    for (var j = p2pStart[a]; j < p2pStart[a + 1]; j++) {
+                        var b = p2pList[j];
+                        for (var kb = start[b]; kb < end[b]; kb++) {
+                            var u = perm[kb];
+                            if (u != v) {
+                                var ex = x[v] - x[u];
+                                var ey = y[v] - y[u];
+                                var d2 = ex * ex + ey * ey;
+                                if (d2 > NumericalStability.POS_SMALL_LIMIT) {
+                                    forceX += ex / d2;
+                                    forceY += ey / d2;
+                                } else { // coincident points, push apart in a direction determined by the pair
+                                    var angle = 0.61803398875 * 2 * Math.PI * (Math.min(u, v) + 31L * Math.max(u, v));
+                                    var sign = (v < u ? 1 : -1) / NumericalStability.epsilon;
+                                    forceX += sign * Math.cos(angle);
+                                    forceY += sign * Math.sin(angle);
+                                }
+                            }
+                        }
+                    }
+                    fx[v] = forceX;
+                    fy[v] = forceY;
+                }
+            });
+        }
+
+        private void powers(double re, double im, double[] powRe, double[] powIm) {
+            powRe[0] = 1;
+            powIm[0] = 0;
+            for (var k = 1; k < powRe.length; k++) {
+                powRe[k] = powRe[k - 1] * re - powIm[k - 1] * im;
+                powIm[k] = powRe[k - 1] * im + powIm[k - 1] * re;
+            }
+        }
+
+        /**
+         * range of indices, parallel if the number of points is large enough
+         */
+        private static IntStream range(int count, int numberOfPoints) {
+            var range = IntStream.range(0, count);
+            return (numberOfPoints >= PARALLEL_THRESHOLD ? range.parallel() : range);
+        }
+    }
+
+    /**
+     * growable list of pairs of cells
+     */
+    private static class PairList {
+        private int[] first = new int[64];
+        private int[] second = new int[64];
+        private int size;
+
+        void add(int a, int b) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, 2 * size);
+                second = Arrays.copyOf(second, 2 * size);
+            }
+            first[size] = a;
+            second[size] = b;
+            size++;
+        }
+
+        /**
+         * converts to one list per cell containing all partners of the cell
+         *
+         * @param numberOfCells number of cells
+         * @param listStart     on return, the list for cell c is in positions listStart[c] to listStart[c+1]-1
+         * @param keepSelfPairs if true, a pair (c,c) puts c into the list of c once
+         * @return concatenated lists
+         */
+        int[] toSymmetricLists(int numberOfCells, int[] listStart, boolean keepSelfPairs) {
+            for (var k = 0; k < size; k++) {
+                if (second[k] != first[k]) {
+                    listStart[first[k] + 1]++;
+                    listStart[second[k] + 1]++;
+                } else if (keepSelfPairs)
+                    listStart[first[k] + 1]++;
+            }
+            for (var c = 0; c < numberOfCells; c++)
+                listStart[c + 1] += listStart[c];
+            var list = new int[listStart[numberOfCells]];
+            var next = Arrays.copyOf(listStart, numberOfCells);
+            for (var k = 0; k < size; k++) {
+                if (first[k] != second[k]) {
+                    list[next[first[k]]++] = second[k];
+                    list[next[second[k]]++] = first[k];
+                } else if (keepSelfPairs)
+                    list[next[first[k]]++] = first[k];
+            }
+            return list;
+        }
+    }
+}
@@ -36,10 +36,7 @@ public class NumericalStability {
 	public static final double POS_BIG_LIMIT = POS_BIG_DOUBLE * 1e-190;
 	public static final double POS_SMALL_LIMIT = POS_SMALL_DOUBLE * 1e190;
 
-
-	private static final Random random = new Random();
-
-	public static boolean repulsionNearMachinePrecision(double distance, DPointMutable force) {
+	public static boolean repulsionNearMachinePrecision(double distance, DPointMutable force, Random random) {
 
 		if (distance > POS_BIG_LIMIT) {
 			//create random number in range (0,1)
@@ -65,7 +62,7 @@ public class NumericalStability {
 			return false;
 	}
 
-	public static boolean nearMachinePrecision(double distance, DPointMutable force) {
+	public static boolean nearMachinePrecision(double distance, DPointMutable force, Random random) {
 		if (distance < POS_SMALL_LIMIT) {
 			//create random number in range (0,1)
 			double randx = random.nextDouble();
@@ -89,16 +86,16 @@ public class NumericalStability {
 			return false;
 	}
 
-	public static DPoint chooseDistinctRandomPointInRadiusEpsilon(DPoint old_pos) {
+	public static DPoint chooseDistinctRandomPointInRadiusEpsilon(DPoint old_pos, Random random) {
 		double xmin = old_pos.getX() - 1 * epsilon;
 		double xmax = old_pos.getX() + 1 * epsilon;
 		double ymin = old_pos.getY() - 1 * epsilon;
 		double ymax = old_pos.getY() + 1 * epsilon;
 
-		return chooseDistinctRandomPointInDisk(old_pos, xmin, xmax, ymin, ymax);
+		return chooseDistinctRandomPointInDisk(old_pos, xmin, xmax, ymin, ymax, random);
 	}
 
-	private static DPoint chooseDistinctRandomPointInDisk(DPoint oldPoint, double xmin, double xmax, double ymin, double ymax) {
+	private static DPoint chooseDistinctRandomPointInDisk(DPoint oldPoint, double xmin, double xmax, double ymin, double ymax, Random random) {
 		var mindist_to_xmin = oldPoint.getX() - xmin;
 		var mindist_to_xmax = xmax - oldPoint.getX();
 		var mindist_to_ymin = oldPoint.getY() - ymin;
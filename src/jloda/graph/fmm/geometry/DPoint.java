@@ -45,11 +45,15 @@ public class DPoint implements FastMultiLayerMethodLayout.Point {
      * @return angle
      */
     public static double angle(DPoint p, DPoint q, DPoint r) {
-        var dx1 = q.getX() - p.getX();
-        var dy1 = q.getY() - p.getY();
-        var dx2 = r.getX() - p.getX();
-        var dy2 = r.getY() - p.getY();
+        return angle(q.getX() - p.getX(), q.getY() - p.getY(), r.getX() - p.getX(), r.getY() - p.getY());
+    }
 
+    /**
+     * compute the angle between two vectors
+     *
+     * @return angle
+     */
+    public static double angle(double dx1, double dy1, double dx2, double dy2) {
         var norm = Math.sqrt((dx1 * dx1 + dy1 * dy1) * (dx2 * dx2 + dy2 * dy2));
         var cosfi = (dx1 * dx2 + dy1 * dy2) / norm;
 
@@ -109,6 +109,32 @@ public class LayoutBox {
         }
     }
 
+    /**
+     * update the box to contain the given coordinates
+     */
+    public void update(double[] x, double[] y, int n) {
+        if (n > 0) {
+            var xMin = Double.MAX_VALUE;
+            var xMax = Double.MIN_VALUE;
+            var yMin = Double.MAX_VALUE;
+            var yMax = Double.MIN_VALUE;
+
+            for (var i = 0; i < n; i++) {
+                xMin = Math.min(xMin, x[i]);
+                xMax = Math.max(xMax, x[i]);
+                yMin = Math.min(yMin, y[i]);
+                yMax = Math.max(yMax, y[i]);
+            }
+            setLeftBottomCorner(Math.floor(xMin - 1), Math.floor(yMin - 1));
+            setLength(Math.ceil(Math.max(xMax - xMin, yMax - yMin)) * 1.01 + 2);
+
+            if (length <= 2) {
+                length = n * 20;
+                setLeftBottomCorner(Math.floor(xMin) - length / 2, Math.floor(yMin) - length / 2);
+            }
+        }
+    }
+
     public void restrictToBox(DPointMutable force) {
         double x_min = getLeft();
         double x_max = getLeft() + getLength();
@@ -0,0 +1,308 @@
+/*
+ * BlockedBloomFilter.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.kmers.bloomfilter;
+
+import jloda.util.ByteInputBuffer;
+import jloda.util.ByteOutputBuffer;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a cache-blocked Bloom filter that is thread-safe without locking.
+ * The bits are organized in blocks of 512 bits (one 64-byte cache line). Each item is hashed once, using the 128-bit
+ * MurmurHash3: the first half selects the block and the second half generates all probes within the block by
+ * (multiplicative) double hashing. Bits are set using atomic bitwise-or operations on the underlying long array, so any number of threads may
+ * add and query concurrently. For the same number of bits, the false positive rate is higher than that of a
+ * standard Bloom filter, as items are not distributed evenly across blocks
+ * Daniel Huson, 10.2026
+ */
+public class BlockedBloomFilter {
+    public static final int MAGIC_INT = 1179403330; // BBFL
+    public static final int MAX_NUMBER_OF_HASH_FUNCTIONS = 16;
+
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] words;
+    private final int numberOfBlocks;
+    private final int numberOfHashFunctions;
+    private final LongAdder itemsAdded = new LongAdder();
+
+    /**
+     * constructor
+     *
+     * @param expectedNumberOfItems    expected number of items
+     * @param falsePositiveProbability desired false positive probability
+     */
+    public BlockedBloomFilter(long expectedNumberOfItems, double falsePositiveProbability) {
+        this(expectedNumberOfItems, falsePositiveProbability, Long.MAX_VALUE);
+    }
+
+    /**
+     * constructor
+     *
+     * @param expectedNumberOfItems    expected number of items
+     * @param falsePositiveProbability desired false positive probability
+     * @param maxNumberOfBytes         maximum number of bytes to use
+     */
+    public BlockedBloomFilter(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
+        this(computeNumberOfBlocks(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes), computeNumberOfHashFunctions(falsePositiveProbability));
+    }
+
+    private BlockedBloomFilter(int numberOfBlocks, int numberOfHashFunctions) {
+        this.numberOfBlocks = numberOfBlocks;
+        this.numberOfHashFunctions = numberOfHashFunctions;
+        words = new long[numberOfBlocks * WORDS_PER_BLOCK];
+    }
+
+    private static int computeNumberOfHashFunctions(double falsePositiveProbability) {
+        checkProbability(falsePositiveProbability);
+        return Math.max(1, Math.min(MAX_NUMBER_OF_HASH_FUNCTIONS, (int) Math.ceil(-Math.log(falsePositiveProbability) / Math.log(2))));
+    }
+
+    private static int computeNumberOfBlocks(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
+        checkProbability(falsePositiveProbability);
+        var bits = Math.ceil(Math.max(1, expectedNumberOfItems) * -Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        var blocks = Math.min((long) Math.ceil(bits / 512), Math.max(1, maxNumberOfBytes / 64));
+        return (int) Math.max(1, Math.min(blocks, (Integer.MAX_VALUE - 8) / WORDS_PER_BLOCK));
+    }
+
+    private static void checkProbability(double falsePositiveProbability) {
+        if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1))
+            throw new IllegalArgumentException("invalid falsePositiveProbability: " + falsePositiveProbability);
+    }
+
+    /**
+     * the number of bytes that a filter constructed with the given parameters uses
+     */
+    public static long computeNumberOfBytes(long expectedNumberOfItems, double falsePositiveProbability, long maxNumberOfBytes) {
+        return 64L * computeNumberOfBlocks(expectedNumberOfItems, falsePositiveProbability, maxNumberOfBytes);
+    }
+
+    public String toString() {
+        return String.format("BlockedBloomFilter: blocks=%,d hashFunctions=%d bytes=%,d items=%,d fpr=%.2g", numberOfBlocks, numberOfHashFunctions,
+                getNumberOfBytes(), cardinality(), expectedFalsePositiveRate());
+    }
+
+    /**
+     * adds an item
+     *
+     * @return true, if definitely newly added
+     */
+    public boolean add(byte[] string) {
+        return add(string, 0, string.length);
+    }
+
+    /**
+     * adds an item
+     *
+     * @return true, if definitely newly added
+     */
+    public boolean add(byte[] string, int offset, int length) {
+        return hash(string, offset, length, true);
+    }
+
+    /**
+     * adds an item given as a long, such as a 2-bit encoded k-mer
+     *
+     * @return true, if definitely newly added
+     */
+    public boolean add(long key) {
+        return hash(key, true);
+    }
+
+    /**
+     * is the item probably contained?
+     *
+     * @return false, if definitely not contained
+     */
+    public boolean isContainedProbably(byte[] string) {
+        return isContainedProbably(string, 0, string.length);
+    }
+
+    /**
+     * is the item probably contained?
+     *
+     * @return false, if definitely not contained
+     */
+    public boolean isContainedProbably(byte[] string, int offset, int length) {
+        return hash(string, offset, length, false);
+    }
+
+    /**
+     * is the item given as a long probably contained?
+     *
+     * @return false, if definitely not contained
+     */
+    public boolean isContainedProbably(long key) {
+        return hash(key, false);
+    }
+
+    /**
+     * sets or tests the probes for an item with the given 128-bit hash
+     */
+    private boolean apply(long h1, long h2, boolean add) {
+        final var base = (int) (((h1 >>> 32) * numberOfBlocks) >>> 32) * WORDS_PER_BLOCK;
+        var probe = (int) h2;
+        final var step = (int) (h2 >>> 32);
+        var added = false;
+        for (var i = 0; i < numberOfHashFunctions; i++) {
+            final var bit = probe >>> 23; // top 9 bits, plain probe+step would produce arithmetic progressions that overlap too often within a block
+            final var index = base + (bit >>> 6);
+            final var mask = 1L << bit;
+            if ((words[index] & mask) == 0) {
+                if (!add)
+                    return false;
+                if (((long) WORDS.getAndBitwiseOr(words, index, mask) & mask) == 0)
+                    added = true;
+            }
+            probe = probe * 0x9E3779B1 + step;
+        }
+        if (add)
+            itemsAdded.increment();
+        return add ? added : true;
+    }
+
+    /**
+     * computes the 128-bit MurmurHash3 (x64 variant) of a range of bytes and applies it
+     */
+    private boolean hash(byte[] data, int offset, int length, boolean add) {
+        var h1 = 0L;
+        var h2 = 0L;
+        final var blocks = length >>> 4;
+        for (var i = 0; i < blocks; i++) {
+            var k1 = getLong(data, offset + 16 * i);
+            var k2 = getLong(data, offset + 16 * i + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        final var tail = offset + 16 * blocks;
+        final var rest = length & 15;
+        var k1 = 0L;
+        var k2 = 0L;
+        for (var i = rest - 1; i >= 8; i--)
+            k2 = (k2 << 8) | (data[tail + i] & 0xFFL);
+        for (var i = Math.min(rest, 8) - 1; i >= 0; i--)
+            k1 = (k1 << 8) | (data[tail + i] & 0xFFL);
+        if (rest > 8)
+            h2 ^= mixK2(k2);
+        if (rest > 0)
+            h1 ^= mixK1(k1);
+        return finish(h1, h2, length, add);
+    }
+
+    /**
+     * computes the 128-bit MurmurHash3 of a long, as the 8 bytes of its little-endian representation, and applies it
+     */
+    private boolean hash(long key, boolean add) {
+        return finish(mixK1(key), 0L, 8, add);
+    }
+
+    private boolean finish(long h1, long h2, int length, boolean add) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+        return apply(h1, h2, add);
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= 0x87c37b91114253d5L;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * 0x4cf5ad432745937fL;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= 0x4cf5ad432745937fL;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * 0x87c37b91114253d5L;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return (data[offset] & 0xFFL) | (data[offset + 1] & 0xFFL) << 8 | (data[offset + 2] & 0xFFL) << 16 | (data[offset + 3] & 0xFFL) << 24
+               | (data[offset + 4] & 0xFFL) << 32 | (data[offset + 5] & 0xFFL) << 40 | (data[offset + 6] & 0xFFL) << 48 | (data[offset + 7] & 0xFFL) << 56;
+    }
+
+    /**
+     * expected false positive rate, based on the number of items added, for a standard Bloom filter of the same size
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow((1 - Math.exp(-numberOfHashFunctions * (double) cardinality() / (512.0 * numberOfBlocks))), numberOfHashFunctions);
+    }
+
+    /**
+     * number of add operations performed
+     */
+    public long cardinality() {
+        return itemsAdded.sum();
+    }
+
+    public int getNumberOfHashFunctions() {
+        return numberOfHashFunctions;
+    }
+
+    public long getNumberOfBytes() {
+        return 8L * words.length;
+    }
+
+    public byte[] getBytes() {
+        final ByteOutputBuffer buffer = new ByteOutputBuffer();
+        buffer.writeIntLittleEndian(MAGIC_INT);
+        buffer.writeIntLittleEndian(numberOfBlocks);
+        buffer.writeIntLittleEndian(numberOfHashFunctions);
+        buffer.writeLongLittleEndian(cardinality());
+        for (long word : words)
+            buffer.writeLongLittleEndian(word);
+        return buffer.copyBytes();
+    }
+
+    public static BlockedBloomFilter parseBytes(byte[] bytes) throws IOException {
+        final ByteInputBuffer buffer = new ByteInputBuffer(bytes);
+        if (buffer.readIntLittleEndian() != MAGIC_INT)
+            throw new IOException("Incorrect magic number");
+        final int numberOfBlocks = buffer.readIntLittleEndian();
+        final int numberOfHashFunctions = buffer.readIntLittleEndian();
+        final BlockedBloomFilter bloomFilter = new BlockedBloomFilter(numberOfBlocks, numberOfHashFunctions);
+        bloomFilter.itemsAdded.add(buffer.readLongLittleEndian());
+        for (int i = 0; i < bloomFilter.words.length; i++)
+            bloomFilter.words[i] = buffer.readLongLittleEndian();
+        return bloomFilter;
+    }
+}
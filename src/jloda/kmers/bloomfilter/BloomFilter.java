@@ -170,8 +170,17 @@ public class BloomFilter {
      * @return true, if definitely not previously added
      */
     public boolean isContainedProbably(byte[] string) {
+        return isContainedProbably(string, 0, string.length);
+    }
+
+    /**
+     * is the string probably contained?
+     *
+     * @return false, if definitely not contained
+     */
+    public boolean isContainedProbably(byte[] string, int offset, int length) {
         for (int i = 0; i < numberOfHashFunctions; i++) {
-            long hash = Math.abs(MurmurHash.hash64(string, 0, string.length, i));
+            long hash = Math.abs(MurmurHash.hash64(string, offset, length, i));
             if (!bitSet.contains(hash & hashBits))
                 return false;
         }
@@ -187,7 +196,10 @@ public class BloomFilter {
     }
 
     public String getString() {
-		return String.format("b=%d i=%d h=%d a=%d:%s", totalBits, bitsPerItem, numberOfHashFunctions, itemsAdded, StringUtils.toString(bitSet.getBits(), ","));
+		final var words = new long[(int) bitSet.getNumberOfWords()];
+		for (var i = 0; i < words.length; i++)
+			words[i] = bitSet.getWord(i);
+		return String.format("b=%d i=%d h=%d a=%d:%s", totalBits, bitsPerItem, numberOfHashFunctions, itemsAdded, StringUtils.toString(words, ","));
     }
 
     public static BloomFilter parseString(String string) {
@@ -199,7 +211,8 @@ public class BloomFilter {
         bloomFilter.itemsAdded = itemsAdded;
         String[] numbers = StringUtils.split(StringUtils.getWordAfter(":", string), ',');
         for (int i = 0; i < numbers.length; i++)
-            bloomFilter.bitSet.getBits()[i] = NumberUtils.parseLong(numbers[i]);
+            bloomFilter.bitSet.setWord(i, NumberUtils.parseLong(numbers[i]));
+        bloomFilter.bitSet.computeCardinality();
         return bloomFilter;
     }
 
@@ -19,54 +19,108 @@
 
 package jloda.kmers.bloomfilter;
 
+import jloda.util.Basic;
 import jloda.util.ByteInputBuffer;
 import jloda.util.ByteOutputBuffer;
 
-import java.util.Arrays;
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
- * bit set that works for longs upto 64*max-int
+ * bit set that works for longs upto 2^63.
+ * Words are kept in segments of SEGMENT_WORDS longs, either in arrays on the heap or in direct byte buffers off the heap.
+ * All single-bit operations are thread-safe and lock-free: bits are set and cleared using atomic bitwise operations and
+ * reads do not lock. Bulk operations process segments in parallel
  * Daniel Huson, 1.2019
  */
 public class LongBitSet implements Iterable<Long> {
-    private final long[] bits;
-    private long cardinality = 0;
+    public static final int SEGMENT_SHIFT = 24;
+    public static final int SEGMENT_WORDS = 1 << SEGMENT_SHIFT; // 128 MB per segment
+    private static final int SEGMENT_MASK = SEGMENT_WORDS - 1;
 
-    private final Object[] sync = new Object[1024];
+    private static final VarHandle ARRAY = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BUFFER = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final long numberOfWords;
+    private final long[][] arrays; // on-heap backend
+    private final ByteBuffer[] buffers; // off-heap backend
+    private final LongAdder cardinality = new LongAdder();
 
     /**
      * constructor
      *
-	 */
+     * @param maxCardinality largest bit that will be used
+     */
     public LongBitSet(long maxCardinality) {
-        bits = new long[(int) (maxCardinality / 64) + 1];
-        for (int i = 0; i < sync.length; i++) {
-            sync[i] = new Object();
+        this(maxCardinality, false);
+    }
+
+    /**
+     * constructor
+     *
+     * @param maxCardinality largest bit that will be used
+     * @param offHeap        keep bits in direct byte buffers, outside of the Java heap
+     */
+    public LongBitSet(long maxCardinality, boolean offHeap) {
+        numberOfWords = (maxCardinality >>> 6) + 1;
+        var numberOfSegments = (int) ((numberOfWords + SEGMENT_WORDS - 1) >>> SEGMENT_SHIFT);
+        if (offHeap) {
+            arrays = null;
+            buffers = new ByteBuffer[numberOfSegments];
+            for (var s = 0; s < numberOfSegments; s++)
+                buffers[s] = ByteBuffer.allocateDirect(8 * getSegmentLength(s) + 8).alignedSlice(8).order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            buffers = null;
+            arrays = new long[numberOfSegments][];
+            for (var s = 0; s < numberOfSegments; s++)
+                arrays[s] = new long[getSegmentLength(s)];
         }
     }
 
+    private int getSegmentLength(int segment) {
+        return (int) Math.min(SEGMENT_WORDS, numberOfWords - ((long) segment << SEGMENT_SHIFT));
+    }
+
+    private int getNumberOfSegments() {
+        return (arrays != null ? arrays.length : buffers.length);
+    }
+
+    /**
+     * the mask of a bit in its word. Bit b is stored at position (b-1) mod 64, as in earlier versions, so that serialized bit sets remain valid
+     */
+    private static long mask(long bit) {
+        return 1L << ((bit - 1L) & 63L);
+    }
+
+    private long checkWordIndex(long bit) {
+        final long index = bit >>> 6;
+        if (index >= numberOfWords)
+            throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + numberOfWords * 64);
+        return index;
+    }
+
     /**
      * add a bit, thread-safe
      *
      * @return true, if bit was added, false, if already present
      */
     public boolean add(long bit) {
-        final int a = (int) (bit >>> 6);
-        final long b = (1L << ((bit & 63L) - 1L));
-
-        synchronized ((sync[a & 1023])) {
-            try {
-                if ((bits[a] & b) == 0L) {
-                    bits[a] |= b;
-                    cardinality++;
-                    return true;
-                } else
-                    return false;
-            } catch (IndexOutOfBoundsException ex) {
-                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + bits.length * 64);
-            }
-        }
+        final long index = checkWordIndex(bit);
+        final long mask = mask(bit);
+        if ((getWord(index) & mask) != 0L)
+            return false;
+        if ((getAndBitwiseOr(index, mask) & mask) == 0L) {
+            cardinality.increment();
+            return true;
+        } else
+            return false;
     }
 
     /**
@@ -75,22 +129,15 @@ public class LongBitSet implements Iterable<Long> {
      * @return true, if bit was removed, false, if not present
      */
     public boolean remove(long bit) {
-        final int a = (int) (bit >>> 6);
-        final long b = (1L << ((bit & 63L) - 1L));
-
-        synchronized ((sync[a & 1023])) {
-            try {
-                if ((bits[a] & b) == 0L)
-                    return false;
-                else {
-                    bits[a] &= ~b;
-                    cardinality--;
-                    return true;
-                }
-            } catch (IndexOutOfBoundsException ex) {
-                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + bits.length * 64);
-            }
-        }
+        final long index = checkWordIndex(bit);
+        final long mask = mask(bit);
+        if ((getWord(index) & mask) == 0L)
+            return false;
+        if ((getAndBitwiseAnd(index, ~mask) & mask) != 0L) {
+            cardinality.decrement();
+            return true;
+        } else
+            return false;
     }
 
     /**
@@ -99,23 +146,60 @@ public class LongBitSet implements Iterable<Long> {
      * @return true, if contained
      */
     public boolean contains(long bit) {
-        final int a = (int) (bit >>> 6);
-        final long b = (1L << ((bit & 63L) - 1L));
-        synchronized ((sync[a & 1023])) {
-            try {
-                return (bits[a] & b) != 0;
-            } catch (IndexOutOfBoundsException ex) {
-                throw new IndexOutOfBoundsException("invalid value: " + bit + " >= " + bits.length * 64);
-            }
-        }
+        return (getWord(checkWordIndex(bit)) & mask(bit)) != 0L;
+    }
+
+    /**
+     * gets a word of 64 bits
+     */
+    public long getWord(long index) {
+        if (arrays != null)
+            return (long) ARRAY.getOpaque(arrays[(int) (index >>> SEGMENT_SHIFT)], (int) index & SEGMENT_MASK);
+        else
+            return (long) BUFFER.getOpaque(buffers[(int) (index >>> SEGMENT_SHIFT)], ((int) index & SEGMENT_MASK) << 3);
+    }
+
+    /**
+     * sets a word of 64 bits. Does not update the cardinality, call computeCardinality() after setting words
+     */
+    public void setWord(long index, long value) {
+        if (arrays != null)
+            ARRAY.setVolatile(arrays[(int) (index >>> SEGMENT_SHIFT)], (int) index & SEGMENT_MASK, value);
+        else
+            BUFFER.setVolatile(buffers[(int) (index >>> SEGMENT_SHIFT)], ((int) index & SEGMENT_MASK) << 3, value);
+    }
+
+    private long getAndBitwiseOr(long index, long mask) {
+        if (arrays != null)
+            return (long) ARRAY.getAndBitwiseOr(arrays[(int) (index >>> SEGMENT_SHIFT)], (int) index & SEGMENT_MASK, mask);
+        else
+            return (long) BUFFER.getAndBitwiseOr(buffers[(int) (index >>> SEGMENT_SHIFT)], ((int) index & SEGMENT_MASK) << 3, mask);
+    }
+
+    private long getAndBitwiseAnd(long index, long mask) {
+        if (arrays != null)
+            return (long) ARRAY.getAndBitwiseAnd(arrays[(int) (index >>> SEGMENT_SHIFT)], (int) index & SEGMENT_MASK, mask);
+        else
+            return (long) BUFFER.getAndBitwiseAnd(buffers[(int) (index >>> SEGMENT_SHIFT)], ((int) index & SEGMENT_MASK) << 3, mask);
+    }
+
+    /**
+     * the number of 64-bit words
+     */
+    public long getNumberOfWords() {
+        return numberOfWords;
+    }
+
+    public boolean isOffHeap() {
+        return buffers != null;
     }
 
     /**
      * clear the set
      */
     public void clear() {
-        Arrays.fill(bits, 0);
-        cardinality = 0;
+        applyToWords(index -> 0L);
+        cardinality.reset();
     }
 
     /**
@@ -124,50 +208,112 @@ public class LongBitSet implements Iterable<Long> {
      * @return number of elements
      */
     public long cardinality() {
-        return cardinality;
+        return cardinality.sum();
+    }
+
+    /**
+     * recomputes the number of elements by counting all bits, in parallel
+     *
+     * @return number of elements
+     */
+    public long computeCardinality() {
+        var count = IntStream.range(0, getNumberOfSegments()).parallel().mapToLong(s -> {
+            var sum = 0L;
+            var start = (long) s << SEGMENT_SHIFT;
+            for (var i = 0; i < getSegmentLength(s); i++)
+                sum += Long.bitCount(getWord(start + i));
+            return sum;
+        }).sum();
+        cardinality.reset();
+        cardinality.add(count);
+        return count;
+    }
+
+    /**
+     * sets this to the union of this and the other set, in parallel. Both sets must have the same number of words.
+     * Not atomic with respect to concurrent modifications
+     */
+    public void or(LongBitSet other) {
+        checkSameSize(other);
+        applyToWords(index -> getWord(index) | other.getWord(index));
+        computeCardinality();
+    }
+
+    /**
+     * sets this to the intersection of this and the other set, in parallel. Both sets must have the same number of words.
+     * Not atomic with respect to concurrent modifications
+     */
+    public void and(LongBitSet other) {
+        checkSameSize(other);
+        applyToWords(index -> getWord(index) & other.getWord(index));
+        computeCardinality();
+    }
+
+    private void checkSameSize(LongBitSet other) {
+        if (other.numberOfWords != numberOfWords)
+            throw new IllegalArgumentException("bit sets differ in size: " + numberOfWords + " vs " + other.numberOfWords);
+    }
+
+    /**
+     * sets all words, processing segments in parallel
+     */
+    private void applyToWords(WordFunction function) {
+        IntStream.range(0, getNumberOfSegments()).parallel().forEach(s -> {
+            var start = (long) s << SEGMENT_SHIFT;
+            for (var i = 0; i < getSegmentLength(s); i++)
+                setWord(start + i, function.apply(start + i));
+        });
+    }
+
+    private interface WordFunction {
+        long apply(long index);
     }
 
     /**
-     * iterator over all members
+     * iterator over all members, in increasing order
      *
      * @return iterator
      */
     @Override
     public Iterator<Long> iterator() {
         return new Iterator<>() {
-            long pos = 0;
-            long count = 0;
+            private long index = -1;
+            private long word = 0L; // remaining bits of current word, rotated so that bit i represents value 64*index+i
 
             @Override
             public boolean hasNext() {
-                return count < cardinality;
+                while (word == 0L) {
+                    if (++index >= numberOfWords)
+                        return false;
+                    word = Long.rotateLeft(getWord(index), 1);
+                }
+                return true;
             }
 
             @Override
             public Long next() {
-                while (!contains(pos))
-                    pos++;
-                count++;
-                return pos++;
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                var value = (index << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                return value;
             }
         };
     }
 
-    public long[] getBits() {
-        return bits;
-    }
-
     /**
-     * gets a byte representation of the Bloom filter
+     * gets a byte representation of the bit set. Use write() for bit sets that are too large for an array
      *
      * @return bytes
      */
     public byte[] getBytes() {
-        final ByteOutputBuffer buffer = new ByteOutputBuffer();
-        buffer.writeLongLittleEndian(cardinality);
-        buffer.writeIntLittleEndian(bits.length);
-        for (long word : bits)
-            buffer.writeLongLittleEndian(word);
+        if (12L + 8L * numberOfWords > Basic.MAX_ARRAY_SIZE)
+            throw new IllegalStateException("Bit set too large for array, use write()");
+        final ByteOutputBuffer buffer = new ByteOutputBuffer((int) (12 + 8 * numberOfWords));
+        buffer.writeLongLittleEndian(cardinality());
+        buffer.writeIntLittleEndian((int) numberOfWords);
+        for (long i = 0; i < numberOfWords; i++)
+            buffer.writeLongLittleEndian(getWord(i));
         return buffer.copyBytes();
     }
 
@@ -180,13 +326,57 @@ public class LongBitSet implements Iterable<Long> {
 
         final LongBitSet bitset = new LongBitSet(64L * bitsLength - 1L);
         for (int i = 0; i < bitsLength; i++)
-            bitset.getBits()[i] = buffer.readLongLittleEndian();
-        bitset.cardinality = cardinality;
+            bitset.setWord(i, buffer.readLongLittleEndian());
+        bitset.cardinality.add(cardinality);
+        return bitset;
+    }
+
+    /**
+     * writes the bit set to a stream. For up to 2^31-1 words, the format is the same as that of getBytes(),
+     * otherwise the number of words is given as -1 followed by a long
+     */
+    public void write(OutputStream outs) throws IOException {
+        var buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(cardinality());
+        if (numberOfWords <= Integer.MAX_VALUE)
+            buffer.putInt((int) numberOfWords);
+        else
+            buffer.putInt(-1).putLong(numberOfWords);
+        for (long i = 0; i < numberOfWords; i++) {
+            if (buffer.remaining() < 8) {
+                outs.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putLong(getWord(i));
+        }
+        outs.write(buffer.array(), 0, buffer.position());
+        outs.flush();
+    }
+
+    /**
+     * reads a bit set written by write() or getBytes()
+     *
+     * @param offHeap keep bits off the heap
+     */
+    public static LongBitSet read(InputStream ins, boolean offHeap) throws IOException {
+        var dins = new DataInputStream(new BufferedInputStream(ins, 1 << 16));
+        final var cardinality = Long.reverseBytes(dins.readLong());
+        long numberOfWords = Integer.reverseBytes(dins.readInt());
+        if (numberOfWords == -1)
+            numberOfWords = Long.reverseBytes(dins.readLong());
+        if (numberOfWords <= 0)
+            throw new IOException("Invalid number of words: " + numberOfWords);
+        final var bitset = new LongBitSet(64L * numberOfWords - 1L, offHeap);
+        for (long i = 0; i < numberOfWords; i++)
+            bitset.setWord(i, Long.reverseBytes(dins.readLong()));
+        bitset.cardinality.add(cardinality);
         return bitset;
     }
 
     public void copy(LongBitSet bitSet) {
-        System.arraycopy(bitSet.getBits(), 0, this.bits, 0, bitSet.getBits().length);
-        cardinality = bitSet.cardinality;
+        for (long i = 0; i < Math.min(numberOfWords, bitSet.numberOfWords); i++)
+            setWord(i, bitSet.getWord(i));
+        cardinality.reset();
+        cardinality.add(bitSet.cardinality());
     }
 }
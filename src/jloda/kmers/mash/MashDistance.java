@@ -68,34 +68,39 @@ public class MashDistance {
     }
 
     public static int computeIntersection(MashSketch sketch1, MashSketch sketch2) {
-        final int sketchSize = sketch1.getSketchSize();
+        return computeIntersection(sketch1.getValues(), 0, sketch1.getValues().length, sketch2.getValues(), 0, sketch2.getValues().length, sketch1.getSketchSize(), 0);
+    }
 
+    /**
+     * computes the number of common values among the sketchSize smallest values of the union of two sorted sketches.
+     * The merge is branch-free, and is abandoned as soon as the intersection cannot reach the given minimum
+     *
+     * @param values1         array containing the first sketch
+     * @param offset1         start of the first sketch
+     * @param size1           number of values of the first sketch
+     * @param values2         array containing the second sketch
+     * @param offset2         start of the second sketch
+     * @param size2           number of values of the second sketch
+     * @param sketchSize      sketch size
+     * @param minIntersection minimum intersection size of interest
+     * @return intersection size, or -1, if less than minIntersection
+     */
+    public static int computeIntersection(long[] values1, int offset1, int size1, long[] values2, int offset2, int size2, int sketchSize, int minIntersection) {
+        final int end1 = offset1 + size1;
+        final int end2 = offset2 + size2;
+        int i = offset1;
+        int j = offset2;
         int intersectionSize = 0;
-        int mergeSize = 0;
-        int i = 0;
-        int j = 0;
-        while (true) {
-            final long value1 = sketch1.getValue(i);
-            final long value2 = sketch2.getValue(j);
-
-            if (value1 < value2) {
-                if (++i == sketchSize)
-                    break;
-            } else if (value1 > value2) {
-                if (++j == sketchSize)
-                    break;
-            } else {
-                intersectionSize++;
-                if (++i == sketchSize)
-                    break;
-                if (++j == sketchSize)
-                    break;
-            }
-            if (++mergeSize == sketchSize) {
-                break;
-            }
+        for (int mergeSize = 0; mergeSize < sketchSize && i < end1 && j < end2; mergeSize++) {
+            final long value1 = values1[i];
+            final long value2 = values2[j];
+            intersectionSize += (value1 == value2 ? 1 : 0);
+            i += (value1 <= value2 ? 1 : 0);
+            j += (value1 >= value2 ? 1 : 0);
+            if ((mergeSize & 63) == 63 && intersectionSize + sketchSize - mergeSize - 1 < minIntersection)
+                return -1;
         }
-        return intersectionSize;
+        return intersectionSize >= minIntersection ? intersectionSize : -1;
     }
 
     /**
@@ -0,0 +1,287 @@
+/*
+ * MashDistanceMatrix.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.kmers.mash;
+
+import jloda.fx.util.ProgramExecutorService;
+import jloda.kmers.GenomeDistanceType;
+import jloda.util.CanceledException;
+import jloda.util.Single;
+import jloda.util.progress.ProgressListener;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * computes all pairwise distances between a set of mash sketches.
+ * All sketches are packed into one array. Pairs are processed in square tiles, so that the sketches of a tile
+ * stay in cache, and tiles are distributed across threads. Results can be obtained as a dense matrix, as a list of
+ * all edges up to a maximum distance, or written as a PHYLIP distance matrix
+ * Daniel Huson, 10.2026
+ */
+public class MashDistanceMatrix {
+    public static final int TILE_SIZE = 64;
+
+    private final int numberOfSketches;
+    private final int sketchSize;
+    private final int kMerSize;
+    private final long[] values; // sketch i starts at i*sketchSize
+    private final int[] sizes;
+    private final String[] names;
+
+    private GenomeDistanceType distanceType = GenomeDistanceType.Mash;
+    private int numberOfThreads = ProgramExecutorService.getNumberOfCoresToUse();
+
+    /**
+     * constructor
+     *
+     * @param sketches sketches, must all be comparable
+     */
+    public MashDistanceMatrix(List<MashSketch> sketches) {
+        numberOfSketches = sketches.size();
+        sketchSize = (numberOfSketches > 0 ? sketches.get(0).getSketchSize() : 0);
+        kMerSize = (numberOfSketches > 0 ? sketches.get(0).getkSize() : 0);
+        values = new long[numberOfSketches * sketchSize];
+        sizes = new int[numberOfSketches];
+        names = new String[numberOfSketches];
+        for (var i = 0; i < numberOfSketches; i++) {
+            var sketch = sketches.get(i);
+            if (!MashSketch.canCompare(sketches.get(0), sketch))
+                throw new IllegalArgumentException("Incompatible sketches: " + sketches.get(0) + " and " + sketch);
+            sizes[i] = Math.min(sketchSize, sketch.getValues().length);
+            System.arraycopy(sketch.getValues(), 0, values, i * sketchSize, sizes[i]);
+            names[i] = sketch.getName();
+        }
+    }
+
+    /**
+     * computes the distance between two sketches
+     */
+    public double getDistance(int i, int j) {
+        return computeDistance(MashDistance.computeIntersection(values, i * sketchSize, sizes[i], values, j * sketchSize, sizes[j], sketchSize, 0));
+    }
+
+    private double computeDistance(int intersectionSize) {
+        var jaccardIndex = (double) intersectionSize / sketchSize;
+        if (distanceType == GenomeDistanceType.Mash)
+            return MashDistance.compute(jaccardIndex, kMerSize);
+        else
+            return 1 - jaccardIndex;
+    }
+
+    /**
+     * the smallest intersection size that can give a distance of at most maxDistance
+     */
+    private int computeMinIntersectionSize(double maxDistance) {
+        if (distanceType == GenomeDistanceType.Mash) {
+            if (maxDistance >= 0.75)
+                return 0;
+            var min = MashDistance.computeMinIntersectionSizeForMaxDistance(maxDistance, kMerSize, sketchSize);
+            while (min > 0 && computeDistance(min - 1) <= maxDistance) // guard against rounding
+                min--;
+            return min;
+        } else
+            return Math.max(0, (int) Math.ceil((1 - maxDistance) * sketchSize - 1e-9));
+    }
+
+    /**
+     * computes the full distance matrix
+     */
+    public double[][] computeMatrix(ProgressListener progress) throws IOException {
+        var matrix = new double[numberOfSketches][numberOfSketches];
+        applyToTiles(0, numberOfSketches, 0, (i, j, distance) -> {
+            matrix[i][j] = distance;
+            matrix[j][i] = distance;
+        }, progress);
+        return matrix;
+    }
+
+    /**
+     * computes all pairs of sketches whose distance is at most the given maximum. Pairs whose sketches cannot reach
+     * the required intersection size are abandoned early
+     *
+     * @return edges with i&lt;j, in no particular order
+     */
+    public ArrayList<Edge> computeEdges(double maxDistance, ProgressListener progress) throws IOException {
+        var queue = new ConcurrentLinkedQueue<Edge>();
+        applyToTiles(0, numberOfSketches, computeMinIntersectionSize(maxDistance), (i, j, distance) -> {
+            if (i != j && distance <= maxDistance)
+                queue.add(new Edge(i, j, distance));
+        }, progress);
+        return new ArrayList<>(queue);
+    }
+
+    /**
+     * writes the distance matrix in PHYLIP format. Rows are computed in blocks of TILE_SIZE, using all threads, and written as soon
+     * as a block is complete, so only one block of rows is held in memory
+     */
+    public void writePhylip(Writer w, ProgressListener progress) throws IOException {
+        w.write(numberOfSketches + "\n");
+        progress.setMaximum(numberOfSketches);
+        progress.setProgress(0);
+        var buf = new StringBuilder();
+        for (var start = 0; start < numberOfSketches; start += TILE_SIZE) {
+            var rowStart = start;
+            var rows = new double[Math.min(TILE_SIZE, numberOfSketches - start)][numberOfSketches];
+            applyToTiles(rowStart, rowStart + rows.length, 0, (i, j, distance) -> {
+                if (i >= rowStart && i < rowStart + rows.length)
+                    rows[i - rowStart][j] = distance;
+                if (j >= rowStart && j < rowStart + rows.length)
+                    rows[j - rowStart][i] = distance;
+            }, null);
+            for (var r = 0; r < rows.length; r++) {
+                buf.setLength(0);
+                buf.append(names[rowStart + r].replaceAll("\\s+", "_"));
+                for (var distance : rows[r]) {
+                    buf.append('\t');
+                    appendDistance(buf, distance);
+                }
+                buf.append('\n');
+                w.write(buf.toString());
+            }
+            progress.setProgress(rowStart + rows.length);
+        }
+        w.flush();
+    }
+
+    /**
+     * appends a distance with six decimals, avoiding String.format
+     */
+    private static void appendDistance(StringBuilder buf, double distance) {
+        var value = Math.round(distance * 1000000);
+        buf.append(value / 1000000).append('.');
+        var fraction = Long.toString(value % 1000000);
+        buf.append("000000", 0, 6 - fraction.length()).append(fraction);
+    }
+
+    /**
+     * computes the distances of all pairs (i,j) with i&lt;=j, for which i or j lies in the given range of rows, processing tiles in parallel
+     *
+     * @param minIntersection pairs with a smaller intersection size are not reported
+     * @param progress        progress listener, or null
+     */
+    private void applyToTiles(int rowStart, int rowEnd, int minIntersection, DistanceConsumer consumer, ProgressListener progress) throws IOException {
+        var tiles = new ArrayList<int[]>();
+        for (var a = 0; a < numberOfSketches; a += TILE_SIZE) {
+            for (var b = a; b < numberOfSketches; b += TILE_SIZE) {
+                if ((a < rowEnd && a + TILE_SIZE > rowStart) || (b < rowEnd && b + TILE_SIZE > rowStart))
+                    tiles.add(new int[]{a, b});
+            }
+        }
+        if (progress != null) {
+            progress.setMaximum(tiles.size());
+            progress.setProgress(0);
+        }
+        var exception = new Single<Exception>();
+        var done = new LongAdder();
+        var service = Executors.newFixedThreadPool(Math.max(1, Math.min(numberOfThreads, tiles.size())));
+        try {
+            for (var tile : tiles) {
+                service.submit(() -> {
+                    if (exception.isNull()) {
+                        try {
+                            computeTile(tile[0], tile[1], rowStart, rowEnd, minIntersection, consumer);
+                            done.increment();
+                        } catch (Exception ex) {
+                            exception.setIfCurrentValueIsNull(ex);
+                        }
+                    }
+                });
+            }
+            service.shutdown();
+            while (!service.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                if (progress != null)
+                    progress.setProgress(done.sum());
+            }
+        } catch (InterruptedException | CanceledException ex) {
+            exception.setIfCurrentValueIsNull(ex);
+        } finally {
+            service.shutdownNow();
+        }
+        if (exception.isNotNull()) {
+            if (exception.get() instanceof IOException ioException)
+                throw ioException;
+            else
+                throw new IOException(exception.get());
+        }
+        if (progress != null)
+            progress.reportTaskCompleted();
+    }
+
+    /**
+     * computes all pairs of a tile
+     */
+    private void computeTile(int a, int b, int rowStart, int rowEnd, int minIntersection, DistanceConsumer consumer) {
+        var aEnd = Math.min(numberOfSketches, a + TILE_SIZE);
+        var bEnd = Math.min(numberOfSketches, b + TILE_SIZE);
+        for (var i = a; i < aEnd; i++) {
+            for (var j = Math.max(b, i); j < bEnd; j++) {
+                if ((i >= rowStart && i < rowEnd) || (j >= rowStart && j < rowEnd)) {
+                    if (i == j)
+                        consumer.accept(i, j, 0);
+                    else {
+                        var intersectionSize = MashDistance.computeIntersection(values, i * sketchSize, sizes[i], values, j * sketchSize, sizes[j], sketchSize, minIntersection);
+                        if (intersectionSize >= 0)
+                            consumer.accept(i, j, computeDistance(intersectionSize));
+                    }
+                }
+            }
+        }
+    }
+
+    public int getNumberOfSketches() {
+        return numberOfSketches;
+    }
+
+    public String getName(int i) {
+        return names[i];
+    }
+
+    public GenomeDistanceType getDistanceType() {
+        return distanceType;
+    }
+
+    public void setDistanceType(GenomeDistanceType distanceType) {
+        this.distanceType = distanceType;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
+
+    /**
+     * an edge between two sketches, with i&lt;j
+     */
+    public record Edge(int i, int j, double distance) {
+    }
+
+    private interface DistanceConsumer {
+        void accept(int i, int j, double distance);
+    }
+}
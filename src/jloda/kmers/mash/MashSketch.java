@@ -19,17 +19,17 @@
 
 package jloda.kmers.mash;
 
-import jloda.kmers.bloomfilter.BloomFilter;
+import jloda.kmers.bloomfilter.BlockedBloomFilter;
 import jloda.seq.SequenceUtils;
 import jloda.thirdparty.MurmurHash;
 import jloda.util.*;
 import jloda.util.progress.ProgressListener;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.TreeSet;
 
 /**
  * a Mash sketch
@@ -37,11 +37,38 @@ import java.util.TreeSet;
  */
 public class MashSketch {
     public static final int MAGIC_INT = 1213415757; // 1213415757
+    public static final int MAGIC_INT_TWO_BIT = 1213415758;
+    private static final String HASH_MODE_KEY = " h="; // key of the hash mode in headers and strings, omitted for the default Murmur hash
+
+    /**
+     * parameters of the Bloom filter used to filter unique k-mers
+     */
+    public static final double BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY = 0.0001;
+    public static final long BLOOM_FILTER_MAX_BYTES = 500000000L;
+
+    /**
+     * how k-mers are hashed. Murmur hashes the bytes of the canonical k-mer using MurmurHash.hash64, TwoBit hashes the
+     * rolling 2-bit encoding of the canonical k-mer and requires nucleotides and k<=32. Sketches computed
+     * with different modes cannot be compared
+     */
+    public enum HashMode {Murmur, TwoBit}
+
+    private static final byte[] TWO_BIT_CODE = new byte[256];
+    private static final byte[] TWO_BIT_LETTER = {'A', 'C', 'G', 'T'};
+
+    static {
+        Arrays.fill(TWO_BIT_CODE, (byte) -1);
+        for (var i = 0; i < 4; i++) {
+            TWO_BIT_CODE[TWO_BIT_LETTER[i]] = (byte) i;
+            TWO_BIT_CODE[Character.toLowerCase(TWO_BIT_LETTER[i])] = (byte) i;
+        }
+    }
 
     private final int sketchSize;
     private final int kSize;
     private final String name;
     private final boolean isNucleotides;
+    private final HashMode hashMode;
 
     private long[] hashValues;
     private byte[][] kmers;
@@ -51,10 +78,18 @@ public class MashSketch {
      *
 	 */
     public MashSketch(int sketchSize, int kMerSize, String name, boolean isNucleotides) {
+        this(sketchSize, kMerSize, name, isNucleotides, HashMode.Murmur);
+    }
+
+    /**
+     * construct a new sketch
+     */
+    public MashSketch(int sketchSize, int kMerSize, String name, boolean isNucleotides, HashMode hashMode) {
         this.sketchSize = sketchSize;
         this.kSize = kMerSize;
         this.name = name;
         this.isNucleotides = isNucleotides;
+        this.hashMode = hashMode;
     }
 
     /**
@@ -68,101 +103,235 @@ public class MashSketch {
      * compute a mash sketch
      */
     public static MashSketch compute(String name, Collection<byte[]> sequences, boolean isNucleotides, int sketchSize, int kMerSize, int seed, boolean filterUniqueKMers, boolean saveKMers, ProgressListener progress) {
-        final MashSketch sketch = new MashSketch(sketchSize, kMerSize, name, isNucleotides);
+        return compute(name, sequences, isNucleotides, sketchSize, kMerSize, seed, filterUniqueKMers, saveKMers, HashMode.Murmur, progress);
+    }
+
+    /**
+     * compute a mash sketch.
+     * For nucleotides, the canonical k-mer is determined from a rolling 2-bit encoding of both strands, so k-mers are
+     * neither copied nor reverse complemented, unless they contain letters other than ACGT. K-mers that contain an N are skipped,
+     * in TwoBit mode, all k-mers that contain a letter other than ACGT (ignoring case) are skipped.
+     * The bottom-s hash values are kept in a primitive bounded max-heap
+     */
+    public static MashSketch compute(String name, Collection<byte[]> sequences, boolean isNucleotides, int sketchSize, int kMerSize, int seed, boolean filterUniqueKMers, boolean saveKMers, HashMode hashMode, ProgressListener progress) {
+        final Computation computation = new Computation(name, isNucleotides, sketchSize, kMerSize, seed, filterUniqueKMers, sequences.stream().mapToInt(s -> s.length).sum(), saveKMers, hashMode);
+        try {
+            for (byte[] sequence : sequences) {
+                computation.add(sequence, sequence.length, progress);
+            }
+            progress.incrementProgress();
+        } catch (CanceledException ignored) {
+        }
+        final MashSketch sketch = computation.getSketch();
+        if (sketch.getValues().length < sketchSize)
+            System.err.printf("Warning: Computing sketch %s: Too few k-mers: %,d of %,d%n", sketch.getName(), sketch.getValues().length, sketchSize);
+        progress.reportTaskCompleted();
+        return sketch;
+    }
 
-        final TreeSet<Long> sortedSet = new TreeSet<>();
-        sortedSet.add(Long.MAX_VALUE);
+    /**
+     * the computation of a mash sketch, to which sequences are added one at a time, so that the sequences need not be
+     * held in memory together
+     */
+    public static class Computation {
+        private final String name;
+        private final boolean isNucleotides;
+        private final int sketchSize;
+        private final int kMerSize;
+        private final int seed;
+        private final HashMode hashMode;
+
+        private final BoundedMaxHeapOfLongs heap;
+        private final Map<Long, byte[]> hash2kmer;
+        private final BlockedBloomFilter bloomFilter;
+
+        private final byte[] kMer; // will reuse
+        private final byte[] kMerReverseComplement; // will reuse
+        private final boolean rolling;
+        private final long mask;
+        private final int shift;
+        private long threshold;
+
+        /**
+         * constructor
+         *
+         * @param expectedNumberOfLetters used to size the Bloom filter, if filterUniqueKMers is set
+         */
+        public Computation(String name, boolean isNucleotides, int sketchSize, int kMerSize, int seed, boolean filterUniqueKMers, long expectedNumberOfLetters, boolean saveKMers, HashMode hashMode) {
+            if (hashMode == HashMode.TwoBit && (!isNucleotides || kMerSize > 32))
+                throw new IllegalArgumentException("TwoBit hashing requires nucleotides and k<=32");
+            this.name = name;
+            this.isNucleotides = isNucleotides;
+            this.sketchSize = sketchSize;
+            this.kMerSize = kMerSize;
+            this.seed = seed;
+            this.hashMode = hashMode;
+
+            heap = new BoundedMaxHeapOfLongs(sketchSize);
+            hash2kmer = saveKMers ? new HashMap<>() : null;
+            bloomFilter = (filterUniqueKMers ? new BlockedBloomFilter(expectedNumberOfLetters, BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY, BLOOM_FILTER_MAX_BYTES) : null);
+
+            kMer = new byte[kMerSize];
+            kMerReverseComplement = new byte[kMerSize];
+            rolling = isNucleotides && kMerSize <= 32;
+            mask = (kMerSize >= 32 ? -1L : (1L << (2 * kMerSize)) - 1);
+            shift = 2 * (kMerSize - 1);
+            threshold = heap.getThreshold();
+        }
 
-        final Map<Long, byte[]> hash2kmer = saveKMers ? new HashMap<>() : null;
+        /**
+         * adds the k-mers of a sequence
+         *
+         * @param sequence the sequence, which is not kept
+         * @param length   number of letters of the sequence to use
+         */
+        public void add(byte[] sequence, int length, ProgressListener progress) throws CanceledException {
+            if (hashMode == HashMode.TwoBit) {
+                long forward = 0; // 2-bit encoding of the k-mer ending at position i
+                long reverse = 0; // 2-bit encoding of its reverse complement
+                int valid = 0; // number of consecutive ACGT letters ending at position i
+
+                for (int i = 0; i < length; i++) {
+                    final int code = TWO_BIT_CODE[sequence[i] & 0xFF];
+                    if (code >= 0) {
+                        forward = ((forward << 2) | code) & mask;
+                        reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+                        valid++;
+                    } else
+                        valid = 0;
+                    if ((i & 0xFFFF) == 0)
+                        progress.checkForCancel();
+                    if (valid < kMerSize)
+                        continue;
+
+                    final long canonical = Math.min(forward ^ Long.MIN_VALUE, reverse ^ Long.MIN_VALUE) ^ Long.MIN_VALUE; // unsigned minimum
+                    if (bloomFilter != null && bloomFilter.add(canonical))
+                        continue; // first time we have seen this k-mer
 
-        final BloomFilter bloomFilter;
-        if (filterUniqueKMers)
-            bloomFilter = new BloomFilter(sequences.stream().mapToInt(s -> s.length).sum(), 500000000);
-        else
-            bloomFilter = null;
+                    if (hash2kmer != null)
+                        decodeTwoBit(canonical, kMer);
 
-        try {
-            final byte[] kMer = new byte[kMerSize]; // will reuse
-            final byte[] kMerReverseComplement = new byte[kMerSize]; // will reuse
+                    final long hash = hashTwoBit(canonical, seed);
+                    if (hash < threshold)
+                        addToSketch(hash, kMer, 0);
+                }
+            } else {
+                // the last k-mer of a sequence is not used, as in previous versions, so that sketches remain comparable
+                final int top = length - kMerSize;
 
-            for (byte[] sequence : sequences) {
-                final int top = sequence.length - kMerSize;
-                for (int offset = 0; offset < top; offset++) {
+                long forward = 0;
+                long reverse = 0;
+                int lastN = -1; // last position of an N
+                int lastOther = -1; // last position of a letter other than ACGT and N
+
+                for (int i = 0; i < top + kMerSize - 1; i++) {
+                    final byte letter = sequence[i];
                     if (isNucleotides) {
-						final int ambiguousPos = StringUtils.lastIndexOf(sequence, offset, kMerSize, 'N'); // don't use k-mers with ambiguity letters
-                        if (ambiguousPos != -1) {
-                            offset = ambiguousPos; // skip to last ambiguous so that increment will move past
-                            continue;
+                        if (rolling) {
+                            final int code = TWO_BIT_CODE[letter & 0xFF];
+                            forward = ((forward << 2) | (code & 3)) & mask;
+                            reverse = (reverse >>> 2) | ((long) (3 - (code & 3)) << shift);
                         }
+                        if (letter == 'N')
+                            lastN = i;
+                        else if (letter != 'A' && letter != 'C' && letter != 'G' && letter != 'T')
+                            lastOther = i;
                     }
+                    if ((i & 0xFFFF) == 0)
+                        progress.checkForCancel();
 
-                    SequenceUtils.getSegment(sequence, offset, kMerSize, kMer);
+                    final int offset = i - kMerSize + 1;
+                    if (offset < 0)
+                        continue;
 
                     final byte[] kMerUse;
-                    if (isNucleotides) {
-                        SequenceUtils.getReverseComplement(sequence, offset, kMerSize, kMerReverseComplement);
-
-                        if (SequenceUtils.compare(kMer, kMerReverseComplement) <= 0) {
-                            kMerUse = kMer;
+                    final int kMerOffset;
+                    if (!isNucleotides) {
+                        kMerUse = sequence;
+                        kMerOffset = offset;
+                    } else if (lastN >= offset) { // don't use k-mers with ambiguity letters
+                        continue;
+                    } else if (rolling && lastOther < offset) { // only ACGT, so the 2-bit encodings determine the canonical k-mer
+                        if (Long.compareUnsigned(forward, reverse) <= 0) {
+                            kMerUse = sequence;
+                            kMerOffset = offset;
                         } else {
+                            SequenceUtils.getReverseComplement(sequence, offset, kMerSize, kMerReverseComplement);
                             kMerUse = kMerReverseComplement;
+                            kMerOffset = 0;
                         }
-                    } else
-                        kMerUse = kMer;
-
-                    if (bloomFilter != null && bloomFilter.add(kMerUse)) {
-                        continue; // first time we have seen this k-mer
+                    } else {
+                        SequenceUtils.getSegment(sequence, offset, kMerSize, kMer);
+                        SequenceUtils.getReverseComplement(sequence, offset, kMerSize, kMerReverseComplement);
+                        kMerUse = (SequenceUtils.compare(kMer, kMerReverseComplement) <= 0 ? kMer : kMerReverseComplement);
+                        kMerOffset = 0;
                     }
+                    if (bloomFilter != null && bloomFilter.add(kMerUse, kMerOffset, kMerSize))
+                        continue; // first time we have seen this k-mer
 
-                    final long hash = MurmurHash.hash64(kMerUse, 0, kMerSize, seed);
-
-                    //  final long hash=(use64Bits? NTHash.NTP64(seqUse,kMerSize,offsetUse):MASK_32BIT&NTHash.NTP64(seqUse,kMerSize,offsetUse));
-
-                    if (hash < sortedSet.last()) {
-                        if (hash2kmer == null) {
-                            if (sortedSet.add(hash) && sortedSet.size() > sketchSize)
-                                sortedSet.pollLast();
-                        } else {
-                            if (sortedSet.add(hash)) {
-                                hash2kmer.put(hash, kMerUse.clone());
-                                if (sortedSet.size() > sketchSize) {
-                                    Long removedHash = sortedSet.pollLast();
-                                    if (removedHash != null)
-                                        hash2kmer.remove(removedHash);
-                                }
-                            }
-                        }
-                    }
-                    progress.checkForCancel();
+                    final long hash = MurmurHash.hash64(kMerUse, kMerOffset, kMerSize, seed);
+                    if (hash < threshold)
+                        addToSketch(hash, kMerUse, kMerOffset);
                 }
             }
-            {
-                if (sortedSet.contains(Long.MAX_VALUE)) {
-                    sortedSet.remove(Long.MAX_VALUE);
-                    System.err.printf("Warning: Computing sketch %s: Too few k-mers: %,d of %,d%n", sketch.getName(), sortedSet.size(), sketchSize);
-                }
-                sketch.hashValues = new long[sortedSet.size()];
-                int pos = 0;
-                for (Long value : sortedSet)
-                    sketch.hashValues[pos++] = value;
+            progress.checkForCancel();
+        }
+
+        /**
+         * adds a hash value to the sketch and, if requested, records the k-mer
+         */
+        private void addToSketch(long hash, byte[] kMer, int offset) {
+            if (heap.add(hash) && hash2kmer != null) {
+                hash2kmer.put(hash, Arrays.copyOfRange(kMer, offset, offset + kMerSize));
+                if (heap.hasRemoved())
+                    hash2kmer.remove(heap.getRemoved());
             }
-            progress.incrementProgress();
-        } catch (CanceledException ignored) {
+            threshold = heap.getThreshold();
         }
 
-        if (saveKMers && hash2kmer != null) {
-            sketch.kmers = new byte[hash2kmer.size()][];
-            int i = 0;
-            for (byte[] kmer : hash2kmer.values()) {
-                sketch.kmers[i++] = kmer;
+        /**
+         * gets the sketch for all sequences added so far. Contains fewer than sketchSize values, if there were too few k-mers
+         */
+        public MashSketch getSketch() {
+            final MashSketch sketch = new MashSketch(sketchSize, kMerSize, name, isNucleotides, hashMode);
+            sketch.hashValues = heap.toSortedArray();
+            if (hash2kmer != null) {
+                sketch.kmers = new byte[hash2kmer.size()][];
+                int i = 0;
+                for (byte[] kmer : hash2kmer.values()) {
+                    sketch.kmers[i++] = kmer;
+                }
             }
+            return sketch;
+        }
+    }
+
+    /**
+     * hashes a 2-bit encoded k-mer, using the 64-bit finalizer of MurmurHash3, which is a bijection
+     */
+    private static long hashTwoBit(long code, int seed) {
+        long h = code ^ (seed * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * decodes a 2-bit encoded k-mer into upper-case letters
+     */
+    private static void decodeTwoBit(long code, byte[] kMer) {
+        for (int i = kMer.length - 1; i >= 0; i--) {
+            kMer[i] = TWO_BIT_LETTER[(int) (code & 3)];
+            code >>>= 2;
         }
-        progress.reportTaskCompleted();
-        return sketch;
     }
 
     public String getHeader() {
-        return String.format("##ComputeMashSketch name='%s' sketchSize=%d kSize=%d type=%s\n", name, sketchSize, kSize, isNucleotides ? "nucl" : "aa");
+        return String.format("##ComputeMashSketch name='%s' sketchSize=%d kSize=%d type=%s%s\n", name, sketchSize, kSize, isNucleotides ? "nucl" : "aa",
+                hashMode == HashMode.Murmur ? "" : HASH_MODE_KEY + hashMode);
     }
 
     public String toString() {
@@ -185,12 +354,16 @@ public class MashSketch {
         return isNucleotides;
     }
 
+    public HashMode getHashMode() {
+        return hashMode;
+    }
+
     public static boolean canCompare(MashSketch a, MashSketch b) {
-        return a.getSketchSize() == b.getSketchSize() && a.getkSize() == b.getkSize() && a.isNucleotides() == b.isNucleotides();
+        return a.getSketchSize() == b.getSketchSize() && a.getkSize() == b.getkSize() && a.isNucleotides() == b.isNucleotides() && a.getHashMode() == b.getHashMode();
     }
 
     public String getString() {
-		return String.format("s=%d k=%d:%s", sketchSize, kSize, StringUtils.toString(getValues(), ","));
+		return String.format("s=%d k=%d%s:%s", sketchSize, kSize, hashMode == HashMode.Murmur ? "" : HASH_MODE_KEY + hashMode, StringUtils.toString(getValues(), ","));
     }
 
     public static MashSketch parse(String string) throws IOException {
@@ -201,7 +374,9 @@ public class MashSketch {
         if (numbers.length != sketchSize)
             throw new IOException("Expected sketch size " + sketchSize + ", found: " + numbers.length);
 
-        final MashSketch sketch = new MashSketch(sketchSize, kMerSize, "", true);
+        final HashMode hashMode = (string.contains(HASH_MODE_KEY + HashMode.TwoBit) ? HashMode.TwoBit : HashMode.Murmur);
+
+        final MashSketch sketch = new MashSketch(sketchSize, kMerSize, "", true, hashMode);
         sketch.hashValues = new long[numbers.length];
         for (int i = 0; i < numbers.length; i++) {
             sketch.hashValues[i] = NumberUtils.parseLong(numbers[i]);
@@ -211,26 +386,37 @@ public class MashSketch {
 
     public byte[] getBytes() {
         ByteOutputBuffer bytes = new ByteOutputBuffer();
-        bytes.writeIntLittleEndian(MAGIC_INT);
+        bytes.writeIntLittleEndian(hashMode == HashMode.Murmur ? MAGIC_INT : MAGIC_INT_TWO_BIT);
         bytes.writeIntLittleEndian(sketchSize);
         bytes.writeIntLittleEndian(kSize);
-        for (int i = 0; i < sketchSize; i++) {
-            bytes.writeLongLittleEndian(hashValues[i]);
+        for (long hashValue : hashValues) { // fewer than sketchSize, if there were too few k-mers
+            bytes.writeLongLittleEndian(hashValue);
         }
         return bytes.copyBytes();
     }
 
     public static MashSketch parse(byte[] bytes) throws IOException {
+        return parse(bytes, "", true);
+    }
+
+    /**
+     * parses a sketch from the bytes produced by getBytes()
+     *
+     * @param name          name of the sketch, not contained in the bytes
+     * @param isNucleotides type of the sketch, not contained in the bytes
+     */
+    public static MashSketch parse(byte[] bytes, String name, boolean isNucleotides) throws IOException {
         final ByteInputBuffer buffer = new ByteInputBuffer(bytes);
 
-        if (buffer.readIntLittleEndian() != MAGIC_INT)
+        final int magic = buffer.readIntLittleEndian();
+        if (magic != MAGIC_INT && magic != MAGIC_INT_TWO_BIT)
             throw new IOException("Incorrect magic number");
         int sketchSize = buffer.readIntLittleEndian();
         int kMerSize = buffer.readIntLittleEndian();
 
-        final MashSketch sketch = new MashSketch(sketchSize, kMerSize, "", true);
-        sketch.hashValues = new long[sketchSize];
-        for (int i = 0; i < sketchSize; i++) {
+        final MashSketch sketch = new MashSketch(sketchSize, kMerSize, name, isNucleotides, magic == MAGIC_INT ? HashMode.Murmur : HashMode.TwoBit);
+        sketch.hashValues = new long[Math.min(sketchSize, (bytes.length - 12) / 8)];
+        for (int i = 0; i < sketch.hashValues.length; i++) {
             sketch.hashValues[i] = buffer.readLongLittleEndian();
         }
         return sketch;
@@ -0,0 +1,180 @@
+/*
+ * MashSketchDatabase.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.kmers.mash;
+
+import jloda.util.FileUtils;
+import jloda.util.ICloseableIterator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+
+/**
+ * a binary file of mash sketches.
+ * The file starts with a magic number and a version, followed by one record per sketch, consisting of the name, the
+ * type and the bytes produced by MashSketch.getBytes(). All numbers are little endian. The file may be gzipped
+ * Daniel Huson, 10.2026
+ */
+public class MashSketchDatabase {
+    public static final int MAGIC_INT = 1111774029; // MSDB
+    public static final int VERSION = 1;
+
+    /**
+     * writes sketches to a file
+     */
+    public static void write(String fileName, Collection<MashSketch> sketches) throws IOException {
+        try (var writer = new Writer(fileName)) {
+            for (var sketch : sketches) {
+                writer.write(sketch);
+            }
+        }
+    }
+
+    /**
+     * reads all sketches from a file
+     */
+    public static ArrayList<MashSketch> read(String fileName) throws IOException {
+        var list = new ArrayList<MashSketch>();
+        try (var reader = new Reader(fileName)) {
+            while (reader.hasNext())
+                list.add(reader.next());
+        }
+        return list;
+    }
+
+    /**
+     * writes sketches one at a time
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream outs;
+        private int count;
+
+        public Writer(String fileName) throws IOException {
+            outs = new DataOutputStream(new BufferedOutputStream(FileUtils.getOutputStreamPossiblyZIPorGZIP(fileName)));
+            outs.writeInt(Integer.reverseBytes(MAGIC_INT));
+            outs.writeInt(Integer.reverseBytes(VERSION));
+        }
+
+        public void write(MashSketch sketch) throws IOException {
+            var name = sketch.getName().getBytes(StandardCharsets.UTF_8);
+            var bytes = sketch.getBytes();
+            outs.writeInt(Integer.reverseBytes(name.length));
+            outs.write(name);
+            outs.writeByte(sketch.isNucleotides() ? 1 : 0);
+            outs.writeInt(Integer.reverseBytes(bytes.length));
+            outs.write(bytes);
+            count++;
+        }
+
+        /**
+         * number of sketches written so far
+         */
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            outs.close();
+        }
+    }
+
+    /**
+     * reads sketches one at a time
+     */
+    public static class Reader implements ICloseableIterator<MashSketch> {
+        private final DataInputStream ins;
+        private final long maxProgress;
+        private long progress;
+        private MashSketch next;
+
+        public Reader(String fileName) throws IOException {
+            maxProgress = FileUtils.guessUncompressedSizeOfFile(fileName);
+            ins = new DataInputStream(new BufferedInputStream(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName)));
+            try {
+                if (Integer.reverseBytes(ins.readInt()) != MAGIC_INT)
+                    throw new IOException("Not a mash sketch database: " + fileName);
+                var version = Integer.reverseBytes(ins.readInt());
+                if (version != VERSION)
+                    throw new IOException("Unsupported mash sketch database version: " + version);
+                progress = 8;
+                next = readSketch();
+            } catch (IOException ex) {
+                ins.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * reads the next sketch
+         *
+         * @return sketch or null, if at end of file
+         */
+        private MashSketch readSketch() throws IOException {
+            var nameLength = ins.read(); // read first byte separately to detect end of file
+            if (nameLength == -1)
+                return null;
+            nameLength |= (ins.readUnsignedByte() << 8) | (ins.readUnsignedByte() << 16) | (ins.readUnsignedByte() << 24);
+            var name = new String(ins.readNBytes(nameLength), StandardCharsets.UTF_8);
+            var isNucleotides = (ins.readByte() == 1);
+            var length = Integer.reverseBytes(ins.readInt());
+            var bytes = ins.readNBytes(length);
+            if (bytes.length < length)
+                throw new EOFException("Truncated mash sketch database");
+            progress += 9 + nameLength + length;
+            return MashSketch.parse(bytes, name, isNucleotides);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public MashSketch next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            var result = next;
+            try {
+                next = readSketch();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ins.close();
+        }
+
+        @Override
+        public long getMaximumProgress() {
+            return maxProgress;
+        }
+
+        @Override
+        public long getProgress() {
+            return progress;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * MashSketchService.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.kmers.mash;
+
+import jloda.fx.util.ProgramExecutorService;
+import jloda.kmers.bloomfilter.BlockedBloomFilter;
+import jloda.seq.FastARecordReader;
+import jloda.seq.FastQBatchReader;
+import jloda.util.*;
+import jloda.util.progress.ProgressListener;
+import jloda.util.progress.ProgressSilent;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * computes mash sketches for many fastA or fastQ files in parallel.
+ * Each file is streamed record by record, so only the current record is held in memory. The number of files processed
+ * concurrently is limited both by the number of threads and by a memory budget: before a file is processed, the memory it
+ * needs (read buffers, largest possible record and Bloom filter) is estimated and reserved from the budget.
+ * Progress is reported as the number of bytes read over all files
+ * Daniel Huson, 10.2026
+ */
+public class MashSketchService {
+    private int sketchSize = 1000;
+    private int kMerSize = 21;
+    private int seed = 42;
+    private boolean isNucleotides = true;
+    private boolean filterUniqueKMers = false;
+    private MashSketch.HashMode hashMode = MashSketch.HashMode.Murmur;
+    private int numberOfThreads = ProgramExecutorService.getNumberOfCoresToUse();
+    private long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * computes sketches for all files
+     *
+     * @return sketches, in the order of the files
+     */
+    public ArrayList<MashSketch> computeSketches(List<String> fileNames, ProgressListener progress) throws IOException {
+        var sketches = new ArrayList<MashSketch>(fileNames.size());
+        apply(fileNames, sketches::add, progress);
+        return sketches;
+    }
+
+    /**
+     * computes sketches for all files and writes them to a sketch database, in the order of the files
+     *
+     * @return number of sketches written
+     */
+    public int writeDatabase(List<String> fileNames, String databaseFile, ProgressListener progress) throws IOException {
+        try (var writer = new MashSketchDatabase.Writer(databaseFile)) {
+            apply(fileNames, writer::write, progress);
+            return writer.getCount();
+        }
+    }
+
+    /**
+     * computes sketches for all files in parallel and passes them to the consumer, on the calling thread and in the order of the files.
+     * Larger files are started first
+     */
+    public void apply(List<String> fileNames, ExecuteInParallel.ConsumerWithException<MashSketch> consumer, ProgressListener progress) throws IOException {
+        var sizes = fileNames.stream().mapToLong(FileUtils::guessUncompressedSizeOfFile).toArray();
+        var budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget >> 20)); // in megabytes
+        var memory = new Semaphore(budget);
+        var bytesRead = new AtomicLong();
+        var canceled = new AtomicBoolean(false);
+
+        var futures = new ArrayList<Future<MashSketch>>(fileNames.size());
+        var service = Executors.newFixedThreadPool(Math.max(1, Math.min(numberOfThreads, fileNames.size())));
+        try {
+            var order = IntStream.range(0, fileNames.size()).boxed().sorted(Comparator.comparingLong(i -> -sizes[i])).toList();
+            for (var i = 0; i < fileNames.size(); i++)
+                futures.add(null);
+            for (var i : order) {
+                futures.set(i, service.submit(() -> {
+                    var fastQ = isFastQ(fileNames.get(i));
+                    var permits = (int) Math.min(budget, (estimateMemory(sizes[i], fastQ) >> 20) + 1);
+                    memory.acquire(permits);
+                    try {
+                        return computeSketch(fileNames.get(i), fastQ, sizes[i], bytesRead, canceled);
+                    } finally {
+                        memory.release(permits);
+                    }
+                }));
+            }
+            service.shutdown();
+
+            progress.setMaximum(Arrays.stream(sizes).sum());
+            progress.setProgress(0);
+            for (var future : futures) {
+                MashSketch sketch = null;
+                while (sketch == null) {
+                    try {
+                        sketch = future.get(100, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException ignored) {
+                    }
+                    progress.setProgress(bytesRead.get());
+                }
+                consumer.accept(sketch);
+            }
+            progress.reportTaskCompleted();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            throw (ex.getCause() instanceof IOException ioException ? ioException : new IOException(ex.getCause()));
+        } finally {
+            canceled.set(true);
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * computes the sketch for a single file
+     */
+    public MashSketch computeSketch(String fileName) throws IOException {
+        return computeSketch(fileName, isFastQ(fileName), FileUtils.guessUncompressedSizeOfFile(fileName), new AtomicLong(), new AtomicBoolean(false));
+    }
+
+    private MashSketch computeSketch(String fileName, boolean fastQ, long size, AtomicLong bytesRead, AtomicBoolean canceled) throws IOException {
+        var computation = new MashSketch.Computation(FileUtils.getFileNameWithoutPath(fileName), isNucleotides, sketchSize, kMerSize, seed, filterUniqueKMers, size, false, hashMode);
+        var progress = new ProgressSilent();
+        var reported = 0L;
+
+        if (fastQ) {
+            try (var reader = new FastQBatchReader(new ByteLineReader(fileName), 1000, 2)) {
+                var sequence = new byte[1024];
+                FastQBatchReader.Batch batch;
+                while ((batch = reader.take()) != null) {
+                    if (canceled.get())
+                        throw new CanceledException();
+                    for (var r = 0; r < batch.size(); r++) {
+                        var length = batch.getSequenceLength(r);
+                        if (length > sequence.length)
+                            sequence = new byte[Math.max(length, 2 * sequence.length)];
+                        System.arraycopy(batch.getData(), batch.getSequenceOffset(r), sequence, 0, length);
+                        computation.add(sequence, length, progress);
+                    }
+                    reader.release(batch);
+                    var current = reader.getProgress();
+                    bytesRead.addAndGet(current - reported);
+                    reported = current;
+                }
+            }
+        } else {
+            try (var reader = new FastARecordReader(fileName)) {
+                while (reader.next()) {
+                    if (canceled.get())
+                        throw new CanceledException();
+                    computation.add(reader.getSequence(), reader.getSequenceLength(), progress);
+                    var current = reader.getProgress();
+                    bytesRead.addAndGet(current - reported);
+                    reported = current;
+                }
+            }
+        }
+        bytesRead.addAndGet(size - reported);
+        return computation.getSketch();
+    }
+
+    /**
+     * does the file contain fastQ, rather than fastA?
+     */
+    private static boolean isFastQ(String fileName) throws IOException {
+        try (var reader = new ByteLineReader(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName), 0)) {
+            while (reader.readLine()) {
+                if (reader.getLineLength() > 0) {
+                    var first = reader.getBuffer()[reader.getLineOffset()];
+                    if (first == '@')
+                        return true;
+                    else if (first == '>')
+                        return false;
+                    break;
+                }
+            }
+        }
+        throw new IOException("File empty or not in FastA or FastQ format: " + fileName);
+    }
+
+    /**
+     * estimates the number of bytes needed to sketch a file: read buffers, the sequence buffer (which may grow to twice the
+     * longest fastA record) and the Bloom filter
+     */
+    private long estimateMemory(long size, boolean fastQ) {
+        var bytes = (4L << 20) + (fastQ ? (4L << 20) : 2 * size);
+        if (filterUniqueKMers) {
+            bytes += BlockedBloomFilter.computeNumberOfBytes(size, MashSketch.BLOOM_FILTER_FALSE_POSITIVE_PROBABILITY, MashSketch.BLOOM_FILTER_MAX_BYTES);
+        }
+        return bytes;
+    }
+
+    public int getSketchSize() {
+        return sketchSize;
+    }
+
+    public void setSketchSize(int sketchSize) {
+        this.sketchSize = sketchSize;
+    }
+
+    public int getkMerSize() {
+        return kMerSize;
+    }
+
+    public void setkMerSize(int kMerSize) {
+        this.kMerSize = kMerSize;
+    }
+
+    public int getSeed() {
+        return seed;
+    }
+
+    public void setSeed(int seed) {
+        this.seed = seed;
+    }
+
+    public boolean isNucleotides() {
+        return isNucleotides;
+    }
+
+    public void setNucleotides(boolean nucleotides) {
+        isNucleotides = nucleotides;
+    }
+
+    public boolean isFilterUniqueKMers() {
+        return filterUniqueKMers;
+    }
+
+    public void setFilterUniqueKMers(boolean filterUniqueKMers) {
+        this.filterUniqueKMers = filterUniqueKMers;
+    }
+
+    public MashSketch.HashMode getHashMode() {
+        return hashMode;
+    }
+
+    public void setHashMode(MashSketch.HashMode hashMode) {
+        this.hashMode = hashMode;
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * set the number of bytes that may be used by concurrently processed files
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+}
@@ -19,13 +19,17 @@
 
 package jloda.seq;
 
-import java.util.Stack;
+import java.util.stream.IntStream;
 
 /**
- * compute the edit distance between two sequences
+ * compute the edit distance between two sequences.
+ * Distances are computed using Myers' bit-vector algorithm, optionally restricted to a band of cells whose
+ * distance can be at most a given bound. Alignments are computed in linear memory using Hirschberg's algorithm
  * Daniel Huson, 2003
  */
 public class EditDistance {
+    private static final int FULL_MATRIX_CELLS = 4096; // Hirschberg uses a full matrix for subproblems up to this size
+
     private String sequence1 = null;
     private String sequence2 = null;
     private String aligned1 = null;
@@ -38,91 +42,183 @@ public class EditDistance {
      * @return edit distance
      */
     static public int compute(String seq1, String seq2) {
-        int rows = seq1.length();
-        int cols = seq2.length();
-
-        int[][] D = new int[rows + 1][cols + 1];
+        return compute(seq1, seq2, Integer.MAX_VALUE);
+    }
 
-        // set base conditions:
-        for (int r = 0; r <= rows; r++)
-            D[r][0] = r;
-        for (int c = 0; c <= cols; c++)
-            D[0][c] = c;
+    /**
+     * compute the edit distance between two sequences, giving up once it is larger than maxDistance
+     *
+     * @return edit distance, or maxDistance+1, if the edit distance is larger than maxDistance
+     */
+    static public int compute(String seq1, String seq2, int maxDistance) {
+        var bytes1 = toBytes(seq1);
+        var bytes2 = toBytes(seq2);
+        if (bytes1 != null && bytes2 != null)
+            return compute(bytes1, bytes2, maxDistance);
+        var distance = computeLastRow(seq1, 0, seq1.length(), seq2, 0, seq2.length(), false)[seq2.length()];
+        return (distance <= maxDistance ? distance : maxDistance + 1);
+    }
 
-        // recursion:
-        for (int r = 1; r <= rows; r++) {
-            for (int c = 1; c <= cols; c++) {
-                D[r][c] = min(D[r - 1][c] + 1,
-                        D[r][c - 1] + 1,
-                        D[r - 1][c - 1] + match(seq1.charAt(r - 1), seq2.charAt(c - 1)));
+    /**
+     * compute the edit distance between two sequences
+     *
+     * @return edit distance
+     */
+    static public int compute(byte[] seq1, byte[] seq2) {
+        return compute(seq1, seq2, Integer.MAX_VALUE);
+    }
 
-            }
-        }
+    /**
+     * compute the edit distance between two sequences, giving up once it is larger than maxDistance.
+     * Only cells within maxDistance of the main diagonal are computed
+     *
+     * @return edit distance, or maxDistance+1, if the edit distance is larger than maxDistance
+     */
+    static public int compute(byte[] seq1, byte[] seq2, int maxDistance) {
+        if (seq1.length <= seq2.length)
+            return new Pattern(seq1).distance(seq2, maxDistance);
+        else
+            return new Pattern(seq2).distance(seq1, maxDistance);
+    }
 
-        return D[rows][cols];
+    /**
+     * compute the edit distances between a query and many targets, in parallel
+     *
+     * @return edit distances, or maxDistance+1 for targets whose edit distance to the query is larger than maxDistance
+     */
+    static public int[] compute(byte[] query, byte[][] targets, int maxDistance) {
+        var pattern = new Pattern(query);
+        var distances = new int[targets.length];
+        IntStream.range(0, targets.length).parallel().forEach(t -> distances[t] = pattern.distance(targets[t], maxDistance));
+        return distances;
     }
 
     /**
      * computes the edit distance and an alignment
      */
     public void compute() {
-        int rows = getSequence1().length();
-        int cols = getSequence2().length();
+        var seq1 = getSequence1();
+        var seq2 = getSequence2();
+        var buffer1 = new StringBuilder();
+        var buffer2 = new StringBuilder();
+        var distance = align(seq1, 0, seq1.length(), seq2, 0, seq2.length(), buffer1, buffer2);
+        setAligned1(buffer1.toString());
+        setAligned2(buffer2.toString());
+        setScore(distance);
+    }
+
+    /**
+     * Hirschberg's algorithm: aligns seq1[from1,to1) and seq2[from2,to2), appending the aligned sequences to the buffers
+     *
+     * @return edit distance
+     */
+    private static int align(String seq1, int from1, int to1, String seq2, int from2, int to2, StringBuilder buffer1, StringBuilder buffer2) {
+        var rows = to1 - from1;
+        var cols = to2 - from2;
+        if (rows <= 1 || cols <= 1 || (long) rows * cols <= FULL_MATRIX_CELLS)
+            return alignFullMatrix(seq1, from1, to1, seq2, from2, to2, buffer1, buffer2);
+
+        var middle = from1 + rows / 2;
+        var forward = computeLastRow(seq1, from1, middle, seq2, from2, to2, false);
+        var backward = computeLastRow(seq1, middle, to1, seq2, from2, to2, true);
+        var split = 0;
+        for (var c = 1; c <= cols; c++) {
+            if (forward[c] + backward[cols - c] < forward[split] + backward[cols - split])
+                split = c;
+        }
+        return align(seq1, from1, middle, seq2, from2, from2 + split, buffer1, buffer2)
+               + align(seq1, middle, to1, seq2, from2 + split, to2, buffer1, buffer2);
+    }
+
+    /**
+     * computes the last row of the dynamic programming matrix of seq1[from1,to1) and seq2[from2,to2), in linear memory
+     *
+     * @param reverse if true, aligns the reversed sequences
+     * @return last row, entry c is the edit distance between seq1[from1,to1) and the first c letters of seq2[from2,to2), or the last c letters, if reverse
+     */
+    private static int[] computeLastRow(String seq1, int from1, int to1, String seq2, int from2, int to2, boolean reverse) {
+        var cols = to2 - from2;
+        var row = new int[cols + 1];
+        for (var c = 0; c <= cols; c++)
+            row[c] = c;
+        for (var r = 1; r <= to1 - from1; r++) {
+            var a = (reverse ? seq1.charAt(to1 - r) : seq1.charAt(from1 + r - 1));
+            var diagonal = row[0];
+            row[0] = r;
+            for (var c = 1; c <= cols; c++) {
+                var b = (reverse ? seq2.charAt(to2 - c) : seq2.charAt(from2 + c - 1));
+                var value = min(row[c] + 1, row[c - 1] + 1, diagonal + match(a, b));
+                diagonal = row[c];
+                row[c] = value;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * aligns seq1[from1,to1) and seq2[from2,to2) using the full dynamic programming matrix, appending the aligned sequences to the buffers
+     *
+     * @return edit distance
+     */
+    private static int alignFullMatrix(String seq1, int from1, int to1, String seq2, int from2, int to2, StringBuilder buffer1, StringBuilder buffer2) {
+        var rows = to1 - from1;
+        var cols = to2 - from2;
 
-        int[][] D = new int[rows + 1][cols + 1];
+        var D = new int[rows + 1][cols + 1];
 
         // set base conditions:
-        for (int r = 0; r <= rows; r++)
+        for (var r = 0; r <= rows; r++)
             D[r][0] = r;
-        for (int c = 0; c <= cols; c++)
+        for (var c = 0; c <= cols; c++)
             D[0][c] = c;
 
         // recursion:
-        for (int r = 1; r <= rows; r++) {
-            for (int c = 1; c <= cols; c++) {
+        for (var r = 1; r <= rows; r++) {
+            for (var c = 1; c <= cols; c++) {
                 D[r][c] = min(D[r - 1][c] + 1,
                         D[r][c - 1] + 1,
-                        D[r - 1][c - 1]
-                        + match(getSequence1().charAt(r - 1), getSequence2().charAt(c - 1)));
-
+                        D[r - 1][c - 1] + match(seq1.charAt(from1 + r - 1), seq2.charAt(from2 + c - 1)));
             }
         }
 
-        // trace back alignment:
-        int r = rows;
-        int c = cols;
-        var stack1 = new Stack<Character>();
-        var stack2 = new Stack<Character>();
-
+        // trace back alignment, filling the aligned sequences from the end:
+        var length = 0;
+        var aligned1 = new char[rows + cols];
+        var aligned2 = new char[rows + cols];
+        var r = rows;
+        var c = cols;
         while (r > 0 || c > 0) {
-            if (r == 0 || D[r][c] == D[r - 1][c] + 1) // insertion in x
-            {
-                stack1.push(getSequence1().charAt(r-- - 1));
-                stack2.push('-');
-            } else if (c == 0 || D[r][c] == D[r][c - 1] + 1) // insertion in y
-            {
-                stack1.push('-');
-                stack2.push(getSequence2().charAt(c-- - 1));
-            } else // match-mismatch
-            {
-                stack1.push(getSequence1().charAt(r-- - 1));
-                stack2.push(getSequence2().charAt(c-- - 1));
+            length++;
+            if (r > 0 && (c == 0 || D[r][c] == D[r - 1][c] + 1)) { // insertion in x
+                aligned1[rows + cols - length] = seq1.charAt(from1 + --r);
+                aligned2[rows + cols - length] = '-';
+            } else if (r == 0 || D[r][c] == D[r][c - 1] + 1) { // insertion in y
+                aligned1[rows + cols - length] = '-';
+                aligned2[rows + cols - length] = seq2.charAt(from2 + --c);
+            } else { // match-mismatch
+                aligned1[rows + cols - length] = seq1.charAt(from1 + --r);
+                aligned2[rows + cols - length] = seq2.charAt(from2 + --c);
             }
         }
+        buffer1.append(aligned1, rows + cols - length, length);
+        buffer2.append(aligned2, rows + cols - length, length);
+        return D[rows][cols];
+    }
 
-        // setup aligned sequences
-        StringBuilder buffer1 = new StringBuilder();
-        StringBuilder buffer2 = new StringBuilder();
-
-        while (!stack1.empty())
-            buffer1.append(stack1.pop());
-        setAligned1(buffer1.toString());
-
-        while (!stack2.empty())
-            buffer2.append(stack2.pop());
-        setAligned2(buffer2.toString());
-
-        setScore(D[rows][cols]);
+    /**
+     * gets the characters of a string as bytes
+     *
+     * @return bytes, or null, if the string contains a character that is not a single byte
+     */
+    private static byte[] toBytes(String seq) {
+        var bytes = new byte[seq.length()];
+        for (var i = 0; i < bytes.length; i++) {
+            var ch = seq.charAt(i);
+            if (ch > 0xFF)
+                return null;
+            bytes[i] = (byte) ch;
+        }
+        return bytes;
     }
 
     /**
@@ -231,4 +327,120 @@ public class EditDistance {
         return Math.min(a, Math.min(b, c));
     }
 
+
+    /**
+     * a pattern in the bit-vector representation used by Myers' algorithm. The pattern is split into blocks of 64 letters,
+     * each column of the dynamic programming matrix is represented by the vertical differences between neighboring cells,
+     * encoded as two bit vectors per block
+     */
+    private static class Pattern {
+        private final int length;
+        private final int numberOfBlocks;
+        private final int[] symbolIndex = new int[256]; // index of row in peq, 0 for symbols not in the pattern
+        private final long[] peq; // peq[index*numberOfBlocks+block] has bit i set, if the pattern has the symbol at position 64*block+i
+
+        Pattern(byte[] sequence) {
+            length = sequence.length;
+            numberOfBlocks = (length + 63) >>> 6;
+            var numberOfSymbols = 0;
+            for (var b : sequence) {
+                if (symbolIndex[b & 0xFF] == 0)
+                    symbolIndex[b & 0xFF] = ++numberOfSymbols;
+            }
+            peq = new long[(numberOfSymbols + 1) * numberOfBlocks];
+            for (var i = 0; i < length; i++)
+                peq[symbolIndex[sequence[i] & 0xFF] * numberOfBlocks + (i >>> 6)] |= 1L << (i & 63);
+        }
+
+        /**
+         * computes the edit distance between the pattern and the text. Only blocks that intersect the band of cells within
+         * maxDistance of the diagonal are computed. Cells outside the band only receive upper bounds, which does not affect
+         * any cell whose distance is at most maxDistance
+         *
+         * @return edit distance, or maxDistance+1, if the edit distance is larger than maxDistance
+         */
+        int distance(byte[] text, int maxDistance) {
+            if (maxDistance < 0)
+                throw new IllegalArgumentException("maxDistance < 0");
+            final var m = length;
+            final var n = text.length;
+            if (Math.abs((long) n - m) > maxDistance)
+                return maxDistance + 1;
+            if (m == 0)
+                return n;
+            final var k = (int) Math.min(maxDistance, (long) m + n);
+            final var last = numberOfBlocks - 1;
+
+            var pv = new long[numberOfBlocks]; // positive vertical differences
+            var mv = new long[numberOfBlocks]; // negative vertical differences
+            var score = new int[numberOfBlocks]; // value of the bottom cell of each block
+            var firstBlock = 0;
+            var lastBlock = Math.min(last, k >>> 6);
+            for (var b = 0; b <= lastBlock; b++) {
+                pv[b] = -1L;
+                score[b] = 64 * (b + 1);
+            }
+
+            for (var j = 1; j <= n; j++) {
+                var offset = symbolIndex[text[j - 1] & 0xFF] * numberOfBlocks;
+                var hin = 1; // top row increases by 1, and dropped blocks above the band are assumed to do so, too
+                for (var b = firstBlock; b <= lastBlock; b++) {
+                    hin = advance(pv, mv, b, peq[offset + b], hin);
+                    score[b] += hin;
+                }
+                // extend band downwards, initializing the new block as if all its vertical differences were +1:
+                while (lastBlock < last && 64L * (lastBlock + 1) + 1 <= (long) j + k) {
+                    var previousScore = score[lastBlock] - hin; // bottom cell of block above, in previous column
+                    lastBlock++;
+                    pv[lastBlock] = -1L;
+                    mv[lastBlock] = 0L;
+                    hin = advance(pv, mv, lastBlock, peq[offset + lastBlock], hin);
+                    score[lastBlock] = previousScore + 64 + hin;
+                }
+                // drop blocks above the band:
+                while (firstBlock < lastBlock && 64L * (firstBlock + 1) < (long) j - k)
+                    firstBlock++;
+                // give up, if all cells of the column are larger than k. The values within a block differ by at most 63 from the bottom one:
+                if (j > k) {
+                    var exceeds = true;
+                    for (var b = firstBlock; exceeds && b <= lastBlock; b++)
+                        exceeds = (score[b] - 63 > k);
+                    if (exceeds)
+                        return k + 1;
+                }
+            }
+            // subtract the vertical differences of the unused bits of the last block:
+            var unused = ((m & 63) == 0 ? 0L : -1L << (m & 63));
+            var distance = score[last] - Long.bitCount(pv[last] & unused) + Long.bitCount(mv[last] & unused);
+            return (distance <= k ? distance : k + 1);
+        }
+
+        /**
+         * advances one block by one column
+         *
+         * @param eq  bit i is set, if pattern letter i matches the text letter
+         * @param hin horizontal difference of the cell above the block
+         * @return horizontal difference of the bottom cell of the block
+         */
+        private static int advance(long[] pv, long[] mv, int b, long eq, int hin) {
+            var p = pv[b];
+            var m = mv[b];
+            var xv = eq | m;
+            if (hin < 0)
+                eq |= 1L;
+            var xh = (((eq & p) + p) ^ p) | eq;
+            var ph = m | ~(xh | p);
+            var mh = p & xh;
+            var hout = (int) (ph >>> 63) - (int) (mh >>> 63);
+            ph <<= 1;
+            mh <<= 1;
+            if (hin < 0)
+                mh |= 1L;
+            else if (hin > 0)
+                ph |= 1L;
+            pv[b] = mh | ~(xv | ph);
+            mv[b] = ph & xv;
+            return hout;
+        }
+    }
 }
@@ -0,0 +1,479 @@
+/*
+ * FastAIndex.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.seq;
+
+import jloda.util.Basic;
+import jloda.util.ByteLineReader;
+import jloda.util.FileUtils;
+import jloda.util.ListOfLongs;
+import jloda.util.ParallelGZipInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * random-access index for fastA and fastQ files, in the .fai format used by samtools faidx.
+ * For each record, the index holds the name, the number of bases, the offset of the first base, the number of bases per line
+ * and the number of bytes per line (and, for fastQ, the offset of the quality values). Offsets refer to the uncompressed file.
+ * For BGZF-compressed files, a .gzi file additionally lists the compressed and uncompressed start of each block,
+ * from which the virtual offset of any position is obtained.
+ * Records and subsequences are fetched using positional reads, without scanning the file
+ * Daniel Huson, 10.2026
+ */
+public class FastAIndex implements Closeable {
+    private final String fileName;
+    private final LinkedHashMap<String, Entry> entries;
+    private final long[] blockCompressedOffsets; // null, if not BGZF
+    private final long[] blockUncompressedOffsets;
+    private FileChannel channel;
+
+    /**
+     * an index entry
+     *
+     * @param name          first word of the header line, without the leading '>' or '@'
+     * @param length        number of bases
+     * @param offset        offset of first base in the uncompressed file
+     * @param lineBases     number of bases per line
+     * @param lineWidth     number of bytes per line, including the line terminator
+     * @param qualityOffset offset of first quality value for fastQ, -1 for fastA
+     */
+    public record Entry(String name, long length, long offset, int lineBases, int lineWidth, long qualityOffset) {
+        /**
+         * offset in the uncompressed file of the given base of this record
+         */
+        public long getOffsetOfBase(long base) {
+            return offset + (base / lineBases) * lineWidth + base % lineBases;
+        }
+    }
+
+    private FastAIndex(String fileName, LinkedHashMap<String, Entry> entries, long[] blockCompressedOffsets, long[] blockUncompressedOffsets) {
+        this.fileName = fileName;
+        this.entries = entries;
+        this.blockCompressedOffsets = blockCompressedOffsets;
+        this.blockUncompressedOffsets = blockUncompressedOffsets;
+    }
+
+    /**
+     * opens the index for a file. The index is loaded if it exists and is not older than the file, otherwise it is built and saved
+     *
+     * @param fileName uncompressed or BGZF-compressed fastA or fastQ file
+     * @return index
+     */
+    public static FastAIndex open(String fileName) throws IOException {
+        var file = new File(fileName);
+        var indexFile = new File(fileName + ".fai");
+        var gziFile = new File(fileName + ".gzi");
+        if (indexFile.exists() && indexFile.lastModified() >= file.lastModified() && (!isBGZF(fileName) || gziFile.exists() && gziFile.lastModified() >= file.lastModified()))
+            return load(fileName);
+        var index = build(fileName);
+        index.save();
+        return index;
+    }
+
+    /**
+     * is the file compressed in BGZF format?
+     */
+    public static boolean isBGZF(String fileName) throws IOException {
+        try (var ins = new BufferedInputStream(new FileInputStream(fileName))) {
+            return ParallelGZipInputStream.isBGZF(ins);
+        }
+    }
+
+    /**
+     * builds the index for a file by reading it once
+     *
+     * @param fileName uncompressed or BGZF-compressed fastA or fastQ file
+     * @return index
+     */
+    public static FastAIndex build(String fileName) throws IOException {
+        long[] blockCompressedOffsets = null;
+        long[] blockUncompressedOffsets = null;
+        final ByteLineReader reader;
+        if (isBGZF(fileName)) {
+            var blocks = computeBlocks(fileName);
+            blockCompressedOffsets = blocks[0];
+            blockUncompressedOffsets = blocks[1];
+            reader = new ByteLineReader(new ParallelGZipInputStream(new FileInputStream(fileName), 1), 0);
+        } else if (FileUtils.isZIPorGZIPFile(fileName))
+            throw new IOException("Random access requires an uncompressed or BGZF-compressed file: " + fileName);
+        else
+            reader = new ByteLineReader(fileName);
+
+        try (reader) {
+            var entries = new LinkedHashMap<String, Entry>();
+            if (reader.readLine()) {
+                var first = (reader.getLineLength() > 0 ? reader.getBuffer()[reader.getLineOffset()] : 0);
+                if (first == '>')
+                    indexFastA(fileName, reader, entries);
+                else if (first == '@')
+                    indexFastQ(fileName, reader, entries);
+                else
+                    throw new IOException("Not a fastA or fastQ file: " + fileName);
+            }
+            return new FastAIndex(fileName, entries, blockCompressedOffsets, blockUncompressedOffsets);
+        }
+    }
+
+    /**
+     * index fastA records. The reader is positioned at the first header line
+     */
+    private static void indexFastA(String fileName, ByteLineReader reader, LinkedHashMap<String, Entry> entries) throws IOException {
+        var hasLine = true;
+        while (hasLine) {
+            var name = getName(reader);
+            var offset = -1L;
+            var length = 0L;
+            var lineBases = 0;
+            var lineWidth = 0;
+            var lastBases = 0; // bases on previous line
+            var lines = 0L;
+            var sawShortLine = false;
+            while ((hasLine = reader.readLine())) {
+                var bases = reader.getLineLength();
+                if (bases > 0 && reader.getBuffer()[reader.getLineOffset()] == '>')
+                    break;
+                if (lines == 1 && lineWidth == 0)
+                    lineWidth = (int) (reader.getLinePosition() - offset);
+                if (bases == 0) {
+                    sawShortLine = true;
+                    continue;
+                }
+                if (lines == 0) {
+                    offset = reader.getLinePosition();
+                    lineBases = bases;
+                } else if (sawShortLine || lastBases != lineBases || bases > lineBases || reader.getLinePosition() != offset + lines * lineWidth)
+                    throw new IOException("Different line lengths in record '" + name + "' in file: " + fileName);
+                if (bases < lineBases)
+                    sawShortLine = true;
+                length += bases;
+                lastBases = bases;
+                lines++;
+            }
+            if (lines == 1 && lineWidth == 0) // width of only line: up to next header, or end of file
+                lineWidth = (int) ((hasLine ? reader.getLinePosition() : reader.getPosition()) - offset);
+            if (lines == 0)
+                offset = (hasLine ? reader.getLinePosition() : reader.getPosition());
+            lineWidth = Math.max(lineWidth, lineBases);
+            addEntry(fileName, entries, new Entry(name, length, offset, lineBases, lineWidth, -1));
+        }
+    }
+
+    /**
+     * index fastQ records, which must consist of four lines each. The reader is positioned at the first header line
+     */
+    private static void indexFastQ(String fileName, ByteLineReader reader, LinkedHashMap<String, Entry> entries) throws IOException {
+        do {
+            if (reader.getLineLength() == 0)
+                continue;
+            if (reader.getBuffer()[reader.getLineOffset()] != '@')
+                throw new IOException("Expected '@' at position " + reader.getLinePosition() + " in file: " + fileName);
+            var name = getName(reader);
+            if (!reader.readLine())
+                throw new EOFException("Truncated fastQ record '" + name + "' in file: " + fileName);
+            var offset = reader.getLinePosition();
+            var length = reader.getLineLength();
+            if (!reader.readLine() || reader.getLineLength() == 0 || reader.getBuffer()[reader.getLineOffset()] != '+')
+                throw new IOException("Expected '+' line in fastQ record '" + name + "' in file: " + fileName);
+            var lineWidth = (int) (reader.getLinePosition() - offset);
+            if (!reader.readLine() || reader.getLineLength() != length)
+                throw new IOException("Quality values and sequence differ in length in record '" + name + "' in file: " + fileName);
+            addEntry(fileName, entries, new Entry(name, length, offset, length, lineWidth, reader.getLinePosition()));
+        }
+        while (reader.readLine());
+    }
+
+    private static void addEntry(String fileName, LinkedHashMap<String, Entry> entries, Entry entry) throws IOException {
+        if (entries.put(entry.name(), entry) != null)
+            throw new IOException("Duplicate name '" + entry.name() + "' in file: " + fileName);
+    }
+
+    /**
+     * gets the first word of the current header line, without the leading '>' or '@'
+     */
+    private static String getName(ByteLineReader reader) {
+        var buffer = reader.getBuffer();
+        var start = reader.getLineOffset() + 1;
+        var end = reader.getLineOffset() + reader.getLineLength();
+        var pos = start;
+        while (pos < end && buffer[pos] > ' ')
+            pos++;
+        return new String(buffer, start, pos - start);
+    }
+
+    /**
+     * determines the compressed and uncompressed start of all non-empty BGZF blocks
+     */
+    private static long[][] computeBlocks(String fileName) throws IOException {
+        var compressed = new ListOfLongs();
+        var uncompressed = new ListOfLongs();
+        try (var channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(ParallelGZipInputStream.BGZF_HEADER_SIZE);
+            var trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            var compressedOffset = 0L;
+            var uncompressedOffset = 0L;
+            while (compressedOffset < channel.size()) {
+                header.clear();
+                readFully(channel, header, compressedOffset);
+                var blockSize = ParallelGZipInputStream.getBlockSize(header.array());
+                if (blockSize < ParallelGZipInputStream.BGZF_HEADER_SIZE + 8)
+                    throw new IOException("Not in BGZF format: " + fileName);
+                trailer.clear();
+                readFully(channel, trailer, compressedOffset + blockSize - 4);
+                var size = trailer.getInt(0);
+                if (size > 0) {
+                    compressed.add(compressedOffset);
+                    uncompressed.add(uncompressedOffset);
+                }
+                compressedOffset += blockSize;
+                uncompressedOffset += size;
+            }
+        }
+        return new long[][]{compressed.toArray(), uncompressed.toArray()};
+    }
+
+    /**
+     * loads the index from the .fai file (and .gzi file, for BGZF-compressed files)
+     */
+    public static FastAIndex load(String fileName) throws IOException {
+        var entries = new LinkedHashMap<String, Entry>();
+        try (var r = new BufferedReader(new FileReader(fileName + ".fai"))) {
+            String aLine;
+            while ((aLine = r.readLine()) != null) {
+                if (aLine.isBlank())
+                    continue;
+                var tokens = aLine.split("\t");
+                if (tokens.length < 5)
+                    throw new IOException("Invalid line in index file: " + aLine);
+                addEntry(fileName, entries, new Entry(tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), Integer.parseInt(tokens[3]),
+                        Integer.parseInt(tokens[4]), tokens.length > 5 ? Long.parseLong(tokens[5]) : -1));
+            }
+        }
+        long[] blockCompressedOffsets = null;
+        long[] blockUncompressedOffsets = null;
+        if (isBGZF(fileName)) {
+            try (var ins = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName + ".gzi")))) {
+                var count = (int) Long.reverseBytes(ins.readLong());
+                blockCompressedOffsets = new long[count + 1];
+                blockUncompressedOffsets = new long[count + 1];
+                for (var i = 1; i <= count; i++) { // the first block, starting at 0, is implicit
+                    blockCompressedOffsets[i] = Long.reverseBytes(ins.readLong());
+                    blockUncompressedOffsets[i] = Long.reverseBytes(ins.readLong());
+                }
+            }
+        }
+        return new FastAIndex(fileName, entries, blockCompressedOffsets, blockUncompressedOffsets);
+    }
+
+    /**
+     * saves the index to the .fai file (and .gzi file, for BGZF-compressed files)
+     */
+    public void save() throws IOException {
+        try (var w = new BufferedWriter(new FileWriter(fileName + ".fai"))) {
+            for (var entry : entries.values()) {
+                w.write(entry.name() + "\t" + entry.length() + "\t" + entry.offset() + "\t" + entry.lineBases() + "\t" + entry.lineWidth());
+                if (entry.qualityOffset() != -1)
+                    w.write("\t" + entry.qualityOffset());
+                w.write("\n");
+            }
+        }
+        if (isBGZF()) {
+            try (var outs = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName + ".gzi")))) {
+                var first = (blockCompressedOffsets.length > 0 && blockCompressedOffsets[0] == 0 ? 1 : 0);
+                outs.writeLong(Long.reverseBytes(blockCompressedOffsets.length - first));
+                for (var i = first; i < blockCompressedOffsets.length; i++) {
+                    outs.writeLong(Long.reverseBytes(blockCompressedOffsets[i]));
+                    outs.writeLong(Long.reverseBytes(blockUncompressedOffsets[i]));
+                }
+            }
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public boolean isBGZF() {
+        return blockCompressedOffsets != null;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * fetches the complete sequence of a record
+     *
+     * @param name name of record
+     * @return sequence or null, if no such record
+     */
+    public byte[] fetch(String name) throws IOException {
+        var entry = entries.get(name);
+        return (entry == null ? null : fetch(entry, 0, entry.length()));
+    }
+
+    /**
+     * fetches a subsequence of a record
+     *
+     * @param name  name of record
+     * @param start first base (0-based, inclusive)
+     * @param end   last base (0-based, exclusive)
+     * @return subsequence or null, if no such record
+     */
+    public byte[] fetch(String name, long start, long end) throws IOException {
+        var entry = entries.get(name);
+        return (entry == null ? null : fetch(entry, start, end));
+    }
+
+    /**
+     * fetches a subsequence of a record, positions are clipped to the sequence
+     */
+    public byte[] fetch(Entry entry, long start, long end) throws IOException {
+        start = Math.max(0, Math.min(start, entry.length()));
+        end = Math.max(start, Math.min(end, entry.length()));
+        if (start == end)
+            return new byte[0];
+        var bytes = read(entry.getOffsetOfBase(start), entry.getOffsetOfBase(end - 1) + 1);
+        var length = 0;
+        for (var b : bytes) {
+            if (b != '\n' && b != '\r')
+                bytes[length++] = b;
+        }
+        return (length == bytes.length ? bytes : Arrays.copyOf(bytes, length));
+    }
+
+    /**
+     * fetches a subsequence as a string
+     */
+    public String fetchAsString(String name, long start, long end) throws IOException {
+        var bytes = fetch(name, start, end);
+        return (bytes == null ? null : new String(bytes));
+    }
+
+    /**
+     * fetches the quality values of a fastQ record
+     *
+     * @param name name of record
+     * @return quality values or null, if no such record or not fastQ
+     */
+    public byte[] fetchQualities(String name) throws IOException {
+        var entry = entries.get(name);
+        if (entry == null || entry.qualityOffset() == -1)
+            return null;
+        return read(entry.qualityOffset(), entry.qualityOffset() + entry.length());
+    }
+
+    /**
+     * gets the BGZF virtual offset for a position in the uncompressed file, that is, the compressed offset of the containing block,
+     * shifted left by 16 bits, plus the offset within the uncompressed block
+     */
+    public long getVirtualOffset(long uncompressedOffset) {
+        if (!isBGZF())
+            return uncompressedOffset;
+        var block = findBlock(uncompressedOffset);
+        return (blockCompressedOffsets[block] << 16) | (uncompressedOffset - blockUncompressedOffsets[block]);
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (channel == null)
+            channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        return channel;
+    }
+
+    /**
+     * reads a range of the uncompressed file
+     *
+     * @throws IOException if the range is too large to be held in a single array
+     */
+    private byte[] read(long from, long to) throws IOException {
+        if (to - from > Basic.MAX_ARRAY_SIZE)
+            throw new IOException("Range too large to read into an array: " + (to - from) + " bytes, max: " + Basic.MAX_ARRAY_SIZE);
+        var result = new byte[(int) (to - from)];
+        if (!isBGZF()) {
+            readFully(getChannel(), ByteBuffer.wrap(result), from);
+        } else {
+            var block = findBlock(from);
+            var pos = 0;
+            var compressed = new byte[1 << 16];
+            var uncompressed = new byte[1 << 16];
+            while (pos < result.length) {
+                if (block >= blockCompressedOffsets.length)
+                    throw new EOFException("Unexpected end of file: " + fileName);
+                var header = ByteBuffer.wrap(compressed, 0, ParallelGZipInputStream.BGZF_HEADER_SIZE);
+                readFully(getChannel(), header, blockCompressedOffsets[block]);
+                var blockSize = ParallelGZipInputStream.getBlockSize(compressed);
+                if (blockSize < ParallelGZipInputStream.BGZF_HEADER_SIZE + 8)
+                    throw new IOException("Not in BGZF format: " + fileName);
+                readFully(getChannel(), ByteBuffer.wrap(compressed, ParallelGZipInputStream.BGZF_HEADER_SIZE, blockSize - ParallelGZipInputStream.BGZF_HEADER_SIZE),
+                        blockCompressedOffsets[block] + ParallelGZipInputStream.BGZF_HEADER_SIZE);
+                var size = ParallelGZipInputStream.inflateBlock(compressed, blockSize, uncompressed);
+                var skip = (int) Math.max(0, from + pos - blockUncompressedOffsets[block]);
+                if (skip < size) {
+                    var count = Math.min(size - skip, result.length - pos);
+                    System.arraycopy(uncompressed, skip, result, pos, count);
+                    pos += count;
+                }
+                block++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * finds the index of the last block whose uncompressed start is at most the given offset
+     */
+    private int findBlock(long uncompressedOffset) {
+        var index = Arrays.binarySearch(blockUncompressedOffsets, uncompressedOffset);
+        return (index >= 0 ? index : -index - 2);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            var count = channel.read(buffer, position);
+            if (count < 0)
+                throw new EOFException();
+            position += count;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+}
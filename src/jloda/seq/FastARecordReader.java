@@ -0,0 +1,218 @@
+/*
+ * FastARecordReader.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.seq;
+
+import jloda.util.ByteLineReader;
+import jloda.util.Pair;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * byte-oriented reader of multi-fastA files, possibly gzipped.
+ * Each call of next() loads the next record into buffers that are reused for the following record. The header
+ * (including the leading '>') and the sequence (with all white space removed) are available as byte arrays, together
+ * with the exact position of the record in the (uncompressed) file. Strings are only created on request
+ * Daniel Huson, 10.2026
+ */
+public class FastARecordReader implements Closeable {
+    private final ByteLineReader reader;
+
+    private byte[] header = new byte[256];
+    private int headerLength;
+    private byte[] nextHeader = new byte[256];
+    private int nextHeaderLength;
+    private boolean hasNextHeader;
+
+    private byte[] sequence = new byte[1024];
+    private int sequenceLength;
+
+    private long recordPosition;
+    private long nextRecordPosition;
+    private long recordLength;
+    private long numberOfRecords;
+
+    /**
+     * constructor
+     *
+     * @param fileName file, may be gzipped
+     */
+    public FastARecordReader(String fileName) throws IOException {
+        this(new ByteLineReader(fileName));
+    }
+
+    /**
+     * constructor
+     *
+     * @param reader line reader to read from
+     */
+    public FastARecordReader(ByteLineReader reader) throws IOException {
+        this.reader = reader;
+        while (reader.readLine()) { // skip anything before the first header
+            if (reader.getLineLength() > 0 && reader.getBuffer()[reader.getLineOffset()] == '>') {
+                copyNextHeader();
+                break;
+            }
+        }
+    }
+
+    /**
+     * reads the next record
+     *
+     * @return true, if a record was read, false, if there are no more records
+     */
+    public boolean next() throws IOException {
+        if (!hasNextHeader)
+            return false;
+
+        var tmp = header;
+        header = nextHeader;
+        headerLength = nextHeaderLength;
+        nextHeader = tmp;
+        recordPosition = nextRecordPosition;
+        hasNextHeader = false;
+        sequenceLength = 0;
+
+        while (reader.readLine()) {
+            var buffer = reader.getBuffer();
+            var offset = reader.getLineOffset();
+            var length = reader.getLineLength();
+            if (length > 0 && buffer[offset] == '>') {
+                copyNextHeader();
+                break;
+            }
+            appendSequence(buffer, offset, length);
+        }
+        recordLength = (hasNextHeader ? nextRecordPosition : reader.getPosition()) - recordPosition;
+        numberOfRecords++;
+        return true;
+    }
+
+    private void copyNextHeader() {
+        var length = reader.getLineLength();
+        if (length > nextHeader.length)
+            nextHeader = new byte[Math.max(length, 2 * nextHeader.length)];
+        System.arraycopy(reader.getBuffer(), reader.getLineOffset(), nextHeader, 0, length);
+        nextHeaderLength = length;
+        nextRecordPosition = reader.getLinePosition();
+        hasNextHeader = true;
+    }
+
+    /**
+     * appends a line to the sequence, removing white space. Lines are copied in bulk and only compacted if they contain white space
+     */
+    private void appendSequence(byte[] buffer, int offset, int length) {
+        if (sequenceLength + length > sequence.length) {
+            var tmp = new byte[Math.max(sequenceLength + length, 2 * sequence.length)];
+            System.arraycopy(sequence, 0, tmp, 0, sequenceLength);
+            sequence = tmp;
+        }
+        System.arraycopy(buffer, offset, sequence, sequenceLength, length);
+        var min = 255;
+        for (var i = sequenceLength; i < sequenceLength + length; i++) {
+            min = Math.min(min, sequence[i] & 0xFF);
+        }
+        if (min > ' ')
+            sequenceLength += length;
+        else {
+            for (var i = offset; i < offset + length; i++) {
+                if ((buffer[i] & 0xFF) > ' ')
+                    sequence[sequenceLength++] = buffer[i];
+            }
+        }
+    }
+
+    /**
+     * the header of the current record, including the leading '>'. Only the first getHeaderLength() bytes are valid
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    /**
+     * the sequence of the current record, without white space. Only the first getSequenceLength() bytes are valid
+     */
+    public byte[] getSequence() {
+        return sequence;
+    }
+
+    public int getSequenceLength() {
+        return sequenceLength;
+    }
+
+    /**
+     * gets the header as a string, including the leading '>'
+     */
+    public String getHeaderAsString() {
+        return new String(header, 0, headerLength);
+    }
+
+    /**
+     * gets the sequence as a string
+     */
+    public String getSequenceAsString() {
+        return new String(sequence, 0, sequenceLength);
+    }
+
+    /**
+     * gets the current record as a pair of header and sequence strings, as returned by FastAFileIterator
+     */
+    public Pair<String, String> getRecord() {
+        return new Pair<>(getHeaderAsString(), getSequenceAsString());
+    }
+
+    /**
+     * position of the header line of the current record in the (uncompressed) file
+     */
+    public long getRecordPosition() {
+        return recordPosition;
+    }
+
+    /**
+     * number of bytes of the current record in the (uncompressed) file, including all line terminators
+     */
+    public long getRecordLength() {
+        return recordLength;
+    }
+
+    /**
+     * number of records read so far
+     */
+    public long getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    public long getMaximumProgress() {
+        return reader.getMaximumProgress();
+    }
+
+    public long getProgress() {
+        return reader.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
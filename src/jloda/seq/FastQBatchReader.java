@@ -0,0 +1,396 @@
+/*
+ * FastQBatchReader.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.seq;
+
+import jloda.util.ByteLineReader;
+import jloda.util.Single;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reads a fastQ file, possibly gzipped, in batches of records.
+ * A producer thread reads and decompresses the file and fills batches, which consumers obtain from a bounded queue
+ * using take(). Each batch holds headers, sequences and quality values in a single byte array, together with an
+ * offset table. Batches that have been processed can be handed back using release(), so that their arrays are reused
+ * Daniel Huson, 10.2026
+ */
+public class FastQBatchReader implements Closeable {
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private static final Batch END = new Batch(0);
+
+    private final ByteLineReader reader;
+    private final int batchSize;
+    private final BlockingQueue<Batch> full;
+    private final BlockingQueue<Batch> free;
+    private final Thread producer;
+
+    private volatile boolean closed;
+    private volatile IOException exception;
+    private volatile long progress;
+    private volatile long numberOfRecords;
+
+    /**
+     * constructor
+     *
+     * @param fileName file, may be gzipped
+     */
+    public FastQBatchReader(String fileName) throws IOException {
+        this(new ByteLineReader(fileName), DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * constructor
+     *
+     * @param reader        line reader to read from
+     * @param batchSize     maximum number of records per batch
+     * @param queueCapacity maximum number of filled batches waiting to be taken
+     */
+    public FastQBatchReader(ByteLineReader reader, int batchSize, int queueCapacity) {
+        this.reader = reader;
+        this.batchSize = Math.max(1, batchSize);
+        queueCapacity = Math.max(1, queueCapacity);
+        full = new ArrayBlockingQueue<>(queueCapacity);
+        free = new ArrayBlockingQueue<>(2 * queueCapacity);
+        producer = new Thread(this::produce);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * the producer: reads records and puts filled batches into the queue
+     */
+    private void produce() {
+        try {
+            var batchNumber = 0L;
+            var recordNumber = 0L;
+            var more = true;
+            while (more && !closed) {
+                var batch = free.poll();
+                if (batch == null)
+                    batch = new Batch(batchSize);
+                batch.clear(batchNumber, recordNumber);
+                while (batch.size() < batchSize && (more = readRecord(batch))) {
+                }
+                if (batch.size() > 0) {
+                    batchNumber++;
+                    recordNumber += batch.size();
+                    numberOfRecords = recordNumber;
+                    progress = reader.getProgress();
+                    full.put(batch);
+                }
+            }
+            progress = reader.getProgress();
+        } catch (InterruptedException ignored) {
+        } catch (IOException ex) {
+            if (!closed)
+                exception = ex;
+        }
+        if (!closed) {
+            try {
+                full.put(END);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * reads the four lines of the next record into the batch
+     *
+     * @return false, if at end of file
+     */
+    private boolean readRecord(Batch batch) throws IOException {
+        do {
+            if (!reader.readLine())
+                return false;
+        } while (reader.getLineLength() == 0); // skip empty lines between records
+
+        if (reader.getBuffer()[reader.getLineOffset()] != '@')
+            throw new IOException("Position " + reader.getLinePosition() + ": fastQ header expected, got: " + reader.getLineAsString());
+        var position = reader.getLinePosition();
+        var headerOffset = batch.append(reader);
+
+        if (!reader.readLine())
+            throw new IOException("Unexpected end of file: missing sequence");
+        var sequenceOffset = batch.append(reader);
+
+        if (!reader.readLine() || reader.getLineLength() == 0 || reader.getBuffer()[reader.getLineOffset()] != '+')
+            throw new IOException("Position " + reader.getLinePosition() + ": '+' expected");
+
+        if (!reader.readLine())
+            throw new IOException("Unexpected end of file: missing quality values");
+        var qualityOffset = batch.append(reader);
+        if (batch.dataLength - qualityOffset != qualityOffset - sequenceOffset)
+            throw new IOException("Position " + reader.getLinePosition() + ": number of quality values differs from sequence length");
+
+        batch.addRecord(headerOffset, sequenceOffset, qualityOffset, position);
+        return true;
+    }
+
+    /**
+     * gets the next batch. Can be called by several consumer threads concurrently
+     *
+     * @return next batch, or null, if all records have been read
+     * @throws IOException if reading or parsing failed
+     */
+    public Batch take() throws IOException {
+        try {
+            var batch = full.take();
+            if (batch == END) {
+                full.put(END); // so that other consumers also see the end
+                if (exception != null)
+                    throw exception;
+                return null;
+            }
+            return batch;
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * hands back a batch that has been processed, so that its arrays can be reused. The batch must not be used afterward
+     */
+    public void release(Batch batch) {
+        if (batch != null && batch != END)
+            free.offer(batch);
+    }
+
+    /**
+     * processes all batches in parallel. Each batch is passed to the consumer by one thread and is released afterward
+     *
+     * @param numberOfThreads number of consumer threads
+     * @param consumer        consumer of batches
+     */
+    public void forEachBatch(int numberOfThreads, BatchConsumer consumer) throws IOException {
+        numberOfThreads = Math.max(1, numberOfThreads);
+        var exception = new Single<Exception>();
+        var service = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            for (var t = 0; t < numberOfThreads; t++) {
+                service.submit(() -> {
+                    try {
+                        Batch batch;
+                        while (exception.isNull() && (batch = take()) != null) {
+                            consumer.apply(batch);
+                            release(batch);
+                        }
+                    } catch (Exception ex) {
+                        exception.setIfCurrentValueIsNull(ex);
+                    }
+                });
+            }
+            service.shutdown();
+            service.awaitTermination(1000, TimeUnit.DAYS);
+        } catch (InterruptedException ex) {
+            exception.setIfCurrentValueIsNull(ex);
+        } finally {
+            service.shutdownNow();
+        }
+        if (exception.isNotNull()) {
+            if (exception.get() instanceof IOException ioException)
+                throw ioException;
+            else
+                throw new IOException(exception.get());
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * number of records read by the producer so far
+     */
+    public long getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    public long getMaximumProgress() {
+        return reader.getMaximumProgress();
+    }
+
+    public long getProgress() {
+        return progress;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            producer.interrupt();
+            try {
+                producer.join(1000);
+            } catch (InterruptedException ignored) {
+            }
+            full.clear();
+            full.offer(END);
+            reader.close();
+        }
+    }
+
+    /**
+     * a batch of fastQ records. All headers, sequences and quality values are stored in one byte array. The header includes
+     * the leading '@'
+     */
+    public static class Batch {
+        private byte[] data;
+        private int dataLength;
+        private int[] offsets; // header, sequence and quality offsets of each record, followed by the end of the data
+        private long[] positions;
+        private int size;
+        private long batchNumber;
+        private long firstRecordNumber;
+
+        private Batch(int capacity) {
+            data = new byte[Math.max(1024, 256 * capacity)];
+            offsets = new int[3 * capacity + 1];
+            positions = new long[capacity];
+        }
+
+        private void clear(long batchNumber, long firstRecordNumber) {
+            this.batchNumber = batchNumber;
+            this.firstRecordNumber = firstRecordNumber;
+            dataLength = 0;
+            size = 0;
+        }
+
+        private int append(ByteLineReader reader) {
+            var length = reader.getLineLength();
+            if (dataLength + length > data.length)
+                data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) dataLength + length, 2L * data.length)));
+            System.arraycopy(reader.getBuffer(), reader.getLineOffset(), data, dataLength, length);
+            var offset = dataLength;
+            dataLength += length;
+            return offset;
+        }
+
+        private void addRecord(int headerOffset, int sequenceOffset, int qualityOffset, long position) {
+            if (3 * size + 3 >= offsets.length)
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length + 1);
+            if (size == positions.length)
+                positions = Arrays.copyOf(positions, 2 * positions.length + 1);
+            offsets[3 * size] = headerOffset;
+            offsets[3 * size + 1] = sequenceOffset;
+            offsets[3 * size + 2] = qualityOffset;
+            offsets[3 * size + 3] = dataLength;
+            positions[size++] = position;
+        }
+
+        /**
+         * number of records in this batch
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * number of this batch, starting at 0. Can be used to restore file order when batches are processed in parallel
+         */
+        public long getBatchNumber() {
+            return batchNumber;
+        }
+
+        /**
+         * number of the first record of this batch in the file, starting at 0
+         */
+        public long getFirstRecordNumber() {
+            return firstRecordNumber;
+        }
+
+        /**
+         * the byte array that holds all headers, sequences and quality values of this batch
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getHeaderOffset(int i) {
+            return offsets[3 * i];
+        }
+
+        public int getHeaderLength(int i) {
+            return offsets[3 * i + 1] - offsets[3 * i];
+        }
+
+        public int getSequenceOffset(int i) {
+            return offsets[3 * i + 1];
+        }
+
+        public int getSequenceLength(int i) {
+            return offsets[3 * i + 2] - offsets[3 * i + 1];
+        }
+
+        /**
+         * offset of the quality values of the i-th record. There are getSequenceLength(i) of them
+         */
+        public int getQualityOffset(int i) {
+            return offsets[3 * i + 2];
+        }
+
+        /**
+         * position of the i-th record in the (uncompressed) file
+         */
+        public long getPosition(int i) {
+            return positions[i];
+        }
+
+        public String getHeaderAsString(int i) {
+            return new String(data, getHeaderOffset(i), getHeaderLength(i));
+        }
+
+        public String getSequenceAsString(int i) {
+            return new String(data, getSequenceOffset(i), getSequenceLength(i));
+        }
+
+        public String getQualitiesAsString(int i) {
+            return new String(data, getQualityOffset(i), getSequenceLength(i));
+        }
+
+        /**
+         * gets a copy of the sequence of the i-th record
+         */
+        public byte[] getSequence(int i) {
+            return Arrays.copyOfRange(data, getSequenceOffset(i), getSequenceOffset(i) + getSequenceLength(i));
+        }
+
+        /**
+         * gets a copy of the quality values of the i-th record
+         */
+        public byte[] getQualities(int i) {
+            return Arrays.copyOfRange(data, getQualityOffset(i), getQualityOffset(i) + getSequenceLength(i));
+        }
+    }
+
+    /**
+     * consumer of batches
+     */
+    public interface BatchConsumer {
+        void apply(Batch batch) throws IOException;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * SixFrameTranslator.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.seq;
+
+import java.util.stream.IntStream;
+
+/**
+ * translates DNA into protein in all six reading frames in one pass.
+ * Each codon of unambiguous nucleotides is mapped to a 6-bit index into a table of 64 amino acids,
+ * other codons are translated using SequenceUtils.getAminoAcid(). Frames 0-2 are the forward frames
+ * starting at offsets 0, 1 and 2, frames 3-5 are the frames of the reverse complement, starting at offsets 0, 1 and 2
+ * of the reverse complement. The frame buffers are reused between calls, so an instance is not thread-safe
+ * Daniel Huson, 10.2026
+ */
+public class SixFrameTranslator {
+    private static final int CHUNK_SIZE = 1 << 20; // number of codons translated by one task, when running in parallel
+
+    private static final byte[] CODE = new byte[256]; // 0-3 for ACGT, -1 for all other letters
+    private static final byte[] COMPLEMENT_CODE = new byte[256]; // code of the complement, as given by SequenceUtils.getComplement()
+    private static final byte[] AMINO_ACID = new byte[64];
+
+    static {
+        for (var i = 0; i < 256; i++)
+            CODE[i] = (byte) "ACGT".indexOf(Character.toUpperCase(i == 'u' || i == 'U' ? 'T' : i));
+        for (var i = 0; i < 256; i++)
+            COMPLEMENT_CODE[i] = CODE[SequenceUtils.getComplement((byte) i) & 0xFF];
+        for (var index = 0; index < 64; index++)
+            AMINO_ACID[index] = SequenceUtils.getAminoAcid("ACGT".charAt(index >>> 4), "ACGT".charAt((index >>> 2) & 3), "ACGT".charAt(index & 3));
+    }
+
+    private final byte[][] frames = new byte[6][0];
+    private final int[] frameLengths = new int[6];
+
+    /**
+     * translates a sequence in all six frames
+     */
+    public void translate(byte[] sequence) {
+        translate(sequence, 0, sequence.length, false);
+    }
+
+    /**
+     * translates a segment of a sequence in all six frames
+     *
+     * @param offset   start of segment
+     * @param length   length of segment
+     * @param parallel translate long segments in chunks, in parallel
+     */
+    public void translate(byte[] sequence, int offset, int length, boolean parallel) {
+        for (var frame = 0; frame < 3; frame++) {
+            var frameLength = Math.max(0, (length - frame) / 3);
+            frameLengths[frame] = frameLengths[frame + 3] = frameLength;
+            if (frames[frame].length < frameLength) {
+                frames[frame] = new byte[frameLength];
+                frames[frame + 3] = new byte[frameLength];
+            }
+        }
+        var numberOfCodons = Math.max(0, length - 2); // codons start at positions 0..length-3
+        if (parallel && numberOfCodons > CHUNK_SIZE) {
+            var numberOfChunks = (numberOfCodons + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            IntStream.range(0, numberOfChunks).parallel().forEach(chunk ->
+                    translate(sequence, offset, length, chunk * CHUNK_SIZE, (int) Math.min(numberOfCodons, (long) (chunk + 1) * CHUNK_SIZE)));
+        } else if (numberOfCodons > 0)
+            translate(sequence, offset, length, 0, numberOfCodons);
+    }
+
+    /**
+     * translates the codons that start at the given range of positions of the segment
+     */
+    private void translate(byte[] sequence, int offset, int length, int from, int to) {
+        var f0 = frames[0];
+        var f1 = frames[1];
+        var f2 = frames[2];
+        var r0 = frames[3];
+        var r1 = frames[4];
+        var r2 = frames[5];
+        var forward = 0; // index of the codon ending at the current position
+        var reverse = 0; // index of the reverse complement of the codon ending at the current position
+        var ambiguous = 0; // bit i is set, if the letter i positions back is not one of ACGTU
+        for (var p = from; p < from + 2; p++) {
+            var letter = sequence[offset + p] & 0xFF;
+            forward = (forward << 2) | (CODE[letter] & 3);
+            reverse = (reverse >>> 2) | ((COMPLEMENT_CODE[letter] & 3) << 4);
+            ambiguous = (ambiguous << 1) | (CODE[letter] >>> 31 & 1);
+        }
+        // frame and position of the current codon in the forward strand and in the reverse complement:
+        var frame = from % 3;
+        var pos = from / 3;
+        var reverseFrame = (length - 3 - from) % 3;
+        var reversePos = (length - 3 - from) / 3;
+
+        for (var start = from; start < to; start++) {
+            var letter = sequence[offset + start + 2] & 0xFF;
+            var code = CODE[letter];
+            forward = ((forward << 2) | (code & 3)) & 63;
+            reverse = (reverse >>> 2) | ((COMPLEMENT_CODE[letter] & 3) << 4);
+            ambiguous = ((ambiguous << 1) | (code >>> 31 & 1)) & 7;
+
+            byte aa;
+            byte raa;
+            if (ambiguous == 0) {
+                aa = AMINO_ACID[forward];
+                raa = AMINO_ACID[reverse];
+            } else {
+                aa = SequenceUtils.getAminoAcid(sequence, offset + start);
+                raa = SequenceUtils.getAminoAcidReverse(sequence, offset + start);
+            }
+            switch (frame) {
+                case 0 -> f0[pos] = aa;
+                case 1 -> f1[pos] = aa;
+                default -> {
+                    f2[pos++] = aa;
+                    frame = -1;
+                }
+            }
+            frame++;
+            switch (reverseFrame) {
+                case 0 -> {
+                    r0[reversePos--] = raa;
+                    reverseFrame = 3;
+                }
+                case 1 -> r1[reversePos] = raa;
+                default -> r2[reversePos] = raa;
+            }
+            reverseFrame--;
+        }
+    }
+
+    /**
+     * gets the buffer containing the translation of a frame. Only the first getFrameLength(frame) entries are valid
+     *
+     * @param frame 0-2 for the forward frames, 3-5 for the reverse frames
+     * @return buffer, which is reused by the next call of translate()
+     */
+    public byte[] getFrame(int frame) {
+        return frames[frame];
+    }
+
+    /**
+     * gets the number of amino acids in a frame
+     */
+    public int getFrameLength(int frame) {
+        return frameLengths[frame];
+    }
+
+    /**
+     * gets a copy of the translation of a frame
+     */
+    public byte[] copyFrame(int frame) {
+        var result = new byte[frameLengths[frame]];
+        System.arraycopy(frames[frame], 0, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * translates a segment of a sequence in a single frame
+     *
+     * @param offset  start of segment
+     * @param length  length of segment
+     * @param reverse translate the reverse complement
+     * @param shift   0, 1 or 2
+     * @param result  array to write to, is allocated, if null or too short
+     * @return result, the first (length-shift)/3 entries contain the translation
+     */
+    public static byte[] translate(byte[] sequence, int offset, int length, boolean reverse, int shift, byte[] result) {
+        var frameLength = Math.max(0, (length - shift) / 3);
+        if (result == null || result.length < frameLength)
+            result = new byte[frameLength];
+        if (!reverse) {
+            for (int i = 0, p = offset + shift; i < frameLength; i++, p += 3) {
+                var c1 = CODE[sequence[p] & 0xFF];
+                var c2 = CODE[sequence[p + 1] & 0xFF];
+                var c3 = CODE[sequence[p + 2] & 0xFF];
+                result[i] = ((c1 | c2 | c3) >= 0 ? AMINO_ACID[(c1 << 4) | (c2 << 2) | c3] : SequenceUtils.getAminoAcid(sequence, p));
+            }
+        } else {
+            for (int i = 0, p = offset + length - 3 - shift; i < frameLength; i++, p -= 3) {
+                var c1 = COMPLEMENT_CODE[sequence[p + 2] & 0xFF];
+                var c2 = COMPLEMENT_CODE[sequence[p + 1] & 0xFF];
+                var c3 = COMPLEMENT_CODE[sequence[p] & 0xFF];
+                result[i] = ((c1 | c2 | c3) >= 0 ? AMINO_ACID[(c1 << 4) | (c2 << 2) | c3] : SequenceUtils.getAminoAcidReverse(sequence, p));
+            }
+        }
+        return result;
+    }
+}
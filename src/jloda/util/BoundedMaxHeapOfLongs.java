@@ -0,0 +1,200 @@
+/*
+ * BoundedMaxHeapOfLongs.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.util.Arrays;
+
+/**
+ * keeps the smallest distinct long values seen, up to a given capacity, without boxing.
+ * Values are kept in a max-heap, so that the largest kept value is available in constant time, and in an open-addressing
+ * hash set, so that duplicates are detected in constant time. Used to compute bottom-s sketches
+ * Daniel Huson, 10.2026
+ */
+public class BoundedMaxHeapOfLongs {
+    private final int capacity;
+    private final long[] heap;
+    private int size;
+
+    private final long[] table;
+    private final boolean[] used;
+    private final int mask;
+
+    private long removed;
+    private boolean hasRemoved;
+
+    /**
+     * constructor
+     *
+     * @param capacity maximum number of values to keep
+     */
+    public BoundedMaxHeapOfLongs(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        heap = new long[this.capacity];
+        var tableSize = Integer.highestOneBit(Math.max(4, 2 * this.capacity - 1)) << 1;
+        table = new long[tableSize];
+        used = new boolean[tableSize];
+        mask = tableSize - 1;
+    }
+
+    /**
+     * adds a value, if it is not already contained and either the heap is not full or the value is smaller than the
+     * current maximum, which is then removed
+     *
+     * @return true, if the value was added
+     */
+    public boolean add(long value) {
+        hasRemoved = false;
+        if (size == capacity && value >= heap[0] || contains(value))
+            return false;
+        if (size == capacity) {
+            removed = heap[0];
+            hasRemoved = true;
+            removeFromTable(removed);
+            heap[0] = value;
+            siftDown(0);
+        } else {
+            heap[size] = value;
+            siftUp(size++);
+        }
+        addToTable(value);
+        return true;
+    }
+
+    /**
+     * values smaller than the threshold may be added: the current maximum, if the heap is full, otherwise Long.MAX_VALUE
+     */
+    public long getThreshold() {
+        return size == capacity ? heap[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * does the last successful add() remove the previous maximum?
+     */
+    public boolean hasRemoved() {
+        return hasRemoved;
+    }
+
+    /**
+     * the value removed by the last successful add(), if hasRemoved() is true
+     */
+    public long getRemoved() {
+        return removed;
+    }
+
+    public boolean contains(long value) {
+        for (var i = index(value); used[i]; i = (i + 1) & mask) {
+            if (table[i] == value)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * the largest value kept, undefined if empty
+     */
+    public long getMax() {
+        return heap[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public void clear() {
+        size = 0;
+        Arrays.fill(used, false);
+    }
+
+    /**
+     * gets all values in ascending order
+     */
+    public long[] toSortedArray() {
+        var result = Arrays.copyOf(heap, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void siftUp(int i) {
+        var value = heap[i];
+        while (i > 0) {
+            var parent = (i - 1) >>> 1;
+            if (heap[parent] >= value)
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+
+    private void siftDown(int i) {
+        var value = heap[i];
+        var half = size >>> 1;
+        while (i < half) {
+            var child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] > heap[child])
+                child++;
+            if (value >= heap[child])
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+    private int index(long value) {
+        var h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void addToTable(long value) {
+        var i = index(value);
+        while (used[i])
+            i = (i + 1) & mask;
+        table[i] = value;
+        used[i] = true;
+    }
+
+    /**
+     * removes a value from the linear-probing table, moving later entries of the probe sequence back into the gap
+     */
+    private void removeFromTable(long value) {
+        var i = index(value);
+        while (table[i] != value)
+            i = (i + 1) & mask;
+        used[i] = false;
+        for (var j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            var home = index(table[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) { // entry at j may move into the gap at i
+                table[i] = table[j];
+                used[i] = true;
+                used[j] = false;
+                i = j;
+            }
+        }
+    }
+}
@@ -19,8 +19,14 @@
 
 package jloda.util;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
 /**
- * simple byte input buffer
+ * simple byte input buffer.
+ * Reads numbers, strings and arrays in the formats written by ByteOutputBuffer
  * Daniel Huson, 8.2015
  */
 public class ByteInputBuffer {
@@ -93,24 +99,122 @@ public class ByteInputBuffer {
      * read int, little endian
      */
     public int readIntLittleEndian() {
-        return (((int) bytes[pos++] & 0xFF))
-                | (((int) bytes[pos++] & 0xFF) << 8)
-                | (((int) bytes[pos++] & 0xFF) << 16)
-                | (((int) bytes[pos++]) << 24);
+        final var value = (int) ByteOutputBuffer.INT.get(bytes, pos);
+        pos += 4;
+        return value;
     }
 
     /**
      * read long, little endian
      */
     public long readLongLittleEndian() {
-        return (((long) bytes[pos++] & 0xFF))
-                | (((long) bytes[pos++] & 0xFF) << 8)
-                | (((long) bytes[pos++] & 0xFF) << 16)
-                | (((long) bytes[pos++] & 0xFF) << 24)
-                | (((long) bytes[pos++] & 0xFF) << 32)
-                | (((long) bytes[pos++] & 0xFF) << 40)
-                | (((long) bytes[pos++] & 0xFF) << 48)
-                | (((long) bytes[pos++] & 0xFF) << 56);
+        final var value = (long) ByteOutputBuffer.LONG.get(bytes, pos);
+        pos += 8;
+        return value;
+    }
+
+    /**
+     * read double, little endian
+     */
+    public double readDoubleLittleEndian() {
+        return Double.longBitsToDouble(readLongLittleEndian());
+    }
+
+    /**
+     * reads an unsigned LEB128 varint
+     */
+    public int readVarInt() {
+        var value = 0;
+        for (var shift = 0; shift < 35; shift += 7) {
+            final var b = bytes[pos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    /**
+     * reads an unsigned LEB128 varint
+     */
+    public long readVarLong() {
+        var value = 0L;
+        for (var shift = 0; shift < 70; shift += 7) {
+            final var b = bytes[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    /**
+     * reads a zigzag-encoded varint
+     */
+    public int readSignedVarInt() {
+        final var value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * reads a zigzag-encoded varint
+     */
+    public long readSignedVarLong() {
+        final var value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * reads an array of ints written by ByteOutputBuffer.writeDeltaEncoded()
+     */
+    public int[] readDeltaEncodedInts() {
+        final var values = new int[readVarInt()];
+        var previous = 0;
+        for (var i = 0; i < values.length; i++)
+            values[i] = previous = previous + readSignedVarInt();
+        return values;
+    }
+
+    /**
+     * reads an array of longs written by ByteOutputBuffer.writeDeltaEncoded()
+     */
+    public long[] readDeltaEncodedLongs() {
+        final var values = new long[readVarInt()];
+        var previous = 0L;
+        for (var i = 0; i < values.length; i++)
+            values[i] = previous = previous + readSignedVarLong();
+        return values;
+    }
+
+    /**
+     * reads a string written by ByteOutputBuffer.writeStringUTF8()
+     */
+    public String readStringUTF8() {
+        final var length = readVarInt();
+        final var result = new String(bytes, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return result;
+    }
+
+    /**
+     * replaces the content of this buffer by the given number of bytes read from a channel, passing them through a reused direct buffer
+     */
+    public void readFrom(ReadableByteChannel channel, int count) throws IOException {
+        setSize(count);
+        pos = 0;
+        final var direct = ByteOutputBuffer.DIRECT_BUFFER.get();
+        for (var offset = 0; offset < count; ) {
+            direct.clear();
+            direct.limit(Math.min(direct.capacity(), count - offset));
+            while (direct.hasRemaining()) {
+                if (channel.read(direct) == -1)
+                    throw new EOFException("Expected " + count + " bytes, got: " + (offset + direct.position()));
+            }
+            direct.flip();
+            final var length = direct.remaining();
+            direct.get(bytes, offset, length);
+            offset += length;
+        }
     }
 
     private int readCharLittleEndian() {
@@ -0,0 +1,250 @@
+/*
+ * ByteLineReader.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * reads lines of bytes from a file or stream using a large block buffer.
+ * Each call of readLine() makes the next line available as a slice (getBuffer(), getLineOffset(), getLineLength())
+ * of the internal buffer, without copying. The slice does not include the line terminator and
+ * is only valid until the next call of readLine()
+ * Daniel Huson, 10.2026
+ */
+public class ByteLineReader implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private final ReadableByteChannel channel;
+    private final long maxProgress;
+
+    private byte[] buffer;
+    private int start; // start of unconsumed bytes
+    private int end; // end of valid bytes
+    private int scanned; // bytes in start..scanned are known not to contain a newline
+    private long bufferPosition; // position of buffer[0] in the (uncompressed) input
+    private boolean eof;
+
+    private int lineOffset;
+    private int lineLength;
+    private long linePosition;
+
+    /**
+     * opens a file, which may be gzipped or zipped, or stdin
+     *
+     * @param fileName file name
+     */
+    public ByteLineReader(String fileName) throws IOException {
+        this(openChannel(fileName), (FileUtils.isZIPorGZIPFile(fileName) ? 20 : 1) * (new File(fileName)).length(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * reads from an input stream
+     *
+     * @param ins         input stream
+     * @param maxProgress value to report as maximum progress
+     */
+    public ByteLineReader(InputStream ins, long maxProgress) {
+        this(Channels.newChannel(ins), maxProgress, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * reads from a channel
+     *
+     * @param channel     channel
+     * @param maxProgress value to report as maximum progress
+     * @param bufferSize  initial size of buffer, grows if a line does not fit
+     */
+    public ByteLineReader(ReadableByteChannel channel, long maxProgress, int bufferSize) {
+        this.channel = channel;
+        this.maxProgress = maxProgress;
+        this.buffer = new byte[Math.max(16, bufferSize)];
+    }
+
+    private static ReadableByteChannel openChannel(String fileName) throws IOException {
+        if (FileUtils.isZIPorGZIPFile(fileName) || fileName.endsWith("stdin") || fileName.endsWith("stdin-gz") || FileUtils.isHTTPorFileURL(fileName))
+            return Channels.newChannel(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName));
+        else {
+            var file = new File(fileName);
+            if (file.isDirectory())
+                throw new IOException("Directory, not a file: " + file);
+            if (!file.exists())
+                throw new IOException("No such file: " + file);
+            return FileChannel.open(Path.of(fileName), StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * reads the next line. A line is terminated by a newline, a trailing carriage return is removed
+     *
+     * @return true, if a line was read, false, if the end of the input has been reached
+     */
+    public boolean readLine() throws IOException {
+        while (true) {
+            var newline = indexOf(buffer, scanned, end, (byte) '\n');
+            if (newline != -1) {
+                setLine(start, newline);
+                start = scanned = newline + 1;
+                return true;
+            }
+            scanned = end;
+            if (eof) {
+                if (start < end) {
+                    setLine(start, end);
+                    start = scanned = end;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    private void setLine(int from, int to) {
+        if (to > from && buffer[to - 1] == '\r')
+            to--;
+        lineOffset = from;
+        lineLength = to - from;
+        linePosition = bufferPosition + from;
+    }
+
+    /**
+     * moves the unconsumed bytes to the front of the buffer, grows it if it is full, and reads more bytes
+     */
+    private void fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            bufferPosition += start;
+            end -= start;
+            scanned -= start;
+            start = 0;
+        }
+        if (end == buffer.length) {
+            var tmp = new byte[2 * buffer.length];
+            System.arraycopy(buffer, 0, tmp, 0, end);
+            buffer = tmp;
+        }
+        var byteBuffer = ByteBuffer.wrap(buffer, end, buffer.length - end);
+        int count;
+        do {
+            count = channel.read(byteBuffer);
+        }
+        while (count == 0);
+        if (count < 0)
+            eof = true;
+        else
+            end += count;
+    }
+
+    /**
+     * finds the first occurrence of a byte in a range of an array, looking at eight bytes at a time
+     *
+     * @param array the array
+     * @param from  first index (inclusive)
+     * @param to    last index (exclusive)
+     * @param value the byte to find
+     * @return index or -1
+     */
+    public static int indexOf(byte[] array, int from, int to, byte value) {
+        var pattern = (value & 0xFFL) * ONES;
+        var i = from;
+        for (; i + 8 <= to; i += 8) {
+            var word = (long) LONG_VIEW.get(array, i) ^ pattern;
+            var found = (word - ONES) & ~word & HIGHS; // lowest set bit marks the first zero byte
+            if (found != 0)
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < to; i++) {
+            if (array[i] == value)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * the buffer that contains the current line. May change after the next call of readLine()
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * offset of the current line in the buffer
+     */
+    public int getLineOffset() {
+        return lineOffset;
+    }
+
+    /**
+     * length of the current line, excluding the line terminator
+     */
+    public int getLineLength() {
+        return lineLength;
+    }
+
+    /**
+     * position of the current line in the (uncompressed) input
+     */
+    public long getLinePosition() {
+        return linePosition;
+    }
+
+    /**
+     * gets the current line as a string
+     */
+    public String getLineAsString() {
+        return new String(buffer, lineOffset, lineLength);
+    }
+
+    /**
+     * position of the next unconsumed byte in the (uncompressed) input
+     */
+    public long getPosition() {
+        return bufferPosition + start;
+    }
+
+    public long getMaximumProgress() {
+        return maxProgress;
+    }
+
+    public long getProgress() {
+        return getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
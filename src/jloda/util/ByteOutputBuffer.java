@@ -19,11 +19,26 @@
 
 package jloda.util;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
 /**
- * simple byte buffer
+ * simple byte buffer.
+ * Numbers are written little endian, either with fixed width or as variable-length LEB128 varints, in which
+ * signed values are zigzag encoded. Use ByteInputBuffer to read
  * Daniel Huson, 8.2015
  */
 public class ByteOutputBuffer {
+    static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    static final int DIRECT_BUFFER_SIZE = 1 << 16;
+    static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE));
+
     private int size;
     private byte[] bytes;
 
@@ -71,6 +86,12 @@ public class ByteOutputBuffer {
         size += b.length;
     }
 
+    public void write(byte[] b, int offset, int length) {
+        ensureSize(size + length);
+        System.arraycopy(b, offset, bytes, size, length);
+        size += length;
+    }
+
     public void writeString(String str) {
         byte[] b = str.getBytes();
         ensureSize(size + b.length);
@@ -91,10 +112,8 @@ public class ByteOutputBuffer {
      */
     public void writeIntLittleEndian(int a) {
         ensureSize(size + 4);
-        bytes[size++] = ((byte) (a));
-        bytes[size++] = ((byte) (a >> 8));
-        bytes[size++] = ((byte) (a >> 16));
-        bytes[size++] = ((byte) (a >> 24));
+        INT.set(bytes, size, a);
+        size += 4;
     }
 
     /**
@@ -102,14 +121,8 @@ public class ByteOutputBuffer {
      */
     public void writeLongLittleEndian(long a) {
         ensureSize(size + 8);
-        bytes[size++] = ((byte) (a));
-        bytes[size++] = ((byte) (a >> 8));
-        bytes[size++] = ((byte) (a >> 16));
-        bytes[size++] = ((byte) (a >> 24));
-        bytes[size++] = ((byte) (a >> 32));
-        bytes[size++] = ((byte) (a >> 40));
-        bytes[size++] = ((byte) (a >> 48));
-        bytes[size++] = ((byte) (a >> 56));
+        LONG.set(bytes, size, a);
+        size += 8;
     }
 
     /**
@@ -119,6 +132,93 @@ public class ByteOutputBuffer {
         writeLongLittleEndian(Double.doubleToRawLongBits(a));
     }
 
+    /**
+     * writes an int as an unsigned LEB128 varint, using 1-5 bytes
+     */
+    public void writeVarInt(int a) {
+        ensureSize(size + 5);
+        while ((a & ~0x7F) != 0) {
+            bytes[size++] = (byte) ((a & 0x7F) | 0x80);
+            a >>>= 7;
+        }
+        bytes[size++] = (byte) a;
+    }
+
+    /**
+     * writes a long as an unsigned LEB128 varint, using 1-10 bytes
+     */
+    public void writeVarLong(long a) {
+        ensureSize(size + 10);
+        while ((a & ~0x7FL) != 0) {
+            bytes[size++] = (byte) ((a & 0x7F) | 0x80);
+            a >>>= 7;
+        }
+        bytes[size++] = (byte) a;
+    }
+
+    /**
+     * writes a signed int as a zigzag-encoded varint, so that values of small magnitude use few bytes
+     */
+    public void writeSignedVarInt(int a) {
+        writeVarInt((a << 1) ^ (a >> 31));
+    }
+
+    /**
+     * writes a signed long as a zigzag-encoded varint, so that values of small magnitude use few bytes
+     */
+    public void writeSignedVarLong(long a) {
+        writeVarLong((a << 1) ^ (a >> 63));
+    }
+
+    /**
+     * writes the number of values, followed by the differences between consecutive values as signed varints.
+     * Compact for sorted values that are close to each other
+     */
+    public void writeDeltaEncoded(int[] values, int offset, int length) {
+        writeVarInt(length);
+        var previous = 0;
+        for (var i = offset; i < offset + length; i++) {
+            writeSignedVarInt(values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    /**
+     * writes the number of values, followed by the differences between consecutive values as signed varints.
+     * Compact for sorted values that are close to each other
+     */
+    public void writeDeltaEncoded(long[] values, int offset, int length) {
+        writeVarInt(length);
+        var previous = 0L;
+        for (var i = offset; i < offset + length; i++) {
+            writeSignedVarLong(values[i] - previous);
+            previous = values[i];
+        }
+    }
+
+    /**
+     * writes a string as its number of UTF-8 bytes, as a varint, followed by the bytes
+     */
+    public void writeStringUTF8(String str) {
+        var b = str.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(b.length);
+        write(b);
+    }
+
+    /**
+     * writes the content of this buffer to a channel, passing it through a reused direct buffer
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        var direct = DIRECT_BUFFER.get();
+        for (var offset = 0; offset < size; offset += DIRECT_BUFFER_SIZE) {
+            direct.clear();
+            direct.put(bytes, offset, Math.min(DIRECT_BUFFER_SIZE, size - offset));
+            direct.flip();
+            while (direct.hasRemaining())
+                channel.write(direct);
+        }
+    }
+
     public static byte[] getIntLittleEndian(int a) {
         return new byte[]{((byte) (a)), ((byte) (a >> 8)), ((byte) (a >> 16)), ((byte) (a >> 24))};
     }
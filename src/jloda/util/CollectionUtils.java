@@ -365,4 +365,49 @@ public class CollectionUtils {
 	public static <T> boolean equalsAsSets(Collection<T> aList, Collection<T> bList) {
 		return aList.size() == bList.size() && (new HashSet<>(aList)).containsAll(bList) && (new HashSet<>(bList)).containsAll(aList);
 	}
+
+	/**
+	 * sorts a range of an array and removes duplicates
+	 *
+	 * @return end of the range of unique values, which starts at from
+	 */
+	public static int sortUnique(int[] array, int from, int to) {
+		Arrays.sort(array, from, to);
+		var end = Math.min(from + 1, to);
+		for (var i = from + 1; i < to; i++) {
+			if (array[i] != array[end - 1])
+				array[end++] = array[i];
+		}
+		return end;
+	}
+
+	/**
+	 * sorts a range of an array and removes duplicates
+	 *
+	 * @return end of the range of unique values, which starts at from
+	 */
+	public static int sortUnique(long[] array, int from, int to) {
+		Arrays.sort(array, from, to);
+		var end = Math.min(from + 1, to);
+		for (var i = from + 1; i < to; i++) {
+			if (array[i] != array[end - 1])
+				array[end++] = array[i];
+		}
+		return end;
+	}
+
+	/**
+	 * sorts a range of an array and removes duplicates, as determined by Double.compare
+	 *
+	 * @return end of the range of unique values, which starts at from
+	 */
+	public static int sortUnique(double[] array, int from, int to) {
+		Arrays.sort(array, from, to);
+		var end = Math.min(from + 1, to);
+		for (var i = from + 1; i < to; i++) {
+			if (Double.compare(array[i], array[end - 1]) != 0)
+				array[end++] = array[i];
+		}
+		return end;
+	}
 }
@@ -0,0 +1,167 @@
+/*
+ * ConcurrentHistogram.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * a histogram with a fixed number of bins that many threads can update concurrently.
+ * Values are assigned to bins as in Statistics.getBinnedCounts, values outside of the range [min,max] are
+ * counted in the first or last bin. To avoid contention, counts are kept in a number of stripes, each
+ * on its own cache lines, and threads are mapped to stripes by their id. Reading sums over all stripes, so
+ * a histogram should be updated often and read rarely
+ * Daniel Huson, 10.2026
+ */
+public class ConcurrentHistogram {
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int PADDING = 8; // longs per cache line
+
+    private final long min;
+    private final long max;
+    private final int numberOfBins;
+    private final int stride;
+    private final int stripeMask;
+    private final long[] counts; // stripe s occupies [s*stride,s*stride+numberOfBins)
+
+    /**
+     * constructor
+     *
+     * @param min          smallest value of the range
+     * @param max          largest value of the range
+     * @param numberOfBins number of bins
+     */
+    public ConcurrentHistogram(long min, long max, int numberOfBins) {
+        this(min, max, numberOfBins, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * constructor
+     *
+     * @param min             smallest value of the range
+     * @param max             largest value of the range
+     * @param numberOfBins    number of bins
+     * @param numberOfStripes number of stripes, is rounded up to a power of 2, at most 64
+     */
+    public ConcurrentHistogram(long min, long max, int numberOfBins, int numberOfStripes) {
+        if (min > max)
+            throw new IllegalArgumentException("min > max");
+        if (numberOfBins < 1)
+            throw new IllegalArgumentException("numberOfBins < 1");
+        this.min = min;
+        this.max = max;
+        this.numberOfBins = numberOfBins;
+        var stripes = Integer.highestOneBit(Math.max(1, Math.min(64, numberOfStripes)) * 2 - 1);
+        stripeMask = stripes - 1;
+        stride = ((numberOfBins + PADDING - 1) / PADDING) * PADDING + PADDING;
+        counts = new long[stripes * stride + PADDING];
+    }
+
+    /**
+     * counts a value
+     */
+    public void add(long value) {
+        add(value, 1);
+    }
+
+    /**
+     * adds a count for a value
+     */
+    public void add(long value, long count) {
+        COUNTS.getAndAdd(counts, PADDING + stripe() * stride + getBin(value), count);
+    }
+
+    /**
+     * gets the bin for a value
+     */
+    public int getBin(long value) {
+        if (value < min)
+            return 0;
+        else if (value > max)
+            return numberOfBins - 1;
+        else
+            return (int) (numberOfBins * ((double) value - min) / ((double) max - min + 1));
+    }
+
+    private int stripe() {
+        var id = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & stripeMask;
+    }
+
+    /**
+     * gets the count of a bin
+     */
+    public long getCount(int bin) {
+        var sum = 0L;
+        for (var s = 0; s <= stripeMask; s++)
+            sum += (long) COUNTS.getVolatile(counts, PADDING + s * stride + bin);
+        return sum;
+    }
+
+    /**
+     * gets the counts of all bins
+     */
+    public long[] getCounts() {
+        var result = new long[numberOfBins];
+        for (var bin = 0; bin < numberOfBins; bin++)
+            result[bin] = getCount(bin);
+        return result;
+    }
+
+    /**
+     * gets the counts of all bins, as returned by Statistics.getBinnedCounts
+     */
+    public int[] getBinnedCounts() {
+        var result = new int[numberOfBins];
+        for (var bin = 0; bin < numberOfBins; bin++)
+            result[bin] = (int) Math.min(Integer.MAX_VALUE, getCount(bin));
+        return result;
+    }
+
+    /**
+     * gets the total count
+     */
+    public long getTotal() {
+        var sum = 0L;
+        for (var bin = 0; bin < numberOfBins; bin++)
+            sum += getCount(bin);
+        return sum;
+    }
+
+    /**
+     * sets all counts to zero. Not atomic with respect to concurrent updates
+     */
+    public void clear() {
+        for (var i = 0; i < counts.length; i++)
+            COUNTS.setVolatile(counts, i, 0L);
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public int getNumberOfBins() {
+        return numberOfBins;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * ConcurrentTopK.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * keeps track of the approximately k most frequent items in a stream that many threads add to concurrently.
+ * Frequencies are estimated by a count-min sketch that is updated using atomic additions. In addition, a set of at most k
+ * candidate items is maintained. Adding an item that is already a candidate, or whose estimate lies below
+ * the smallest estimate of the candidates, does not lock. Estimates never underestimate the true count
+ * Daniel Huson, 10.2026
+ */
+public class ConcurrentTopK<T> {
+    private static final VarHandle COUNTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int k;
+    private final int depth;
+    private final int widthMask;
+    private final long[] counts; // row r occupies [r*width,(r+1)*width)
+    private final ConcurrentHashMap<T, Boolean> candidates = new ConcurrentHashMap<>();
+    private final LongAdder total = new LongAdder();
+    private volatile long threshold = 0; // smallest estimate of a candidate, once there are k candidates
+
+    /**
+     * constructor, using a sketch of width 64k, at least 1024, and depth 4
+     *
+     * @param k number of items to keep
+     */
+    public ConcurrentTopK(int k) {
+        this(k, Math.max(1024, 64 * k), 4);
+    }
+
+    /**
+     * constructor
+     *
+     * @param k     number of items to keep
+     * @param width width of the count-min sketch, is rounded up to a power of 2
+     * @param depth depth of the count-min sketch, number of hash functions
+     */
+    public ConcurrentTopK(int k, int width, int depth) {
+        if (k < 1 || width < 1 || depth < 1)
+            throw new IllegalArgumentException("k, width and depth must be positive");
+        this.k = k;
+        this.depth = depth;
+        width = Integer.highestOneBit(Math.min(1 << 30, width) * 2 - 1);
+        this.widthMask = width - 1;
+        this.counts = new long[depth * width];
+    }
+
+    /**
+     * counts one occurrence of an item
+     */
+    public void add(T item) {
+        add(item, 1);
+    }
+
+    /**
+     * counts occurrences of an item
+     */
+    public void add(T item, long count) {
+        total.add(count);
+        var hash = mix(item.hashCode());
+        var estimate = Long.MAX_VALUE;
+        for (var r = 0; r < depth; r++) {
+            var value = (long) COUNTS.getAndAdd(counts, index(hash, r), count) + count;
+            if (value < estimate)
+                estimate = value;
+        }
+        if (estimate > threshold && !candidates.containsKey(item)) {
+            synchronized (candidates) {
+                if (!candidates.containsKey(item))
+                    addCandidate(item, estimate);
+            }
+        }
+    }
+
+    /**
+     * adds a candidate, removing the candidate with the smallest estimate, if there are k candidates.
+     * Must be called while holding the lock on candidates
+     */
+    private void addCandidate(T item, long estimate) {
+        if (candidates.size() < k) {
+            candidates.put(item, Boolean.TRUE);
+            if (candidates.size() == k)
+                threshold = computeSmallestEstimate();
+        } else {
+            T smallest = null;
+            var smallestEstimate = Long.MAX_VALUE;
+            for (var candidate : candidates.keySet()) {
+                var value = estimate(candidate);
+                if (value < smallestEstimate) {
+                    smallest = candidate;
+                    smallestEstimate = value;
+                }
+            }
+            if (smallest != null && estimate > smallestEstimate) {
+                candidates.remove(smallest);
+                candidates.put(item, Boolean.TRUE);
+                threshold = computeSmallestEstimate();
+            } else
+                threshold = smallestEstimate;
+        }
+    }
+
+    private long computeSmallestEstimate() {
+        var smallest = Long.MAX_VALUE;
+        for (var candidate : candidates.keySet())
+            smallest = Math.min(smallest, estimate(candidate));
+        return smallest;
+    }
+
+    /**
+     * estimates the number of occurrences of an item. Never less than the true count
+     */
+    public long estimate(T item) {
+        var hash = mix(item.hashCode());
+        var estimate = Long.MAX_VALUE;
+        for (var r = 0; r < depth; r++) {
+            estimate = Math.min(estimate, (long) COUNTS.getVolatile(counts, index(hash, r)));
+        }
+        return estimate;
+    }
+
+    /**
+     * gets the current top items with their estimated counts, by decreasing count
+     */
+    public ArrayList<Pair<T, Long>> getTopK() {
+        var list = new ArrayList<Pair<T, Long>>(k);
+        for (var candidate : candidates.keySet())
+            list.add(new Pair<>(candidate, estimate(candidate)));
+        list.sort(Comparator.comparing((Pair<T, Long> p) -> p.getSecond()).reversed());
+        return list;
+    }
+
+    /**
+     * total of all counts added
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    private int index(long hash, int row) {
+        var h = (int) hash + row * (int) (hash >>> 32); // double hashing
+        return row * (widthMask + 1) + (h & widthMask);
+    }
+
+    private static long mix(int hashCode) {
+        var h = (hashCode & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h | 1L << 32; // second hash odd
+    }
+}
@@ -19,12 +19,26 @@
 
 package jloda.util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
- * object for counting. All methods are thread-safe (except addUnsynchronized)
+ * object for counting. All methods are thread-safe (except addNotSynchronized) and lock-free.
+ * For counters that are updated by many threads and rarely read, use a LongAdder or ConcurrentHistogram instead
  * Daniel Huson, 10.2011
  */
 public class Counter {
-    private long value;
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(Counter.class, "value", long.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private volatile long value;
 
     /**
      * constructor
@@ -45,9 +59,7 @@ public class Counter {
      * getter
      */
     public long get() {
-        synchronized (this) {
-            return value;
-        }
+        return value;
     }
 
     /**
@@ -55,39 +67,29 @@ public class Counter {
      *
 	 */
     public void set(long value) {
-        synchronized (this) {
-            this.value = value;
-        }
+        this.value = value;
     }
 
     /**
      * increment
      */
     public void increment() {
-        synchronized (this) {
-            value++;
-        }
+        VALUE.getAndAdd(this, 1L);
     }
 
     /**
      * increment
      */
     public void add(long add) {
-        synchronized (this) {
-            value += add;
-        }
+        VALUE.getAndAdd(this, add);
     }
 
     public long getAndIncrement() {
-        synchronized (this) {
-            return  value++;
-        }
+        return (long) VALUE.getAndAdd(this, 1L);
     }
 
     public long incrementAndGet() {
-        synchronized (this) {
-            return  ++value;
-        }
+        return (long) VALUE.getAndAdd(this, 1L) + 1;
     }
 
     /**
@@ -95,16 +97,14 @@ public class Counter {
      *
 	 */
     public void addNotSynchronized(long add) {
-        value += add;
+        VALUE.set(this, (long) VALUE.get(this) + add);
     }
 
     /**
      * decrement
      */
     public void decrement() {
-        synchronized (this) {
-            value--;
-        }
+        VALUE.getAndAdd(this, -1L);
     }
 
     public String toString() {
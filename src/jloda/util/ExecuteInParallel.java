@@ -28,6 +28,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * run jobs in parallel on a fixed number of threads
@@ -48,6 +49,8 @@ public class ExecuteInParallel {
 		final Single<Exception> exception = new Single<>();
 		final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
 
+		final LongAdder done = new LongAdder();
+
         final ExecutorService service = Executors.newFixedThreadPool(numberOfCores);
         try {
             progress.setMaximum(jobs.size());
@@ -56,14 +59,14 @@ public class ExecuteInParallel {
                 if (exception.isNull()) {
                     try {
 						queue.addAll(computation.apply(job));
-						progress.incrementProgress();
+						done.increment();
                     } catch (Exception e) {
                         exception.setIfCurrentValueIsNull(e);
                     }
                 }
             }));
             service.shutdown();
-            service.awaitTermination(1000, TimeUnit.DAYS);
+            awaitTermination(service, done, progress);
         } catch (Exception e) {
             exception.setIfCurrentValueIsNull(e);
         } finally {
@@ -92,22 +95,21 @@ public class ExecuteInParallel {
             computation.accept(jobs.iterator().next());
         else if(jobs.size()>1) {
             final Single<Exception> exception = new Single<>();
+            final LongAdder done = new LongAdder();
             final ExecutorService service = Executors.newFixedThreadPool(Math.max(1, numberOfCores));
             try {
                  jobs.forEach(job -> service.submit(() -> {
                     if (exception.isNull()) {
                         try {
                             computation.accept(job);
-                            synchronized (progress) {
-                                progress.incrementProgress();
-                            }
+                            done.increment();
                         } catch (Exception e) {
                             exception.setIfCurrentValueIsNull(e);
                         }
                     }
                 }));
                 service.shutdown();
-                service.awaitTermination(1000, TimeUnit.DAYS);
+                awaitTermination(service, done, progress);
             } catch (Exception e) {
                 exception.setIfCurrentValueIsNull(e);
             } finally {
@@ -119,6 +121,17 @@ public class ExecuteInParallel {
         progress.reportTaskCompleted();
     }
 
+    /**
+     * waits for all jobs to finish. Progress is reported on the calling thread, so that worker threads
+     * only need to increment the number of finished jobs
+     */
+    private static void awaitTermination(ExecutorService service, LongAdder done, ProgressListener progress) throws InterruptedException, CanceledException {
+        while (!service.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+            progress.setProgress(done.sum());
+        }
+        progress.setProgress(done.sum());
+    }
+
     public interface FunctionWithException<S, T> {
         T apply(S input) throws CanceledException;
     }
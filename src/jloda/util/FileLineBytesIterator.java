@@ -19,54 +19,43 @@
 
 package jloda.util;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.NoSuchElementException;
 
 /**
  * File iterator
  * Daniel Huson, 2014
+ * Reads blocks of bytes using a ByteLineReader, Daniel Huson, 10.2026
  */
 public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
     private byte[] bytes = new byte[1000];
 
-    private final InputStreamReader reader;
+    private final ByteLineReader reader;
 
     private long linePosition = 0;
     private int lineLength = 0;
 
-    private byte firstByteOfNextLine;
-
-    private long position = 0; // this is the position in the unzipped file
-
-    private final long maxProgress;
+    private boolean hasNextLine; // reader holds the next non-empty line
 
     /**
      * constructor
      *
 	 */
     public FileLineBytesIterator(String fileName) throws IOException {
-		reader = new InputStreamReader(FileUtils.getInputStreamPossiblyZIPorGZIP(fileName));
-		if (FileUtils.isZIPorGZIPFile(fileName))
-			maxProgress = 20 * ((new File(fileName))).length();
-		else
-			maxProgress = ((new File(fileName))).length();
-
-		// get first letter
-		firstByteOfNextLine = (byte) reader.read();
-		if (hasNext())
-			position++;
-		while (firstByteOfNextLine == '\r' || firstByteOfNextLine == '\n' && hasNext()) {
-			firstByteOfNextLine = (byte) reader.read();
-            if (hasNext())
-                position++;
-        }
+        reader = new ByteLineReader(fileName);
+        moveToNextNonEmptyLine();
+    }
 
+    private void moveToNextNonEmptyLine() throws IOException {
+        do {
+            hasNextLine = reader.readLine();
+        }
+        while (hasNextLine && reader.getLineLength() == 0);
     }
 
     @Override
     public boolean hasNext() {
-        return firstByteOfNextLine != -1;
+        return hasNextLine;
     }
 
     /**
@@ -76,38 +65,21 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
      */
     @Override
     public byte[] next() { // get bytes as 0 terminated
+        if (!hasNextLine)
+            throw new NoSuchElementException();
         try {
-            linePosition = position - 1; // -1 because we have already read the first character on the line
-
-            lineLength = 0;
-            while (firstByteOfNextLine != '\r' && firstByteOfNextLine != '\n') {
-                if ((lineLength + 3) == bytes.length) {
-                    byte[] tmp = new byte[2 * bytes.length];
-                    System.arraycopy(bytes, 0, tmp, 0, bytes.length);
-                    bytes = tmp;
-                }
-                bytes[lineLength++] = firstByteOfNextLine;
-                if (hasNext()) {
-                    firstByteOfNextLine = (byte) reader.read();
-                    if (hasNext())
-                        position++;
-                } else
-                    break;
-            }
-            bytes[lineLength++] = '\n';
-            bytes[lineLength] = 0;
-
-            // move to next first letter...
-            firstByteOfNextLine = (byte) reader.read();
-            if (hasNext())
-                position++;
-            while (firstByteOfNextLine == '\r' || firstByteOfNextLine == '\n' && hasNext()) {
-                firstByteOfNextLine = (byte) reader.read();
-                if (hasNext())
-                    position++;
-            }
-
+            linePosition = reader.getLinePosition();
+            var length = reader.getLineLength();
+            if (length + 2 > bytes.length)
+                bytes = new byte[Math.max(2 * bytes.length, length + 2)];
+            System.arraycopy(reader.getBuffer(), reader.getLineOffset(), bytes, 0, length);
+            bytes[length] = '\n';
+            bytes[length + 1] = 0;
+            lineLength = length + 1;
+
+            moveToNextNonEmptyLine();
         } catch (IOException e) {
+            hasNextLine = false;
             return null;
         }
         return bytes;
@@ -119,7 +91,7 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
      * @return next byte or -1, if no next line
      */
     public byte peekNextByte() {
-        return firstByteOfNextLine;
+        return hasNextLine ? reader.getBuffer()[reader.getLineOffset()] : -1;
     }
 
     /**
@@ -149,12 +121,13 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
     }
 
     /**
-     * get current position in (uncompressed) file. Equals file length, once getLetterCodeIterator has completed
+     * get current position in (uncompressed) file, that is, the start of the line that the next call of next() will return.
+     * Equals file length, once getLetterCodeIterator has completed
      *
      * @return current position
      */
     public long getPosition() {
-        return position;
+        return hasNextLine ? reader.getLinePosition() : reader.getPosition();
     }
 
     @Override
@@ -173,11 +146,11 @@ public class FileLineBytesIterator implements ICloseableIterator<byte[]> {
 
     @Override
     public long getMaximumProgress() {
-        return maxProgress;
+        return reader.getMaximumProgress();
     }
 
     @Override
     public long getProgress() {
-        return position;
+        return getPosition();
     }
 }
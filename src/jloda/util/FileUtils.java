@@ -20,6 +20,7 @@
 package jloda.util;
 
 import jloda.fx.util.PrintStreamNoClose;
+import jloda.fx.util.ProgramExecutorService;
 import jloda.util.progress.ProgressPercentage;
 import jloda.util.progress.ProgressSilent;
 
@@ -331,7 +332,7 @@ public class FileUtils {
 		if (fileName.endsWith("stdin"))
 			return System.in;
 		else if (fileName.endsWith("stdin-gz"))
-			return new GZIPInputStream(System.in);
+			return GZipUtils.createInputStream(System.in);
 		if (isHTTPorFileURL(fileName))
 			return getInputStreamPossiblyGZIP(null, fileName);
 		final var file = new File(fileName);
@@ -341,7 +342,7 @@ public class FileUtils {
 			throw new IOException("No such file: " + file);
 		final InputStream ins;
 		if (fileName.toLowerCase().endsWith(".gz")) {
-			return new GZIPInputStream(new FileInputStream(file));
+			return GZipUtils.createInputStream(new FileInputStream(file));
 		} else if (fileName.toLowerCase().endsWith(".zip")) {
 			var zf = new ZipFile(file);
 			var e = zf.entries();
@@ -358,14 +359,14 @@ public class FileUtils {
 		if (fileName.endsWith("stdin"))
 			return System.in;
 		else if (fileName.endsWith("stdin-gz"))
-			return new GZIPInputStream(System.in);
+			return GZipUtils.createInputStream(System.in);
 		if (isHTTPorFileURL(fileName)) {
 			final URL url = new URL(fileName);
 			if (fileName.toLowerCase().endsWith(".gz")) {
-				return new GZIPInputStream(url.openStream());
+				return GZipUtils.createInputStream(url.openStream());
 			} else return url.openStream();
 		} else if (fileName.toLowerCase().endsWith(".gz")) {
-			return new GZIPInputStream(ins);
+			return GZipUtils.createInputStream(ins);
 		} else return ins;
 	}
 
@@ -382,15 +383,15 @@ public class FileUtils {
 			case "stdout":
 				return new PrintStreamNoClose(System.out);
 			case "stdout-gz":
-				return new GZIPOutputStream(new PrintStreamNoClose(System.out));
+				return GZipUtils.createOutputStream(new PrintStreamNoClose(System.out));
 			case "stderr":
 				return new PrintStreamNoClose(System.err);
 			case "stderr-gz":
-				return new GZIPOutputStream(new PrintStreamNoClose(System.err));
+				return GZipUtils.createOutputStream(new PrintStreamNoClose(System.err));
 			default:
 				OutputStream outs = new FileOutputStream(fileName);
 				if (fileNameLowerCase.endsWith(".gz")) {
-					outs = new GZIPOutputStream(outs);
+					outs = GZipUtils.createOutputStream(outs);
 				} else if (fileNameLowerCase.endsWith(".zip")) {
 					final ZipOutputStream out = new ZipOutputStream(outs);
 					ZipEntry e = new ZipEntry(replaceFileSuffix(fileName, ""));
@@ -753,6 +754,14 @@ public class FileUtils {
 	}
 
 	public static long getNumberOfLinesInFile(String inputFile) {
+		if (ParallelLineReader.canRead(inputFile)) {
+			try {
+				return ParallelLineReader.countLines(inputFile, ProgramExecutorService.getNumberOfCoresToUse());
+			} catch (IOException ex) {
+				Basic.caught(ex);
+				return 0;
+			}
+		}
 		try (BufferedReader r = new BufferedReader(new InputStreamReader(getInputStreamPossiblyZIPorGZIP(inputFile)))) {
 			return r.lines().count();
 		} catch (IOException ex) {
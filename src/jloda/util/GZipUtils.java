@@ -19,12 +19,10 @@
 
 package jloda.util;
 
+import jloda.fx.util.ProgramExecutorService;
 import jloda.util.progress.ProgressPercentage;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -33,6 +31,43 @@ import java.util.zip.GZIPOutputStream;
  * Daniel Huson, 6.2014
  */
 public class GZipUtils {
+    private static int numberOfThreads = 0;
+
+    /**
+     * gets the number of threads used for gzip compression and decompression. If this is 0, then the number of cores
+     * set in the ProgramExecutorService is used
+     */
+    public static int getNumberOfThreads() {
+        return (numberOfThreads > 0 ? numberOfThreads : ProgramExecutorService.getNumberOfCoresToUse());
+    }
+
+    /**
+     * sets the number of threads used for gzip compression and decompression. Use 1 to compress and decompress on the caller's thread,
+     * and 0 to use the number of cores set in the ProgramExecutorService
+     */
+    public static void setNumberOfThreads(int numberOfThreads) {
+        GZipUtils.numberOfThreads = Math.max(0, numberOfThreads);
+    }
+
+    /**
+     * creates a stream that decompresses gzipped input. Uses background threads, unless the number of threads is 1
+     */
+    public static InputStream createInputStream(InputStream ins) throws IOException {
+        if (getNumberOfThreads() > 1)
+            return new ParallelGZipInputStream(ins, getNumberOfThreads());
+        else
+            return new GZIPInputStream(ins);
+    }
+
+    /**
+     * creates a stream that writes gzipped output. Compresses blocks in parallel, unless the number of threads is 1
+     */
+    public static OutputStream createOutputStream(OutputStream outs) throws IOException {
+        if (getNumberOfThreads() > 1)
+            return new ParallelGZipOutputStream(outs, getNumberOfThreads());
+        else
+            return new GZIPOutputStream(outs);
+    }
 
     /**
      * deflate a file in gzip format
@@ -45,7 +80,7 @@ public class GZipUtils {
             long total = 0;
 
             final FileInputStream fileInput = new FileInputStream(sourceFile);
-            final GZIPOutputStream gzipOuputStream = new GZIPOutputStream(new FileOutputStream(compressedFile));
+            final OutputStream gzipOuputStream = createOutputStream(new FileOutputStream(compressedFile));
 
             int numberOfBytes;
             while ((numberOfBytes = fileInput.read(buffer)) > 0) {
@@ -55,7 +90,6 @@ public class GZipUtils {
 
             fileInput.close();
 
-            gzipOuputStream.finish();
             gzipOuputStream.close();
 
             progress.close();
@@ -77,7 +111,7 @@ public class GZipUtils {
             final ProgressPercentage progress = new ProgressPercentage("Inflating file: " + compressedFile, ((new File(compressedFile)).length()));
             long total = 0;
 
-            final GZIPInputStream gZIPInputStream = new GZIPInputStream(new FileInputStream(compressedFile));
+            final InputStream gZIPInputStream = createInputStream(new FileInputStream(compressedFile));
             final FileOutputStream fileOutputStream = new FileOutputStream(decompressedFile);
 
             int numberOfBytes;
@@ -0,0 +1,305 @@
+/*
+ * ListOfInts.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * a growable list of ints that may hold more than 2^31 values.
+ * Values are stored in segments of SEGMENT_SIZE values, as in ListOfLongs. Only the last segment grows, so adding never copies more than one segment
+ * Daniel Huson, 10.2026
+ */
+public class ListOfInts {
+    public static final int SEGMENT_SHIFT = 20;
+    public static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private int[][] segments;
+    private long size = 0;
+
+    public ListOfInts() {
+        this(16);
+    }
+
+    public ListOfInts(int initialSize) {
+        segments = new int[][]{new int[Math.max(16, Math.min(SEGMENT_SIZE, initialSize))]};
+    }
+
+    /**
+     * creates a list containing the given values
+     */
+    public static ListOfInts of(int... values) {
+        var list = new ListOfInts(values.length);
+        list.addAll(values, 0, values.length);
+        return list;
+    }
+
+    public void clear() {
+        segments = new int[][]{segments[0]};
+        size = 0;
+    }
+
+    public void add(int value) {
+        var segment = (int) (size >>> SEGMENT_SHIFT);
+        var offset = (int) size & SEGMENT_MASK;
+        if (isFull(segment, offset))
+            grow(segment);
+        segments[segment][offset] = value;
+        size++;
+    }
+
+    /**
+     * makes room for at least one more value in the given segment
+     */
+    private void grow(int segment) {
+        if (segment == segments.length)
+            segments = Arrays.copyOf(segments, segments.length + Math.max(1, segments.length >> 1));
+        var current = segments[segment];
+        if (current == null)
+            segments[segment] = new int[1024];
+        else
+            segments[segment] = Arrays.copyOf(current, Math.min(SEGMENT_SIZE, 2 * current.length));
+    }
+
+    private boolean isFull(int segment, int offset) {
+        return segment == segments.length || segments[segment] == null || offset == segments[segment].length;
+    }
+
+    public void addAll(ListOfInts other) {
+        for (var s = 0; s < other.getNumberOfSegments(); s++) {
+            addAll(other.segments[s], 0, other.getSegmentLength(s));
+        }
+    }
+
+    public void addAll(int[] values, int offset, int length) {
+        while (length > 0) {
+            var segment = (int) (size >>> SEGMENT_SHIFT);
+            var position = (int) size & SEGMENT_MASK;
+            if (isFull(segment, position))
+                grow(segment);
+            var current = segments[segment];
+            if (current.length < SEGMENT_SIZE && position + length > current.length)
+                current = segments[segment] = Arrays.copyOf(current, Math.min(SEGMENT_SIZE, Math.max(position + length, 2 * current.length)));
+            var count = Math.min(length, current.length - position);
+            System.arraycopy(values, offset, current, position, count);
+            size += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * ensures that the list can hold the given number of values without growing
+     */
+    public void ensureCapacity(long capacity) {
+        if (capacity <= 0)
+            return;
+        var lastSegment = (int) ((capacity - 1) >>> SEGMENT_SHIFT);
+        if (lastSegment >= segments.length)
+            segments = Arrays.copyOf(segments, lastSegment + 1);
+        for (var s = 0; s <= lastSegment; s++) {
+            var length = (s < lastSegment ? SEGMENT_SIZE : (int) (capacity - ((long) s << SEGMENT_SHIFT)));
+            if (segments[s] == null)
+                segments[s] = new int[Math.max(16, length)];
+            else if (segments[s].length < length)
+                segments[s] = Arrays.copyOf(segments[s], Math.min(SEGMENT_SIZE, Math.max(length, 2 * segments[s].length)));
+        }
+    }
+
+    /**
+     * the number of values
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int get(long i) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException(Long.toString(i));
+        return segments[(int) (i >>> SEGMENT_SHIFT)][(int) i & SEGMENT_MASK];
+    }
+
+    public void set(long i, int value) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException(Long.toString(i));
+        segments[(int) (i >>> SEGMENT_SHIFT)][(int) i & SEGMENT_MASK] = value;
+    }
+
+    /**
+     * removes and returns the last value
+     */
+    public int removeLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        var value = get(size - 1);
+        size--;
+        return value;
+    }
+
+    /**
+     * sorts the values in ascending order. If there is more than one segment, the segments are sorted separately and then
+     * merged, which uses additional memory for a copy of the list
+     */
+    public void sort() {
+        for (var s = 0; s < getNumberOfSegments(); s++) {
+            Arrays.sort(segments[s], 0, getSegmentLength(s));
+        }
+        if (size > SEGMENT_SIZE) {
+            final var n = size;
+            var source = this;
+            var target = new ListOfInts(SEGMENT_SIZE);
+            for (long width = SEGMENT_SIZE; width < n; width *= 2) {
+                target.clear();
+                for (long low = 0; low < n; low += 2 * width) {
+                    var a = low;
+                    var aEnd = Math.min(n, low + width);
+                    var b = aEnd;
+                    var bEnd = Math.min(n, low + 2 * width);
+                    while (a < aEnd && b < bEnd) {
+                        var x = source.get(a);
+                        var y = source.get(b);
+                        if (x <= y) {
+                            target.add(x);
+                            a++;
+                        } else {
+                            target.add(y);
+                            b++;
+                        }
+                    }
+                    while (a < aEnd)
+                        target.add(source.get(a++));
+                    while (b < bEnd)
+                        target.add(source.get(b++));
+                }
+                var tmp = source;
+                source = target;
+                target = tmp;
+            }
+            if (source != this) {
+                segments = source.segments;
+                size = n;
+            }
+        }
+    }
+
+    /**
+     * sorts the values in ascending order and removes duplicates
+     */
+    public void sortUnique() {
+        if (size <= SEGMENT_SIZE)
+            size = CollectionUtils.sortUnique(segments[0], 0, (int) size);
+        else {
+            sort();
+            var end = 1L;
+            for (var i = 1L; i < size; i++) {
+                var value = get(i);
+                if (value != get(end - 1))
+                    set(end++, value);
+            }
+            size = end;
+        }
+    }
+
+    /**
+     * finds a value in a sorted list
+     *
+     * @return index, or (-(insertion point) - 1), as in Arrays.binarySearch
+     */
+    public long binarySearch(int value) {
+        var low = 0L;
+        var high = size - 1;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            var x = get(middle);
+            if (x < value)
+                low = middle + 1;
+            else if (x > value)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * copies all values to an array
+     */
+    public int[] toArray() {
+        if (size > Basic.MAX_ARRAY_SIZE)
+            throw new IllegalStateException("list too large for array: " + size);
+        var array = new int[(int) size];
+        for (var s = 0; s < getNumberOfSegments(); s++) {
+            System.arraycopy(segments[s], 0, array, s * SEGMENT_SIZE, getSegmentLength(s));
+        }
+        return array;
+    }
+
+    /**
+     * applies the consumer to all values, in order
+     */
+    public void forEach(IntConsumer consumer) {
+        for (var s = 0; s < getNumberOfSegments(); s++) {
+            var segment = segments[s];
+            var end = getSegmentLength(s);
+            for (var i = 0; i < end; i++)
+                consumer.accept(segment[i]);
+        }
+    }
+
+    public PrimitiveIterator.OfInt iterator() {
+        return stream().iterator();
+    }
+
+    public IntStream stream() {
+        return IntStream.range(0, getNumberOfSegments()).mapToObj(s -> Arrays.stream(segments[s], 0, getSegmentLength(s))).flatMapToInt(stream -> stream);
+    }
+
+    /**
+     * number of segments in use
+     */
+    private int getNumberOfSegments() {
+        return (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+    }
+
+    /**
+     * number of values in a segment that is in use
+     */
+    private int getSegmentLength(int segment) {
+        return (int) Math.min(SEGMENT_SIZE, size - ((long) segment << SEGMENT_SHIFT));
+    }
+
+    public String toString() {
+        var buf = new StringBuilder();
+        forEach(value -> {
+            if (buf.length() > 0)
+                buf.append(' ');
+            buf.append(value);
+        });
+        return buf.toString();
+    }
+}
@@ -19,59 +19,144 @@
 
 package jloda.util;
 
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongConsumer;
 
 /**
- * a list of longs
+ * a list of longs that may hold more than 2^31 values.
+ * Values are stored in segments of SEGMENT_SIZE values. Only the last segment grows, so adding never copies more than one segment
  * Created by huson on 5/16/14.
  */
-public class ListOfLongs implements Iterable<Long> {
-    private long[] data;
-    private int size = 0;
+public class ListOfLongs {
+    public static final int SEGMENT_SHIFT = 20;
+    public static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private long[][] segments;
+    private long size = 0;
 
     public ListOfLongs() {
         this(1024);
     }
 
     public ListOfLongs(int initialSize) {
-        data = new long[Math.max(16, initialSize)];
+        segments = new long[][]{new long[Math.max(16, Math.min(SEGMENT_SIZE, initialSize))]};
+    }
+
+    /**
+     * creates a list containing the given values
+     */
+    public static ListOfLongs of(long... values) {
+        var list = new ListOfLongs(values.length);
+        list.addAll(values, 0, values.length);
+        return list;
     }
 
     public void clear() {
+        segments = new long[][]{segments[0]};
         size = 0;
     }
 
     public void add(long value) {
-        if (size == data.length) {
-            long[] tmp = new long[(int) Math.min(Basic.MAX_ARRAY_SIZE, 2L * data.length)];
-            System.arraycopy(data, 0, tmp, 0, data.length);
-            data = tmp;
-        }
-        data[size++] = value;
+        var segment = (int) (size >>> SEGMENT_SHIFT);
+        var offset = (int) size & SEGMENT_MASK;
+        if (isFull(segment, offset))
+            grow(segment);
+        segments[segment][offset] = value;
+        size++;
     }
 
-    public int size() {
+    /**
+     * makes room for at least one more value in the given segment
+     */
+    private void grow(int segment) {
+        if (segment == segments.length)
+            segments = Arrays.copyOf(segments, segments.length + Math.max(1, segments.length >> 1));
+        var current = segments[segment];
+        if (current == null)
+            segments[segment] = new long[1024];
+        else
+            segments[segment] = Arrays.copyOf(current, Math.min(SEGMENT_SIZE, 2 * current.length));
+    }
+
+    private boolean isFull(int segment, int offset) {
+        return segment == segments.length || segments[segment] == null || offset == segments[segment].length;
+    }
+
+    /**
+     * the number of values
+     */
+    public long size() {
         return size;
     }
 
-    public long get(int i) {
-        return data[i];
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long get(long i) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException(Long.toString(i));
+        return segments[(int) (i >>> SEGMENT_SHIFT)][(int) i & SEGMENT_MASK];
+    }
+
+    public void set(long i, long value) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException(Long.toString(i));
+        segments[(int) (i >>> SEGMENT_SHIFT)][(int) i & SEGMENT_MASK] = value;
+    }
+
+    /**
+     * removes and returns the last value
+     */
+    public long removeLast() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        var value = get(size - 1);
+        size--;
+        return value;
     }
 
-    public void addAll(ListOfLongs listOfLongs) {
-        long newSize = size + listOfLongs.size;
-        if (newSize >= data.length) {
-            long[] tmp = new long[(int) Math.min(Basic.MAX_ARRAY_SIZE, newSize)];
-            System.arraycopy(data, 0, tmp, 0, data.length);
-            data = tmp;
+    public void addAll(ListOfLongs other) {
+        for (var s = 0; (long) s * SEGMENT_SIZE < other.size; s++) {
+            addAll(other.segments[s], 0, (int) Math.min(SEGMENT_SIZE, other.size - (long) s * SEGMENT_SIZE));
         }
-        System.arraycopy(listOfLongs.data, 0, data, size, listOfLongs.size);
-        size += listOfLongs.size;
     }
 
-    public Iterator<Long> iterator() {
-        return new Iterator<>() {
-            private int index = 0;
+    public void addAll(long[] values, int offset, int length) {
+        while (length > 0) {
+            var segment = (int) (size >>> SEGMENT_SHIFT);
+            var position = (int) size & SEGMENT_MASK;
+            if (isFull(segment, position))
+                grow(segment);
+            var current = segments[segment];
+            if (current.length < SEGMENT_SIZE && position + length > current.length)
+                current = segments[segment] = Arrays.copyOf(current, Math.min(SEGMENT_SIZE, Math.max(position + length, 2 * current.length)));
+            var count = Math.min(length, current.length - position);
+            System.arraycopy(values, offset, current, position, count);
+            size += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * applies the consumer to all values, in order
+     */
+    public void forEach(LongConsumer consumer) {
+        for (var s = 0; (long) s * SEGMENT_SIZE < size; s++) {
+            var segment = segments[s];
+            var end = (int) Math.min(SEGMENT_SIZE, size - (long) s * SEGMENT_SIZE);
+            for (var i = 0; i < end; i++)
+                consumer.accept(segment[i]);
+        }
+    }
+
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+            private long index = 0;
 
             @Override
             public boolean hasNext() {
@@ -79,9 +164,98 @@ public class ListOfLongs implements Iterable<Long> {
             }
 
             @Override
-            public Long next() {
+            public long nextLong() {
+                if (index >= size)
+                    throw new NoSuchElementException();
                 return get(index++);
             }
         };
     }
+
+    /**
+     * copies all values to an array
+     */
+    public long[] toArray() {
+        if (size > Basic.MAX_ARRAY_SIZE)
+            throw new IllegalStateException("list too large for array: " + size);
+        var array = new long[(int) size];
+        for (var s = 0; (long) s * SEGMENT_SIZE < size; s++) {
+            System.arraycopy(segments[s], 0, array, s * SEGMENT_SIZE, (int) Math.min(SEGMENT_SIZE, size - (long) s * SEGMENT_SIZE));
+        }
+        return array;
+    }
+
+    /**
+     * sorts the values in ascending order. If there is more than one segment, the segments are sorted separately and then
+     * merged, which uses additional memory for a copy of the list
+     */
+    public void sort() {
+        for (var s = 0; (long) s * SEGMENT_SIZE < size; s++) {
+            Arrays.sort(segments[s], 0, (int) Math.min(SEGMENT_SIZE, size - (long) s * SEGMENT_SIZE));
+        }
+        if (size > SEGMENT_SIZE) {
+            final var n = size;
+            var source = this;
+            var target = new ListOfLongs(SEGMENT_SIZE);
+            for (long width = SEGMENT_SIZE; width < n; width *= 2) {
+                target.clear();
+                for (long low = 0; low < n; low += 2 * width) {
+                    var a = low;
+                    var aEnd = Math.min(n, low + width);
+                    var b = aEnd;
+                    var bEnd = Math.min(n, low + 2 * width);
+                    while (a < aEnd && b < bEnd) {
+                        var x = source.get(a);
+                        var y = source.get(b);
+                        if (x <= y) {
+                            target.add(x);
+                            a++;
+                        } else {
+                            target.add(y);
+                            b++;
+                        }
+                    }
+                    while (a < aEnd)
+                        target.add(source.get(a++));
+                    while (b < bEnd)
+                        target.add(source.get(b++));
+                }
+                var tmp = source;
+                source = target;
+                target = tmp;
+            }
+            if (source != this) {
+                segments = source.segments;
+                size = n;
+            }
+        }
+    }
+
+    /**
+     * sorts the values in ascending order and removes duplicates
+     */
+    public void sortUnique() {
+        if (size <= SEGMENT_SIZE)
+            size = CollectionUtils.sortUnique(segments[0], 0, (int) size);
+        else {
+            sort();
+            var end = 1L;
+            for (var i = 1L; i < size; i++) {
+                var value = get(i);
+                if (value != get(end - 1))
+                    set(end++, value);
+            }
+            size = end;
+        }
+    }
+
+    public String toString() {
+        var buf = new StringBuilder();
+        forEach(value -> {
+            if (buf.length() > 0)
+                buf.append(' ');
+            buf.append(value);
+        });
+        return buf.toString();
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * LongIntHashMap.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.util.Arrays;
+
+/**
+ * a hash map from longs to ints, using open addressing with linear probing. Keys and values are stored in primitive arrays,
+ * so no objects are created. The key 0 marks free slots and is stored separately. Not thread-safe
+ * Daniel Huson, 10.2026
+ */
+public class LongIntHashMap {
+    private static final double LOAD_FACTOR = 0.6;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size; // number of keys stored in the arrays, not including key 0
+    private int maxFill;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * constructor
+     *
+     * @param expectedSize expected number of keys
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(computeCapacity(expectedSize));
+    }
+
+    private static int computeCapacity(long expectedSize) {
+        var capacity = Long.highestOneBit(Math.max(2, (long) Math.ceil(expectedSize / LOAD_FACTOR)) * 2 - 1);
+        if (capacity > (1 << 30))
+            throw new IllegalStateException("too many keys: " + expectedSize);
+        return (int) capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        maxFill = (int) Math.min(capacity - 1, Math.ceil(capacity * LOAD_FACTOR));
+    }
+
+    private static int hash(long key) {
+        var h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * gets the slot of the key, or of the free slot at which it would be inserted
+     */
+    private int slot(long key) {
+        var slot = hash(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    public boolean containsKey(long key) {
+        return key == 0 ? hasZeroKey : keys[slot(key)] != 0;
+    }
+
+    /**
+     * gets the value for a key
+     *
+     * @return value, or defaultValue, if key not present
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        if (key == 0)
+            return hasZeroKey ? zeroValue : defaultValue;
+        var slot = slot(key);
+        return keys[slot] != 0 ? values[slot] : defaultValue;
+    }
+
+    /**
+     * gets the value for a key
+     *
+     * @return value, or 0, if key not present
+     */
+    public int get(long key) {
+        return getOrDefault(key, 0);
+    }
+
+    /**
+     * sets the value for a key
+     */
+    public void put(long key, int value) {
+        if (key == 0) {
+            hasZeroKey = true;
+            zeroValue = value;
+        } else {
+            var slot = slot(key);
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size > maxFill)
+                    rehash(2 * keys.length);
+            } else
+                values[slot] = value;
+        }
+    }
+
+    /**
+     * adds to the value of a key. A key that is not present is first set to 0
+     *
+     * @return the new value
+     */
+    public int addTo(long key, int increment) {
+        if (key == 0) {
+            zeroValue = (hasZeroKey ? zeroValue + increment : increment);
+            hasZeroKey = true;
+            return zeroValue;
+        } else {
+            var slot = slot(key);
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                values[slot] = increment;
+                if (++size > maxFill)
+                    rehash(2 * keys.length);
+                return increment;
+            } else
+                return values[slot] += increment;
+        }
+    }
+
+    /**
+     * removes a key
+     *
+     * @return true, if the key was present
+     */
+    public boolean remove(long key) {
+        if (key == 0) {
+            var had = hasZeroKey;
+            hasZeroKey = false;
+            return had;
+        }
+        var slot = slot(key);
+        if (keys[slot] == 0)
+            return false;
+        // shift back following entries of the same probe sequence, so that no tombstones are needed:
+        var next = (slot + 1) & mask;
+        while (keys[next] != 0) {
+            var ideal = hash(keys[next]) & mask;
+            if (((next - ideal) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[slot] = 0;
+        size--;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalStateException("too many keys");
+        var oldKeys = keys;
+        var oldValues = values;
+        allocate(capacity);
+        for (var i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                var slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    /**
+     * applies the consumer to all entries, in no particular order
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey)
+            consumer.accept(0, zeroValue);
+        for (var i = 0; i < keys.length; i++) {
+            if (keys[i] != 0)
+                consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    /**
+     * gets all keys, in no particular order
+     */
+    public long[] keys() {
+        var result = new long[size()];
+        var count = 0;
+        if (hasZeroKey)
+            result[count++] = 0;
+        for (var key : keys) {
+            if (key != 0)
+                result[count++] = key;
+        }
+        return result;
+    }
+
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+}
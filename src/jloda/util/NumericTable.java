@@ -0,0 +1,516 @@
+/*
+ * NumericTable.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * a two dimensional table of numbers, such as a sample-by-taxon table of counts.
+ * Row and column keys are mapped to consecutive indices. Values are stored by column: a column is kept sparse, as
+ * sorted row indices and values, until it has non-zero values for more than half of the rows, and then is kept as a
+ * dense array. Absent cells have value 0. Row and column lookups are O(1), and column scans are O(size of column).
+ * Aggregations over rows or columns are computed in parallel. Not thread-safe for modifications
+ * Daniel Huson, 10.2026
+ */
+public class NumericTable<R, C> {
+    public static final int MAGIC_INT = 1112823118; // NTBL
+
+    private final HashMap<R, Integer> row2index = new HashMap<>();
+    private final ArrayList<R> rowKeys = new ArrayList<>();
+    private final HashMap<C, Integer> column2index = new HashMap<>();
+    private final ArrayList<C> columnKeys = new ArrayList<>();
+    private final ArrayList<Column> columns = new ArrayList<>();
+
+    /**
+     * constructor
+     */
+    public NumericTable() {
+    }
+
+    /**
+     * creates a numeric table from a table. Null values are ignored
+     */
+    public static <R, C> NumericTable<R, C> valueOf(Table<R, C, ? extends Number> table) {
+        var result = new NumericTable<R, C>();
+        for (var cell : table.cellSet()) {
+            if (cell.getThird() != null)
+                result.put(cell.getFirst(), cell.getSecond(), cell.getThird().doubleValue());
+        }
+        return result;
+    }
+
+    /**
+     * gets the index of a row, adding the row, if necessary
+     */
+    public int addRow(R rowKey) {
+        var index = row2index.get(rowKey);
+        if (index == null) {
+            index = rowKeys.size();
+            row2index.put(rowKey, index);
+            rowKeys.add(rowKey);
+        }
+        return index;
+    }
+
+    /**
+     * gets the index of a column, adding the column, if necessary
+     */
+    public int addColumn(C columnKey) {
+        var index = column2index.get(columnKey);
+        if (index == null) {
+            index = columnKeys.size();
+            column2index.put(columnKey, index);
+            columnKeys.add(columnKey);
+            columns.add(new Column());
+        }
+        return index;
+    }
+
+    /**
+     * gets the index of a row
+     *
+     * @return index or -1
+     */
+    public int getRowIndex(R rowKey) {
+        return row2index.getOrDefault(rowKey, -1);
+    }
+
+    /**
+     * gets the index of a column
+     *
+     * @return index or -1
+     */
+    public int getColumnIndex(C columnKey) {
+        return column2index.getOrDefault(columnKey, -1);
+    }
+
+    public R getRowKey(int row) {
+        return rowKeys.get(row);
+    }
+
+    public C getColumnKey(int column) {
+        return columnKeys.get(column);
+    }
+
+    /**
+     * row keys, in order of index
+     */
+    public List<R> getRowKeys() {
+        return Collections.unmodifiableList(rowKeys);
+    }
+
+    /**
+     * column keys, in order of index
+     */
+    public List<C> getColumnKeys() {
+        return Collections.unmodifiableList(columnKeys);
+    }
+
+    public boolean containsRow(R rowKey) {
+        return row2index.containsKey(rowKey);
+    }
+
+    public boolean containsColumn(C columnKey) {
+        return column2index.containsKey(columnKey);
+    }
+
+    public int getNumberOfRows() {
+        return rowKeys.size();
+    }
+
+    public int getNumberOfColumns() {
+        return columnKeys.size();
+    }
+
+    /**
+     * gets the value of a cell
+     *
+     * @return value, or 0, if row, column or cell not present
+     */
+    public double get(R rowKey, C columnKey) {
+        var row = getRowIndex(rowKey);
+        var column = getColumnIndex(columnKey);
+        return (row == -1 || column == -1 ? 0 : get(row, column));
+    }
+
+    public double get(int row, int column) {
+        return columns.get(column).get(row);
+    }
+
+    /**
+     * sets the value of a cell, adding the row and column, if necessary
+     */
+    public void put(R rowKey, C columnKey, double value) {
+        set(addRow(rowKey), addColumn(columnKey), value);
+    }
+
+    /**
+     * adds to the value of a cell, adding the row and column, if necessary
+     */
+    public void add(R rowKey, C columnKey, double value) {
+        var row = addRow(rowKey);
+        var column = addColumn(columnKey);
+        set(row, column, get(row, column) + value);
+    }
+
+    public void set(int row, int column, double value) {
+        if (row < 0 || row >= getNumberOfRows())
+            throw new IndexOutOfBoundsException("row: " + row);
+        columns.get(column).set(row, value, getNumberOfRows());
+    }
+
+    /**
+     * gets the values of a column as a dense array
+     */
+    public double[] getColumn(int column) {
+        var values = new double[getNumberOfRows()];
+        columns.get(column).forEach((row, value) -> values[row] = value);
+        return values;
+    }
+
+    /**
+     * gets the values of a row as a dense array
+     */
+    public double[] getRow(int row) {
+        var values = new double[getNumberOfColumns()];
+        for (var column = 0; column < values.length; column++)
+            values[column] = get(row, column);
+        return values;
+    }
+
+    /**
+     * applies the consumer to all non-zero cells of a column, in order of row
+     */
+    public void forEachInColumn(int column, CellConsumer consumer) {
+        columns.get(column).forEach(consumer);
+    }
+
+    /**
+     * the number of non-zero cells
+     */
+    public long size() {
+        return columns.stream().mapToLong(Column::countNonZero).sum();
+    }
+
+    /**
+     * removes a column. Takes time linear in the number of columns
+     */
+    public void removeColumn(C columnKey) {
+        var index = getColumnIndex(columnKey);
+        if (index != -1) {
+            columns.remove(index);
+            columnKeys.remove(index);
+            column2index.remove(columnKey);
+            for (var column = index; column < columnKeys.size(); column++)
+                column2index.put(columnKeys.get(column), column);
+        }
+    }
+
+    /**
+     * removes a row. Takes time linear in the size of the table
+     */
+    public void removeRow(R rowKey) {
+        var index = getRowIndex(rowKey);
+        if (index != -1) {
+            for (var column : columns)
+                column.removeRow(index);
+            rowKeys.remove(index);
+            row2index.remove(rowKey);
+            for (var row = index; row < rowKeys.size(); row++)
+                row2index.put(rowKeys.get(row), row);
+        }
+    }
+
+    public void clear() {
+        row2index.clear();
+        rowKeys.clear();
+        column2index.clear();
+        columnKeys.clear();
+        columns.clear();
+    }
+
+    /**
+     * computes the sum of each column, in parallel
+     */
+    public double[] computeColumnSums() {
+        return IntStream.range(0, getNumberOfColumns()).parallel().mapToDouble(column -> columns.get(column).sum()).toArray();
+    }
+
+    /**
+     * computes the sum of each row, in parallel
+     */
+    public double[] computeRowSums() {
+        var numberOfRows = getNumberOfRows();
+        return IntStream.range(0, getNumberOfColumns()).parallel().collect(() -> new double[numberOfRows],
+                (sums, column) -> columns.get(column).forEach((row, value) -> sums[row] += value),
+                (a, b) -> {
+                    for (var i = 0; i < a.length; i++)
+                        a[i] += b[i];
+                });
+    }
+
+    /**
+     * scales each column so that its values sum to the given total. Columns that sum to 0 are not changed
+     */
+    public void normalizeColumns(double total) {
+        var sums = computeColumnSums();
+        IntStream.range(0, getNumberOfColumns()).parallel().forEach(column -> {
+            if (sums[column] != 0)
+                columns.get(column).scale(row -> total / sums[column]);
+        });
+    }
+
+    /**
+     * scales each row so that its values sum to the given total. Rows that sum to 0 are not changed
+     */
+    public void normalizeRows(double total) {
+        var sums = computeRowSums();
+        IntStream.range(0, getNumberOfColumns()).parallel().forEach(column ->
+                columns.get(column).scale(row -> (sums[row] != 0 ? total / sums[row] : 1)));
+    }
+
+    /**
+     * computes Pearson's correlation coefficient of two columns
+     */
+    public double computeColumnCorrelation(int columnA, int columnB) {
+        return Correlation.computePersonsCorrelationCoefficent(getNumberOfRows(), getColumn(columnA), getColumn(columnB));
+    }
+
+    /**
+     * computes Pearson's correlation coefficients for all pairs of columns, in parallel
+     */
+    public double[][] computeColumnCorrelations() {
+        var numberOfColumns = getNumberOfColumns();
+        var dense = new double[numberOfColumns][];
+        IntStream.range(0, numberOfColumns).parallel().forEach(column -> dense[column] = getColumn(column));
+        var matrix = new double[numberOfColumns][numberOfColumns];
+        IntStream.range(0, numberOfColumns).parallel().forEach(a -> {
+            matrix[a][a] = 1;
+            for (var b = 0; b < a; b++) {
+                matrix[a][b] = matrix[b][a] = Correlation.computePersonsCorrelationCoefficent(getNumberOfRows(), dense[a], dense[b]);
+            }
+        });
+        return matrix;
+    }
+
+    /**
+     * converts to a table, omitting zero cells
+     */
+    public Table<R, C, Double> toTable() {
+        var table = new Table<R, C, Double>();
+        for (var column = 0; column < getNumberOfColumns(); column++) {
+            var columnKey = getColumnKey(column);
+            forEachInColumn(column, (row, value) -> table.put(getRowKey(row), columnKey, value));
+        }
+        return table;
+    }
+
+    /**
+     * writes the table in binary format. Keys are written as strings, using toString(). All numbers are little endian.
+     * Each column is written as a block of bytes, preceded by its length, that contains the number of non-zero entries as a varint,
+     * followed by the row of each entry, as a varint difference to the previous row, and its value
+     */
+    public void write(OutputStream outputStream) throws IOException {
+        var outs = new DataOutputStream(new BufferedOutputStream(outputStream));
+        outs.writeInt(Integer.reverseBytes(MAGIC_INT));
+        outs.writeInt(Integer.reverseBytes(getNumberOfRows()));
+        outs.writeInt(Integer.reverseBytes(getNumberOfColumns()));
+        for (var key : rowKeys)
+            outs.writeUTF(key.toString());
+        for (var key : columnKeys)
+            outs.writeUTF(key.toString());
+        var buffer = new ByteOutputBuffer();
+        for (var column : columns) {
+            buffer.rewind();
+            buffer.writeVarInt(column.countNonZero());
+            var previous = new int[]{0};
+            column.forEach((row, value) -> {
+                buffer.writeVarInt(row - previous[0]);
+                buffer.writeDoubleLittleEndian(value);
+                previous[0] = row;
+            });
+            outs.writeInt(Integer.reverseBytes(buffer.size()));
+            outs.write(buffer.getBytes(), 0, buffer.size());
+        }
+        outs.flush();
+    }
+
+    /**
+     * reads a table written by write()
+     */
+    public static NumericTable<String, String> read(InputStream inputStream) throws IOException {
+        var ins = new DataInputStream(new BufferedInputStream(inputStream));
+        if (Integer.reverseBytes(ins.readInt()) != MAGIC_INT)
+            throw new IOException("Incorrect magic number");
+        var numberOfRows = Integer.reverseBytes(ins.readInt());
+        var numberOfColumns = Integer.reverseBytes(ins.readInt());
+        var table = new NumericTable<String, String>();
+        for (var row = 0; row < numberOfRows; row++)
+            table.addRow(ins.readUTF());
+        for (var column = 0; column < numberOfColumns; column++)
+            table.addColumn(ins.readUTF());
+        var buffer = new ByteInputBuffer();
+        for (var column = 0; column < numberOfColumns; column++) {
+            var length = Integer.reverseBytes(ins.readInt());
+            buffer.setSize(length);
+            ins.readFully(buffer.getBytes(), 0, length);
+            buffer.rewind();
+            var count = buffer.readVarInt();
+            var row = 0;
+            for (var i = 0; i < count; i++) {
+                row += buffer.readVarInt();
+                var value = buffer.readDoubleLittleEndian();
+                if (row >= numberOfRows || buffer.getPosition() > length)
+                    throw new IOException("Corrupt column: " + column);
+                table.set(row, column, value);
+            }
+        }
+        return table;
+    }
+
+    public interface CellConsumer {
+        void accept(int row, double value);
+    }
+
+    private interface RowScale {
+        double apply(int row);
+    }
+
+    /**
+     * a column, either sparse or dense
+     */
+    private static class Column {
+        private int[] rows = new int[4]; // sorted row indices, null, if dense
+        private double[] values = new double[4]; // if dense, length is at most the number of rows
+        private int size; // number of entries, if sparse
+
+        double get(int row) {
+            if (rows == null)
+                return (row < values.length ? values[row] : 0);
+            var pos = Arrays.binarySearch(rows, 0, size, row);
+            return (pos >= 0 ? values[pos] : 0);
+        }
+
+        void set(int row, double value, int numberOfRows) {
+            if (rows == null) {
+                if (row >= values.length)
+                    values = Arrays.copyOf(values, Math.max(row + 1, Math.min(numberOfRows, 2 * values.length)));
+                values[row] = value;
+                return;
+            }
+            var pos = Arrays.binarySearch(rows, 0, size, row);
+            if (pos >= 0) {
+                values[pos] = value;
+            } else if (value != 0) {
+                if (2 * (size + 1) > numberOfRows && numberOfRows >= 8) {
+                    makeDense(numberOfRows);
+                    values[row] = value;
+                    return;
+                }
+                pos = -pos - 1;
+                if (size == rows.length) {
+                    rows = Arrays.copyOf(rows, 2 * size);
+                    values = Arrays.copyOf(values, 2 * size);
+                }
+                System.arraycopy(rows, pos, rows, pos + 1, size - pos);
+                System.arraycopy(values, pos, values, pos + 1, size - pos);
+                rows[pos] = row;
+                values[pos] = value;
+                size++;
+            }
+        }
+
+        private void makeDense(int numberOfRows) {
+            var dense = new double[numberOfRows];
+            for (var i = 0; i < size; i++)
+                dense[rows[i]] = values[i];
+            rows = null;
+            values = dense;
+        }
+
+        void removeRow(int row) {
+            if (rows == null) { // keep length at most the number of rows
+                if (row < values.length) {
+                    System.arraycopy(values, row + 1, values, row, values.length - row - 1);
+                    values = Arrays.copyOf(values, values.length - 1);
+                }
+            } else {
+                var pos = Arrays.binarySearch(rows, 0, size, row);
+                var start = (pos >= 0 ? pos : -pos - 1);
+                if (pos >= 0) {
+                    System.arraycopy(rows, pos + 1, rows, pos, size - pos - 1);
+                    System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+                    size--;
+                }
+                for (var i = start; i < size; i++)
+                    rows[i]--;
+            }
+        }
+
+        int countNonZero() {
+            var count = 0;
+            if (rows == null) {
+                for (var value : values)
+                    if (value != 0)
+                        count++;
+            } else {
+                for (var i = 0; i < size; i++)
+                    if (values[i] != 0)
+                        count++;
+            }
+            return count;
+        }
+
+        double sum() {
+            var sum = 0.0;
+            var length = (rows == null ? values.length : size);
+            for (var i = 0; i < length; i++)
+                sum += values[i];
+            return sum;
+        }
+
+        void scale(RowScale factor) {
+            if (rows == null) {
+                for (var row = 0; row < values.length; row++)
+                    values[row] *= factor.apply(row);
+            } else {
+                for (var i = 0; i < size; i++)
+                    values[i] *= factor.apply(rows[i]);
+            }
+        }
+
+        /**
+         * applies the consumer to all non-zero entries, in order of row
+         */
+        void forEach(CellConsumer consumer) {
+            if (rows == null) {
+                for (var row = 0; row < values.length; row++)
+                    if (values[row] != 0)
+                        consumer.accept(row, values[row]);
+            } else {
+                for (var i = 0; i < size; i++)
+                    if (values[i] != 0)
+                        consumer.accept(rows[i], values[i]);
+            }
+        }
+    }
+}
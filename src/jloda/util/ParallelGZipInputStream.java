@@ -0,0 +1,317 @@
+/*
+ * ParallelGZipInputStream.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * gzip input stream that decompresses on background threads.
+ * If the input starts with a BGZF block (a gzip member of at most 64kb that records its own size, as written by
+ * ParallelGZipOutputStream, bgzip or samtools), then a read-ahead thread reads blocks and they are inflated in parallel.
+ * Otherwise, or should a later member not be a BGZF block, the (rest of the) input is inflated by a background GZIPInputStream
+ * that fills a bounded ring of recycled buffers, so that inflating overlaps with the consumer.
+ * Blocks are delivered in input order. The read-ahead thread stops when the stream is closed, or becomes unreachable
+ * Daniel Huson, 10.2026
+ */
+public class ParallelGZipInputStream extends InputStream {
+    public static final int BGZF_HEADER_SIZE = 18;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream ins;
+    private final BlockReader blockReader;
+    private boolean closed;
+
+    private Block current;
+    private int pos;
+    private boolean done;
+
+    /**
+     * constructor
+     *
+     * @param ins             gzipped input stream
+     * @param numberOfThreads number of threads used to inflate BGZF blocks, other input is inflated by a single thread
+     */
+    public ParallelGZipInputStream(InputStream ins, int numberOfThreads) throws IOException {
+        var bufferedInputStream = new BufferedInputStream(ins, BUFFER_SIZE);
+        this.ins = bufferedInputStream;
+        blockReader = new BlockReader(bufferedInputStream, Math.max(1, numberOfThreads), isBGZF(bufferedInputStream), this);
+    }
+
+    /**
+     * does the stream start with a BGZF block header? Does not consume any bytes
+     */
+    public static boolean isBGZF(BufferedInputStream ins) throws IOException {
+        var header = new byte[BGZF_HEADER_SIZE];
+        ins.mark(BGZF_HEADER_SIZE);
+        var count = ins.readNBytes(header, 0, BGZF_HEADER_SIZE);
+        ins.reset();
+        return count == BGZF_HEADER_SIZE && (header[0] & 0xFF) == 31 && (header[1] & 0xFF) == 139 && header[2] == 8 && (header[3] & 4) != 0
+               && getShort(header, 10) == 6 && header[12] == 'B' && header[13] == 'C' && getShort(header, 14) == 2;
+    }
+
+    /**
+     * inflates a single BGZF block and checks its CRC
+     *
+     * @param block     the compressed block, starting with its header
+     * @param blockSize the size of the block
+     * @param buffer    buffer to inflate into, must be large enough to hold the uncompressed block (at most 65536 bytes)
+     * @return number of bytes inflated
+     */
+    public static int inflateBlock(byte[] block, int blockSize, byte[] buffer) throws IOException {
+        var size = getInt(block, blockSize - 4);
+        if (size > buffer.length)
+            throw new IOException("Corrupt BGZF block: size too large");
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, BGZF_HEADER_SIZE, blockSize - BGZF_HEADER_SIZE - 8);
+            var length = 0;
+            while (length < size && !inflater.finished()) {
+                var count = inflater.inflate(buffer, length, size - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += count;
+            }
+            if (length != size)
+                throw new IOException("Corrupt BGZF block: wrong size");
+            var crc = new CRC32();
+            crc.update(buffer, 0, length);
+            if ((int) crc.getValue() != getInt(block, blockSize - 8))
+                throw new IOException("Corrupt BGZF block: CRC error");
+            return length;
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt BGZF block", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * gets the total size of a BGZF block from its header
+     *
+     * @param header the first 18 bytes of the block
+     * @return block size, or -1, if the header is not a BGZF header
+     */
+    public static int getBlockSize(byte[] header) {
+        if ((header[0] & 0xFF) != 31 || (header[1] & 0xFF) != 139 || getShort(header, 10) != 6 || header[12] != 'B' || header[13] != 'C')
+            return -1;
+        else
+            return getShort(header, 16) + 1;
+    }
+
+    /**
+     * moves to the next block, if the current one has been consumed
+     *
+     * @return false, if at end of input
+     */
+    private boolean ensureAvailable() throws IOException {
+        while (current == null || pos == current.length()) {
+            if (done)
+                return false;
+            if (current != null)
+                blockReader.freeBuffers.offer(current.data());
+            try {
+                current = blockReader.queue.take().get();
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException ex) {
+                done = true;
+                throw (ex.getCause() instanceof IOException ioException ? ioException : new IOException(ex.getCause()));
+            }
+            pos = 0;
+            if (current == null) {
+                done = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        return ensureAvailable() ? current.data()[pos++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (length == 0)
+            return 0;
+        if (!ensureAvailable())
+            return -1;
+        var count = Math.min(length, current.length() - pos);
+        System.arraycopy(current.data(), pos, bytes, offset, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (current == null ? 0 : current.length() - pos);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            blockReader.stop();
+            ins.close();
+        }
+    }
+
+    private static int getShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16 | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    static Thread createDaemonThread(Runnable runnable) {
+        var thread = new Thread(runnable);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private record Block(byte[] data, int length) {
+    }
+
+    /**
+     * read-ahead: reads compressed BGZF blocks on a background thread and submits them for inflation,
+     * or inflates other gzip input on the background thread itself.
+     * Holds only a weak reference to the stream, so that it can stop when the stream is no longer used
+     */
+    private static class BlockReader {
+        private final InputStream ins;
+        private final WeakReference<ParallelGZipInputStream> owner;
+        private final ExecutorService service; // inflates BGZF blocks, null for other input
+        private final BlockingQueue<Future<Block>> queue;
+        private final BlockingQueue<byte[]> freeBuffers;
+        private final Thread thread;
+        private volatile boolean stopped;
+
+        BlockReader(InputStream ins, int numberOfThreads, boolean bgzf, ParallelGZipInputStream owner) {
+            this.ins = ins;
+            this.owner = new WeakReference<>(owner);
+            var capacity = 4 * numberOfThreads;
+            queue = new ArrayBlockingQueue<>(capacity);
+            freeBuffers = new ArrayBlockingQueue<>(capacity + 2);
+            service = (bgzf ? Executors.newFixedThreadPool(numberOfThreads, ParallelGZipInputStream::createDaemonThread) : null);
+            thread = createDaemonThread(this::run);
+            thread.start();
+        }
+
+        private void run() {
+            try {
+                if (service != null)
+                    readBlocks();
+                else
+                    inflateSequentially(ins);
+                put(CompletableFuture.completedFuture(null));
+            } catch (Exception ex) {
+                put(CompletableFuture.failedFuture(ex));
+            } finally {
+                if (service != null)
+                    service.shutdown();
+                if (stopped) {
+                    if (service != null)
+                        service.shutdownNow();
+                    try {
+                        ins.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        /**
+         * reads blocks until the end of the input. If a member is not a BGZF block, inflates the rest of the input sequentially
+         */
+        private void readBlocks() throws IOException {
+            var header = new byte[BGZF_HEADER_SIZE];
+            while (!stopped) {
+                var count = ins.readNBytes(header, 0, BGZF_HEADER_SIZE);
+                if (count == 0)
+                    break;
+                var blockSize = (count == BGZF_HEADER_SIZE ? getBlockSize(header) : -1);
+                if (blockSize < BGZF_HEADER_SIZE + 8) {
+                    inflateSequentially(new SequenceInputStream(new ByteArrayInputStream(header, 0, count), ins));
+                    break;
+                }
+                var block = new byte[blockSize];
+                System.arraycopy(header, 0, block, 0, BGZF_HEADER_SIZE);
+                if (ins.readNBytes(block, BGZF_HEADER_SIZE, blockSize - BGZF_HEADER_SIZE) < blockSize - BGZF_HEADER_SIZE)
+                    throw new EOFException("Truncated BGZF block");
+                put(service.submit(() -> {
+                    var buffer = getBuffer(getInt(block, block.length - 4));
+                    return new Block(buffer, inflateBlock(block, block.length, buffer));
+                }));
+            }
+        }
+
+        private void inflateSequentially(InputStream rest) throws IOException {
+            var gzipInputStream = new GZIPInputStream(rest, BUFFER_SIZE);
+            while (!stopped) {
+                var buffer = getBuffer(BUFFER_SIZE);
+                var length = gzipInputStream.readNBytes(buffer, 0, BUFFER_SIZE);
+                if (length == 0)
+                    break;
+                put(CompletableFuture.completedFuture(new Block(buffer, length)));
+            }
+        }
+
+        /**
+         * puts an item into the queue, waiting while it is full. Stops the reader, if the stream has been closed or is no longer reachable
+         */
+        private void put(Future<Block> future) {
+            try {
+                while (!queue.offer(future, 100, TimeUnit.MILLISECONDS)) {
+                    if (stopped || owner.get() == null) {
+                        stopped = true;
+                        break;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                stopped = true;
+            }
+        }
+
+        private byte[] getBuffer(int size) {
+            var buffer = freeBuffers.poll();
+            return (buffer != null && buffer.length >= size ? buffer : new byte[Math.max(size, BUFFER_SIZE)]);
+        }
+
+        void stop() {
+            stopped = true;
+            thread.interrupt();
+            if (service != null)
+                service.shutdownNow();
+            queue.clear();
+        }
+    }
+}
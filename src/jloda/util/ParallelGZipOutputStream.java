@@ -0,0 +1,203 @@
+/*
+ * ParallelGZipOutputStream.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * gzip output stream that compresses blocks in parallel.
+ * Output is written in BGZF format, that is, as a sequence of gzip members, each holding at most 65280 bytes of input and
+ * recording its own compressed size. This is valid gzip that any gzip reader can decompress, and it allows
+ * ParallelGZipInputStream to decompress blocks in parallel
+ * Daniel Huson, 10.2026
+ */
+public class ParallelGZipOutputStream extends OutputStream {
+    public static final int BLOCK_SIZE = 0xff00; // so that a block of incompressible data still fits into 64kb
+    private static final byte[] EOF_BLOCK = {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 66, 67, 2, 0, 27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+
+    private final OutputStream outs;
+    private final ExecutorService service;
+    private final int maxPending;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final int level;
+
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int length;
+    private boolean closed;
+
+    /**
+     * constructor
+     *
+     * @param outs            output stream
+     * @param numberOfThreads number of threads to use for compression
+     */
+    public ParallelGZipOutputStream(OutputStream outs, int numberOfThreads) {
+        this(outs, numberOfThreads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * constructor
+     *
+     * @param outs            output stream
+     * @param numberOfThreads number of threads to use for compression
+     * @param level           compression level 0-9, or -1 for default
+     */
+    public ParallelGZipOutputStream(OutputStream outs, int numberOfThreads, int level) {
+        this.outs = outs;
+        this.level = level;
+        numberOfThreads = Math.max(1, numberOfThreads);
+        maxPending = 4 * numberOfThreads;
+        service = Executors.newFixedThreadPool(numberOfThreads, ParallelGZipInputStream::createDaemonThread);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (length == BLOCK_SIZE)
+            submitBlock();
+        buffer[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        while (count > 0) {
+            if (length == BLOCK_SIZE)
+                submitBlock();
+            var n = Math.min(count, BLOCK_SIZE - length);
+            System.arraycopy(bytes, offset, buffer, length, n);
+            length += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    /**
+     * submits the current buffer for compression, writing out finished blocks if too many are pending
+     */
+    private void submitBlock() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+        if (length > 0) {
+            var block = buffer;
+            var blockLength = length;
+            pending.add(service.submit(() -> compressBlock(block, blockLength, level)));
+            buffer = new byte[BLOCK_SIZE];
+            length = 0;
+        }
+        while (pending.size() > maxPending)
+            writeBlock(pending.remove());
+    }
+
+    private void writeBlock(Future<byte[]> future) throws IOException {
+        try {
+            outs.write(future.get());
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException ex) {
+            throw (ex.getCause() instanceof IOException ioException ? ioException : new IOException(ex.getCause()));
+        }
+    }
+
+    /**
+     * compresses a block of data into a BGZF block
+     */
+    public static byte[] compressBlock(byte[] data, int length, int level) {
+        var deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            var block = new byte[BLOCK_SIZE + 1024];
+            var size = 18;
+            while (!deflater.finished()) {
+                if (size == block.length - 8)
+                    block = Arrays.copyOf(block, 2 * block.length);
+                size += deflater.deflate(block, size, block.length - 8 - size);
+            }
+            System.arraycopy(EOF_BLOCK, 0, block, 0, 16);
+            putShort(block, 16, size + 8 - 1);
+            var crc = new CRC32();
+            crc.update(data, 0, length);
+            putInt(block, size, (int) crc.getValue());
+            putInt(block, size + 4, length);
+            return Arrays.copyOf(block, size + 8);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * writes out all full blocks that have been submitted for compression. A partially filled block is kept,
+     * so that frequent flushing does not produce many small gzip members. It is written by finish() or close()
+     */
+    @Override
+    public void flush() throws IOException {
+        writePendingBlocks();
+        outs.flush();
+    }
+
+    private void writePendingBlocks() throws IOException {
+        while (!pending.isEmpty())
+            writeBlock(pending.remove());
+    }
+
+    /**
+     * writes all remaining data and the BGZF end-of-file marker
+     */
+    public void finish() throws IOException {
+        submitBlock();
+        writePendingBlocks();
+        outs.write(EOF_BLOCK);
+        outs.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            try {
+                finish();
+            } finally {
+                closed = true;
+                service.shutdownNow();
+                outs.close();
+            }
+        }
+    }
+
+    private static void putShort(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * ParallelLineReader.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * reads the lines of an uncompressed file in parallel.
+ * The file is split into chunks whose boundaries lie directly after a newline, and each chunk is read through
+ * memory-mapped windows, so that different threads can process different chunks. Chunks are numbered in file order,
+ * so results can be put back into order using the chunk index
+ * Daniel Huson, 10.2026
+ */
+public class ParallelLineReader {
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 26;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long NEWLINES = '\n' * ONES;
+
+    private final Path path;
+    private final long size;
+    private final long[] boundaries;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    /**
+     * constructor
+     *
+     * @param fileName       an uncompressed file
+     * @param numberOfChunks number of chunks to split the file into
+     */
+    public ParallelLineReader(String fileName, int numberOfChunks) throws IOException {
+        if (!canRead(fileName))
+            throw new IOException("Not an uncompressed file: " + fileName);
+        path = Path.of(fileName);
+        numberOfChunks = Math.max(1, numberOfChunks);
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            boundaries = new long[numberOfChunks + 1];
+            boundaries[numberOfChunks] = size;
+            var buffer = ByteBuffer.allocate(1 << 16);
+            for (var i = 1; i < numberOfChunks; i++) {
+                var pos = Math.max(boundaries[i - 1], size / numberOfChunks * i);
+                boundaries[i] = findLineStart(channel, pos, buffer);
+            }
+        }
+    }
+
+    /**
+     * can the given file be read by this class, i.e. is it an existing, uncompressed, local file?
+     */
+    public static boolean canRead(String fileName) {
+        return !FileUtils.isZIPorGZIPFile(fileName) && !fileName.endsWith("stdin") && !fileName.endsWith("stdin-gz")
+               && !FileUtils.isHTTPorFileURL(fileName) && (new File(fileName)).isFile();
+    }
+
+    /**
+     * finds the first position at or after the given one that is the start of a line
+     */
+    private long findLineStart(FileChannel channel, long pos, ByteBuffer buffer) throws IOException {
+        if (pos == 0 || pos >= size)
+            return Math.min(pos, size);
+        pos--; // the line starts at pos if the preceding byte is a newline
+        while (pos < size) {
+            buffer.clear();
+            var count = channel.read(buffer, pos);
+            if (count <= 0)
+                break;
+            var index = ByteLineReader.indexOf(buffer.array(), 0, count, (byte) '\n');
+            if (index != -1)
+                return pos + index + 1;
+            pos += count;
+        }
+        return size;
+    }
+
+    public int getNumberOfChunks() {
+        return boundaries.length - 1;
+    }
+
+    /**
+     * position of the first byte of a chunk
+     */
+    public long getChunkStart(int chunk) {
+        return boundaries[chunk];
+    }
+
+    /**
+     * position after the last byte of a chunk
+     */
+    public long getChunkEnd(int chunk) {
+        return boundaries[chunk + 1];
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * set the maximum number of bytes mapped at a time, at least 4096
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(4096, windowSize);
+    }
+
+    /**
+     * calls the consumer for each line in the given chunk, in file order. The line terminator, and a trailing carriage return,
+     * are not included in the line. The byte array passed to the consumer is reused for the next line
+     *
+     * @param chunk    the chunk
+     * @param consumer consumer of lines
+     */
+    public void forEachLineInChunk(int chunk, LineConsumer consumer) throws IOException {
+        var end = getChunkEnd(chunk);
+        var line = new byte[1024];
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var pos = getChunkStart(chunk);
+            var window = windowSize;
+            while (pos < end) {
+                var length = (int) Math.min(window, end - pos);
+                var buffer = map(channel, pos, length);
+                var lineStart = 0;
+                var newline = indexOfNewline(buffer, 0, length);
+                while (newline != -1) {
+                    line = emit(chunk, buffer, lineStart, newline, line, consumer);
+                    lineStart = newline + 1;
+                    newline = indexOfNewline(buffer, lineStart, length);
+                }
+                if (pos + length == end) {
+                    if (lineStart < length) // last line is not terminated
+                        line = emit(chunk, buffer, lineStart, length, line, consumer);
+                    break;
+                }
+                if (lineStart == 0) // line longer than window
+                    window = (int) Math.min(Integer.MAX_VALUE - 8, 2L * window);
+                pos += lineStart;
+            }
+        }
+    }
+
+    private static byte[] emit(int chunk, MappedByteBuffer buffer, int from, int to, byte[] line, LineConsumer consumer) throws IOException {
+        if (to > from && buffer.get(to - 1) == '\r')
+            to--;
+        var length = to - from;
+        if (length > line.length)
+            line = new byte[Math.max(length, 2 * line.length)];
+        buffer.get(from, line, 0, length);
+        consumer.apply(chunk, line, 0, length);
+        return line;
+    }
+
+    /**
+     * counts the lines in a chunk. A final line that is not terminated by a newline is counted, too
+     */
+    public long countLinesInChunk(int chunk) throws IOException {
+        var start = getChunkStart(chunk);
+        var end = getChunkEnd(chunk);
+        var count = 0L;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (var pos = start; pos < end; pos += windowSize) {
+                var length = (int) Math.min(windowSize, end - pos);
+                var buffer = map(channel, pos, length);
+                var i = 0;
+                for (; i + 8 <= length; i += 8) {
+                    var word = buffer.getLong(i) ^ NEWLINES;
+                    count += Long.bitCount(~(((word & LOWS) + LOWS) | word | LOWS)); // high bit set exactly for zero bytes
+                }
+                for (; i < length; i++) {
+                    if (buffer.get(i) == '\n')
+                        count++;
+                }
+            }
+            if (end > start && end == size) {
+                var last = map(channel, end - 1, 1);
+                if (last.get(0) != '\n')
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * counts all lines of the file using the given number of threads
+     */
+    public long countLines(int numberOfThreads) throws IOException {
+        return applyToChunks(numberOfThreads, this::countLinesInChunk).stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * counts all lines of an uncompressed file, using one chunk per thread
+     */
+    public static long countLines(String fileName, int numberOfThreads) throws IOException {
+        return (new ParallelLineReader(fileName, numberOfThreads)).countLines(numberOfThreads);
+    }
+
+    /**
+     * applies a function to all chunks in parallel
+     *
+     * @param numberOfThreads number of threads to use
+     * @param function        function to apply to each chunk index
+     * @return the results, in chunk order
+     */
+    public <T> ArrayList<T> applyToChunks(int numberOfThreads, FunctionWithIOException<Integer, T> function) throws IOException {
+        var results = new ArrayList<T>(Collections.nCopies(getNumberOfChunks(), null));
+        if (numberOfThreads <= 1 || getNumberOfChunks() == 1) {
+            for (var chunk = 0; chunk < getNumberOfChunks(); chunk++)
+                results.set(chunk, function.apply(chunk));
+        } else {
+            var exception = new Single<IOException>();
+            var service = Executors.newFixedThreadPool(Math.min(numberOfThreads, getNumberOfChunks()));
+            try {
+                for (var chunk = 0; chunk < getNumberOfChunks(); chunk++) {
+                    var index = chunk;
+                    service.submit(() -> {
+                        if (exception.isNull()) {
+                            try {
+                                results.set(index, function.apply(index));
+                            } catch (IOException e) {
+                                exception.setIfCurrentValueIsNull(e);
+                            } catch (Exception e) {
+                                exception.setIfCurrentValueIsNull(new IOException(e));
+                            }
+                        }
+                    });
+                }
+                service.shutdown();
+                service.awaitTermination(1000, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                exception.setIfCurrentValueIsNull(new IOException(e));
+            } finally {
+                service.shutdownNow();
+            }
+            if (exception.isNotNull())
+                throw exception.get();
+        }
+        return results;
+    }
+
+    /**
+     * calls the consumer for each line of the file, processing the chunks in parallel. The consumer is called
+     * concurrently from different threads, but lines of the same chunk are passed in file order by a single thread
+     */
+    public void forEachLine(int numberOfThreads, LineConsumer consumer) throws IOException {
+        applyToChunks(numberOfThreads, chunk -> {
+            forEachLineInChunk(chunk, consumer);
+            return null;
+        });
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long pos, int length) throws IOException {
+        var buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static int indexOfNewline(MappedByteBuffer buffer, int from, int to) {
+        var i = from;
+        for (; i + 8 <= to; i += 8) {
+            var word = buffer.getLong(i) ^ NEWLINES;
+            var found = (word - ONES) & ~word & HIGHS;
+            if (found != 0)
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == '\n')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * consumer of a line given as a range of a byte array
+     */
+    public interface LineConsumer {
+        void apply(int chunk, byte[] bytes, int offset, int length) throws IOException;
+    }
+}
@@ -21,7 +21,10 @@ package jloda.util;
 /**
  * a reusable byte buffer
  * Daniel Huson, 8.2014
+ *
+ * @deprecated use ByteOutputBuffer, which grows as needed and supports varints and channel output
  */
+@Deprecated
 public class ReusableByteBuffer {
     private byte[] bytes;
     private int pos = 0;
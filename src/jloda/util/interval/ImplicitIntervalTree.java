@@ -0,0 +1,337 @@
+/*
+ * ImplicitIntervalTree.java Copyright (C) 2024 Daniel H. Huson
+ *
+ * (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package jloda.util.interval;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+/**
+ * an immutable interval tree that is stored in flat arrays, for large numbers of intervals.
+ * Intervals are sorted by start and the sorted array is interpreted as an implicit balanced binary search tree,
+ * in which each node additionally stores the maximum end coordinate of its subtree (as in cgranges by Heng Li).
+ * Intervals are inclusive, as in Interval, and are identified by their index in the sorted order.
+ * Queries report indices to a visitor and do not allocate any objects. Use the Builder to construct a tree
+ * Daniel Huson, 10.2026
+ */
+public class ImplicitIntervalTree<T> {
+    private static final int LINEAR_SCAN_LEVEL = 3; // subtrees of this height or less are scanned linearly
+
+    private final int size;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] maxEnds;
+    private final Object[] data;
+    private final int maxLevel;
+
+    private ImplicitIntervalTree(int size, int[] starts, int[] ends, Object[] data) {
+        this.size = size;
+        this.starts = starts;
+        this.ends = ends;
+        this.data = data;
+        this.maxEnds = new int[size];
+        this.maxLevel = computeMaxEnds();
+    }
+
+    /**
+     * creates a tree for the given intervals
+     */
+    public static <T> ImplicitIntervalTree<T> of(Collection<Interval<T>> intervals) {
+        var builder = new Builder<T>(intervals.size());
+        builder.addAll(intervals);
+        return builder.build();
+    }
+
+    /**
+     * computes the maximum end of each subtree in a bottom-up pass over the levels of the implicit tree
+     *
+     * @return the level of the root
+     */
+    private int computeMaxEnds() {
+        if (size == 0)
+            return -1;
+        var lastIndex = 0;
+        var last = 0;
+        for (var i = 0; i < size; i += 2) { // leaves
+            lastIndex = i;
+            maxEnds[i] = last = ends[i];
+        }
+        var level = 1;
+        for (; (1 << level) <= size; level++) {
+            final var half = 1 << (level - 1);
+            final var step = half << 2;
+            for (var i = (half << 1) - 1; i < size; i += step) {
+                var value = Math.max(ends[i], maxEnds[i - half]);
+                value = Math.max(value, (i + half < size ? maxEnds[i + half] : last));
+                maxEnds[i] = value;
+            }
+            // the last node on this level may lie beyond the end of the array, keep track of its max end:
+            lastIndex = (((lastIndex >> level) & 1) != 0 ? lastIndex - half : lastIndex + half);
+            if (lastIndex < size && maxEnds[lastIndex] > last)
+                last = maxEnds[lastIndex];
+        }
+        return level - 1;
+    }
+
+    /**
+     * visits all intervals that contain the given position
+     *
+     * @param visitor is called with the index of each such interval, in order of start
+     */
+    public void stab(int position, IntConsumer visitor) {
+        overlap(position, position, visitor);
+    }
+
+    /**
+     * visits all intervals that overlap the given interval
+     *
+     * @param start   start of query (inclusive)
+     * @param end     end of query (inclusive)
+     * @param visitor is called with the index of each such interval, in order of start
+     */
+    public void overlap(int start, int end, IntConsumer visitor) {
+        if (size > 0 && start <= end)
+            overlapRec((1 << maxLevel) - 1, maxLevel, start, end, visitor);
+    }
+
+    private void overlapRec(int node, int level, int start, int end, IntConsumer visitor) {
+        if (level <= LINEAR_SCAN_LEVEL) {
+            final var first = (node >> level) << level;
+            final var last = Math.min(size, first + (1 << (level + 1)) - 1);
+            for (var i = first; i < last && starts[i] <= end; i++) {
+                if (ends[i] >= start)
+                    visitor.accept(i);
+            }
+        } else {
+            final var left = node - (1 << (level - 1));
+            if (left >= size || maxEnds[left] >= start)
+                overlapRec(left, level - 1, start, end, visitor);
+            if (node < size && starts[node] <= end) {
+                if (ends[node] >= start)
+                    visitor.accept(node);
+                overlapRec(node + (1 << (level - 1)), level - 1, start, end, visitor);
+            }
+        }
+    }
+
+    /**
+     * counts the intervals that overlap the given interval
+     */
+    public int count(int start, int end) {
+        var counter = new int[1];
+        overlap(start, end, i -> counter[0]++);
+        return counter[0];
+    }
+
+    /**
+     * visits, for each of the given positions, all intervals that contain it. Positions must be sorted in non-decreasing order.
+     * This is done in a single sweep over positions and intervals, keeping track of the intervals that contain the current position
+     *
+     * @param positions positions, sorted
+     * @param visitor   is called with the index of the position and the index of each interval that contains it, in order of interval start
+     */
+    public void stabAll(int[] positions, BatchVisitor visitor) {
+        var active = new int[16];
+        var numberActive = 0;
+        var next = 0;
+        var previous = Integer.MIN_VALUE;
+        for (var p = 0; p < positions.length; p++) {
+            final var position = positions[p];
+            if (position < previous)
+                throw new IllegalArgumentException("positions not sorted at index " + p);
+            previous = position;
+
+            var count = 0; // remove intervals that end before the current position
+            for (var a = 0; a < numberActive; a++) {
+                if (ends[active[a]] >= position)
+                    active[count++] = active[a];
+            }
+            numberActive = count;
+            while (next < size && starts[next] <= position) {
+                if (ends[next] >= position) {
+                    if (numberActive == active.length)
+                        active = Arrays.copyOf(active, 2 * active.length);
+                    active[numberActive++] = next;
+                }
+                next++;
+            }
+            for (var a = 0; a < numberActive; a++)
+                visitor.visit(p, active[a]);
+        }
+    }
+
+    /**
+     * number of intervals
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * start of the i-th interval, in sorted order
+     */
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    /**
+     * end of the i-th interval, in sorted order
+     */
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    /**
+     * data associated with the i-th interval, in sorted order
+     */
+    @SuppressWarnings("unchecked")
+    public T getData(int i) {
+        return (T) data[i];
+    }
+
+    /**
+     * gets the i-th interval as an interval object
+     */
+    public Interval<T> getInterval(int i) {
+        return new Interval<>(starts[i], ends[i], getData(i));
+    }
+
+    /**
+     * visits pairs of positions and intervals
+     */
+    public interface BatchVisitor {
+        void visit(int positionIndex, int intervalIndex);
+    }
+
+    /**
+     * collects intervals and builds an immutable tree. Adding intervals is cheap, the intervals are only sorted
+     * when build() is called, and a built tree is reused until further intervals are added
+     */
+    public static class Builder<T> {
+        private int size;
+        private int[] starts;
+        private int[] ends;
+        private Object[] data;
+        private ImplicitIntervalTree<T> tree;
+
+        public Builder() {
+            this(16);
+        }
+
+        /**
+         * constructor
+         *
+         * @param initialCapacity expected number of intervals
+         */
+        public Builder(int initialCapacity) {
+            initialCapacity = Math.max(1, initialCapacity);
+            starts = new int[initialCapacity];
+            ends = new int[initialCapacity];
+            data = new Object[initialCapacity];
+        }
+
+        /**
+         * adds an interval. If start&gt;end, then the two are swapped
+         *
+         * @param start start (inclusive)
+         * @param end   end (inclusive)
+         * @param value data to associate with the interval, may be null
+         */
+        public Builder<T> add(int start, int end, T value) {
+            if (size == starts.length) {
+                var capacity = (int) Math.min(Integer.MAX_VALUE - 8, 2L * size);
+                if (capacity == size)
+                    throw new IllegalStateException("too many intervals");
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                data = Arrays.copyOf(data, capacity);
+            }
+            starts[size] = Math.min(start, end);
+            ends[size] = Math.max(start, end);
+            data[size] = value;
+            size++;
+            tree = null;
+            return this;
+        }
+
+        public Builder<T> add(Interval<T> interval) {
+            return add(interval.getStart(), interval.getEnd(), interval.getData());
+        }
+
+        public Builder<T> addAll(Collection<Interval<T>> intervals) {
+            for (var interval : intervals)
+                add(interval);
+            return this;
+        }
+
+        /**
+         * number of intervals added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * removes all intervals
+         */
+        public void clear() {
+            Arrays.fill(data, 0, size, null);
+            size = 0;
+            tree = null;
+        }
+
+        /**
+         * builds the tree, sorting the intervals by start and then by end. The tree is cached until the next change
+         */
+        public ImplicitIntervalTree<T> build() {
+            if (tree == null) {
+                var order = new long[size];
+                for (var i = 0; i < size; i++)
+                    order[i] = ((long) starts[i] << 32) | i;
+                Arrays.sort(order);
+                // intervals with the same start are sorted by end:
+                for (var a = 0; a < size; ) {
+                    var b = a + 1;
+                    while (b < size && (int) (order[b] >> 32) == (int) (order[a] >> 32))
+                        b++;
+                    if (b - a > 1) {
+                        for (var i = a; i < b; i++)
+                            order[i] = ((long) ends[(int) order[i]] << 32) | (order[i] & 0xFFFFFFFFL);
+                        Arrays.sort(order, a, b);
+                        for (var i = a; i < b; i++)
+                            order[i] = ((long) starts[(int) order[i]] << 32) | (order[i] & 0xFFFFFFFFL);
+                    }
+                    a = b;
+                }
+                var sortedStarts = new int[size];
+                var sortedEnds = new int[size];
+                var sortedData = new Object[size];
+                for (var i = 0; i < size; i++) {
+                    var index = (int) order[i];
+                    sortedStarts[i] = starts[index];
+                    sortedEnds[i] = ends[index];
+                    sortedData[i] = data[index];
+                }
+                tree = new ImplicitIntervalTree<>(size, sortedStarts, sortedEnds, sortedData);
+            }
+            return tree;
+        }
+    }
+}
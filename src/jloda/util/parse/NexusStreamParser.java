@@ -26,6 +26,7 @@ import jloda.util.StringUtils;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
@@ -35,6 +36,11 @@ import java.util.List;
  * 2003, Daniel Huson
  */
 public class NexusStreamParser extends NexusStreamTokenizer implements Closeable {
+	/**
+	 * which entries of a matrix are given
+	 */
+	public enum Triangle {Both, Lower, Upper}
+
 	private final Reader reader; // keep a reference only so that we can close the reader...
 
 	/**
@@ -53,7 +59,7 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	 * @param tokens string of tokens
 	 */
 	public void matchIgnoreCase(String tokens) throws IOExceptionWithLineNumber {
-		try (var s = new NexusStreamTokenizer(new StringReader(tokens))) {
+		try (var s = new NexusStreamTokenizer(tokens)) {
 			s.setSquareBracketsSurroundComments(isSquareBracketsSurroundComments());
 			while (s.nextToken() != NexusStreamParser.TT_EOF) {
 				nextToken();
@@ -72,7 +78,7 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	 * @param tokens string of tokens
 	 */
 	public void matchRespectCase(String tokens) throws IOExceptionWithLineNumber {
-		try (var s = new NexusStreamTokenizer(new StringReader(tokens))) {
+		try (var s = new NexusStreamTokenizer(tokens)) {
 			s.setSquareBracketsSurroundComments(isSquareBracketsSurroundComments());
 			while (s.nextToken() != NexusStreamParser.TT_EOF) {
 				nextToken();
@@ -193,32 +199,22 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 		final var echo = isEchoCommentsWithExclamationMark();
 		setEchoCommentsWithExclamationMark(false);
 
-		try (var s = new NexusStreamTokenizer(new StringReader(tokens))) {
+		try (var s = new NexusStreamTokenizer(tokens)) {
 			s.setSquareBracketsSurroundComments(isSquareBracketsSurroundComments());
 
-			final var nvals = new ArrayList<Double>();
-			final var svals = new ArrayList<String>();
-			final var ttypes = new ArrayList<Integer>();
-			final var lines = new ArrayList<Integer>();
-
-			svals.add(sval);
-			nvals.add(nval);
-			ttypes.add(ttype);
-			lines.add(lineno());
+			final var saved = new SavedTokens();
+			saved.add(this);
 
 			var flag = true;
 			while (s.nextToken() != NexusStreamParser.TT_EOF) {
 				nextToken();
-				svals.add(sval);
-				nvals.add(nval);
-				ttypes.add(ttype);
-				lines.add(lineno());
+				saved.add(this);
 
 				flag = toString().equalsIgnoreCase(s.toString());
 				if (!flag)
 					break;
 			}
-			pushBack(svals, nvals, ttypes, lines);
+			saved.pushBack(this);
 			nextToken();
 
 			return flag;
@@ -239,31 +235,21 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	public boolean peekMatchRespectCase(String tokens) {
 		final boolean echo = isEchoCommentsWithExclamationMark();
 		setEchoCommentsWithExclamationMark(false);
-		try (var s = new NexusStreamTokenizer(new StringReader(tokens))) {
+		try (var s = new NexusStreamTokenizer(tokens)) {
 			s.setSquareBracketsSurroundComments(isSquareBracketsSurroundComments());
 
-			final var nvals = new ArrayList<Double>();
-			final var svals = new ArrayList<String>();
-			final var ttypes = new ArrayList<Integer>();
-			final var lines = new ArrayList<Integer>();
-
-			svals.add(sval);
-			nvals.add(nval);
-			ttypes.add(ttype);
-			lines.add(lineno());
+			final var saved = new SavedTokens();
+			saved.add(this);
 
 			var flag = true;
 			while (s.nextToken() != NexusStreamParser.TT_EOF) {
 				nextToken();
-				svals.add(sval);
-				nvals.add(nval);
-				ttypes.add(ttype);
-				lines.add(lineno());
+				saved.add(this);
 				flag = toString().equals(s.toString());
 				if (!flag)
 					break;
 			}
-			pushBack(svals, nvals, ttypes, lines);
+			saved.pushBack(this);
 			nextToken();
 
 			return flag;
@@ -283,25 +269,15 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 		final boolean echo = isEchoCommentsWithExclamationMark();
 		setEchoCommentsWithExclamationMark(false);
 		try {
-			final var nvals = new ArrayList<Double>();
-			final var svals = new ArrayList<String>();
-			final var ttypes = new ArrayList<Integer>();
-			final var lines = new ArrayList<Integer>();
-
-			svals.add(sval);
-			nvals.add(nval);
-			ttypes.add(ttype);
-			lines.add(lineno());
+			final var saved = new SavedTokens();
+			saved.add(this);
 
 			String result = null;
 			try {
 				nextToken();
-				svals.add(sval);
-				nvals.add(nval);
-				ttypes.add(ttype);
-				lines.add(lineno());
+				saved.add(this);
 				result = toString();
-				pushBack(svals, nvals, ttypes, lines);
+				saved.pushBack(this);
 				nextToken();
 			} catch (IOException ignored) {
 			}
@@ -992,13 +968,14 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	public int getInt() throws IOExceptionWithLineNumber {
 		pushPunctuationCharacters(NEGATIVE_INTEGER_PUNCTUATION);
 		try {
-			nextToken();
-			nval = Integer.parseInt(sval);
+			nextToken(false);
+			if (ttype != TT_NUMBER || nval != (int) nval)
+				setNumber(parseInt(getTokenChars(), 0, getCurrentWordLength()));
 		} catch (Exception ex) {
+			throw new IOExceptionWithLineNumber("INTEGER expected, got: '" + getTokenString() + "'", lineno());
+		} finally {
 			popPunctuationCharacters();
-			throw new IOExceptionWithLineNumber("INTEGER expected, got: '" + sval + "'", lineno());
 		}
-		popPunctuationCharacters();
 		return (int) nval;
 	}
 
@@ -1031,13 +1008,14 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	public long getLong() throws IOExceptionWithLineNumber {
 		pushPunctuationCharacters(NEGATIVE_INTEGER_PUNCTUATION);
 		try {
-			nextToken();
-			nval = Long.parseLong(sval);
+			nextToken(false);
+			if (ttype != TT_NUMBER || nval != (long) nval)
+				setNumber(parseLong(getTokenChars(), 0, getCurrentWordLength()));
 		} catch (Exception ex) {
+			throw new IOExceptionWithLineNumber("LONG expected, got: '" + getTokenString() + "'", lineno());
+		} finally {
 			popPunctuationCharacters();
-			throw new IOExceptionWithLineNumber("LONG expected, got: '" + sval + "'", lineno());
 		}
-		popPunctuationCharacters();
 		return (long) nval;
 	}
 
@@ -1049,25 +1027,159 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	public double getDouble() throws IOExceptionWithLineNumber {
 		pushPunctuationCharacters(LABEL_PUNCTUATION);
 		try {
-			nextToken();
-			nval = Double.parseDouble(sval);
+			nextToken(false);
+			if (ttype != TT_NUMBER)
+				setNumber(parseDouble(getTokenChars(), 0, getCurrentWordLength()));
 		} catch (Exception ex) {
+			throw new IOExceptionWithLineNumber("DOUBLE expected, got: '" + getTokenString() + "'", lineno());
+		} finally {
 			popPunctuationCharacters();
-			throw new IOExceptionWithLineNumber("DOUBLE expected, got: '" + sval + "'", lineno());
 		}
-		popPunctuationCharacters();
 		return nval;
-		/* The code below doesn't work when number contains E-4 etc: */
-        /*
-        setParseNumbers(true);
-        if(nextToken()!=TT_NUMBER)
-        {
-            setParseNumbers(false);
-            throw new IOExceptionWithLineNumber(lineno(),"DOUBLE expected, got: '"+toString()+"'");
-        }
-        setParseNumbers(false);
-        return nval;
-        */
+	}
+
+	/**
+	 * Get the next count doubles from the reader, for example a row of a matrix. Numbers are parsed directly from
+	 * the input, without creating strings
+	 *
+	 * @param values the array to fill
+	 * @param offset the position of the first value in the array
+	 * @param count  the number of values to read
+	 */
+	public void getDoubles(double[] values, int offset, int count) throws IOExceptionWithLineNumber {
+		pushPunctuationCharacters(LABEL_PUNCTUATION);
+		try {
+			for (var i = 0; i < count; i++) {
+				nextToken(false);
+				if (ttype != TT_NUMBER)
+					setNumber(parseDouble(getTokenChars(), 0, getCurrentWordLength()));
+				values[offset + i] = nval;
+			}
+		} catch (Exception ex) {
+			throw new IOExceptionWithLineNumber("DOUBLE expected, got: '" + getTokenString() + "'", lineno());
+		} finally {
+			popPunctuationCharacters();
+		}
+	}
+
+	/**
+	 * Reads a matrix of numbers, such as the matrix of a DISTANCES block. Numbers are parsed directly from the input,
+	 * without creating strings
+	 *
+	 * @param rows     number of rows
+	 * @param cols     number of columns
+	 * @param triangle which entries are given. If not Both, the matrix must be square and the missing entries are set by symmetry
+	 * @param diagonal are the diagonal entries given? If not, they are set to 0 and the matrix must be square
+	 * @param labels   if non-null, each row starts with a label, which is stored in this array
+	 * @return the matrix
+	 */
+	public double[][] readDoubleMatrix(int rows, int cols, Triangle triangle, boolean diagonal, String[] labels) throws IOExceptionWithLineNumber {
+		if ((triangle != Triangle.Both || !diagonal) && rows != cols)
+			throw new IllegalArgumentException("triangle or missing diagonal requires square matrix");
+		final var matrix = new double[rows][cols];
+		for (var i = 0; i < rows; i++) {
+			if (labels != null)
+				labels[i] = getLabelRespectCase();
+			final var row = matrix[i];
+			switch (triangle) {
+				case Both -> {
+					if (diagonal)
+						getDoubles(row, 0, cols);
+					else {
+						getDoubles(row, 0, i);
+						getDoubles(row, i + 1, cols - i - 1);
+					}
+				}
+				case Lower -> getDoubles(row, 0, diagonal ? i + 1 : i);
+				case Upper -> {
+					var start = (diagonal ? i : i + 1);
+					getDoubles(row, start, cols - start);
+				}
+			}
+		}
+		if (triangle == Triangle.Lower) {
+			for (var i = 0; i < rows; i++) {
+				for (var j = i + 1; j < cols; j++)
+					matrix[i][j] = matrix[j][i];
+			}
+		} else if (triangle == Triangle.Upper) {
+			for (var i = 0; i < rows; i++) {
+				for (var j = 0; j < i; j++)
+					matrix[i][j] = matrix[j][i];
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * Reads the rows of a character matrix, such as the matrix of a CHARACTERS block. Characters are copied directly from
+	 * the input, skipping white space and comments. Ambiguity sets in braces or parentheses are not supported
+	 *
+	 * @param rows       number of rows
+	 * @param cols       number of characters per row
+	 * @param labels     if non-null, each row starts with a label, which is stored in this array. In interleaved format,
+	 *                   the labels of later blocks must match those of the first
+	 * @param interleave if set, the matrix is given in blocks, in which each row occupies one line
+	 * @return the characters, one array per row
+	 */
+	public byte[][] readCharacterRows(int rows, int cols, String[] labels, boolean interleave) throws IOExceptionWithLineNumber {
+		final var matrix = new byte[rows][cols];
+		try {
+			if (!interleave) {
+				for (var i = 0; i < rows; i++) {
+					if (labels != null)
+						labels[i] = getLabelRespectCase();
+					if (readCharacters(matrix[i], 0, cols, false) < cols)
+						throw new IOExceptionWithLineNumber("row " + (i + 1) + ": " + cols + " characters expected", lineno());
+				}
+			} else {
+				var done = 0;
+				for (var block = 0; done < cols; block++) {
+					var count = -1;
+					for (var i = 0; i < rows; i++) {
+						if (labels != null) {
+							var label = getLabelRespectCase();
+							if (block == 0)
+								labels[i] = label;
+							else if (!label.equals(labels[i]))
+								throw new IOExceptionWithLineNumber("'" + labels[i] + "' expected, got: '" + label + "'", lineno());
+						}
+						var read = readCharacters(matrix[i], done, cols - done, true);
+						if (count == -1)
+							count = read;
+						else if (read != count)
+							throw new IOExceptionWithLineNumber("row " + (i + 1) + ": " + count + " characters expected in block, got: " + read, lineno());
+					}
+					if (count <= 0)
+						throw new IOExceptionWithLineNumber(cols + " characters expected, got: " + done, lineno());
+					done += count;
+				}
+			}
+		} catch (IOExceptionWithLineNumber ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IOExceptionWithLineNumber(lineno(), ex);
+		}
+		return matrix;
+	}
+
+	/**
+	 * the length of the current word or quoted token
+	 *
+	 * @throws NumberFormatException if the current token is not a word or quoted token
+	 */
+	private int getCurrentWordLength() {
+		if (ttype != TT_WORD && ttype != '\'')
+			throw new NumberFormatException();
+		return getTokenLength();
+	}
+
+	/**
+	 * sets the number value of the current word or quoted token. The token keeps its type and text, so that pushBack()
+	 * and error messages see the original text. Its string value is only created on demand, by getTokenString() or toString()
+	 */
+	private void setNumber(double value) {
+		nval = value;
 	}
 
 	/**
@@ -1201,7 +1313,7 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	public boolean peekMatchAnyTokenIgnoreCase(String tokens) {
 		var echo = isEchoCommentsWithExclamationMark();
 		setEchoCommentsWithExclamationMark(false);
-		try (var s = new NexusStreamTokenizer(new StringReader(tokens))) {
+		try (var s = new NexusStreamTokenizer(tokens)) {
 			s.setSquareBracketsSurroundComments(isSquareBracketsSurroundComments());
 
 			while (s.nextToken() != NexusStreamParser.TT_EOF) {
@@ -1223,7 +1335,7 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	 * @param tokens a string of tokens
 	 */
 	public void matchAnyTokenIgnoreCase(String tokens) throws IOExceptionWithLineNumber {
-		try (var s = new NexusStreamTokenizer(new StringReader(tokens))) {
+		try (var s = new NexusStreamTokenizer(tokens)) {
 			s.setSquareBracketsSurroundComments(isSquareBracketsSurroundComments());
 
 			while (s.nextToken() != NexusStreamParser.TT_EOF) {
@@ -1249,7 +1361,7 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 		final var echo = isEchoCommentsWithExclamationMark();
 		setEchoCommentsWithExclamationMark(false);
 
-		try (var s = new NexusStreamTokenizer(new StringReader(tokens))) {
+		try (var s = new NexusStreamTokenizer(tokens)) {
 			s.setSquareBracketsSurroundComments(isSquareBracketsSurroundComments());
 
 			while (s.nextToken() != NexusStreamParser.TT_EOF) {
@@ -1323,69 +1435,74 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	 * @return all integers
 	 */
 	public List<Integer> getIntegerList(String firstToken, String lastToken) throws IOExceptionWithLineNumber {
-		List<String> tokens;
-		try {
-			pushPunctuationCharacters(STRICT_PUNCTUATION);
-			tokens = getTokensLowerCase(firstToken, lastToken);
-		} finally {
-			popPunctuationCharacters();
-		}
-
 		var result = new ArrayList<Integer>();
 		var seen = new BitSet();
 
 		var inState = 0; // 0: expecting first number, 1: expecting new number or -2: expecting second number
 		var firstNumber = 0;
 		int secondNumber;
-		final var it = tokens.listIterator();
-		while (it.hasNext()) {
-			var label = it.next();
-			if (label.equalsIgnoreCase("none")) {
-				if (!it.hasNext())
-					throw new IOExceptionWithLineNumber("unexpected: " + label, lineno());
-				return result; // return empty list
-			}
 
-			switch (inState) {
-				case 1:      // expecting number or -
-					if (label.equals("-")) {
-						inState = 2;
-						break; // end of case 1
-					}
-					if (!seen.get(firstNumber)) {
-						result.add(firstNumber);
-						seen.set(firstNumber);
+		pushPunctuationCharacters(STRICT_PUNCTUATION);
+		try {
+			if (firstToken != null)
+				matchIgnoreCase(firstToken);
+			while (nextTokenBefore(lastToken)) {
+				var label = toString();
+				if (label.equalsIgnoreCase("none")) {
+					if (!nextTokenBefore(lastToken))
+						throw new IOExceptionWithLineNumber("unexpected: " + label.toLowerCase(), lineno());
+					while (nextTokenBefore(lastToken)) {
 					}
-					// fall through to case 0:
-				case 0: // expecting first number
-					try {
-						firstNumber = Integer.parseInt(label);
+					return new ArrayList<>(); // return empty list
+				}
 
-					} catch (Exception ex) {
-						throw new IOExceptionWithLineNumber("number expected: " + label, lineno());
-					}
-					inState = 1;
-					break;
-				case 2: // expecting second number
-					try {
-						secondNumber = Integer.parseInt(label);
-					} catch (Exception ex) {
-						throw new IOExceptionWithLineNumber("number expected: " + label, lineno());
-					}
+				switch (inState) {
+					case 1:      // expecting number or -
+						if (label.equals("-")) {
+							inState = 2;
+							break; // end of case 1
+						}
+						if (!seen.get(firstNumber)) {
+							result.add(firstNumber);
+							seen.set(firstNumber);
+						}
+						// fall through to case 0:
+					case 0: // expecting first number
+						try {
+							firstNumber = Integer.parseInt(label);
 
-					var imin = Math.min(firstNumber, secondNumber);
-					var imax = Math.max(firstNumber, secondNumber);
-					for (var i = imin; i <= imax; i++) {
-						if (!seen.get(i)) {
-							result.add(i);
-							seen.set(i);
+						} catch (Exception ex) {
+							throw new IOExceptionWithLineNumber("number expected: " + label.toLowerCase(), lineno());
 						}
-					}
-					inState = 0;
-					break;
-				default:
-					break;
+						inState = 1;
+						break;
+					case 2: // expecting second number
+						try {
+							secondNumber = Integer.parseInt(label);
+						} catch (Exception ex) {
+							throw new IOExceptionWithLineNumber("number expected: " + label.toLowerCase(), lineno());
+						}
+
+						var imin = Math.min(firstNumber, secondNumber);
+						var imax = Math.max(firstNumber, secondNumber);
+						for (var i = imin; i <= imax; i++) {
+							if (!seen.get(i)) {
+								result.add(i);
+								seen.set(i);
+							}
+						}
+						inState = 0;
+						break;
+					default:
+						break;
+				}
 			}
+		} catch (IOExceptionWithLineNumber ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IOExceptionWithLineNumber(lineno(), ex);
+		} finally {
+			popPunctuationCharacters();
 		}
 		switch (inState) {
 			case 1:
@@ -1403,6 +1520,24 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 		return result;
 	}
 
+	/**
+	 * reads the next token
+	 *
+	 * @param last the token that ends the list, or null, to read to the end of the stream
+	 * @return true, if the token is not last (or the end of the stream, if last is null)
+	 */
+	private boolean nextTokenBefore(String last) throws IOException {
+		nextToken();
+		if (last != null && toString().equals(last))
+			return false;
+		if (ttype == TT_EOF) {
+			if (last == null)
+				return false;
+			throw new IOExceptionWithLineNumber("'" + last + "' expected, got EOF", lineno());
+		}
+		return true;
+	}
+
 	/**
 	 * get the line number mentioned in an exception or 0
 	 *
@@ -1645,6 +1780,42 @@ public class NexusStreamParser extends NexusStreamTokenizer implements Closeable
 	public boolean isAtBeginOfBlock(String blockName) {
 		return peekMatchIgnoreCase("begin " + blockName + ";") || peekMatchIgnoreCase("BeginBlock " + blockName + ";");
 	}
+
+	/**
+	 * tokens read while peeking, so that they can be pushed back, without boxing
+	 */
+	private static class SavedTokens {
+		private String[] svals = new String[4];
+		private double[] nvals = new double[4];
+		private int[] ttypes = new int[4];
+		private int[] lines = new int[4];
+		private int size = 0;
+
+		/**
+		 * saves the current token of the tokenizer
+		 */
+		void add(NexusStreamTokenizer tokenizer) {
+			if (size == svals.length) {
+				svals = Arrays.copyOf(svals, 2 * size);
+				nvals = Arrays.copyOf(nvals, 2 * size);
+				ttypes = Arrays.copyOf(ttypes, 2 * size);
+				lines = Arrays.copyOf(lines, 2 * size);
+			}
+			svals[size] = tokenizer.sval;
+			nvals[size] = tokenizer.nval;
+			ttypes[size] = tokenizer.ttype;
+			lines[size] = tokenizer.lineno();
+			size++;
+		}
+
+		/**
+		 * pushes back all saved tokens, so that the first saved token will be read next
+		 */
+		void pushBack(NexusStreamTokenizer tokenizer) {
+			for (var i = size - 1; i >= 0; i--)
+				tokenizer.pushBack(svals[i], nvals[i], ttypes[i], lines[i]);
+		}
+	}
 }
 
 // EOF
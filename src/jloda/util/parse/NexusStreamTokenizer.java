@@ -19,21 +19,28 @@
 
 package jloda.util.parse;
 
+import jloda.util.IOExceptionWithLineNumber;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StreamTokenizer;
 import java.util.Collection;
 import java.util.EmptyStackException;
-import java.util.LinkedList;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * tokenizer for nexus streams and similar input
+ * <p>
+ * Reads characters through its own buffer and classifies them using a table that is cached per syntax, so changing the
+ * punctuation characters is cheap. Tokens are the same as those produced by java.io.StreamTokenizer with the syntax
+ * set by setSyntax(). The syntax can also be modified using the methods of java.io.StreamTokenizer, such as ordinaryChar() or
+ * wordChars(), which then work on a private copy of the table. Pushed back tokens are kept in a ring buffer
  *
- * @author Daniel Huson, 2002
+ * @author Daniel Huson, 2002, 10.2026
  */
-public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
+public class NexusStreamTokenizer implements Closeable {
     final public static String STRICT_PUNCTUATION = "(){}/\\,;:=*\"`+-<>";
     final public static String NEGATIVE_INTEGER_PUNCTUATION = "(){}/\\,;:=*\"`+<>";
     final public static String LABEL_PUNCTUATION = "(),;:=\"`{}";
@@ -43,6 +50,22 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
     final public static String SPACE = " \f\n\r\t";
     final public static String ILLEGAL_CHARS = "\f\n\r\t()[]{}/\\,;:=*'\"`<>";
 
+    final public static int TT_EOF = StreamTokenizer.TT_EOF;
+    final public static int TT_EOL = StreamTokenizer.TT_EOL;
+    final public static int TT_NUMBER = StreamTokenizer.TT_NUMBER;
+    final public static int TT_WORD = StreamTokenizer.TT_WORD;
+
+    private static final byte CT_WHITESPACE = 1;
+    private static final byte CT_DIGIT = 2;
+    private static final byte CT_ALPHA = 4;
+    private static final byte CT_QUOTE = 8;
+    private static final byte CT_COMMENT = 16;
+
+    private static final int NEED_CHAR = Integer.MAX_VALUE;
+    private static final int SKIP_LF = Integer.MAX_VALUE - 1;
+
+    private static final ConcurrentHashMap<Syntax, byte[]> syntaxTables = new ConcurrentHashMap<>();
+
     private boolean parsenumbers = false;
 
     private boolean squareBracketsSurroundComments = true;
@@ -53,6 +76,11 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
     private String spaceChars = SPACE;
     private final Stack<String> spaceCharsStack = new Stack<>();
     private boolean eolsignificant = false;
+    private byte[] ctype;
+    private boolean ctypeIsCopy = false; // set, if ctype is a private copy that can be modified
+    private boolean lowerCaseMode = false;
+    private boolean slashStarComments = false;
+    private boolean slashSlashComments = false;
 
     public double nval = 0;
     public String sval = "";
@@ -60,25 +88,46 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
     private int line = 0;
 
     private boolean collectAllComments = false;
-    private boolean collectAllCommentsWithExclamationMark=false;
-    private String comment = null;
+    private boolean collectAllCommentsWithExclamationMark = false;
+    private StringBuilder comment = null;
     private boolean echoCommentsWithExclamationMark = true;
 
-    // we need these so that we can peek ahead as far as we like
-    private final LinkedList<Double> nvals = new LinkedList<>();
-    private final LinkedList<String> svals = new LinkedList<>();
-    private final LinkedList<Integer> ttypes = new LinkedList<>();
-    private final LinkedList<Integer> lines = new LinkedList<>();
+    // input
+    private final Reader r; // need a reference so that we can close, null if reading from a string
+    private char[] buffer;
+    private int bufferPos;
+    private int bufferEnd;
+    private int peekc = NEED_CHAR;
+    private int lineNumber = 1;
 
-    private final Reader r; // need a reference so that we can close
+    // text of the current word or quoted token
+    private char[] tokenChars = new char[64];
+    private int tokenLength;
 
+    // pushed back tokens, in a ring buffer, so that we can peek ahead as far as we like
+    private String[] pushedSvals = new String[16];
+    private double[] pushedNvals = new double[16];
+    private int[] pushedTtypes = new int[16];
+    private int[] pushedLines = new int[16];
+    private int pushedHead = 0;
+    private int pushedCount = 0;
 
     /**
      * Construct a new NexusBlock object for the specified reader
      */
     public NexusStreamTokenizer(Reader r) {
-        super(r);
         this.r = r;
+        buffer = new char[8192];
+        setSyntax();
+    }
+
+    /**
+     * Construct a new tokenizer for the given string
+     */
+    public NexusStreamTokenizer(String string) {
+        this.r = null;
+        buffer = string.toCharArray();
+        bufferEnd = buffer.length;
         setSyntax();
     }
 
@@ -88,88 +137,378 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
      * @return the type of the token
      */
     public int nextToken() throws java.io.IOException {
-        int tt;
-
-        if (ttypes.size() > 0) {
-            if (nvals.getFirst() == null) {
-                nval = 0;
-                nvals.removeFirst();
-            } else
-                nval = nvals.removeFirst();
-            sval = svals.removeFirst();
-            ttype = ttypes.removeFirst();
-            line = lines.removeFirst();
+        return nextToken(true);
+    }
+
+    /**
+     * Get the next token and returns its type.
+     *
+     * @param createString if false, sval is set to null for words and quoted tokens read from the input, and their text is only
+     *                     available via getTokenChars() and getTokenLength()
+     * @return the type of the token
+     */
+    protected int nextToken(boolean createString) throws java.io.IOException {
+        if (pushedCount > 0) {
+            sval = pushedSvals[pushedHead];
+            nval = pushedNvals[pushedHead];
+            ttype = pushedTtypes[pushedHead];
+            line = pushedLines[pushedHead];
+            pushedSvals[pushedHead] = null;
+            pushedHead = (pushedHead + 1) & (pushedSvals.length - 1);
+            pushedCount--;
+            if (!createString && sval != null)
+                setTokenChars(sval);
             return ttype;
-        } else {
-            tt = super.nextToken();
-            sval = super.sval;
-            nval = super.nval;
-            ttype = super.ttype;
-            line = super.lineno();
         }
+
+        var tt = scanToken(createString);
         // The following lines skip comments of the form enclosed by [ and ]
         // Comments enclosed by [! and ] are printed to standard err
         if (squareBracketsSurroundComments) {
-            while (tt == (int) '[') // start of comment
-            {
-                int cline = lineno();
-                boolean verbose = false;
-
-                setCommentSyntax();
-                tt = super.nextToken();
-                sval = super.sval;
-
-                var collecting = (collectAllComments || (collectAllCommentsWithExclamationMark && sval != null && sval.startsWith("!")));
-
-// Set the comment String
-                if (sval != null) {
-                    if (collecting) {
-                        if (comment == null || comment.isBlank())
-                            comment = sval.startsWith("!") ? sval.substring(1) : sval;
-                        else
-                            comment += "\n" + (sval.startsWith("!") ? sval.substring(1) : sval);
+            while (tt == (int) '[') { // start of comment
+                skipComment();
+                tt = scanToken(createString);
+            }
+        }
+        return tt;
+    }
+
+    /**
+     * reads the next character from the input
+     *
+     * @return character or -1, if at end of input
+     */
+    private int read() throws IOException {
+        if (bufferPos == bufferEnd) {
+            if (r == null)
+                return -1;
+            int count;
+            do {
+                count = r.read(buffer, 0, buffer.length);
+            } while (count == 0);
+            if (count < 0)
+                return -1;
+            bufferPos = 0;
+            bufferEnd = count;
+        }
+        return buffer[bufferPos++];
+    }
+
+    /**
+     * scans the next token from the input, following the rules of java.io.StreamTokenizer
+     */
+    private int scanToken(boolean createString) throws IOException {
+        final var ct = ctype;
+        sval = null;
+
+        var c = peekc;
+        if (c < 0)
+            c = NEED_CHAR;
+        if (c == SKIP_LF) {
+            c = read();
+            if (c < 0)
+                return setToken(TT_EOF);
+            if (c == '\n')
+                c = NEED_CHAR;
+        }
+        if (c == NEED_CHAR) {
+            c = read();
+            if (c < 0)
+                return setToken(TT_EOF);
+        }
+        ttype = c;
+        peekc = NEED_CHAR;
+
+        var type = c < 256 ? ct[c] : CT_ALPHA;
+        while ((type & CT_WHITESPACE) != 0) {
+            if (c == '\r') {
+                lineNumber++;
+                if (eolsignificant) {
+                    peekc = SKIP_LF;
+                    return setToken(TT_EOL);
+                }
+                c = read();
+                if (c == '\n')
+                    c = read();
+            } else {
+                if (c == '\n') {
+                    lineNumber++;
+                    if (eolsignificant)
+                        return setToken(TT_EOL);
+                }
+                c = read();
+            }
+            if (c < 0)
+                return setToken(TT_EOF);
+            type = c < 256 ? ct[c] : CT_ALPHA;
+        }
+
+        if ((type & CT_DIGIT) != 0) {
+            var negative = false;
+            if (c == '-') {
+                c = read();
+                if (c != '.' && (c < '0' || c > '9')) {
+                    peekc = c;
+                    return setToken('-');
+                }
+                negative = true;
+            }
+            var value = 0.0;
+            var decimalExponent = 0;
+            var seenDot = 0;
+            while (true) {
+                if (c == '.' && seenDot == 0)
+                    seenDot = 1;
+                else if ('0' <= c && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    decimalExponent += seenDot;
+                } else
+                    break;
+                c = read();
+            }
+            peekc = c;
+            if (decimalExponent != 0) {
+                var denominator = 10.0;
+                decimalExponent--;
+                while (decimalExponent > 0) {
+                    denominator *= 10;
+                    decimalExponent--;
+                }
+                value = value / denominator;
+            }
+            nval = negative ? -value : value;
+            return setToken(TT_NUMBER);
+        }
+
+        if ((type & CT_ALPHA) != 0) {
+            var length = 0;
+            var chars = tokenChars;
+            do {
+                if (length == chars.length)
+                    chars = growTokenChars();
+                chars[length++] = (char) c;
+                // fast path within the buffer
+                if (bufferPos < bufferEnd) {
+                    c = buffer[bufferPos++];
+                } else
+                    c = read();
+                type = c < 0 ? CT_WHITESPACE : c < 256 ? ct[c] : CT_ALPHA;
+            } while ((type & (CT_ALPHA | CT_DIGIT)) != 0);
+            peekc = c;
+            tokenLength = length;
+            if (lowerCaseMode) {
+                for (var i = 0; i < length; i++)
+                    chars[i] = Character.toLowerCase(chars[i]);
+            }
+            if (createString)
+                sval = new String(chars, 0, length);
+            return setToken(TT_WORD);
+        }
+
+        if ((type & CT_QUOTE) != 0) {
+            final var quote = c;
+            var length = 0;
+            var d = read();
+            while (d >= 0 && d != quote && d != '\n' && d != '\r') {
+                if (d == '\\') {
+                    c = read();
+                    var first = c; // to allow \377, but not \477
+                    if (c >= '0' && c <= '7') {
+                        c = c - '0';
+                        var c2 = read();
+                        if ('0' <= c2 && c2 <= '7') {
+                            c = (c << 3) + (c2 - '0');
+                            c2 = read();
+                            if ('0' <= c2 && c2 <= '7' && first <= '3') {
+                                c = (c << 3) + (c2 - '0');
+                                d = read();
+                            } else
+                                d = c2;
+                        } else
+                            d = c2;
+                    } else {
+                        switch (c) {
+                            case 'a' -> c = 0x7;
+                            case 'b' -> c = '\b';
+                            case 'f' -> c = 0xC;
+                            case 'n' -> c = '\n';
+                            case 'r' -> c = '\r';
+                            case 't' -> c = '\t';
+                            case 'v' -> c = 0xB;
+                        }
+                        d = read();
+                    }
+                } else {
+                    c = d;
+                    d = read();
+                }
+                if (length == tokenChars.length)
+                    growTokenChars();
+                tokenChars[length++] = (char) c;
+            }
+            peekc = (d == quote) ? NEED_CHAR : d;
+            tokenLength = length;
+            if (createString)
+                sval = new String(tokenChars, 0, length);
+            return setToken(quote);
+        }
+
+        if (c == '/' && (slashSlashComments || slashStarComments)) {
+            c = read();
+            if (c == '*' && slashStarComments) {
+                var previous = 0;
+                while ((c = read()) != '/' || previous != '*') {
+                    if (c == '\r') {
+                        lineNumber++;
+                        c = read();
+                        if (c == '\n')
+                            c = read();
+                    } else if (c == '\n') {
+                        lineNumber++;
+                        c = read();
                     }
+                    if (c < 0)
+                        return setToken(TT_EOF);
+                    previous = c;
                 }
-                nval = super.nval;
-                ttype = super.ttype;
-                line = super.lineno();
-                if (ttype == TT_WORD && sval.charAt(0) == '!') {
+                return scanToken(createString);
+            } else if (c == '/' && slashSlashComments) {
+                skipToEndOfLine();
+                return scanToken(createString);
+            } else if ((ct['/'] & CT_COMMENT) != 0) {
+                // '/' is also a comment character
+                peekc = c;
+                skipToEndOfLine();
+                return scanToken(createString);
+            } else {
+                peekc = c;
+                return setToken('/');
+            }
+        }
+
+        if ((type & CT_COMMENT) != 0) {
+            skipToEndOfLine();
+            return scanToken(createString);
+        }
+
+        return setToken(c);
+    }
+
+    /**
+     * skips characters up to the end of the current line. The end of line is not consumed
+     */
+    private void skipToEndOfLine() throws IOException {
+        var c = peekc;
+        if (c == NEED_CHAR || c < 0 || c == SKIP_LF)
+            c = read();
+        while (c != '\n' && c != '\r' && c >= 0)
+            c = read();
+        peekc = c;
+    }
+
+    private int setToken(int type) {
+        ttype = type;
+        line = lineNumber;
+        return type;
+    }
+
+    private char[] growTokenChars() {
+        final var chars = new char[2 * tokenChars.length];
+        System.arraycopy(tokenChars, 0, chars, 0, tokenChars.length);
+        tokenChars = chars;
+        return chars;
+    }
+
+    private void setTokenChars(String string) {
+        while (tokenChars.length < string.length())
+            growTokenChars();
+        string.getChars(0, string.length(), tokenChars, 0);
+        tokenLength = string.length();
+    }
+
+    /**
+     * skips a comment, the opening '[' has already been read. The comment consists of pieces, namely the lines of the comment
+     * without the characters 0 and 127-255, which are ignored. The pieces are added to the collected comments and, if the comment
+     * starts with '!', echoed to standard err
+     */
+    private void skipComment() throws IOException {
+        final var commentLine = line;
+        var verbose = false;
+        var collecting = false;
+        var first = true;
+
+        while (true) {
+            // scan the next piece of the comment
+            var c = peekc;
+            if (c < 0 || c == SKIP_LF)
+                c = NEED_CHAR;
+            if (c == NEED_CHAR)
+                c = read();
+            peekc = NEED_CHAR;
+            if (c < 0)
+                throw new IOException("Line " + commentLine + ": start of unterminated comment");
+
+            var isPiece = (c != '\n' && c != ']' && c != 0 && (c < 127 || c > 255));
+            if (isPiece) {
+                var length = 0;
+                do {
+                    if (length == tokenChars.length)
+                        growTokenChars();
+                    tokenChars[length++] = (char) c;
+                    c = read();
+                } while (c > 0 && c != '\n' && c != ']' && (c < 127 || c > 255));
+                peekc = c;
+                tokenLength = length;
+            } else if (c == '\n')
+                lineNumber++;
+            line = lineNumber;
+
+            if (first) {
+                first = false;
+                collecting = (collectAllComments || (collectAllCommentsWithExclamationMark && isPiece && tokenChars[0] == '!'));
+                if (isPiece && collecting) {
+                    if (comment == null)
+                        comment = new StringBuilder();
+                    else if (isBlank(comment))
+                        comment.setLength(0);
+                    else
+                        comment.append('\n');
+                    appendCommentPiece();
+                }
+                if (isPiece && tokenChars[0] == '!') {
                     verbose = true;
                     if (echoCommentsWithExclamationMark)
                         System.err.print("[");
                 }
-                while (tt != (int) ']') {
-                    if (tt == TT_EOF) {
-                        setSyntax();
-                        throw new java.io.IOException("Line " + cline + ": start of unterminated comment");
-                    }
-                    if (verbose && ttype == TT_WORD) {
-                        if (echoCommentsWithExclamationMark)
-                            System.err.println(sval);
-                    }
-                    tt = super.nextToken();
-                    sval = super.sval;
-                    if (sval != null && collecting) {
-                        if (comment == null)
-                            comment = (sval.startsWith("!") ? sval.substring(1) : sval);
-                        else
-                            comment += "\n" + (sval.startsWith("!") ? sval.substring(1) : sval);
-                    }
-                    nval = super.nval;
-                    ttype = super.ttype;
-                    line = super.lineno();
-                }
-                if (verbose && echoCommentsWithExclamationMark)
-                    System.err.println("]");
-                setSyntax();
-                tt = super.nextToken();
-                sval = super.sval;
-                nval = super.nval;
-                ttype = super.ttype;
-                line = super.lineno();
+            } else if (isPiece && collecting) {
+                if (comment == null)
+                    comment = new StringBuilder();
+                else
+                    comment.append('\n');
+                appendCommentPiece();
             }
+            if (c == ']' && !isPiece)
+                break;
+            if (verbose && isPiece && echoCommentsWithExclamationMark)
+                System.err.println(new String(tokenChars, 0, tokenLength));
         }
-        return tt;
+        if (verbose && echoCommentsWithExclamationMark)
+            System.err.println("]");
+    }
+
+    private void appendCommentPiece() {
+        if (tokenChars[0] == '!')
+            comment.append(tokenChars, 1, tokenLength - 1);
+        else
+            comment.append(tokenChars, 0, tokenLength);
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (var i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i)))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -178,19 +517,17 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
      * @return comments
      */
     public String popComments() {
-        String result = comment;
+        var result = (comment == null ? null : comment.toString());
         comment = null;
         return result;
     }
 
     /**
-     * Push the current token onto the token stream
+     * Push the current token onto the token stream. The text of a word or quoted token is taken from the token characters,
+     * as sval is not set, if the token was read with createString=false
      */
     public void pushBack() {
-        svals.add(0, sval);
-        nvals.add(0, nval);
-        ttypes.add(0, ttype);
-        lines.add(0, lineno());
+        pushBack(getTokenString(), nval, ttype, lineno());
     }
 
     /**
@@ -202,10 +539,14 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
      * @param line  the line number
      */
     public void pushBack(String sval, double nval, int ttype, int line) {
-        svals.add(0, sval);
-        nvals.add(0, nval);
-        ttypes.add(0, ttype);
-        lines.add(0, line);
+        if (pushedCount == pushedSvals.length)
+            growPushBack();
+        pushedHead = (pushedHead - 1) & (pushedSvals.length - 1);
+        pushedSvals[pushedHead] = sval;
+        pushedNvals[pushedHead] = nval;
+        pushedTtypes[pushedHead] = ttype;
+        pushedLines[pushedHead] = line;
+        pushedCount++;
     }
 
     /**
@@ -217,25 +558,238 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
      * @param lines  a collection of line numbers
      */
     public void pushBack(Collection<String> svals, Collection<Double> nvals, Collection<Integer> ttypes, Collection<Integer> lines) {
-        this.svals.addAll(0, svals);
-        this.nvals.addAll(0, nvals);
-        this.ttypes.addAll(0, ttypes);
-        this.lines.addAll(0, lines);
+        final var svalArray = svals.toArray(new String[0]);
+        final var nvalArray = nvals.toArray(new Double[0]);
+        final var ttypeArray = ttypes.toArray(new Integer[0]);
+        final var lineArray = lines.toArray(new Integer[0]);
+        for (var i = svalArray.length - 1; i >= 0; i--) {
+            pushBack(svalArray[i], nvalArray[i] == null ? 0 : nvalArray[i], ttypeArray[i], lineArray[i]);
+        }
+    }
+
+    private void growPushBack() {
+        final var capacity = 2 * pushedSvals.length;
+        final var svals = new String[capacity];
+        final var nvals = new double[capacity];
+        final var ttypes = new int[capacity];
+        final var lines = new int[capacity];
+        for (var i = 0; i < pushedCount; i++) {
+            var j = (pushedHead + i) & (pushedSvals.length - 1);
+            svals[i] = pushedSvals[j];
+            nvals[i] = pushedNvals[j];
+            ttypes[i] = pushedTtypes[j];
+            lines[i] = pushedLines[j];
+        }
+        pushedSvals = svals;
+        pushedNvals = nvals;
+        pushedTtypes = ttypes;
+        pushedLines = lines;
+        pushedHead = 0;
     }
 
     /**
-     * Peeks at the next token
+     * Peeks at the next token. Note that the current token is then the next token
      *
      * @return ttype of next token
      */
     public int peekNextToken() throws IOException {
         int tt = nextToken();
         pushBack();
-        pushBack(); //TODO: I don't understand whats going on here! - David.
-        nextToken();
         return tt;
     }
 
+    /**
+     * reads characters directly from the input, skipping white space and comments, for example the sequence of a taxon in a
+     * character matrix. Stops before a ';'
+     *
+     * @param target          array to fill
+     * @param offset          position of the first character in the array
+     * @param count           maximal number of characters to read
+     * @param stopAtEndOfLine if set, reads to the end of the current line, or of the next non-empty one, and throws an exception if
+     *                        it contains more than count characters
+     * @return number of characters read
+     */
+    protected int readCharacters(byte[] target, int offset, int count, boolean stopAtEndOfLine) throws IOException {
+        var n = 0;
+        while (pushedCount > 0) { // pushed back tokens come first
+            nextToken();
+            if (ttype == TT_EOL && stopAtEndOfLine && n > 0)
+                return n;
+            else if (ttype == ';' || ttype == TT_EOF) {
+                pushBack();
+                return n;
+            } else if (ttype == TT_WORD || ttype == '\'') {
+                if (n + sval.length() > count)
+                    throw new IOExceptionWithLineNumber("too many characters", lineno());
+                for (var i = 0; i < sval.length(); i++)
+                    target[offset + n++] = checkCharacter(sval.charAt(i));
+            } else if (ttype == TT_NUMBER)
+                throw new IOExceptionWithLineNumber("unexpected number", lineno());
+            else if (ttype != TT_EOL) {
+                if (n == count)
+                    throw new IOExceptionWithLineNumber("too many characters", lineno());
+                target[offset + n++] = checkCharacter((char) ttype);
+            }
+        }
+
+        final var ct = ctype;
+        while (true) {
+            var c = peekc;
+            if (c == SKIP_LF) {
+                c = read();
+                if (c == '\n')
+                    c = read();
+            } else if (c == NEED_CHAR || c < 0)
+                c = read();
+            peekc = NEED_CHAR;
+
+            if (c < 0)
+                break;
+            if (c == '\n' || c == '\r') {
+                lineNumber++;
+                if (c == '\r')
+                    peekc = SKIP_LF;
+                if (stopAtEndOfLine && n > 0) // empty lines are skipped
+                    break;
+            } else if (c < 256 && (ct[c] & CT_WHITESPACE) != 0) {
+                // skip
+            } else if (c == '[' && squareBracketsSurroundComments) {
+                line = lineNumber;
+                skipComment();
+            } else if (c == ';' || (n == count && !stopAtEndOfLine)) {
+                peekc = c;
+                break;
+            } else {
+                if (n == count)
+                    throw new IOExceptionWithLineNumber("too many characters", lineNumber);
+                target[offset + n++] = checkCharacter(c);
+            }
+        }
+        line = lineNumber;
+        return n;
+    }
+
+    private byte checkCharacter(int c) throws IOException {
+        if (c >= 128 || c == '(' || c == '{' || c == ')' || c == '}')
+            throw new IOExceptionWithLineNumber("unsupported character: '" + (char) c + "'", lineNumber);
+        return (byte) c;
+    }
+
+    /**
+     * gets the characters of the current word or quoted token. Only valid if the token was read with createString=false
+     */
+    protected char[] getTokenChars() {
+        return tokenChars;
+    }
+
+    /**
+     * gets the length of the current word or quoted token. Only valid if the token was read with createString=false
+     */
+    protected int getTokenLength() {
+        return tokenLength;
+    }
+
+    /**
+     * gets the current word or quoted token as a string, creating it, if necessary
+     */
+    protected String getTokenString() {
+        if (sval == null && (ttype == TT_WORD || (ttype >= 0 && ttype < ctype.length && (ctype[ttype] & CT_QUOTE) != 0)))
+            sval = new String(tokenChars, 0, tokenLength);
+        return sval;
+    }
+
+    /**
+     * parses a long, with the same result as Long.parseLong
+     */
+    public static long parseLong(char[] chars, int offset, int length) throws NumberFormatException {
+        if (length > 0 && length <= 19) {
+            var pos = offset;
+            var end = offset + length;
+            var negative = (chars[pos] == '-');
+            if (negative || chars[pos] == '+')
+                pos++;
+            if (pos < end && end - pos <= 18) {
+                var value = 0L;
+                while (pos < end) {
+                    var digit = chars[pos++] - '0';
+                    if (digit < 0 || digit > 9)
+                        return Long.parseLong(new String(chars, offset, length));
+                    value = 10 * value + digit;
+                }
+                return negative ? -value : value;
+            }
+        }
+        return Long.parseLong(new String(chars, offset, length));
+    }
+
+    /**
+     * parses an int, with the same result as Integer.parseInt
+     */
+    public static int parseInt(char[] chars, int offset, int length) throws NumberFormatException {
+        var value = parseLong(chars, offset, length);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new NumberFormatException("For input string: \"" + new String(chars, offset, length) + "\"");
+        return (int) value;
+    }
+
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+            1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * parses a double, with the same result as Double.parseDouble. Decimal numbers with at most 15 digits and a small exponent
+     * are parsed directly, as then a single multiplication or division is correctly rounded, all other input is passed to
+     * Double.parseDouble
+     */
+    public static double parseDouble(char[] chars, int offset, int length) throws NumberFormatException {
+        var pos = offset;
+        final var end = offset + length;
+        var negative = false;
+        if (pos < end && (chars[pos] == '-' || chars[pos] == '+'))
+            negative = (chars[pos++] == '-');
+        var mantissa = 0L;
+        var digits = 0;
+        var exponent = 0;
+        while (pos < end && chars[pos] >= '0' && chars[pos] <= '9') {
+            mantissa = 10 * mantissa + (chars[pos++] - '0');
+            digits++;
+        }
+        if (pos < end && chars[pos] == '.') {
+            pos++;
+            while (pos < end && chars[pos] >= '0' && chars[pos] <= '9') {
+                mantissa = 10 * mantissa + (chars[pos++] - '0');
+                digits++;
+                exponent--;
+            }
+        }
+        if (digits > 0 && digits <= 15 && pos < end && (chars[pos] == 'e' || chars[pos] == 'E')) {
+            pos++;
+            var negativeExponent = false;
+            if (pos < end && (chars[pos] == '-' || chars[pos] == '+'))
+                negativeExponent = (chars[pos++] == '-');
+            var exponentDigits = 0;
+            var value = 0;
+            while (pos < end && chars[pos] >= '0' && chars[pos] <= '9' && exponentDigits < 4) {
+                value = 10 * value + (chars[pos++] - '0');
+                exponentDigits++;
+            }
+            if (exponentDigits == 0)
+                pos = -1; // not a valid fast-path number
+            exponent += (negativeExponent ? -value : value);
+        }
+        if (pos == end && digits > 0 && digits <= 15) {
+            double value;
+            if (mantissa == 0)
+                value = 0;
+            else if (exponent >= 0 && exponent <= 22)
+                value = mantissa * POWERS_OF_TEN[exponent];
+            else if (exponent < 0 && exponent >= -22)
+                value = mantissa / POWERS_OF_TEN[-exponent];
+            else
+                return Double.parseDouble(new String(chars, offset, length));
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(chars, offset, length));
+    }
 
     /**
      * Set the current punctuation characters
@@ -334,48 +888,155 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
      * Reset the syntax using current settings
      */
     public void setSyntax() {
-        resetSyntax();
-        if (parsenumbers)
-            parseNumbers();
-        eolIsSignificant(eolsignificant);
-        lowerCaseMode(false);
-        wordChars(33, 126);
-
-        for (int i = 0; i < punctchars.length(); i++)
-            ordinaryChar(punctchars.charAt(i));
-        ordinaryChar('['); // always need this to identify comments
-        ordinaryChar(']'); // always need this to identify comments
-        for (int i = 0; i < spaceChars.length(); i++)
-            whitespaceChars(spaceChars.charAt(i), spaceChars.charAt(i));
-        quoteChar('\'');
+        ctype = syntaxTables.computeIfAbsent(new Syntax(punctchars, spaceChars, parsenumbers, true), NexusStreamTokenizer::computeTable);
+        ctypeIsCopy = false;
+        lowerCaseMode = false;
     }
 
     /**
      * sets the syntax without "'" as quote character.
      */
     public void setSyntaxNoQuote() {
-        resetSyntax();
-        if (parsenumbers)
-            parseNumbers();
-        eolIsSignificant(eolsignificant);
-        lowerCaseMode(false);
-        wordChars(33, 126);
-        for (int i = 0; i < punctchars.length(); i++)
-            ordinaryChar(punctchars.charAt(i));
-        for (int i = 0; i < spaceChars.length(); i++)
-            whitespaceChars(spaceChars.charAt(i), spaceChars.charAt(i));
+        ctype = syntaxTables.computeIfAbsent(new Syntax(punctchars, spaceChars, parsenumbers, false), NexusStreamTokenizer::computeTable);
+        ctypeIsCopy = false;
+        lowerCaseMode = false;
+    }
+
+    /**
+     * gets the syntax table for modification. The cached tables are shared, so the current table is copied first
+     */
+    private byte[] getModifiableSyntax() {
+        if (!ctypeIsCopy) {
+            ctype = ctype.clone();
+            ctypeIsCopy = true;
+        }
+        return ctype;
+    }
+
+    /**
+     * sets the type of all characters in the given range, as far as they are in the table
+     */
+    private void setCharacterType(int low, int high, byte type, boolean add) {
+        final var table = getModifiableSyntax();
+        for (var i = Math.max(low, 0); i <= Math.min(high, table.length - 1); i++)
+            table[i] = (byte) (add ? table[i] | type : type);
+    }
+
+    /**
+     * resets the syntax so that all characters are ordinary, as in java.io.StreamTokenizer. The syntax is restored by setSyntax()
+     */
+    public void resetSyntax() {
+        setCharacterType(0, 255, (byte) 0, false);
     }
 
     /**
-     * Sets the syntax so that all characters upto the end of the comment
-     * are returned as one token
+     * specifies that all characters in the range are word characters, as in java.io.StreamTokenizer
      */
-    void setCommentSyntax() {
-        resetSyntax();
-        wordChars(1, 126);
-        eolIsSignificant(true);
-        ordinaryChar(']');
-        whitespaceChars('\n', '\n');
+    public void wordChars(int low, int high) {
+        setCharacterType(low, high, CT_ALPHA, true);
+    }
+
+    /**
+     * specifies that all characters in the range are white space, as in java.io.StreamTokenizer
+     */
+    public void whitespaceChars(int low, int high) {
+        setCharacterType(low, high, CT_WHITESPACE, false);
+    }
+
+    /**
+     * specifies that all characters in the range are ordinary, as in java.io.StreamTokenizer
+     */
+    public void ordinaryChars(int low, int high) {
+        setCharacterType(low, high, (byte) 0, false);
+    }
+
+    /**
+     * specifies that the character is ordinary, as in java.io.StreamTokenizer
+     */
+    public void ordinaryChar(int ch) {
+        setCharacterType(ch, ch, (byte) 0, false);
+    }
+
+    /**
+     * specifies that the character starts a single-line comment, as in java.io.StreamTokenizer
+     */
+    public void commentChar(int ch) {
+        setCharacterType(ch, ch, CT_COMMENT, false);
+    }
+
+    /**
+     * specifies that the character delimits string constants, as in java.io.StreamTokenizer
+     */
+    public void quoteChar(int ch) {
+        setCharacterType(ch, ch, CT_QUOTE, false);
+    }
+
+    /**
+     * specifies that numbers are parsed, as in java.io.StreamTokenizer. Use setParseNumbers() to keep this when the syntax is reset
+     */
+    public void parseNumbers() {
+        setCharacterType('0', '9', CT_DIGIT, true);
+        setCharacterType('.', '.', CT_DIGIT, true);
+        setCharacterType('-', '-', CT_DIGIT, true);
+    }
+
+    /**
+     * determines whether ends of line are returned as tokens, as in java.io.StreamTokenizer. Does not change the syntax table
+     */
+    public void eolIsSignificant(boolean flag) {
+        eolsignificant = flag;
+    }
+
+    /**
+     * determines whether words are converted to lower case, as in java.io.StreamTokenizer. Is turned off by setSyntax()
+     */
+    public void lowerCaseMode(boolean flag) {
+        lowerCaseMode = flag;
+    }
+
+    /**
+     * determines whether C-style comments are skipped, as in java.io.StreamTokenizer
+     */
+    public void slashStarComments(boolean flag) {
+        slashStarComments = flag;
+    }
+
+    /**
+     * determines whether C++-style comments are skipped, as in java.io.StreamTokenizer
+     */
+    public void slashSlashComments(boolean flag) {
+        slashSlashComments = flag;
+    }
+
+    /**
+     * computes the character types for a syntax: all characters 33-126 are word characters, except for punctuation
+     * and space characters, and, if quoteAndBrackets is set, '[', ']' and "'". All other characters below 256 are ordinary
+     */
+    private static byte[] computeTable(Syntax syntax) {
+        final var table = new byte[256];
+        if (syntax.parseNumbers()) {
+            for (var i = '0'; i <= '9'; i++)
+                table[i] |= CT_DIGIT;
+            table['.'] |= CT_DIGIT;
+            table['-'] |= CT_DIGIT;
+        }
+        for (var i = 33; i <= 126; i++)
+            table[i] |= CT_ALPHA;
+        for (var i = 0; i < syntax.punctuation().length(); i++) {
+            if (syntax.punctuation().charAt(i) < 256)
+                table[syntax.punctuation().charAt(i)] = 0;
+        }
+        if (syntax.quoteAndBrackets()) {
+            table['['] = 0; // always need this to identify comments
+            table[']'] = 0;
+        }
+        for (var i = 0; i < syntax.space().length(); i++) {
+            if (syntax.space().charAt(i) < 256)
+                table[syntax.space().charAt(i)] = CT_WHITESPACE;
+        }
+        if (syntax.quoteAndBrackets())
+            table['\''] = CT_QUOTE;
+        return table;
     }
 
     /**
@@ -385,7 +1046,7 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
      */
     public String toString() {
         if (ttype == TT_WORD || ttype == (int) '\'')
-            return sval;
+            return getTokenString();
         else if (ttype == TT_NUMBER)
             return String.valueOf(nval);
         else
@@ -466,7 +1127,11 @@ public class NexusStreamTokenizer extends StreamTokenizer implements Closeable {
 
     @Override
     public void close() throws IOException {
-        r.close();
+        if (r != null)
+            r.close();
+    }
+
+    private record Syntax(String punctuation, String space, boolean parseNumbers, boolean quoteAndBrackets) {
     }
 }
 